@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
+
+/**
+ * Creates the keys, request bodies and ehts (external headers to sign) maps used by the benchmarks.
+ */
+public final class PopBenchmarkData {
+
+    /**
+     * The password of the encrypted private key PEM string.
+     */
+    public static final String PRIVATE_KEY_PASSWORD = "benchmark";
+
+    private static final String LINE_SEPARATOR = "\n";
+
+    /**
+     * Constructs the PopBenchmarkData, the static methods should be used.
+     */
+    private PopBenchmarkData() {
+    }
+
+    /**
+     * Creates a new 2048 bit RSA key pair.
+     * 
+     * @return The RSA key pair
+     * @throws NoSuchAlgorithmException If the RSA algorithm is not available
+     */
+    public static KeyPair createRsaKeyPair() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    /**
+     * Creates a new key pair for the specified signing algorithm: a 2048 bit RSA key pair for RS256 and PS256, a P-256 EC key pair for
+     * ES256 and an Ed25519 key pair for EdDSA.
+     * 
+     * @param signingAlgorithm The signing algorithm
+     * @return The key pair
+     * @throws GeneralSecurityException If the key pair cannot be created
+     */
+    public static KeyPair createKeyPair(PopSigningAlgorithm signingAlgorithm) throws GeneralSecurityException {
+        switch (signingAlgorithm) {
+        case ES256:
+            KeyPairGenerator ecKeyPairGenerator = KeyPairGenerator.getInstance("EC");
+            ecKeyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+            return ecKeyPairGenerator.generateKeyPair();
+        case EdDSA:
+            return KeyPairGenerator.getInstance("Ed25519", new BouncyCastleProvider()).generateKeyPair();
+        default:
+            return createRsaKeyPair();
+        }
+    }
+
+    /**
+     * Returns the PKCS#8 PEM string of the private key of the specified key pair.
+     * 
+     * @param rsaKeyPair The RSA key pair
+     * @return The private key PEM string
+     */
+    public static String toPrivateKeyPemString(KeyPair rsaKeyPair) {
+        return toPemString("PRIVATE KEY", rsaKeyPair.getPrivate().getEncoded());
+    }
+
+    /**
+     * Returns the AES-256 encrypted PKCS#8 PEM string of the private key of the specified key pair, encrypted using
+     * {@link #PRIVATE_KEY_PASSWORD}.
+     * 
+     * @param rsaKeyPair The RSA key pair
+     * @return The encrypted private key PEM string
+     * @throws IOException If the PEM string cannot be written
+     * @throws OperatorCreationException If the encryptor cannot be created
+     */
+    public static String toEncryptedPrivateKeyPemString(KeyPair rsaKeyPair) throws IOException, OperatorCreationException {
+        StringWriter stringWriter = new StringWriter();
+        try (JcaPEMWriter pemWriter = new JcaPEMWriter(stringWriter)) {
+            pemWriter.writeObject(new JcaPKCS8Generator(rsaKeyPair.getPrivate(),
+                    new JceOpenSSLPKCS8EncryptorBuilder(PKCS8Generator.AES_256_CBC) //
+                            .setProvider(new BouncyCastleProvider()) //
+                            .setPasssword(PRIVATE_KEY_PASSWORD.toCharArray()) //
+                            .build())); //
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Returns the X.509 PEM string of the public key of the specified key pair.
+     * 
+     * @param rsaKeyPair The RSA key pair
+     * @return The public key PEM string
+     */
+    public static String toPublicKeyPemString(KeyPair rsaKeyPair) {
+        return toPemString("PUBLIC KEY", rsaKeyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Returns the JWK string of the public key of the specified key pair.
+     * 
+     * @param rsaKeyPair The RSA key pair
+     * @return The public key JWK string
+     */
+    public static String toPublicKeyJwkString(KeyPair rsaKeyPair) {
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) rsaKeyPair.getPublic();
+        return "{\"kty\": \"RSA\", \"kid\": \"benchmark\", \"use\": \"sig\", \"alg\": \"RS256\", \"n\": \""
+                + toBase64UrlUnsigned(rsaPublicKey.getModulus()) + "\", \"e\": \""
+                + toBase64UrlUnsigned(rsaPublicKey.getPublicExponent()) + "\"}";
+    }
+
+    /**
+     * Creates the JSON like request body of the specified size.
+     * 
+     * @param size The size of the request body in bytes
+     * @return The request body
+     */
+    public static String createRequestBody(int size) {
+        StringBuilder requestBodyBuilder = new StringBuilder(size);
+        while (requestBodyBuilder.length() < size) {
+            requestBodyBuilder.append("{\"orderId\": 100, \"product\": \"Mobile Phone\"}");
+        }
+        requestBodyBuilder.setLength(size);
+        return requestBodyBuilder.toString();
+    }
+
+    /**
+     * Creates the ehts key value map of an HTTP request having the specified number of ehts keys and body, the "uri" and
+     * "http-method" ehts keys come first and the remaining ehts keys are request headers.
+     * 
+     * @param ehtsCount The number of ehts keys, not counting the body
+     * @param requestBody The request body or empty if the body should not be signed
+     * @return The ehts key value map
+     */
+    public static LinkedHashMap<String, String> createEhtsKeyValueMap(int ehtsCount, String requestBody) {
+        LinkedHashMap<String, String> ehtsKeyValueMap = new LinkedHashMap<>();
+        ehtsKeyValueMap.put("uri", "/commerce/v1/orders?account-number=0000000000");
+        if (ehtsCount > 1) {
+            ehtsKeyValueMap.put("http-method", "POST");
+        }
+        for (int i = 2; i < ehtsCount; i++) {
+            ehtsKeyValueMap.put("X-Header-" + i, "Bearer UtKV75JJbVAewOrkHMXhLbiQ11SS-" + i);
+        }
+        if (!requestBody.isEmpty()) {
+            ehtsKeyValueMap.put("body", requestBody);
+        }
+        return ehtsKeyValueMap;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the PEM string of the specified type and key bytes.
+     * 
+     * @param type The PEM type, e.g. "PRIVATE KEY"
+     * @param keyBytes The encoded key bytes
+     * @return The PEM string
+     */
+    private static String toPemString(String type, byte[] keyBytes) {
+        return "-----BEGIN " + type + "-----" + LINE_SEPARATOR
+                + Base64.getMimeEncoder(64, LINE_SEPARATOR.getBytes(StandardCharsets.US_ASCII)).encodeToString(keyBytes)
+                + LINE_SEPARATOR + "-----END " + type + "-----" + LINE_SEPARATOR;
+    }
+
+    /**
+     * Returns the base64url encoded unsigned big-endian bytes of the specified value, as used by the JWK "n" and "e" values.
+     * 
+     * @param value The value
+     * @return The base64url encoded value
+     */
+    private static String toBase64UrlUnsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
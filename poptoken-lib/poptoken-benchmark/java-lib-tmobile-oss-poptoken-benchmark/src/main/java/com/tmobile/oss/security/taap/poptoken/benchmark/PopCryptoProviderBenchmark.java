@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.RSAPublicKey;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+import com.tmobile.oss.security.taap.poptoken.validator.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
+
+/**
+ * Measures the SHA-256 digest, RS256 signing, RS256 verification and public key parsing using the JCA providers selected by the
+ * PopCryptoConfig, so the fastest provider of the deployment can be chosen for each operation.
+ * <p>
+ * The provider parameter is "default" for the registered providers in their preference order, "jdk" for the SUN digest and the
+ * SunRsaSign signature and key factory, "BC" for BouncyCastle or the name of any other registered provider, e.g. an accelerated native
+ * provider, which is then used for all the operations, e.g. <code>-p provider=default,jdk,SunPKCS11-NSS</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopCryptoProviderBenchmark {
+
+    @Param({ "default", "jdk", "BC" })
+    private String provider;
+
+    private PopCryptoConfig cryptoConfig;
+    private KeyPair rsaKeyPair;
+    private PopTokenSigner popTokenSigner;
+    private PopTokenVerifier popTokenVerifier;
+    private LinkedHashMap<String, PopEhtsValue> ehtsValueMap;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private byte[] requestBodyBytes;
+    private String publicKeyPemString;
+    private String popToken;
+
+    /**
+     * Creates the crypto configs of the benchmarked providers, the key pair, the PoP token signer and verifier using the crypto
+     * configs and the ehts values of a typical request having a 1K body.
+     * 
+     * @throws Exception If the key pair cannot be created or the provider is not registered
+     */
+    @Setup
+    public void setUp() throws Exception {
+        cryptoConfig = createCryptoConfig(provider);
+        com.tmobile.oss.security.taap.poptoken.builder.PopCryptoConfig builderCryptoConfig = //
+                com.tmobile.oss.security.taap.poptoken.builder.PopCryptoConfig.DEFAULT //
+                        .withDigestProvider(cryptoConfig.getDigestProvider()) //
+                        .withSignatureProvider(cryptoConfig.getSignatureProvider()) //
+                        .withKeyFactoryProvider(cryptoConfig.getKeyFactoryProvider()); //
+
+        rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        popTokenSigner = PopTokenSigner.newInstance(rsaKeyPair.getPrivate(), PopSigningAlgorithm.RS256) //
+                .withCryptoConfig(builderCryptoConfig); //
+        PopCryptoConfig validatorCryptoConfig = cryptoConfig;
+        popTokenVerifier = new PopTokenValidator() {
+            @Override
+            protected PopCryptoConfig getCryptoConfig() {
+                return validatorCryptoConfig;
+            }
+        }.newPopTokenVerifier((RSAPublicKey) rsaKeyPair.getPublic());
+
+        String requestBody = PopBenchmarkData.createRequestBody(1024);
+        requestBodyBytes = requestBody.getBytes(StandardCharsets.UTF_8);
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(10, requestBody);
+        ehtsValueMap = new LinkedHashMap<>();
+        ehtsKeyValueMap.forEach((ehtsKey, ehtsValue) -> ehtsValueMap.put(ehtsKey, PopEhtsValue.of(ehtsValue)));
+        publicKeyPemString = PopBenchmarkData.toPublicKeyPemString(rsaKeyPair);
+    }
+
+    /**
+     * Signs the PoP token before every iteration, so the PoP token does not expire during the benchmark.
+     * 
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Setup(Level.Iteration)
+    public void setUpPopToken() throws PopTokenBuilderException {
+        popToken = popTokenSigner.signEhtsValues(ehtsValueMap);
+    }
+
+    /**
+     * Calculates the SHA-256 digest of the 1K request body using the digest provider.
+     * 
+     * @return The digest
+     * @throws GeneralSecurityException If the digest cannot be created
+     */
+    @Benchmark
+    public byte[] digestSha256() throws GeneralSecurityException {
+        MessageDigest messageDigest = cryptoConfig.newSha256Digest();
+        return messageDigest.digest(requestBodyBytes);
+    }
+
+    /**
+     * Signs the PoP token using the digest and signature providers.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Benchmark
+    public String signPopToken() throws PopTokenBuilderException {
+        return popTokenSigner.signEhtsValues(ehtsValueMap);
+    }
+
+    /**
+     * Verifies the PoP token using the digest and signature providers.
+     * 
+     * @throws PopTokenValidatorException If the PoP token is invalid
+     */
+    @Benchmark
+    public void verifyPopToken() throws PopTokenValidatorException {
+        popTokenVerifier.verify(popToken, ehtsKeyValueMap);
+    }
+
+    /**
+     * Parses the public key PEM string using the key factory provider.
+     * 
+     * @return The public key
+     * @throws PopPublicKeyParseException If the public key PEM string cannot be parsed
+     */
+    @Benchmark
+    public PublicKey parsePublicKeyPem() throws PopPublicKeyParseException {
+        return PopTokenValidatorUtils.keyPemStringToRsaPublicKey(publicKeyPemString, cryptoConfig);
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Creates the crypto config of the specified provider parameter.
+     * 
+     * @param provider The provider parameter, "default", "jdk", "BC" or the name of a registered provider
+     * @return The crypto config
+     * @throws IllegalArgumentException If the provider is not registered
+     */
+    private static PopCryptoConfig createCryptoConfig(String provider) {
+        switch (provider) {
+        case "default":
+            return PopCryptoConfig.DEFAULT;
+        case "jdk":
+            return PopCryptoConfig.DEFAULT //
+                    .withDigestProvider(getRegisteredProvider("SUN")) //
+                    .withSignatureProvider(getRegisteredProvider("SunRsaSign")) //
+                    .withKeyFactoryProvider(getRegisteredProvider("SunRsaSign")); //
+        default:
+            Provider jcaProvider = BouncyCastleProvider.PROVIDER_NAME.equals(provider) && Security.getProvider(provider) == null
+                    ? new BouncyCastleProvider()
+                    : getRegisteredProvider(provider);
+            return PopCryptoConfig.DEFAULT //
+                    .withDigestProvider(jcaProvider) //
+                    .withSignatureProvider(jcaProvider) //
+                    .withKeyFactoryProvider(jcaProvider); //
+        }
+    }
+
+    /**
+     * Returns the registered provider of the specified name.
+     * 
+     * @param providerName The provider name
+     * @return The provider
+     * @throws IllegalArgumentException If the provider is not registered
+     */
+    private static Provider getRegisteredProvider(String providerName) {
+        Provider jcaProvider = Security.getProvider(providerName);
+        if (jcaProvider == null) {
+            throw new IllegalArgumentException("The provider " + providerName + " is not registered");
+        }
+        return jcaProvider;
+    }
+}
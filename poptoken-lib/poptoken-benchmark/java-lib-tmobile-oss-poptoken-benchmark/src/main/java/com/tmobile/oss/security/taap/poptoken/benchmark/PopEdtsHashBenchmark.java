@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+
+/**
+ * Measures the edts (external data to sign) hash of an HTTP request for the different body sizes, and signing the PoP token of the
+ * request, having the body as string and as byte array ehts (external headers to sign) value.
+ * <p>
+ * The hash benchmarks compare the concatenation of the ehts values into one string hashed at once, as done before the ehts values
+ * were hashed incrementally, with feeding the ehts values one by one into the message digest using
+ * {@link PopEhtsValue#updateDigest(MessageDigest)}. The sign benchmarks use the public PopTokenSigner API with ES256, whose signature
+ * costs a small fraction of the RSA signature, so the edts hash of the body is the difference to the score of the empty body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopEdtsHashBenchmark {
+
+    @Param({ "0", "1024", "10240", "102400", "1048576" })
+    private int bodySize;
+
+    private PopTokenSigner popTokenSigner;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private MessageDigest messageDigest;
+    private LinkedHashMap<String, PopEhtsValue> stringEhtsValueMap;
+    private LinkedHashMap<String, PopEhtsValue> byteArrayEhtsValueMap;
+
+    /**
+     * Creates the ES256 PoP token signer and the ehts values of the request having the body of the benchmarked size.
+     * 
+     * @throws Exception If the key pair cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair ecKeyPair = PopBenchmarkData.createKeyPair(PopSigningAlgorithm.ES256);
+        popTokenSigner = PopTokenSigner.newInstance(ecKeyPair.getPrivate(), PopSigningAlgorithm.ES256);
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(4, PopBenchmarkData.createRequestBody(bodySize));
+        messageDigest = DigestUtils.getSha256Digest();
+        stringEhtsValueMap = new LinkedHashMap<>();
+        byteArrayEhtsValueMap = new LinkedHashMap<>();
+        for (Entry<String, String> ehtsEntry : ehtsKeyValueMap.entrySet()) {
+            stringEhtsValueMap.put(ehtsEntry.getKey(), PopEhtsValue.of(ehtsEntry.getValue()));
+            byteArrayEhtsValueMap.put(ehtsEntry.getKey(), PopEhtsValue.of(ehtsEntry.getValue().getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Calculates the edts hash by concatenating the ehts values into one string and hashing its UTF-8 encoded bytes, as done before
+     * the ehts values were hashed incrementally.
+     * 
+     * @return The Base64URL encoded edts hash
+     */
+    @Benchmark
+    public String hashConcatenatedStringBody() {
+        StringBuilder stringToHashBuilder = new StringBuilder();
+        for (String ehtsValue : ehtsKeyValueMap.values()) {
+            stringToHashBuilder.append(ehtsValue);
+        }
+        return Base64.encodeBase64URLSafeString(DigestUtils.sha256(stringToHashBuilder.toString()));
+    }
+
+    /**
+     * Calculates the edts hash by feeding the string ehts values one by one into the message digest.
+     * 
+     * @return The Base64URL encoded edts hash
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    @Benchmark
+    public String hashStringBody() throws IOException {
+        return hashIncrementally(stringEhtsValueMap);
+    }
+
+    /**
+     * Calculates the edts hash by feeding the byte array ehts values one by one into the message digest.
+     * 
+     * @return The Base64URL encoded edts hash
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    @Benchmark
+    public String hashByteArrayBody() throws IOException {
+        return hashIncrementally(byteArrayEhtsValueMap);
+    }
+
+    /**
+     * Signs the PoP token having the body as string ehts value.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be signed
+     */
+    @Benchmark
+    public String signStringBody() throws PopTokenBuilderException {
+        return popTokenSigner.signEhtsValues(stringEhtsValueMap);
+    }
+
+    /**
+     * Signs the PoP token having the body as byte array ehts value.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be signed
+     */
+    @Benchmark
+    public String signByteArrayBody() throws PopTokenBuilderException {
+        return popTokenSigner.signEhtsValues(byteArrayEhtsValueMap);
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Calculates the edts hash by feeding the ehts values one by one into the message digest, which is reused like the PoP token
+     * signing reuses the message digest of the thread.
+     * 
+     * @param ehtsValueMap The ehts values
+     * @return The Base64URL encoded edts hash
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    private String hashIncrementally(LinkedHashMap<String, PopEhtsValue> ehtsValueMap) throws IOException {
+        messageDigest.reset();
+        for (PopEhtsValue ehtsValue : ehtsValueMap.values()) {
+            ehtsValue.updateDigest(messageDigest);
+        }
+        return Base64.encodeBase64URLSafeString(messageDigest.digest());
+    }
+}
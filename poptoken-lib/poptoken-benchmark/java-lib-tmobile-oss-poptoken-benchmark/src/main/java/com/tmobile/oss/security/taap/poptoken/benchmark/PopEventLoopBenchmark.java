@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenBuilder;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopValidationRequest;
+
+/**
+ * Measures the responsiveness of a single threaded event loop which validates the PoP tokens of its requests inline, i.e. calling
+ * <code>PopTokenValidator.validatePopTokenWithRsaPublicKey</code> on the event loop thread, and which offloads them using
+ * <code>PopTokenValidator.validateAsync</code>.
+ * <p>
+ * Before every operation the validations of 10 requests are queued on the event loop, and the operation is the latency of a task
+ * queued right after them, i.e. the time the other connections of the event loop wait. The validations are awaited after every
+ * operation, so the queued work does not pile up between the operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopEventLoopBenchmark {
+
+    private static final int VALIDATIONS_PER_OPERATION = 10;
+
+    @Param({ "inline", "offloaded" })
+    private String validationMode;
+
+    private RSAPrivateKey rsaPrivateKey;
+    private PopTokenValidator popTokenValidator;
+    private ExecutorService eventLoop;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private PopValidationRequest validationRequest;
+    private RSAPublicKey rsaPublicKey;
+    private CountDownLatch validationsLatch;
+    private final AtomicInteger invalidCount = new AtomicInteger();
+
+    /**
+     * Creates the key pair, the PopTokenValidator, the ehts key value map of a typical request and the event loop thread.
+     * 
+     * @throws Exception If the key pair cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        rsaPrivateKey = (RSAPrivateKey) rsaKeyPair.getPrivate();
+        rsaPublicKey = (RSAPublicKey) rsaKeyPair.getPublic();
+        popTokenValidator = PopTokenValidator.newInstance();
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(4, PopBenchmarkData.createRequestBody(1024));
+        eventLoop = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Builds the PoP token before every iteration, so the PoP token does not expire during the benchmark.
+     * 
+     * @throws Exception If the PoP token cannot be built
+     */
+    @Setup(Level.Iteration)
+    public void setUpPopToken() throws Exception {
+        String popToken = PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(ehtsKeyValueMap) //
+                .signWith(rsaPrivateKey) //
+                .build(); //
+        validationRequest = new PopValidationRequest(popToken, rsaPublicKey, ehtsKeyValueMap);
+    }
+
+    /**
+     * Queues the validations of the next operation on the event loop.
+     */
+    @Setup(Level.Invocation)
+    public void queueValidations() {
+        validationsLatch = new CountDownLatch(VALIDATIONS_PER_OPERATION);
+        for (int i = 0; i < VALIDATIONS_PER_OPERATION; i++) {
+            if ("inline".equals(validationMode)) {
+                eventLoop.execute(this::validateInline);
+            } else {
+                eventLoop.execute(() -> popTokenValidator.validateAsync(validationRequest).thenAccept(validationResult -> {
+                    if (!validationResult.isValid()) {
+                        invalidCount.incrementAndGet();
+                    }
+                    validationsLatch.countDown();
+                }));
+            }
+        }
+    }
+
+    /**
+     * Waits for the validations of the operation and checks that all the PoP tokens were valid.
+     * 
+     * @throws InterruptedException If the benchmark thread is interrupted
+     */
+    @TearDown(Level.Invocation)
+    public void awaitValidations() throws InterruptedException {
+        if (!validationsLatch.await(60, TimeUnit.SECONDS) || invalidCount.get() > 0) {
+            throw new IllegalStateException("The PoP token validations did not complete successfully");
+        }
+    }
+
+    /**
+     * Stops the event loop thread.
+     */
+    @TearDown
+    public void tearDown() {
+        eventLoop.shutdownNow();
+    }
+
+    /**
+     * Queues a task on the event loop and waits for it to run.
+     * 
+     * @return The time the task ran, in nanoseconds
+     * @throws Exception If the task cannot be run
+     */
+    @Benchmark
+    public long queueTaskOnEventLoop() throws Exception {
+        return eventLoop.submit(System::nanoTime).get();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Validates the PoP token on the calling thread, i.e. the event loop.
+     */
+    private void validateInline() {
+        try {
+            popTokenValidator.validatePopTokenWithRsaPublicKey(validationRequest.getPopToken(), validationRequest.getRsaPublicKey(),
+                    validationRequest.getEhtsKeyValueMap());
+        } catch (Exception ex) {
+            invalidCount.incrementAndGet();
+        }
+        validationsLatch.countDown();
+    }
+}
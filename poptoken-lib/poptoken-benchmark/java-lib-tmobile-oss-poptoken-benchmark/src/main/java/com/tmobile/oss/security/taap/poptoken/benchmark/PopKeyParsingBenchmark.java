@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.utils.PopTokenBuilderUtils;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
+
+/**
+ * Measures parsing the private keys used by the PoP token builder and the public keys used by the PoP token validator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopKeyParsingBenchmark {
+
+    private String privateKeyPemString;
+    private String encryptedPrivateKeyPemString;
+    private String publicKeyPemString;
+    private String publicKeyJwkString;
+
+    /**
+     * Creates the key PEM and JWK strings.
+     * 
+     * @throws Exception If the keys cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        privateKeyPemString = PopBenchmarkData.toPrivateKeyPemString(rsaKeyPair);
+        encryptedPrivateKeyPemString = PopBenchmarkData.toEncryptedPrivateKeyPemString(rsaKeyPair);
+        publicKeyPemString = PopBenchmarkData.toPublicKeyPemString(rsaKeyPair);
+        publicKeyJwkString = PopBenchmarkData.toPublicKeyJwkString(rsaKeyPair);
+    }
+
+    /**
+     * Parses the PKCS#8 private key PEM string.
+     * 
+     * @return The RSAPrivateKey
+     * @throws Exception If the private key cannot be parsed
+     */
+    @Benchmark
+    public RSAPrivateKey parsePrivateKeyPemString() throws Exception {
+        return PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(privateKeyPemString);
+    }
+
+    /**
+     * Decrypts and parses the encrypted PKCS#8 private key PEM string.
+     * 
+     * @return The RSAPrivateKey
+     * @throws Exception If the private key cannot be parsed
+     */
+    @Benchmark
+    public RSAPrivateKey parseEncryptedPrivateKeyPemString() throws Exception {
+        return PopTokenBuilderUtils.encryptedKeyPemStringToRsaPrivateKey(encryptedPrivateKeyPemString,
+                PopBenchmarkData.PRIVATE_KEY_PASSWORD);
+    }
+
+    /**
+     * Parses the public key PEM string.
+     * 
+     * @return The RSAPublicKey
+     * @throws Exception If the public key cannot be parsed
+     */
+    @Benchmark
+    public RSAPublicKey parsePublicKeyPemString() throws Exception {
+        return PopTokenValidatorUtils.keyPemStringToRsaPublicKey(publicKeyPemString);
+    }
+
+    /**
+     * Parses the public key JWK string.
+     * 
+     * @return The RSAPublicKey
+     * @throws Exception If the public key cannot be parsed
+     */
+    @Benchmark
+    public RSAPublicKey parsePublicKeyJwkString() throws Exception {
+        return PopTokenValidatorUtils.jwkStringToRsaPublicKey(publicKeyJwkString);
+    }
+}
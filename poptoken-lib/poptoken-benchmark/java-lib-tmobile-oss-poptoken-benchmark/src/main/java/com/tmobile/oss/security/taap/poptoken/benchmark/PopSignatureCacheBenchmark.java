@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+
+/**
+ * Measures signing and verifying the PoP tokens of the randomly chosen one of several keys, on the benchmark thread, which reuses the
+ * Signatures it keeps for the up to 8 most recently used keys, and on a new thread per PoP token, which creates and initializes the
+ * Signature every time as done on the virtual threads created per task. The new threads are virtual threads when running on Java 21
+ * or later and platform threads otherwise, and {@link #startNewThread()} measures the cost of starting and joining the new thread
+ * alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopSignatureCacheBenchmark {
+
+    @Param({ "RS256", "ES256" })
+    private PopSigningAlgorithm signingAlgorithm;
+
+    @Param({ "1", "8", "16" })
+    private int keyCount;
+
+    private final ThreadFactory threadFactory = newThreadFactory();
+    private PopTokenSigner[] popTokenSigners;
+    private PopTokenVerifier[] popTokenVerifiers;
+    private String[] popTokens;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+
+    /**
+     * Creates the key pairs and the PopTokenSigner and PopTokenVerifier of each key pair.
+     * 
+     * @throws Exception If the key pairs cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        popTokenSigners = new PopTokenSigner[keyCount];
+        popTokenVerifiers = new PopTokenVerifier[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            KeyPair keyPair = PopBenchmarkData.createKeyPair(signingAlgorithm);
+            popTokenSigners[i] = PopTokenSigner.newInstance(keyPair.getPrivate(), signingAlgorithm);
+            popTokenVerifiers[i] = PopTokenValidator.newInstance().newPopTokenVerifier(keyPair.getPublic());
+        }
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(10, "");
+    }
+
+    /**
+     * Builds the PoP token of each key before every iteration, so the PoP tokens do not expire during the benchmark.
+     * 
+     * @throws Exception If the PoP tokens cannot be built
+     */
+    @Setup(Level.Iteration)
+    public void setUpPopTokens() throws Exception {
+        popTokens = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            popTokens[i] = popTokenSigners[i].sign(ehtsKeyValueMap);
+        }
+    }
+
+    /**
+     * Signs the PoP token using a randomly chosen key on the benchmark thread.
+     * 
+     * @return The PoP token
+     * @throws Exception If the PoP token cannot be signed
+     */
+    @Benchmark
+    public String signOnSameThread() throws Exception {
+        return popTokenSigners[ThreadLocalRandom.current().nextInt(keyCount)].sign(ehtsKeyValueMap);
+    }
+
+    /**
+     * Signs the PoP token using a randomly chosen key on a new thread.
+     * 
+     * @return The PoP token
+     * @throws Exception If the PoP token cannot be signed
+     */
+    @Benchmark
+    public String signOnNewThread() throws Exception {
+        PopTokenSigner popTokenSigner = popTokenSigners[ThreadLocalRandom.current().nextInt(keyCount)];
+        return runOnNewThread(() -> popTokenSigner.sign(ehtsKeyValueMap));
+    }
+
+    /**
+     * Verifies the PoP token of a randomly chosen key on the benchmark thread.
+     * 
+     * @return The verified PoP token
+     * @throws Exception If the PoP token is invalid
+     */
+    @Benchmark
+    public String verifyOnSameThread() throws Exception {
+        int index = ThreadLocalRandom.current().nextInt(keyCount);
+        popTokenVerifiers[index].verify(popTokens[index], ehtsKeyValueMap);
+        return popTokens[index];
+    }
+
+    /**
+     * Verifies the PoP token of a randomly chosen key on a new thread.
+     * 
+     * @return The verified PoP token
+     * @throws Exception If the PoP token is invalid
+     */
+    @Benchmark
+    public String verifyOnNewThread() throws Exception {
+        int index = ThreadLocalRandom.current().nextInt(keyCount);
+        return runOnNewThread(() -> {
+            popTokenVerifiers[index].verify(popTokens[index], ehtsKeyValueMap);
+            return popTokens[index];
+        });
+    }
+
+    /**
+     * Starts a new thread running an empty task and waits for it to complete.
+     * 
+     * @return The result of the empty task
+     * @throws Exception If the new thread is interrupted
+     */
+    @Benchmark
+    public String startNewThread() throws Exception {
+        return runOnNewThread(() -> "");
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Runs the task on a new thread and waits for its result.
+     * 
+     * @param task The task
+     * @return The result of the task
+     * @throws Exception If the task fails or the benchmark thread is interrupted
+     */
+    private <T> T runOnNewThread(Callable<T> task) throws Exception {
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        threadFactory.newThread(futureTask).start();
+        return futureTask.get();
+    }
+
+    /**
+     * Returns the factory of the virtual threads when running on Java 21 or later, otherwise the factory of the platform threads.
+     * 
+     * @return The thread factory
+     */
+    private static ThreadFactory newThreadFactory() {
+        try {
+            Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(threadBuilder);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.defaultThreadFactory();
+        }
+    }
+}
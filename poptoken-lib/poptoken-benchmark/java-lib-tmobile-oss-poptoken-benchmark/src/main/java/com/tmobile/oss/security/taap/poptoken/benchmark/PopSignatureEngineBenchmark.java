@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+/**
+ * Measures the RS256 signing and verification of the PoP token header and payload using the java-jwt algorithm, which looks up and
+ * initializes a new Signature for every operation, and using one Signature per thread initialized once with the key, as done by the
+ * PopTokenSigner and PopTokenVerifier. The difference is the cost of the provider lookup and key initialization, which is small
+ * compared to the RSA private key operation but is a large part of the cheap public key operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopSignatureEngineBenchmark {
+
+    private Algorithm rsa256Algorithm;
+    private Signature signingSignature;
+    private Signature verifyingSignature;
+    private byte[] contentBytes;
+    private byte[] signatureBytes;
+    private DecodedJWT decodedJwt;
+
+    /**
+     * Creates the RSA key pair of the thread, the java-jwt algorithm, the Signatures initialized with the key pair and the signed
+     * header and payload of a typical PoP token.
+     * 
+     * @throws GeneralSecurityException If the Signatures cannot be created
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        rsa256Algorithm = Algorithm.RSA256((RSAPublicKey) rsaKeyPair.getPublic(), (RSAPrivateKey) rsaKeyPair.getPrivate());
+        signingSignature = Signature.getInstance("SHA256withRSA");
+        signingSignature.initSign(rsaKeyPair.getPrivate());
+        verifyingSignature = Signature.getInstance("SHA256withRSA");
+        verifyingSignature.initVerify(rsaKeyPair.getPublic());
+
+        String popToken = JWT.create() //
+                .withClaim("ehts", "uri;http-method;Content-Type;Authorization;body") //
+                .withClaim("edts", "EFO2lFu3HOaVO2CMWUn6PEYRrk6jdWhy9YQBuQMxfvk") //
+                .withClaim("v", "1") //
+                .withIssuedAt(new Date()) //
+                .withJWTId("benchmark") //
+                .sign(rsa256Algorithm); //
+        decodedJwt = JWT.decode(popToken);
+        contentBytes = (decodedJwt.getHeader() + "." + decodedJwt.getPayload()).getBytes(StandardCharsets.UTF_8);
+        signatureBytes = Base64.getUrlDecoder().decode(decodedJwt.getSignature());
+    }
+
+    /**
+     * Signs the header and payload using the java-jwt RS256 algorithm.
+     * 
+     * @return The signature bytes
+     */
+    @Benchmark
+    public byte[] signUsingJavaJwtAlgorithm() {
+        return rsa256Algorithm.sign(contentBytes);
+    }
+
+    /**
+     * Signs the header and payload using the Signature of the thread.
+     * 
+     * @return The signature bytes
+     * @throws GeneralSecurityException If the header and payload cannot be signed
+     */
+    @Benchmark
+    public byte[] signUsingThreadSignature() throws GeneralSecurityException {
+        signingSignature.update(contentBytes);
+        return signingSignature.sign();
+    }
+
+    /**
+     * Verifies the signature of the decoded PoP token using the java-jwt RS256 algorithm.
+     * 
+     * @return The decoded PoP token
+     */
+    @Benchmark
+    public DecodedJWT verifyUsingJavaJwtAlgorithm() {
+        rsa256Algorithm.verify(decodedJwt);
+        return decodedJwt;
+    }
+
+    /**
+     * Verifies the signature of the header and payload using the Signature of the thread.
+     * 
+     * @return true if the signature is valid
+     * @throws GeneralSecurityException If the signature cannot be verified
+     */
+    @Benchmark
+    public boolean verifyUsingThreadSignature() throws GeneralSecurityException {
+        verifyingSignature.update(contentBytes);
+        return verifyingSignature.verify(signatureBytes);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+
+/**
+ * Measures signing the PoP token using a shared PopTokenSigner for each of the signing algorithms, so the signing cost per core can be
+ * compared by running the benchmark with one thread per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopSigningAlgorithmBenchmark {
+
+    @Param({ "RS256", "PS256", "ES256", "EdDSA" })
+    private PopSigningAlgorithm signingAlgorithm;
+
+    private PopTokenSigner popTokenSigner;
+    private LinkedHashMap<String, PopEhtsValue> ehtsValueMap;
+
+    /**
+     * Creates the key pair of the benchmarked signing algorithm, the PoP token signer and the ehts value map of a typical request.
+     * 
+     * @throws Exception If the key pair cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        popTokenSigner = PopTokenSigner.newInstance(PopBenchmarkData.createKeyPair(signingAlgorithm).getPrivate(), signingAlgorithm);
+        ehtsValueMap = new LinkedHashMap<>();
+        PopBenchmarkData.createEhtsKeyValueMap(10, PopBenchmarkData.createRequestBody(1024))
+                .forEach((ehtsKey, ehtsValue) -> ehtsValueMap.put(ehtsKey, PopEhtsValue.of(ehtsValue)));
+    }
+
+    /**
+     * Signs the PoP token.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Benchmark
+    public String signPopToken() throws PopTokenBuilderException {
+        return popTokenSigner.signEhtsValues(ehtsValueMap);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the JSON results of the PoP token benchmarks with a stored baseline and reports the regressions.
+ * <p>
+ * The results are matched by the benchmark, mode, thread count and parameters. The primary score is compared, higher is better for
+ * the throughput mode and lower is better for the other modes, and so is the normalized allocation rate reported by the GC profiler,
+ * i.e. the bytes allocated per operation. A result is reported as a regression if it is worse than the baseline by more than the
+ * allowed percentage, 10% by default.
+ * <p>
+ * Usage: <code>PopTokenBenchmarkComparator &lt;baseline JSON file&gt; &lt;result JSON file&gt; [allowed regression percentage]</code>,
+ * the exit status is 1 if any regression has been found.
+ */
+public final class PopTokenBenchmarkComparator {
+
+    private static final double DEFAULT_ALLOWED_REGRESSION_PERCENTAGE = 10;
+    private static final String THROUGHPUT_MODE = "thrpt";
+    private static final String ALLOCATION_RATE_METRIC = "gc.alloc.rate.norm";
+
+    /**
+     * Constructs the PopTokenBenchmarkComparator, the {@link #main(String[])} method should be used.
+     */
+    private PopTokenBenchmarkComparator() {
+    }
+
+    /**
+     * Compares the benchmark results with the baseline and exits with the status 1 if any regression has been found.
+     * 
+     * @param args The baseline JSON file, the result JSON file and optionally the allowed regression percentage
+     * @throws IOException If the JSON files cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PopTokenBenchmarkComparator <baseline JSON file> <result JSON file> "
+                    + "[allowed regression percentage]");
+            System.exit(2);
+        }
+        double allowedRegressionPercentage = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_ALLOWED_REGRESSION_PERCENTAGE;
+        int regressionCount = compare(readResults(new File(args[0])), readResults(new File(args[1])), allowedRegressionPercentage);
+        System.out.println(regressionCount + " regression(s) found");
+        System.exit(regressionCount > 0 ? 1 : 0);
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Compares the results with the baseline results and prints the differences.
+     * 
+     * @param baselineResults The baseline results by their key
+     * @param results The results by their key
+     * @param allowedRegressionPercentage The allowed regression percentage
+     * @return The number of regressions
+     */
+    private static int compare(Map<String, JsonNode> baselineResults, Map<String, JsonNode> results,
+            double allowedRegressionPercentage) {
+        int regressionCount = 0;
+        for (Entry<String, JsonNode> resultEntry : results.entrySet()) {
+            JsonNode baselineResult = baselineResults.get(resultEntry.getKey());
+            if (baselineResult == null) {
+                System.out.println("NEW         " + resultEntry.getKey());
+                continue;
+            }
+            JsonNode result = resultEntry.getValue();
+            boolean higherIsBetter = THROUGHPUT_MODE.equals(result.path("mode").asText());
+            if (compareScore(resultEntry.getKey(), baselineResult.path("primaryMetric"), result.path("primaryMetric"),
+                    higherIsBetter, allowedRegressionPercentage)) {
+                regressionCount++;
+            }
+            JsonNode baselineAllocationRate = findAllocationRate(baselineResult);
+            JsonNode allocationRate = findAllocationRate(result);
+            if (baselineAllocationRate != null && allocationRate != null && compareScore(
+                    resultEntry.getKey() + " " + ALLOCATION_RATE_METRIC, baselineAllocationRate, allocationRate, false,
+                    allowedRegressionPercentage)) {
+                regressionCount++;
+            }
+        }
+        for (String baselineKey : baselineResults.keySet()) {
+            if (!results.containsKey(baselineKey)) {
+                System.out.println("MISSING     " + baselineKey);
+            }
+        }
+        return regressionCount;
+    }
+
+    /**
+     * Compares the score of a metric with its baseline score and prints the difference.
+     * 
+     * @param name The name of the compared result
+     * @param baselineMetric The baseline metric
+     * @param metric The metric
+     * @param higherIsBetter true if the higher score is better
+     * @param allowedRegressionPercentage The allowed regression percentage
+     * @return true if the metric has regressed
+     */
+    private static boolean compareScore(String name, JsonNode baselineMetric, JsonNode metric, boolean higherIsBetter,
+            double allowedRegressionPercentage) {
+        double baselineScore = baselineMetric.path("score").asDouble();
+        double score = metric.path("score").asDouble();
+        double changePercentage = baselineScore != 0 ? (score - baselineScore) / baselineScore * 100 : 0;
+        double regressionPercentage = higherIsBetter ? -changePercentage : changePercentage;
+        boolean regressed = regressionPercentage > allowedRegressionPercentage;
+        System.out.println(String.format("%-11s %s: %.3f -> %.3f %s (%+.1f%%)", regressed ? "REGRESSION" : "OK", name,
+                baselineScore, score, metric.path("scoreUnit").asText(), changePercentage));
+        return regressed;
+    }
+
+    /**
+     * Returns the normalized allocation rate metric of the specified result.
+     * 
+     * @param result The result
+     * @return The allocation rate metric or null if the result has been measured without the GC profiler
+     */
+    private static JsonNode findAllocationRate(JsonNode result) {
+        Iterator<Entry<String, JsonNode>> secondaryMetrics = result.path("secondaryMetrics").fields();
+        while (secondaryMetrics.hasNext()) {
+            Entry<String, JsonNode> secondaryMetric = secondaryMetrics.next();
+            // older JMH versions prefix the profiler metric names with a middle dot
+            if (secondaryMetric.getKey().endsWith(ALLOCATION_RATE_METRIC)) {
+                return secondaryMetric.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the JMH JSON results and maps them by their key, i.e. the benchmark, mode, thread count and parameters.
+     * 
+     * @param resultFile The JSON result file
+     * @return The results by their key
+     * @throws IOException If the JSON file cannot be read
+     */
+    private static Map<String, JsonNode> readResults(File resultFile) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(resultFile)) {
+            StringBuilder keyBuilder = new StringBuilder() //
+                    .append(result.path("benchmark").asText()) //
+                    .append(' ').append(result.path("mode").asText()) //
+                    .append(" threads=").append(result.path("threads").asInt()); //
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            params.forEach((name, value) -> keyBuilder.append(' ').append(name).append('=').append(value));
+            results.put(keyBuilder.toString(), result);
+        }
+        return results;
+    }
+}
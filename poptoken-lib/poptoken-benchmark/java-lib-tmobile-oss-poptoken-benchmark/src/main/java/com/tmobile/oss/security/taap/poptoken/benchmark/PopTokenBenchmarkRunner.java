@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the PoP token benchmarks at each of the configured thread counts with the GC profiler enabled and writes the results of all the
+ * runs into one JSON file, which can be compared with a stored baseline using {@link PopTokenBenchmarkComparator}.
+ * <p>
+ * The arguments are the JMH command line options, e.g. a benchmark name regular expression or <code>-f 2</code>. The thread counts are
+ * set by the <code>poptoken.benchmark.threads</code> system property, a comma separated list defaulting to "1,4,16,64" so the scaling
+ * of the builder is measured up to 64 threads, and the result file by the <code>poptoken.benchmark.result</code> system property,
+ * defaulting to "jmh-result.json".
+ */
+public final class PopTokenBenchmarkRunner {
+
+    private static final String THREAD_COUNTS_PROPERTY = "poptoken.benchmark.threads";
+    private static final String RESULT_FILE_PROPERTY = "poptoken.benchmark.result";
+    private static final String DEFAULT_THREAD_COUNTS = "1,4,16,64";
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    /**
+     * Constructs the PopTokenBenchmarkRunner, the {@link #main(String[])} method should be used.
+     */
+    private PopTokenBenchmarkRunner() {
+    }
+
+    /**
+     * Runs the benchmarks and writes the JSON results.
+     * 
+     * @param args The JMH command line options
+     * @throws Exception If the benchmarks cannot be run or the results cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        List<RunResult> runResults = new ArrayList<>();
+        for (String threadCount : System.getProperty(THREAD_COUNTS_PROPERTY, DEFAULT_THREAD_COUNTS).split(",")) {
+            Options options = new OptionsBuilder() //
+                    .parent(commandLineOptions) //
+                    .threads(Integer.parseInt(threadCount.trim())) //
+                    .addProfiler(GCProfiler.class) //
+                    .shouldFailOnError(true) //
+                    .build(); //
+            runResults.addAll(new Runner(options).run());
+        }
+
+        File resultFile = new File(System.getProperty(RESULT_FILE_PROPERTY, DEFAULT_RESULT_FILE));
+        try (PrintStream resultStream = new PrintStream(new FileOutputStream(resultFile), false, StandardCharsets.UTF_8.name())) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, resultStream).writeOut(runResults);
+        }
+        System.out.println("The benchmark results have been written to " + resultFile.getAbsolutePath());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenBuilder;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+
+/**
+ * Measures building the PoP token using a pre-parsed RSAPrivateKey, using an encrypted private key PEM string decrypted through the
+ * private key cache and using a shared PopTokenSigner created from the private key PEM string, for the different numbers of ehts
+ * (external headers to sign) keys, up to <code>PopTokenBuilder.MAX_NUMBER_OF_EHTS</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopTokenBuildBenchmark {
+
+    @Param({ "1", "10", "50", "100" })
+    private int ehtsCount;
+
+    private RSAPrivateKey rsaPrivateKey;
+    private String encryptedPrivateKeyPemString;
+    private PopTokenSigner popTokenSigner;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+
+    /**
+     * Creates the private key, the encrypted private key PEM string, the PoP token signer and the ehts key value map having the
+     * benchmarked number of ehts keys.
+     * 
+     * @throws Exception If the private key cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        rsaPrivateKey = (RSAPrivateKey) rsaKeyPair.getPrivate();
+        encryptedPrivateKeyPemString = PopBenchmarkData.toEncryptedPrivateKeyPemString(rsaKeyPair);
+        popTokenSigner = PopTokenSigner.newInstance(PopBenchmarkData.toPrivateKeyPemString(rsaKeyPair));
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(ehtsCount, "");
+    }
+
+    /**
+     * Builds the PoP token.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Benchmark
+    public String buildPopToken() throws PopTokenBuilderException {
+        return PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(ehtsKeyValueMap) //
+                .signWith(rsaPrivateKey) //
+                .build(); //
+    }
+
+    /**
+     * Builds the PoP token using the encrypted private key PEM string, the private key is decrypted only by the first call.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Benchmark
+    public String buildPopTokenWithEncryptedPrivateKeyPemString() throws PopTokenBuilderException {
+        return PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(ehtsKeyValueMap) //
+                .signWith(encryptedPrivateKeyPemString, PopBenchmarkData.PRIVATE_KEY_PASSWORD) //
+                .build(); //
+    }
+
+    /**
+     * Builds the PoP token using the shared PoP token signer.
+     * 
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    @Benchmark
+    public String signPopToken() throws PopTokenBuilderException {
+        return popTokenSigner.sign(ehtsKeyValueMap);
+    }
+}
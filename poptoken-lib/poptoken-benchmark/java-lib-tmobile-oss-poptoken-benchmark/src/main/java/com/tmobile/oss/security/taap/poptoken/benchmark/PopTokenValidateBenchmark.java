@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenBuilder;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * Measures the full validation of the PoP token using the public key PEM string for the different body sizes, i.e. parsing the public
+ * key, verifying the signature and the claims and calculating the edts (external data to sign) hash, as done by the callers which do
+ * not reuse the PopTokenVerifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopTokenValidateBenchmark {
+
+    @Param({ "0", "1024", "10240", "102400", "1048576" })
+    private int bodySize;
+
+    private RSAPrivateKey rsaPrivateKey;
+    private String publicKeyPemString;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private String popToken;
+
+    /**
+     * Creates the key pair and the ehts key value map of the request having the body of the benchmarked size.
+     * 
+     * @throws Exception If the key pair cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        rsaPrivateKey = (RSAPrivateKey) rsaKeyPair.getPrivate();
+        publicKeyPemString = PopBenchmarkData.toPublicKeyPemString(rsaKeyPair);
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(4, PopBenchmarkData.createRequestBody(bodySize));
+    }
+
+    /**
+     * Builds the PoP token before every iteration, so the PoP token does not expire during the benchmark.
+     * 
+     * @throws Exception If the PoP token cannot be built
+     */
+    @Setup(Level.Iteration)
+    public void setUpPopToken() throws Exception {
+        popToken = PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(ehtsKeyValueMap) //
+                .signWith(rsaPrivateKey) //
+                .build(); //
+    }
+
+    /**
+     * Validates the PoP token using the public key PEM string.
+     * 
+     * @throws PopTokenValidatorException If the PoP token is invalid
+     */
+    @Benchmark
+    public void validatePopToken() throws PopTokenValidatorException {
+        PopTokenValidator.newInstance().validatePopTokenWithPublicKeyPemString(popToken, publicKeyPemString, ehtsKeyValueMap);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenBuilder;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * Measures verifying the PoP token using the reusable PopTokenVerifier for the different numbers of ehts (external headers to sign)
+ * keys, up to <code>PopTokenBuilder.MAX_NUMBER_OF_EHTS</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopTokenVerifyBenchmark {
+
+    @Param({ "1", "10", "50", "100" })
+    private int ehtsCount;
+
+    private RSAPrivateKey rsaPrivateKey;
+    private PopTokenVerifier popTokenVerifier;
+    private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private String popToken;
+
+    /**
+     * Creates the key pair, the PopTokenVerifier and the ehts key value map having the benchmarked number of ehts keys.
+     * 
+     * @throws Exception If the key pair cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair rsaKeyPair = PopBenchmarkData.createRsaKeyPair();
+        rsaPrivateKey = (RSAPrivateKey) rsaKeyPair.getPrivate();
+        popTokenVerifier = PopTokenValidator.newInstance().newPopTokenVerifier((RSAPublicKey) rsaKeyPair.getPublic());
+        ehtsKeyValueMap = PopBenchmarkData.createEhtsKeyValueMap(ehtsCount, "");
+    }
+
+    /**
+     * Builds the PoP token before every iteration, so the PoP token does not expire during the benchmark.
+     * 
+     * @throws Exception If the PoP token cannot be built
+     */
+    @Setup(Level.Iteration)
+    public void setUpPopToken() throws Exception {
+        popToken = PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(ehtsKeyValueMap) //
+                .signWith(rsaPrivateKey) //
+                .build(); //
+    }
+
+    /**
+     * Verifies the PoP token.
+     * 
+     * @throws PopTokenValidatorException If the PoP token is invalid
+     */
+    @Benchmark
+    public void verifyPopToken() throws PopTokenValidatorException {
+        popTokenVerifier.verify(popToken, ehtsKeyValueMap);
+    }
+}
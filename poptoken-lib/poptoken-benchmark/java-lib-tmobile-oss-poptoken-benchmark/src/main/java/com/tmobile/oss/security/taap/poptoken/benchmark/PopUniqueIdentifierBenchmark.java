@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopThreadLocalUniqueIdentifierGenerator;
+
+/**
+ * Measures generating the unique identifier, i.e. the jti claim, of the PoP token using <code>UUID.randomUUID()</code>, which draws
+ * from one shared SecureRandom, and using the default PopThreadLocalUniqueIdentifierGenerator, which does not share any state between
+ * the threads. The difference shows when the benchmark is run with many threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PopUniqueIdentifierBenchmark {
+
+    private final PopThreadLocalUniqueIdentifierGenerator uniqueIdentifierGenerator = new PopThreadLocalUniqueIdentifierGenerator();
+
+    /**
+     * Generates the random UUID string.
+     * 
+     * @return The unique identifier
+     */
+    @Benchmark
+    public String generateRandomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Generates the unique identifier using the thread local unique identifier generator.
+     * 
+     * @return The unique identifier
+     */
+    @Benchmark
+    public String generateThreadLocalUniqueIdentifier() {
+        return uniqueIdentifierGenerator.generateUniqueIdentifier();
+    }
+}
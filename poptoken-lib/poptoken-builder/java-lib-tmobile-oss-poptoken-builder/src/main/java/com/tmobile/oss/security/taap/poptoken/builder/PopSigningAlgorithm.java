@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * The algorithms used to sign the PoP tokens, the name of each algorithm is the "alg" header value of the signed PoP tokens.
+ * <p>
+ * RS256 is the default algorithm and is supported by all the PoP token validators. The PS256, ES256 and EdDSA algorithms should only
+ * be used when the PoP token validator accepts them for the public key of the client. The elliptic curve algorithms are considerably
+ * cheaper to sign than RS256 with a 2048 bit RSA key.
+ */
+public enum PopSigningAlgorithm {
+
+    /**
+     * RSASSA-PKCS1-v1_5 using SHA-256, signed using an RSA private key.
+     */
+    RS256("RSA", "SHA256withRSA") {
+        @Override
+        public boolean isKeySupported(PrivateKey privateKey) {
+            return privateKey instanceof RSAPrivateKey;
+        }
+    },
+
+    /**
+     * RSASSA-PSS using SHA-256 and MGF1 with SHA-256, signed using an RSA private key.
+     */
+    PS256("RSA", "RSASSA-PSS") {
+        @Override
+        public boolean isKeySupported(PrivateKey privateKey) {
+            return privateKey instanceof RSAPrivateKey;
+        }
+
+        @Override
+        Signature newSignature(Provider provider) throws GeneralSecurityException {
+            Signature signature = super.newSignature(provider);
+            signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+            return signature;
+        }
+    },
+
+    /**
+     * ECDSA using the P-256 curve and SHA-256, signed using an EC private key.
+     */
+    ES256("EC", "SHA256withECDSA") {
+        @Override
+        public boolean isKeySupported(PrivateKey privateKey) {
+            return privateKey instanceof ECPrivateKey && P_256_ORDER.equals(((ECPrivateKey) privateKey).getParams().getOrder());
+        }
+
+        @Override
+        byte[] toJoseSignature(byte[] signatureBytes) throws SignatureException {
+            return derToConcatenatedSignature(signatureBytes, 32);
+        }
+    },
+
+    /**
+     * EdDSA using the Ed25519 curve, signed using an Ed25519 private key. The Ed25519 signature is provided by BouncyCastle when the
+     * JVM does not support it.
+     */
+    EdDSA("Ed25519", "Ed25519") {
+        @Override
+        public boolean isKeySupported(PrivateKey privateKey) {
+            return "Ed25519".equals(privateKey.getAlgorithm()) || "EdDSA".equals(privateKey.getAlgorithm());
+        }
+
+        @Override
+        Signature newSignature(Provider provider) throws GeneralSecurityException {
+            try {
+                return super.newSignature(provider);
+            } catch (NoSuchAlgorithmException ex) {
+                if (provider != null) {
+                    throw ex;
+                }
+                return Signature.getInstance(getSignatureAlgorithm(), BouncyCastleProviderHolder.PROVIDER);
+            }
+        }
+    };
+
+    private static final BigInteger P_256_ORDER = new BigInteger(
+            "FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16);
+
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+
+    /**
+     * Constructs the PopSigningAlgorithm.
+     * 
+     * @param keyAlgorithm The JCA key algorithm of the private keys
+     * @param signatureAlgorithm The JCA signature algorithm
+     */
+    PopSigningAlgorithm(String keyAlgorithm, String signatureAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Returns the JCA key algorithm of the private keys, e.g. "RSA" or "EC", used to create the KeyFactory.
+     * 
+     * @return The JCA key algorithm
+     */
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Returns the JCA signature algorithm, e.g. "SHA256withRSA".
+     * 
+     * @return The JCA signature algorithm
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Returns true if the PoP tokens can be signed by this algorithm using the specified private key.
+     * 
+     * @param privateKey The private key
+     * @return true if the private key is supported
+     */
+    public abstract boolean isKeySupported(PrivateKey privateKey);
+
+    /**
+     * Creates the Signature for signing the PoP tokens.
+     * 
+     * @param provider The JCA provider of the Signature or null if the Signature should be looked up in the registered providers
+     * @return The Signature
+     * @throws GeneralSecurityException If the signature algorithm is not available
+     */
+    Signature newSignature(Provider provider) throws GeneralSecurityException {
+        return provider != null ? Signature.getInstance(signatureAlgorithm, provider) : Signature.getInstance(signatureAlgorithm);
+    }
+
+    /**
+     * Converts the bytes returned by the Signature to the JWS signature bytes.
+     * 
+     * @param signatureBytes The bytes returned by the Signature
+     * @return The JWS signature bytes
+     * @throws SignatureException If the signature bytes cannot be converted
+     */
+    byte[] toJoseSignature(byte[] signatureBytes) throws SignatureException {
+        return signatureBytes;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Converts the DER encoded ECDSA signature to the concatenated R and S values, each left padded to the specified length, as
+     * required by JWS.
+     * 
+     * @param derSignature The DER encoded ECDSA signature
+     * @param valueLength The length of the R and S values in bytes
+     * @return The concatenated R and S values
+     * @throws SignatureException If the DER encoded signature is invalid
+     */
+    private static byte[] derToConcatenatedSignature(byte[] derSignature, int valueLength) throws SignatureException {
+        if (derSignature.length < 8 || derSignature[0] != 0x30) {
+            throw new SignatureException("Invalid DER encoded ECDSA signature");
+        }
+        int offset = (derSignature[1] & 0x80) != 0 ? 3 : 2;
+        byte[] joseSignature = new byte[2 * valueLength];
+        offset = copyDerInteger(derSignature, offset, joseSignature, 0, valueLength);
+        copyDerInteger(derSignature, offset, joseSignature, valueLength, valueLength);
+        return joseSignature;
+    }
+
+    /**
+     * Copies the DER encoded unsigned integer to the target array, removing the leading zero bytes and left padding it to the
+     * specified length.
+     * 
+     * @param derSignature The DER encoded ECDSA signature
+     * @param offset The offset of the INTEGER tag
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @param valueLength The length of the value in bytes
+     * @return The offset after the DER encoded integer
+     * @throws SignatureException If the DER encoded integer is invalid
+     */
+    private static int copyDerInteger(byte[] derSignature, int offset, byte[] target, int targetOffset, int valueLength)
+            throws SignatureException {
+        if (offset + 2 > derSignature.length || derSignature[offset] != 0x02) {
+            throw new SignatureException("Invalid DER encoded ECDSA signature");
+        }
+        int length = derSignature[offset + 1] & 0xFF;
+        int start = offset + 2;
+        int end = start + length;
+        if (end > derSignature.length) {
+            throw new SignatureException("Invalid DER encoded ECDSA signature");
+        }
+        while (start < end && derSignature[start] == 0) {
+            start++;
+        }
+        if (end - start > valueLength) {
+            throw new SignatureException("Invalid DER encoded ECDSA signature");
+        }
+        System.arraycopy(derSignature, start, target, targetOffset + valueLength - (end - start), end - start);
+        return end;
+    }
+
+    /**
+     * Holds the BouncyCastle provider, which is created only when the JVM does not provide the Ed25519 signature.
+     */
+    private static final class BouncyCastleProviderHolder {
+
+        private static final Provider PROVIDER = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) != null
+                ? Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)
+                : new BouncyCastleProvider();
+    }
+}
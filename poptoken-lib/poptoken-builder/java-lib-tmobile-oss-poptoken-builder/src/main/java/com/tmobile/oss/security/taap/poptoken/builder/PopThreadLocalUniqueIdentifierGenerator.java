@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Generates the unique identifiers formatted as version 4 UUID strings without sharing any state between the threads.
+ * <p>
+ * <code>UUID.randomUUID()</code> draws 16 bytes from one shared SecureRandom for every PoP token, which makes the threads building the
+ * PoP tokens contend for its lock. Instead, each thread draws 128 random bits only once, the first time it generates a unique
+ * identifier, and then increments a counter: the upper 64 bits of the UUID are the random prefix of the thread and the lower 64 bits
+ * are the random start value of the thread plus the counter. The unique identifiers of one thread never repeat before 2^62 PoP
+ * tokens, and two threads can only generate the same unique identifier if their 60 random prefix bits collide. The UUID is formatted
+ * into a character buffer of the thread, so the only object created per unique identifier is the string itself.
+ * <p>
+ * PopThreadLocalUniqueIdentifierGenerator is thread-safe and does not block after the first unique identifier of each thread.
+ */
+public final class PopThreadLocalUniqueIdentifierGenerator implements PopUniqueIdentifierGenerator {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final long VERSION_MASK = 0xFFFFFFFFFFFF0FFFL;
+    private static final long VERSION_4 = 0x0000000000004000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_IETF = 0x8000000000000000L;
+    private static final int UUID_STRING_LENGTH = 36;
+
+    private final ThreadLocal<ThreadState> threadState;
+
+    /**
+     * Constructs the PopThreadLocalUniqueIdentifierGenerator, the random bits of each thread are drawn from a new SecureRandom.
+     */
+    public PopThreadLocalUniqueIdentifierGenerator() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Constructs the PopThreadLocalUniqueIdentifierGenerator drawing the random bits of each thread from the specified random.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to use the predictable random.
+     * 
+     * @param random The random used once per thread, it should be thread-safe
+     */
+    PopThreadLocalUniqueIdentifierGenerator(Random random) {
+        this.threadState = ThreadLocal.withInitial(() -> new ThreadState(random.nextLong(), random.nextLong()));
+    }
+
+    @Override
+    public String generateUniqueIdentifier() {
+        return threadState.get().nextUniqueIdentifier();
+    }
+
+    /**
+     * The random prefix, the counter and the character buffer of one thread.
+     */
+    private static final class ThreadState {
+
+        private final long mostSignificantBits;
+        private long leastSignificantBits;
+        private final char[] uuidChars = new char[UUID_STRING_LENGTH];
+
+        /**
+         * Constructs the ThreadState using the specified random bits.
+         * 
+         * @param randomPrefix The random upper 64 bits of the UUIDs
+         * @param randomStart The random start value of the lower 64 bits of the UUIDs
+         */
+        private ThreadState(long randomPrefix, long randomStart) {
+            this.mostSignificantBits = randomPrefix & VERSION_MASK | VERSION_4;
+            this.leastSignificantBits = randomStart;
+            uuidChars[8] = '-';
+            uuidChars[13] = '-';
+            uuidChars[18] = '-';
+            uuidChars[23] = '-';
+        }
+
+        /**
+         * Increments the counter and returns the UUID string.
+         * 
+         * @return The UUID string
+         */
+        private String nextUniqueIdentifier() {
+            long lowerBits = ++leastSignificantBits & VARIANT_MASK | VARIANT_IETF;
+            formatHex(mostSignificantBits >>> 32, 0, 8);
+            formatHex(mostSignificantBits >>> 16, 9, 4);
+            formatHex(mostSignificantBits, 14, 4);
+            formatHex(lowerBits >>> 48, 19, 4);
+            formatHex(lowerBits, 24, 12);
+            return new String(uuidChars);
+        }
+
+        /**
+         * Formats the lowest hex digits of the specified value into the character buffer.
+         * 
+         * @param value The value
+         * @param offset The offset of the first hex digit in the character buffer
+         * @param digitCount The number of hex digits
+         */
+        private void formatHex(long value, int offset, int digitCount) {
+            for (int i = offset + digitCount - 1; i >= offset; i--) {
+                uuidChars[i] = HEX_DIGITS[(int) value & 0xF];
+                value >>>= 4;
+            }
+        }
+    }
+}
@@ -16,39 +16,48 @@
 
 package com.tmobile.oss.security.taap.poptoken.builder;
 
+import java.security.PrivateKey;
+import java.security.Provider;
 import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopPrivateKeyParseException;
 import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+import com.tmobile.oss.security.taap.poptoken.builder.utils.PopPrivateKeyCache;
 import com.tmobile.oss.security.taap.poptoken.builder.utils.PopTokenBuilderUtils;
 
 /**
  * A builder class to build the PoP token.
  * 
- * PopTokenBuilder is not thread-safe so the instance of this class should not be shared between multiple threads.
+ * PopTokenBuilder is not thread-safe so the instance of this class should not be shared between multiple threads. The private key PEM
+ * string is parsed by every call of {@link #build()}, so the applications building many PoP tokens with the same private key should
+ * use {@link PopTokenSigner} instead, which parses the private key only once and can be shared between multiple threads.
  */
 public class PopTokenBuilder {
 
     protected static final int POP_TOKEN_VALIDITY_DURATION_IN_MILLIS = 2 * 60 * 1000;
     protected static final int MAX_NUMBER_OF_EHTS = 100;
+    protected static final String POP_TOKEN_VERSION = "1";
 
-    private RSAPrivateKey rsaPrivateKey;
+    private static final int PRIVATE_KEY_CACHE_MAX_SIZE = 10;
+    private static final long PRIVATE_KEY_CACHE_TTL_MINUTES = 60;
+
+    private static final PopPrivateKeyCache PRIVATE_KEY_CACHE = new PopPrivateKeyCache(PRIVATE_KEY_CACHE_MAX_SIZE,
+            PRIVATE_KEY_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+
+    static final PopUniqueIdentifierGenerator DEFAULT_UNIQUE_IDENTIFIER_GENERATOR = new PopThreadLocalUniqueIdentifierGenerator();
+
+    private PrivateKey privateKey;
+    private PopSigningAlgorithm signingAlgorithm = PopSigningAlgorithm.RS256;
     private String rsaPrivateKeyPemString;
     private String privateKeyPassword;
     private LinkedHashMap<String, String> ehtsKeyValueMap;
+    private LinkedHashMap<String, PopEhtsValue> ehtsValueMap;
 
     /**
      * Returns the new instance of PopTokenBuilder.
@@ -61,7 +70,8 @@ public class PopTokenBuilder {
 
     /**
      * Sets the ehtsKeyValueMap, this LinkedHashMap will be used to calculate the values of ehts (external headers to sign) and edts
-     * (hash of external data to sign).
+     * (hash of external data to sign). The map is read when the PoP token is built, so the entries put in the map after calling this
+     * method are also signed.
      * 
      * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys.
      *            <p>
@@ -81,6 +91,26 @@ public class PopTokenBuilder {
      */
     public PopTokenBuilder setEhtsKeyValueMap(LinkedHashMap<String, String> ehtsKeyValueMap) {
         this.ehtsKeyValueMap = ehtsKeyValueMap;
+        this.ehtsValueMap = null;
+        return this;
+    }
+
+    /**
+     * Sets the ehtsValueMap, this LinkedHashMap will be used to calculate the values of ehts (external headers to sign) and edts
+     * (hash of external data to sign).
+     * <p>
+     * This method should be used instead of {@link #setEhtsKeyValueMap(LinkedHashMap)} when the ehts values, usually the HTTP request
+     * body, are available as byte array, ByteBuffer or InputStream, as these ehts values are hashed without converting them to string.
+     * The map is read when the PoP token is built. An InputStream ehts value is read until the end while building the PoP token, so
+     * {@link #build()} throws PopTokenBuilderException if it is called again with the same InputStream ehts value.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys, the ehts key names should be
+     *            determined in the same way as described for {@link #setEhtsKeyValueMap(LinkedHashMap)}.
+     * @return The PopTokenBuilder
+     */
+    public PopTokenBuilder setEhtsValueMap(LinkedHashMap<String, PopEhtsValue> ehtsValueMap) {
+        this.ehtsValueMap = ehtsValueMap;
+        this.ehtsKeyValueMap = null;
         return this;
     }
 
@@ -116,7 +146,21 @@ public class PopTokenBuilder {
      * @return The PopTokenBuilder
      */
     public PopTokenBuilder signWith(RSAPrivateKey rsaPrivateKey) {
-        this.rsaPrivateKey = rsaPrivateKey;
+        return signWith(rsaPrivateKey, PopSigningAlgorithm.RS256);
+    }
+
+    /**
+     * Signs the PoP token using the specified PrivateKey and signing algorithm, e.g. an EC private key on the P-256 curve and ES256.
+     * The private keys can be parsed from the PEM strings using
+     * {@link PopTokenBuilderUtils#keyPemStringToPrivateKey(String, PopSigningAlgorithm)}.
+     * 
+     * @param privateKey The private key
+     * @param signingAlgorithm The signing algorithm, which should support the private key
+     * @return The PopTokenBuilder
+     */
+    public PopTokenBuilder signWith(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm) {
+        this.privateKey = privateKey;
+        this.signingAlgorithm = signingAlgorithm;
         return this;
     }
 
@@ -147,16 +191,67 @@ public class PopTokenBuilder {
      * @return The version
      */
     protected String getVersion() {
-        return "1";
+        return POP_TOKEN_VERSION;
     }
 
     /**
-     * Returns the unique identifier.
+     * Returns the unique identifier generated by the unique identifier generator.
      * 
      * @return The unique identifier
      */
     protected String getUniqueIdentifier() {
-        return UUID.randomUUID().toString();
+        return getUniqueIdentifierGenerator().generateUniqueIdentifier();
+    }
+
+    /**
+     * Returns the generator of the unique identifiers, i.e. the jti claims.
+     * <p>
+     * Note: This method can be overridden to modify the default unique identifier generator which is shared by all the PopTokenBuilder
+     * instances and is {@link PopThreadLocalUniqueIdentifierGenerator}.
+     * 
+     * @return The unique identifier generator
+     */
+    protected PopUniqueIdentifierGenerator getUniqueIdentifierGenerator() {
+        return DEFAULT_UNIQUE_IDENTIFIER_GENERATOR;
+    }
+
+    /**
+     * Returns the cache of the private keys decrypted from the encrypted private key PEM strings or parsed from the unencrypted
+     * private key PEM strings. Reusing the same private key instance for the same PEM string lets the PoP token signing reuse the
+     * Signature already initialized for the private key, when the caching is disabled every PoP token initializes a new Signature.
+     * <p>
+     * Note: This method can be overridden to modify the default cache which is shared by all the PopTokenBuilder instances and caches
+     * up to 10 private keys for 60 minutes, null can be returned to disable the caching.
+     * 
+     * @return The private key cache or null if the private keys should not be cached
+     */
+    protected PopPrivateKeyCache getPrivateKeyCache() {
+        return PRIVATE_KEY_CACHE;
+    }
+
+    /**
+     * Returns the JCA provider of the Signature used to sign the PoP token, it is used by the default {@link #getCryptoConfig()}.
+     * <p>
+     * Note: This method can be overridden to modify the default provider, which is null so the Signature is looked up in the
+     * registered providers.
+     * 
+     * @return The JCA provider of the Signature or null if the Signature should be looked up in the registered providers
+     */
+    protected Provider getSignatureProvider() {
+        return null;
+    }
+
+    /**
+     * Returns the JCA providers used to parse the private key PEM string, calculate the edts (external data to sign) digest and sign
+     * the PoP token.
+     * <p>
+     * Note: This method can be overridden to modify the default providers, which look up all the operations in the registered
+     * providers except the Signature, which uses the provider returned by {@link #getSignatureProvider()}.
+     * 
+     * @return The JCA providers
+     */
+    protected PopCryptoConfig getCryptoConfig() {
+        return PopCryptoConfig.DEFAULT.withSignatureProvider(getSignatureProvider());
     }
 
     /**
@@ -168,45 +263,35 @@ public class PopTokenBuilder {
     public String build() throws PopTokenBuilderException {
 
         try {
-            if (ehtsKeyValueMap == null || ehtsKeyValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap)) {
-                throw new PopTokenBuilderException(
-                        "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
-            }
-
-            if (ehtsKeyValueMap.size() > 100) {
-                throw new PopTokenBuilderException(
-                        "The ehtsKeyValueMap should not contain more than " + MAX_NUMBER_OF_EHTS + " entries");
-            }
+            LinkedHashMap<String, PopEhtsValue> ehtsValueMap = this.ehtsValueMap != null ? this.ehtsValueMap
+                    : PopTokenSigner.toEhtsValueMap(ehtsKeyValueMap);
+            PopTokenSigner.checkEhtsValueMap(ehtsValueMap);
 
-            if (rsaPrivateKey == null && StringUtils.isBlank(rsaPrivateKeyPemString)) {
+            if (privateKey == null && StringUtils.isBlank(rsaPrivateKeyPemString)) {
                 throw new PopTokenBuilderException(
                         "Either rsaPrivateKey or rsaPrivateKeyPemString should be provided to sign the PoP token");
             }
 
-            if (rsaPrivateKey != null && StringUtils.isNotBlank(rsaPrivateKeyPemString)) {
+            if (privateKey != null && StringUtils.isNotBlank(rsaPrivateKeyPemString)) {
                 throw new PopTokenBuilderException(
                         "Either only rsaPrivateKey or only rsaPrivateKeyPemString should be provided to sign the PoP token");
             }
 
-            if (rsaPrivateKey == null) {
-                if (privateKeyPassword != null) {
-                    rsaPrivateKey = PopTokenBuilderUtils.encryptedKeyPemStringToRsaPrivateKey(rsaPrivateKeyPemString,
-                            privateKeyPassword);
-                } else {
-                    rsaPrivateKey = PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(rsaPrivateKeyPemString);
-                }
+            PopCryptoConfig cryptoConfig = getCryptoConfig();
+            PopTokenSigner popTokenSigner;
+            if (privateKey != null) {
+                popTokenSigner = PopTokenSigner.newInstance(privateKey, signingAlgorithm);
+            } else if (privateKeyPassword != null) {
+                popTokenSigner = new PopTokenSigner(decryptRsaPrivateKey(rsaPrivateKeyPemString, privateKeyPassword, cryptoConfig),
+                        PopSigningAlgorithm.RS256);
+            } else {
+                RSAPrivateKey rsaPrivateKey = parseRsaPrivateKey(rsaPrivateKeyPemString, cryptoConfig);
+                popTokenSigner = new PopTokenSigner(rsaPrivateKey, PopSigningAlgorithm.RS256);
             }
+            popTokenSigner = popTokenSigner.withCryptoConfig(cryptoConfig);
 
             Date issuedAt = getIssuedAt();
-
-            return JWT.create() //
-                    .withClaim("ehts", buildEhtsString(ehtsKeyValueMap)) //
-                    .withClaim("edts", calculateEdtsSha256Base64Hash(ehtsKeyValueMap)) //
-                    .withClaim("jti", getUniqueIdentifier()) //
-                    .withClaim("v", getVersion()) //
-                    .withIssuedAt(issuedAt) //
-                    .withExpiresAt(getExpiration(issuedAt)) //
-                    .sign(buildRsa256Algorithm(rsaPrivateKey, null)); //
+            return popTokenSigner.sign(ehtsValueMap, issuedAt, getExpiration(issuedAt), getUniqueIdentifier(), getVersion());
 
         } catch (PopTokenBuilderException ex) {
             throw ex;
@@ -218,89 +303,44 @@ public class PopTokenBuilder {
     // ===== helper methods ===== //
 
     /**
-     * Returns true if the ehtsKeyValueMap contains any empty keys
+     * Parses the unencrypted private key PEM string using the private key cache and the key factory provider of the cryptoConfig.
      * 
-     * @param ehtsKeyValueMap
-     * @return
+     * @param rsaPrivateKeyPemString The unencrypted RSA private key PEM string
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the private key
+     * @return The RSA private key
+     * @throws PopPrivateKeyParseException If the rsaPrivateKeyPemString cannot be parsed
      */
-    private boolean doesContainAnyEmptyKeysOrValues(LinkedHashMap<String, String> ehtsKeyValueMap) {
-        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
-            if (StringUtils.isBlank(ehtsKeyValueEntry.getKey()) || StringUtils.isBlank(ehtsKeyValueEntry.getValue())) {
-                return true;
-            }
+    private RSAPrivateKey parseRsaPrivateKey(String rsaPrivateKeyPemString, PopCryptoConfig cryptoConfig)
+            throws PopPrivateKeyParseException {
+        PopPrivateKeyCache privateKeyCache = getPrivateKeyCache();
+        if (privateKeyCache == null) {
+            return PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(rsaPrivateKeyPemString, cryptoConfig);
         }
-        return false;
+        return privateKeyCache.getUnencrypted(rsaPrivateKeyPemString, cryptoConfig);
     }
 
     /**
-     * Builds the semicolon separated ehts string using the specified ehtsKeysList
+     * Decrypts the encrypted private key PEM string using the private key cache and the key factory provider of the cryptoConfig, the
+     * copy of the password is zeroed after use.
      * 
-     * @param ehtsKeyValueMap The ehts keys list
-     * @return the ehts string containing the semicolon delimited ehts keys
+     * @param encryptedRsaPrivateKeyPemString The encrypted RSA private key PEM string
+     * @param privateKeyPassword The RSA private key password
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the private key
+     * @return The RSA private key
+     * @throws PopPrivateKeyParseException If the encryptedRsaPrivateKeyPemString cannot be decrypted or parsed
      */
-    private String buildEhtsString(LinkedHashMap<String, String> ehtsKeyValueMap) {
-
-        StringBuilder ehtsStringBuilder = new StringBuilder();
-        for (String ehtsKey : ehtsKeyValueMap.keySet()) {
-            if (ehtsStringBuilder.length() > 0) {
-                ehtsStringBuilder.append(";");
-            }
-            ehtsStringBuilder.append(ehtsKey);
+    private RSAPrivateKey decryptRsaPrivateKey(String encryptedRsaPrivateKeyPemString, String privateKeyPassword,
+            PopCryptoConfig cryptoConfig) throws PopPrivateKeyParseException {
+        PopPrivateKeyCache privateKeyCache = getPrivateKeyCache();
+        if (privateKeyCache == null || StringUtils.isBlank(privateKeyPassword)) {
+            return PopTokenBuilderUtils.encryptedKeyPemStringToRsaPrivateKey(encryptedRsaPrivateKeyPemString, privateKeyPassword,
+                    cryptoConfig);
         }
-        return ehtsStringBuilder.toString();
-    }
-
-    /**
-     * Calculates the edts (hash of external data to sign) in the same sequence as provided in the LinkedHashMap.
-     * 
-     * @param ehtsKeysList
-     * @param ehtsKeyValueMap
-     * @return The edts (hash of external data to sign)
-     */
-    private String calculateEdtsSha256Base64Hash(Map<String, String> ehtsKeyValueMap) {
-        StringBuilder stringToHashBuilder = new StringBuilder();
-        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
-            stringToHashBuilder.append(ehtsKeyValueEntry.getValue());
+        char[] privateKeyPasswordChars = privateKeyPassword.toCharArray();
+        try {
+            return privateKeyCache.get(encryptedRsaPrivateKeyPemString, privateKeyPasswordChars, cryptoConfig);
+        } finally {
+            Arrays.fill(privateKeyPasswordChars, '\0');
         }
-        String stringToHash = stringToHashBuilder.toString();
-        return sha256Base64UrlSafeString(stringToHash);
-    }
-
-    /**
-     * Creates SHA 256 base64 URL safe encrypted hash of the specified string.
-     * 
-     * @param stringToHash The string to be hashed
-     * @return SHA 256 base64 encrypted hash.
-     */
-    private String sha256Base64UrlSafeString(String stringToHash) {
-        byte[] sha256Digest = DigestUtils.sha256(stringToHash);
-        return Base64.encodeBase64URLSafeString(sha256Digest);
-    }
-
-    /**
-     * Builds the RSA 256 algorithm.
-     * 
-     * @param rsaPrivateKey The RSA private key
-     * @param privateKeyId The private key ID
-     * @return The RSA 256 algorithm
-     */
-    private Algorithm buildRsa256Algorithm(RSAPrivateKey rsaPrivateKey, String privateKeyId) {
-        Algorithm algorithm = Algorithm.RSA256(new RSAKeyProvider() {
-            @Override
-            public RSAPublicKey getPublicKeyById(String keyId) {
-                throw new NotImplementedException("The method getPublicKeyById is not implemented");
-            }
-
-            @Override
-            public RSAPrivateKey getPrivateKey() {
-                return rsaPrivateKey;
-            }
-
-            @Override
-            public String getPrivateKeyId() {
-                return privateKeyId;
-            }
-        });
-        return algorithm;
     }
 }
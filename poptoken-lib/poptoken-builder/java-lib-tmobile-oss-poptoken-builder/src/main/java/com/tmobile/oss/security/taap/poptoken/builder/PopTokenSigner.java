@@ -0,0 +1,335 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+import com.tmobile.oss.security.taap.poptoken.builder.utils.PopTokenBuilderUtils;
+
+/**
+ * A signer for building the PoP tokens signed by one specific private key.
+ * <p>
+ * The private key is parsed only once when the PopTokenSigner is created, so the per request processing is limited to calculating the
+ * edts (hash of external data to sign) and the signature. The PoP tokens are signed using RS256 by default, the other
+ * {@link PopSigningAlgorithm}s can be used by creating the PopTokenSigner using
+ * {@link #newInstance(PrivateKey, PopSigningAlgorithm)}. The PoP tokens are valid for 2
+ * minutes and are identical to the ones built by {@link PopTokenBuilder}. The PoP tokens are written directly into the reusable byte
+ * buffers of the calling thread, see {@link PopTokenWriter}.
+ * <p>
+ * PopTokenSigner is immutable and thread-safe so one instance should be created per private key, for example while starting the
+ * application, and shared between all the request threads.
+ */
+public final class PopTokenSigner {
+
+    private final PrivateKey privateKey;
+    private final PopSigningAlgorithm signingAlgorithm;
+    private final PopUniqueIdentifierGenerator uniqueIdentifierGenerator;
+    private final PopCryptoConfig cryptoConfig;
+
+    /**
+     * Constructs the PopTokenSigner signing the PoP tokens using the specified private key and signing algorithm.
+     * 
+     * @param privateKey The private key, which should be supported by the signingAlgorithm
+     * @param signingAlgorithm The signing algorithm
+     */
+    PopTokenSigner(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm) {
+        this(privateKey, signingAlgorithm, PopTokenBuilder.DEFAULT_UNIQUE_IDENTIFIER_GENERATOR, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs the PopTokenSigner using the specified private key, signing algorithm, unique identifier generator and JCA providers.
+     * 
+     * @param privateKey The private key, which should be supported by the signingAlgorithm
+     * @param signingAlgorithm The signing algorithm
+     * @param uniqueIdentifierGenerator The unique identifier generator
+     * @param cryptoConfig The JCA providers of the digest and the Signature
+     */
+    private PopTokenSigner(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm,
+            PopUniqueIdentifierGenerator uniqueIdentifierGenerator, PopCryptoConfig cryptoConfig) {
+        this.privateKey = privateKey;
+        this.signingAlgorithm = signingAlgorithm;
+        this.uniqueIdentifierGenerator = uniqueIdentifierGenerator;
+        this.cryptoConfig = cryptoConfig;
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified RSAPrivateKey.
+     * 
+     * @param rsaPrivateKey The RSA private key
+     * @return The new instance of PopTokenSigner
+     * @throws IllegalArgumentException If the rsaPrivateKey is null
+     */
+    public static PopTokenSigner newInstance(RSAPrivateKey rsaPrivateKey) {
+        if (rsaPrivateKey == null) {
+            throw new IllegalArgumentException("The rsaPrivateKey should not be null");
+        }
+        return new PopTokenSigner(rsaPrivateKey, PopSigningAlgorithm.RS256);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified private key and signing algorithm.
+     * 
+     * @param privateKey The private key, e.g. an RSA private key for RS256 and PS256 or an EC private key on the P-256 curve for ES256
+     * @param signingAlgorithm The signing algorithm
+     * @return The new instance of PopTokenSigner
+     * @throws IllegalArgumentException If the privateKey or signingAlgorithm is null or the privateKey is not supported by the
+     *             signingAlgorithm
+     */
+    public static PopTokenSigner newInstance(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm) {
+        if (privateKey == null) {
+            throw new IllegalArgumentException("The privateKey should not be null");
+        }
+        if (signingAlgorithm == null) {
+            throw new IllegalArgumentException("The signingAlgorithm should not be null");
+        }
+        if (!signingAlgorithm.isKeySupported(privateKey)) {
+            throw new IllegalArgumentException("The privateKey having the algorithm " + privateKey.getAlgorithm()
+                    + " cannot be used to sign using " + signingAlgorithm);
+        }
+        return new PopTokenSigner(privateKey, signingAlgorithm);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified rsaPrivateKeyPemString, the PEM string is
+     * parsed only once by this method.
+     * 
+     * @param rsaPrivateKeyPemString The RSA private key PEM string
+     * @return The new instance of PopTokenSigner
+     * @throws PopTokenBuilderException If the rsaPrivateKeyPemString cannot be parsed
+     * @throws IllegalArgumentException If the rsaPrivateKeyPemString is null or empty
+     */
+    public static PopTokenSigner newInstance(String rsaPrivateKeyPemString) throws PopTokenBuilderException {
+        return new PopTokenSigner(PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(rsaPrivateKeyPemString), PopSigningAlgorithm.RS256);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified privateKeyPemString and signing algorithm,
+     * the PEM string is parsed only once by this method.
+     * 
+     * @param privateKeyPemString The PKCS#8 private key PEM string
+     * @param signingAlgorithm The signing algorithm
+     * @return The new instance of PopTokenSigner
+     * @throws PopTokenBuilderException If the privateKeyPemString cannot be parsed as the private key of the signingAlgorithm
+     * @throws IllegalArgumentException If the privateKeyPemString is null or empty or the signingAlgorithm is null
+     */
+    public static PopTokenSigner newInstance(String privateKeyPemString, PopSigningAlgorithm signingAlgorithm)
+            throws PopTokenBuilderException {
+        return newInstance(PopTokenBuilderUtils.keyPemStringToPrivateKey(privateKeyPemString, signingAlgorithm), signingAlgorithm);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified encryptedRsaPrivateKeyPemString, the PEM
+     * string is decrypted using the privateKeyPassword and parsed only once by this method.
+     * 
+     * @param encryptedRsaPrivateKeyPemString The encrypted RSA private key PEM string
+     * @param privateKeyPassword The RSA private key password
+     * @return The new instance of PopTokenSigner
+     * @throws PopTokenBuilderException If the encryptedRsaPrivateKeyPemString cannot be decrypted or parsed
+     * @throws IllegalArgumentException If the encryptedRsaPrivateKeyPemString or privateKeyPassword is null or empty
+     */
+    public static PopTokenSigner newInstance(String encryptedRsaPrivateKeyPemString, String privateKeyPassword)
+            throws PopTokenBuilderException {
+        return new PopTokenSigner(
+                PopTokenBuilderUtils.encryptedKeyPemStringToRsaPrivateKey(encryptedRsaPrivateKeyPemString, privateKeyPassword),
+                PopSigningAlgorithm.RS256);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the specified encryptedPrivateKeyPemString and signing
+     * algorithm, the PEM string is decrypted using the privateKeyPassword and parsed only once by this method.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS#8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @param signingAlgorithm The signing algorithm
+     * @return The new instance of PopTokenSigner
+     * @throws PopTokenBuilderException If the encryptedPrivateKeyPemString cannot be decrypted or parsed as the private key of the
+     *             signingAlgorithm
+     * @throws IllegalArgumentException If the encryptedPrivateKeyPemString or privateKeyPassword is null or empty or the
+     *             signingAlgorithm is null
+     */
+    public static PopTokenSigner newInstance(String encryptedPrivateKeyPemString, String privateKeyPassword,
+            PopSigningAlgorithm signingAlgorithm) throws PopTokenBuilderException {
+        return newInstance(PopTokenBuilderUtils.encryptedKeyPemStringToPrivateKey(encryptedPrivateKeyPemString, privateKeyPassword,
+                signingAlgorithm), signingAlgorithm);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the same private key but generating the unique
+     * identifiers, i.e. the jti claims, using the specified generator. By default the unique identifiers are generated by
+     * {@link PopThreadLocalUniqueIdentifierGenerator}.
+     * 
+     * @param uniqueIdentifierGenerator The unique identifier generator, it should be thread-safe
+     * @return The new instance of PopTokenSigner
+     * @throws IllegalArgumentException If the uniqueIdentifierGenerator is null
+     */
+    public PopTokenSigner withUniqueIdentifierGenerator(PopUniqueIdentifierGenerator uniqueIdentifierGenerator) {
+        if (uniqueIdentifierGenerator == null) {
+            throw new IllegalArgumentException("The uniqueIdentifierGenerator should not be null");
+        }
+        return new PopTokenSigner(privateKey, signingAlgorithm, uniqueIdentifierGenerator, cryptoConfig);
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the same private key but using the Signature of the
+     * specified JCA provider, e.g. to make sure that a hardware backed or FIPS certified provider is used. By default the Signature is
+     * looked up in the registered providers.
+     * 
+     * @param signatureProvider The JCA provider of the Signature, it should support the signing algorithm and the private key
+     * @return The new instance of PopTokenSigner
+     * @throws IllegalArgumentException If the signatureProvider is null
+     */
+    public PopTokenSigner withSignatureProvider(Provider signatureProvider) {
+        if (signatureProvider == null) {
+            throw new IllegalArgumentException("The signatureProvider should not be null");
+        }
+        return new PopTokenSigner(privateKey, signingAlgorithm, uniqueIdentifierGenerator,
+                cryptoConfig.withSignatureProvider(signatureProvider));
+    }
+
+    /**
+     * Returns the new instance of PopTokenSigner signing the PoP tokens using the same private key but using the JCA providers of the
+     * specified PopCryptoConfig for calculating the edts (external data to sign) digest and the signature. By default
+     * {@link PopCryptoConfig#DEFAULT} is used, i.e. the providers are looked up in the registered providers.
+     * 
+     * @param cryptoConfig The JCA providers of the digest and the Signature
+     * @return The new instance of PopTokenSigner
+     * @throws IllegalArgumentException If the cryptoConfig is null
+     */
+    public PopTokenSigner withCryptoConfig(PopCryptoConfig cryptoConfig) {
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        return new PopTokenSigner(privateKey, signingAlgorithm, uniqueIdentifierGenerator, cryptoConfig);
+    }
+
+    /**
+     * Builds, signs and returns the string representation of the PoP token for the specified ehts key values. The PoP token will be
+     * valid for 2 minutes.
+     * 
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys, the ehts key names should
+     *            be determined in the same way as described for {@link PopTokenBuilder#setEhtsKeyValueMap(LinkedHashMap)}.
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the ehtsKeyValueMap is invalid or error occurs while building the PoP token
+     */
+    public String sign(LinkedHashMap<String, String> ehtsKeyValueMap) throws PopTokenBuilderException {
+        return signEhtsValues(toEhtsValueMap(ehtsKeyValueMap));
+    }
+
+    /**
+     * Builds, signs and returns the string representation of the PoP token for the specified ehts values. The PoP token will be valid
+     * for 2 minutes.
+     * <p>
+     * This method should be used instead of {@link #sign(LinkedHashMap)} when the ehts values, usually the HTTP request body, are
+     * available as byte array, ByteBuffer or InputStream, as these ehts values are hashed without converting them to string.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the ehtsValueMap is invalid or error occurs while building the PoP token
+     */
+    public String signEhtsValues(LinkedHashMap<String, PopEhtsValue> ehtsValueMap) throws PopTokenBuilderException {
+        checkEhtsValueMap(ehtsValueMap);
+        Date issuedAt = new Date();
+        return sign(ehtsValueMap, issuedAt, new Date(issuedAt.getTime() + PopTokenBuilder.POP_TOKEN_VALIDITY_DURATION_IN_MILLIS),
+                uniqueIdentifierGenerator.generateUniqueIdentifier(), PopTokenBuilder.POP_TOKEN_VERSION);
+    }
+
+    /**
+     * Builds, signs and returns the string representation of the PoP token using the specified claims, the ehtsValueMap should have
+     * been checked using {@link #checkEhtsValueMap(LinkedHashMap)}. The PoP token is written using the {@link PopTokenWriter} of the
+     * calling thread.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @param issuedAt The issued at time
+     * @param expiresAt The expiration time
+     * @param uniqueIdentifier The unique identifier
+     * @param version The version
+     * @return The PoP token
+     * @throws PopTokenBuilderException If error occurs while building the PoP token
+     */
+    String sign(LinkedHashMap<String, PopEhtsValue> ehtsValueMap, Date issuedAt, Date expiresAt, String uniqueIdentifier,
+            String version) throws PopTokenBuilderException {
+        try {
+            return PopTokenWriter.get().write(ehtsValueMap, issuedAt, expiresAt, uniqueIdentifier, version, privateKey,
+                    signingAlgorithm, cryptoConfig);
+        } catch (Exception ex) {
+            throw new PopTokenBuilderException("Error occurred while building the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Checks that the ehtsValueMap is not empty, does not contain any empty keys or values and does not exceed the maximum number of
+     * ehts keys.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @throws PopTokenBuilderException If the ehtsValueMap is invalid
+     */
+    static void checkEhtsValueMap(LinkedHashMap<String, PopEhtsValue> ehtsValueMap) throws PopTokenBuilderException {
+        if (ehtsValueMap == null || ehtsValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsValueMap)) {
+            throw new PopTokenBuilderException(
+                    "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
+        }
+
+        if (ehtsValueMap.size() > PopTokenBuilder.MAX_NUMBER_OF_EHTS) {
+            throw new PopTokenBuilderException(
+                    "The ehtsKeyValueMap should not contain more than " + PopTokenBuilder.MAX_NUMBER_OF_EHTS + " entries");
+        }
+    }
+
+    /**
+     * Converts the ehts key values to the ehts values, the null values are kept as null.
+     * 
+     * @param ehtsKeyValueMap The map containing the string values for all the ehts (external headers to sign) keys
+     * @return The map containing the ehts values or null if the ehtsKeyValueMap is null
+     */
+    static LinkedHashMap<String, PopEhtsValue> toEhtsValueMap(LinkedHashMap<String, String> ehtsKeyValueMap) {
+        if (ehtsKeyValueMap == null) {
+            return null;
+        }
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
+            String ehtsValue = ehtsKeyValueEntry.getValue();
+            ehtsValueMap.put(ehtsKeyValueEntry.getKey(), ehtsValue != null ? PopEhtsValue.of(ehtsValue) : null);
+        }
+        return ehtsValueMap;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns true if the ehtsValueMap contains any empty keys or values.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return true if any key or value is empty
+     */
+    private static boolean doesContainAnyEmptyKeysOrValues(LinkedHashMap<String, PopEhtsValue> ehtsValueMap) {
+        for (Entry<String, PopEhtsValue> ehtsValueEntry : ehtsValueMap.entrySet()) {
+            PopEhtsValue ehtsValue = ehtsValueEntry.getValue();
+            if (StringUtils.isBlank(ehtsValueEntry.getKey()) || ehtsValue == null || ehtsValue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
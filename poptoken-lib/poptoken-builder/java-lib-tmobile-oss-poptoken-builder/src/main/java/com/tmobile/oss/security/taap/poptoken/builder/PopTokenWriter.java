@@ -0,0 +1,490 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes the signed PoP tokens straight into reusable byte buffers.
+ * <p>
+ * The PoP token is byte-identical to the one created by <code>JWT.create()</code> of java-jwt 3.4.0 for the same claims and algorithm:
+ * the header segment of each {@link PopSigningAlgorithm} is computed once, the claims are written in the order produced by java-jwt,
+ * i.e. edts, v, exp, ehts, iat and jti, and the strings are escaped in the same way as done by Jackson, with the unpaired surrogate
+ * characters replaced by '?'. The edts (hash of external data to sign) digest, the payload and the
+ * signature are Base64URL encoded directly into the token buffer and the signature is calculated over that buffer, so the only
+ * string created per PoP token is the PoP token itself.
+ * <p>
+ * The MessageDigest and the Signatures are created using the providers of the {@link PopCryptoConfig}. The Signatures of the up to 8
+ * most recently used private keys are kept initialized, looked up by the private key, the signing algorithm and the provider, so
+ * signing the next PoP token using any of those private keys neither looks up the JCA provider nor initializes the Signature again,
+ * even when the PoP tokens of several signers are interleaved. The private keys are matched by identity first and then by equality,
+ * so a private key parsed again from the same PEM string reuses the Signature initialized for the equal private key.
+ * <p>
+ * The Signatures keep their private keys reachable, so each thread retains up to 8 private keys, including the rotated ones, until
+ * they are evicted by the Signatures of other private keys or the thread ends.
+ * <p>
+ * PopTokenWriter is not thread-safe, {@link #get()} returns the instance of the calling thread. The instances are kept in a
+ * ThreadLocal, so on a virtual thread the instance belongs to the virtual thread and not to its carrier thread. As the virtual threads
+ * are usually created per task, signing on a new virtual thread creates its buffers and initializes its Signature, which costs the
+ * same as signing without the cached Signatures, and the Signatures are reused only by the long-lived virtual threads.
+ */
+final class PopTokenWriter {
+
+    private static final byte[] BASE64_URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] HEADER_SEGMENTS = encodeHeaderSegments();
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+    private static final int SHA_256_DIGEST_LENGTH = 32;
+
+    private static final ThreadLocal<PopTokenWriter> THREAD_WRITER = ThreadLocal.withInitial(PopTokenWriter::new);
+
+    private MessageDigest messageDigest;
+    private Provider digestProvider;
+    private final ThreadSignatures threadSignatures = new ThreadSignatures();
+    private final byte[] digestBuffer = new byte[SHA_256_DIGEST_LENGTH];
+    private byte[] payloadBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] tokenBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int payloadLength;
+    private int tokenLength;
+
+    /**
+     * Constructs the PopTokenWriter, the instance of the calling thread should be obtained using {@link #get()}.
+     */
+    private PopTokenWriter() {
+    }
+
+    /**
+     * Returns the PopTokenWriter of the calling thread.
+     * 
+     * @return The PopTokenWriter
+     */
+    static PopTokenWriter get() {
+        return THREAD_WRITER.get();
+    }
+
+    /**
+     * Writes and signs the PoP token using the specified private key and signing algorithm.
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @param issuedAt The issued at time
+     * @param expiresAt The expiration time
+     * @param uniqueIdentifier The unique identifier
+     * @param version The version
+     * @param privateKey The private key, which should be supported by the signingAlgorithm
+     * @param signingAlgorithm The signing algorithm
+     * @param cryptoConfig The JCA providers of the digest and the Signature
+     * @return The PoP token
+     * @throws IOException If any of the ehts values cannot be read
+     * @throws GeneralSecurityException If the PoP token cannot be signed
+     */
+    String write(Map<String, PopEhtsValue> ehtsValueMap, Date issuedAt, Date expiresAt, String uniqueIdentifier, String version,
+            PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm, PopCryptoConfig cryptoConfig)
+            throws IOException, GeneralSecurityException {
+        try {
+            MessageDigest messageDigest = getMessageDigest(cryptoConfig);
+            messageDigest.reset();
+            for (PopEhtsValue ehtsValue : ehtsValueMap.values()) {
+                ehtsValue.updateDigest(messageDigest);
+            }
+            messageDigest.digest(digestBuffer, 0, SHA_256_DIGEST_LENGTH);
+
+            payloadLength = 0;
+            writeAscii("{\"edts\":\"");
+            ensurePayloadCapacity(base64UrlLength(SHA_256_DIGEST_LENGTH));
+            payloadLength = encodeBase64Url(digestBuffer, 0, SHA_256_DIGEST_LENGTH, payloadBuffer, payloadLength);
+            writeAscii("\",\"v\":");
+            writeString(version);
+            writeAscii(",\"exp\":");
+            writeAscii(Long.toString(expiresAt.getTime() / 1000));
+            writeAscii(",\"ehts\":\"");
+            boolean firstEhtsKey = true;
+            for (String ehtsKey : ehtsValueMap.keySet()) {
+                if (!firstEhtsKey) {
+                    writeAscii(";");
+                }
+                writeStringContent(ehtsKey);
+                firstEhtsKey = false;
+            }
+            writeAscii("\",\"iat\":");
+            writeAscii(Long.toString(issuedAt.getTime() / 1000));
+            writeAscii(",\"jti\":");
+            writeString(uniqueIdentifier);
+            writeAscii("}");
+
+            byte[] headerSegment = HEADER_SEGMENTS[signingAlgorithm.ordinal()];
+            ensureTokenCapacity(headerSegment.length + base64UrlLength(payloadLength) + 1);
+            System.arraycopy(headerSegment, 0, tokenBuffer, 0, headerSegment.length);
+            tokenLength = encodeBase64Url(payloadBuffer, 0, payloadLength, tokenBuffer, headerSegment.length);
+
+            byte[] signatureBytes = signingAlgorithm.toJoseSignature(sign(privateKey, signingAlgorithm,
+                    cryptoConfig.getSignatureProvider()));
+
+            ensureTokenCapacity(tokenLength + 1 + base64UrlLength(signatureBytes.length));
+            tokenBuffer[tokenLength++] = '.';
+            tokenLength = encodeBase64Url(signatureBytes, 0, signatureBytes.length, tokenBuffer, tokenLength);
+            return new String(tokenBuffer, 0, tokenLength, StandardCharsets.ISO_8859_1);
+        } finally {
+            releaseLargeBuffers();
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the SHA-256 MessageDigest of the calling thread, the MessageDigest is created again only when the digest provider of the
+     * cryptoConfig differs from the previous PoP token.
+     * 
+     * @param cryptoConfig The JCA providers of the digest and the Signature
+     * @return The SHA-256 MessageDigest
+     * @throws NoSuchAlgorithmException If the digest provider does not support SHA-256
+     */
+    private MessageDigest getMessageDigest(PopCryptoConfig cryptoConfig) throws NoSuchAlgorithmException {
+        if (messageDigest == null || digestProvider != cryptoConfig.getDigestProvider()) {
+            messageDigest = cryptoConfig.newSha256Digest();
+            digestProvider = cryptoConfig.getDigestProvider();
+        }
+        return messageDigest;
+    }
+
+    /**
+     * Signs the header and payload segments of the token buffer using the Signature of the calling thread for the private key.
+     * <p>
+     * The Signature is created and initialized only when the thread has no Signature for the private key, signing algorithm and
+     * provider, as the Signature returns to its initialized state after signing. If signing fails the Signature is discarded as its
+     * state is unknown.
+     * 
+     * @param privateKey The private key
+     * @param signingAlgorithm The signing algorithm
+     * @param signatureProvider The JCA provider of the Signature or null if the Signature should be looked up in the registered
+     *            providers
+     * @return The bytes returned by the Signature
+     * @throws GeneralSecurityException If the header and payload segments cannot be signed
+     */
+    private byte[] sign(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider)
+            throws GeneralSecurityException {
+        try {
+            Signature signature = threadSignatures.getSignature(privateKey, signingAlgorithm, signatureProvider);
+            signature.update(tokenBuffer, 0, tokenLength);
+            return signature.sign();
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            threadSignatures.discardSignature(privateKey, signingAlgorithm, signatureProvider);
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the ASCII characters of the specified string to the payload buffer.
+     * 
+     * @param value The ASCII string
+     */
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensurePayloadCapacity(length);
+        for (int i = 0; i < length; i++) {
+            payloadBuffer[payloadLength++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Writes the specified string as quoted JSON string to the payload buffer.
+     * 
+     * @param value The string
+     */
+    private void writeString(String value) {
+        writeAscii("\"");
+        writeStringContent(value);
+        writeAscii("\"");
+    }
+
+    /**
+     * Writes the UTF-8 encoded and JSON escaped characters of the specified string to the payload buffer, the characters are escaped
+     * in the same way as done by Jackson, i.e. only the quotation mark, the reverse solidus and the control characters are escaped.
+     * The unpaired surrogate characters are written as '?', as done by <code>String.getBytes</code> used by java-jwt.
+     * 
+     * @param value The string
+     */
+    private void writeStringContent(String value) {
+        int length = value.length();
+        // the worst case is 6 bytes for each escaped control character
+        ensurePayloadCapacity(length * 6);
+        byte[] buffer = payloadBuffer;
+        int position = payloadLength;
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if (ch >= 0x20 && ch < 0x80) {
+                if (ch == '"' || ch == '\\') {
+                    buffer[position++] = '\\';
+                }
+                buffer[position++] = (byte) ch;
+            } else if (ch < 0x20) {
+                buffer[position++] = '\\';
+                switch (ch) {
+                case '\b':
+                    buffer[position++] = 'b';
+                    break;
+                case '\t':
+                    buffer[position++] = 't';
+                    break;
+                case '\n':
+                    buffer[position++] = 'n';
+                    break;
+                case '\f':
+                    buffer[position++] = 'f';
+                    break;
+                case '\r':
+                    buffer[position++] = 'r';
+                    break;
+                default:
+                    buffer[position++] = 'u';
+                    buffer[position++] = '0';
+                    buffer[position++] = '0';
+                    buffer[position++] = HEX_DIGITS[ch >> 4];
+                    buffer[position++] = HEX_DIGITS[ch & 0xF];
+                }
+            } else if (ch < 0x800) {
+                buffer[position++] = (byte) (0xC0 | ch >> 6);
+                buffer[position++] = (byte) (0x80 | ch & 0x3F);
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                    buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | ch >> 12);
+                buffer[position++] = (byte) (0x80 | ch >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | ch & 0x3F);
+            }
+        }
+        payloadLength = position;
+    }
+
+    /**
+     * Grows the payload buffer to have at least the specified number of free bytes.
+     * 
+     * @param length The number of bytes to be written
+     */
+    private void ensurePayloadCapacity(int length) {
+        if (payloadLength + length > payloadBuffer.length) {
+            payloadBuffer = Arrays.copyOf(payloadBuffer, Math.max(payloadBuffer.length * 2, payloadLength + length));
+        }
+    }
+
+    /**
+     * Grows the token buffer to have at least the specified capacity.
+     * 
+     * @param capacity The required capacity
+     */
+    private void ensureTokenCapacity(int capacity) {
+        if (capacity > tokenBuffer.length) {
+            tokenBuffer = Arrays.copyOf(tokenBuffer, Math.max(tokenBuffer.length * 2, capacity));
+        }
+    }
+
+    /**
+     * Replaces the buffers which have grown beyond the retained buffer size, so the thread does not keep the memory used by an
+     * unusually large PoP token.
+     */
+    private void releaseLargeBuffers() {
+        if (payloadBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            payloadBuffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if (tokenBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            tokenBuffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Returns the length of the unpadded Base64URL encoding of the specified number of bytes.
+     * 
+     * @param length The number of bytes
+     * @return The number of Base64URL characters
+     */
+    private static int base64UrlLength(int length) {
+        return (length / 3) * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Encodes the specified bytes as unpadded Base64URL characters into the target buffer, the target buffer should have enough
+     * capacity.
+     * 
+     * @param source The bytes to encode
+     * @param offset The offset of the first byte to encode
+     * @param length The number of bytes to encode
+     * @param target The target buffer
+     * @param position The position in the target buffer
+     * @return The position in the target buffer after the encoded characters
+     */
+    private static int encodeBase64Url(byte[] source, int offset, int length, byte[] target, int position) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8 | source[i + 2] & 0xFF;
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 18];
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 12 & 0x3F];
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 6 & 0x3F];
+            target[position++] = BASE64_URL_ALPHABET[bits & 0x3F];
+        }
+        if (end - i == 1) {
+            int bits = (source[i] & 0xFF) << 16;
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 18];
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 12 & 0x3F];
+        } else if (end - i == 2) {
+            int bits = (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8;
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 18];
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 12 & 0x3F];
+            target[position++] = BASE64_URL_ALPHABET[bits >>> 6 & 0x3F];
+        }
+        return position;
+    }
+
+    /**
+     * Encodes the header JSON of each signing algorithm to the Base64URL header segment followed by the dot separator.
+     * 
+     * @return The header segment bytes indexed by the ordinal of the signing algorithm
+     */
+    private static byte[][] encodeHeaderSegments() {
+        PopSigningAlgorithm[] signingAlgorithms = PopSigningAlgorithm.values();
+        byte[][] headerSegments = new byte[signingAlgorithms.length][];
+        for (PopSigningAlgorithm signingAlgorithm : signingAlgorithms) {
+            byte[] headerBytes = ("{\"typ\":\"JWT\",\"alg\":\"" + signingAlgorithm.name() + "\"}").getBytes(StandardCharsets.UTF_8);
+            byte[] headerSegment = new byte[base64UrlLength(headerBytes.length) + 1];
+            int position = encodeBase64Url(headerBytes, 0, headerBytes.length, headerSegment, 0);
+            headerSegment[position] = '.';
+            headerSegments[signingAlgorithm.ordinal()] = headerSegment;
+        }
+        return headerSegments;
+    }
+
+    /**
+     * The Signatures of one thread initialized for signing using the most recently used private keys, ordered from the most to the
+     * least recently used. The Signatures are looked up by the private key, the signing algorithm and the provider, and the least
+     * recently used Signature is evicted when a Signature is needed for one more private key.
+     */
+    private static final class ThreadSignatures {
+
+        private static final int MAX_SIGNATURE_COUNT = 8;
+
+        private final Signature[] signatures = new Signature[MAX_SIGNATURE_COUNT];
+        private final PrivateKey[] signatureKeys = new PrivateKey[MAX_SIGNATURE_COUNT];
+        private final PopSigningAlgorithm[] signingAlgorithms = new PopSigningAlgorithm[MAX_SIGNATURE_COUNT];
+        private final Provider[] signatureProviders = new Provider[MAX_SIGNATURE_COUNT];
+        private int signatureCount;
+
+        /**
+         * Returns the Signature of the signing algorithm initialized for signing using the specified private key, the Signature is
+         * created and initialized only when the thread has no Signature for the private key, signing algorithm and provider.
+         * 
+         * @param privateKey The private key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature or null if the Signature should be looked up in the registered
+         *            providers
+         * @return The initialized Signature
+         * @throws GeneralSecurityException If the Signature cannot be created or initialized
+         */
+        Signature getSignature(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider)
+                throws GeneralSecurityException {
+            int index = indexOf(privateKey, signingAlgorithm, signatureProvider);
+            Signature signature;
+            if (index >= 0) {
+                signature = signatures[index];
+            } else {
+                signature = signingAlgorithm.newSignature(signatureProvider);
+                signature.initSign(privateKey);
+                if (signatureCount < MAX_SIGNATURE_COUNT) {
+                    signatureCount++;
+                }
+                index = signatureCount - 1;
+            }
+            System.arraycopy(signatures, 0, signatures, 1, index);
+            System.arraycopy(signatureKeys, 0, signatureKeys, 1, index);
+            System.arraycopy(signingAlgorithms, 0, signingAlgorithms, 1, index);
+            System.arraycopy(signatureProviders, 0, signatureProviders, 1, index);
+            signatures[0] = signature;
+            signatureKeys[0] = privateKey;
+            signingAlgorithms[0] = signingAlgorithm;
+            signatureProviders[0] = signatureProvider;
+            return signature;
+        }
+
+        /**
+         * Discards the Signature of the private key, signing algorithm and provider, as its state is unknown after a failed signing.
+         * 
+         * @param privateKey The private key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature
+         */
+        void discardSignature(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider) {
+            int index = indexOf(privateKey, signingAlgorithm, signatureProvider);
+            if (index < 0) {
+                return;
+            }
+            int movedCount = signatureCount - index - 1;
+            System.arraycopy(signatures, index + 1, signatures, index, movedCount);
+            System.arraycopy(signatureKeys, index + 1, signatureKeys, index, movedCount);
+            System.arraycopy(signingAlgorithms, index + 1, signingAlgorithms, index, movedCount);
+            System.arraycopy(signatureProviders, index + 1, signatureProviders, index, movedCount);
+            signatureCount--;
+            signatures[signatureCount] = null;
+            signatureKeys[signatureCount] = null;
+            signingAlgorithms[signatureCount] = null;
+            signatureProviders[signatureCount] = null;
+        }
+
+        /**
+         * Returns the index of the Signature of the private key, signing algorithm and provider.
+         * 
+         * @param privateKey The private key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature
+         * @return The index of the Signature or -1 if the thread has no Signature for them
+         */
+        private int indexOf(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider) {
+            for (int i = 0; i < signatureCount; i++) {
+                if (signatureKeys[i] == privateKey && signingAlgorithms[i] == signingAlgorithm
+                        && signatureProviders[i] == signatureProvider) {
+                    return i;
+                }
+            }
+            // the key equality usually compares the encoded keys, so it is checked only when no identical key matches
+            for (int i = 0; i < signatureCount; i++) {
+                if (signingAlgorithms[i] == signingAlgorithm && signatureProviders[i] == signatureProvider
+                        && privateKey.equals(signatureKeys[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+/**
+ * Generates the unique identifiers, i.e. the jti claims, of the PoP tokens.
+ * <p>
+ * The implementations should be thread-safe and should not block, as they are called once per PoP token by all the threads building
+ * the PoP tokens. The default implementation is {@link PopThreadLocalUniqueIdentifierGenerator}.
+ */
+@FunctionalInterface
+public interface PopUniqueIdentifierGenerator {
+
+    /**
+     * Generates the unique identifier.
+     * 
+     * @return The unique identifier, which should not be null or empty
+     */
+    String generateUniqueIdentifier();
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder.grpc;
+
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors.CheckedForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * A gRPC client interceptor which adds the PoP token to the metadata of the outgoing calls.
+ * <p>
+ * The ehts (external headers to sign) values are derived from the call: the configured ASCII metadata keys which are present in the
+ * metadata, the "uri", which is the HTTP/2 path of the call, i.e. "/" followed by the full method name, and the "body". For the
+ * methods sending one request message, i.e. unary and server streaming, the "body" is the serialized request message: the start of
+ * the call is deferred until the request message is sent, the message is serialized once by the marshaller of the method, hashed and
+ * the same bytes are sent. The request messages of the client streaming and bidirectional streaming methods are sent after the
+ * metadata so they are not signed.
+ * <p>
+ * The private key is parsed only once by the caller and the PopTokenClientInterceptor is thread-safe, so one instance should be shared
+ * by all the channels and threads, the only cryptographic operation per call is the RSA signature.
+ */
+public class PopTokenClientInterceptor implements ClientInterceptor {
+
+    private static final Metadata.Key<String> POP_TOKEN_METADATA_KEY = Metadata.Key.of("x-authorization",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    private final PopTokenSigner popTokenSigner;
+    private final List<Metadata.Key<String>> ehtsMetadataKeys;
+
+    /**
+     * Constructs the PopTokenClientInterceptor using the specified RSAPrivateKey and names of the metadata keys to sign.
+     * 
+     * @param rsaPrivateKey The RSA private key, usually parsed once using
+     *            <code>PopTokenBuilderUtils.keyPemStringToRsaPrivateKey</code>
+     * @param ehtsMetadataKeyNames The names of the ASCII metadata keys to sign, in the order of the ehts, the metadata keys not
+     *            present in the call are not signed
+     * @throws IllegalArgumentException If the rsaPrivateKey is null or any of the ehtsMetadataKeyNames is not a valid ASCII metadata
+     *             key name
+     */
+    public PopTokenClientInterceptor(RSAPrivateKey rsaPrivateKey, String... ehtsMetadataKeyNames) {
+        if (rsaPrivateKey == null) {
+            throw new IllegalArgumentException("The rsaPrivateKey should not be null");
+        }
+        if (ehtsMetadataKeyNames == null) {
+            throw new IllegalArgumentException("The ehtsMetadataKeyNames should not be null");
+        }
+        this.popTokenSigner = PopTokenSigner.newInstance(rsaPrivateKey);
+        this.ehtsMetadataKeys = new ArrayList<>(ehtsMetadataKeyNames.length);
+        for (String ehtsMetadataKeyName : ehtsMetadataKeyNames) {
+            if (ehtsMetadataKeyName == null) {
+                throw new IllegalArgumentException("The ehtsMetadataKeyNames should not contain null key names");
+            }
+            ehtsMetadataKeys.add(Metadata.Key.of(ehtsMetadataKeyName, Metadata.ASCII_STRING_MARSHALLER));
+        }
+    }
+
+    /**
+     * Returns the call adding the PoP token to the metadata.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     * @param method The method descriptor
+     * @param callOptions The call options
+     * @param next The channel to create the call on
+     * @return The call
+     */
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions,
+            Channel next) {
+        if (!method.getType().clientSendsOneMessage()) {
+            return new CheckedForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+
+                @Override
+                protected void checkedStart(Listener<RespT> responseListener, Metadata headers) throws Exception {
+                    try {
+                        headers.put(getPopTokenMetadataKey(), buildPopToken(method, headers, null));
+                    } catch (PopTokenBuilderException ex) {
+                        throw buildPopTokenErrorStatus(ex).asException();
+                    }
+                    delegate().start(responseListener, headers);
+                }
+            };
+        }
+        MethodDescriptor<byte[], RespT> rawMethod = method //
+                .toBuilder(PopByteArrayMarshaller.INSTANCE, method.getResponseMarshaller()) //
+                .build(); //
+        return new MessageSigningClientCall<>(method, next.newCall(rawMethod, callOptions));
+    }
+
+    /**
+     * Returns the metadata key to which the PoP token is added.
+     * 
+     * Note: This method can be overridden to modify the default PoP token metadata key which is "x-authorization".
+     * 
+     * @return The PoP token metadata key
+     */
+    protected Metadata.Key<String> getPopTokenMetadataKey() {
+        return POP_TOKEN_METADATA_KEY;
+    }
+
+    /**
+     * Returns the value of the "uri" ehts key, i.e. the HTTP/2 path of the call.
+     * 
+     * Note: This method can be overridden to modify the default "uri" ehts value which is "/" followed by the full method name, in the
+     * same way as derived by the PoP token validator server interceptor.
+     * 
+     * @param method The method descriptor
+     * @return The "uri" ehts value
+     */
+    protected String getUriEhtsValue(MethodDescriptor<?, ?> method) {
+        return "/" + method.getFullMethodName();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Builds the PoP token of the call.
+     * 
+     * @param method The method descriptor
+     * @param headers The metadata of the call
+     * @param messageBytes The serialized request message or null if the request message is not signed
+     * @return The PoP token
+     * @throws PopTokenBuilderException If the PoP token cannot be built
+     */
+    private String buildPopToken(MethodDescriptor<?, ?> method, Metadata headers, byte[] messageBytes)
+            throws PopTokenBuilderException {
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        for (Metadata.Key<String> ehtsMetadataKey : ehtsMetadataKeys) {
+            String metadataValue = headers.get(ehtsMetadataKey);
+            if (metadataValue != null) {
+                ehtsValueMap.put(ehtsMetadataKey.name(), PopEhtsValue.of(metadataValue));
+            }
+        }
+        ehtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of(getUriEhtsValue(method)));
+        if (messageBytes != null && messageBytes.length > 0) {
+            ehtsValueMap.put(PopEhtsKey.BODY.keyName(), PopEhtsValue.of(messageBytes));
+        }
+        return popTokenSigner.signEhtsValues(ehtsValueMap);
+    }
+
+    /**
+     * Returns the status closing the call of which the PoP token cannot be built.
+     * 
+     * @param ex The exception thrown while building the PoP token
+     * @return The INTERNAL status
+     */
+    private static Status buildPopTokenErrorStatus(PopTokenBuilderException ex) {
+        return Status.INTERNAL //
+                .withDescription("Error occurred while building the PoP token, error: " + ex.toString()) //
+                .withCause(ex); //
+    }
+
+    /**
+     * The call deferring its start until the request message has been serialized, so the request message bytes can be signed and the
+     * PoP token can be added to the metadata. The calls made before the start are recorded and replayed.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     */
+    private final class MessageSigningClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+
+        private final MethodDescriptor<ReqT, RespT> method;
+        private final ClientCall<byte[], RespT> delegate;
+        private Listener<RespT> responseListener;
+        private Metadata headers;
+        private int pendingRequestCount;
+        private Boolean pendingMessageCompression;
+        private boolean started;
+        private boolean closed;
+
+        private MessageSigningClientCall(MethodDescriptor<ReqT, RespT> method, ClientCall<byte[], RespT> delegate) {
+            this.method = method;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            this.responseListener = responseListener;
+            this.headers = headers;
+        }
+
+        @Override
+        public void request(int numMessages) {
+            if (started) {
+                delegate.request(numMessages);
+            } else {
+                pendingRequestCount += numMessages;
+            }
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            if (started) {
+                delegate.cancel(message, cause);
+            } else if (!closed) {
+                closed = true;
+                delegate.cancel(message, cause);
+                if (responseListener != null) {
+                    responseListener.onClose(Status.CANCELLED.withDescription(message).withCause(cause), new Metadata());
+                }
+            }
+        }
+
+        @Override
+        public void halfClose() {
+            if (!started && !startSigned(null)) {
+                return;
+            }
+            delegate.halfClose();
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            if (closed) {
+                return;
+            }
+            byte[] messageBytes = PopByteArrayMarshaller.INSTANCE.parse(method.streamRequest(message));
+            if (!started && !startSigned(messageBytes)) {
+                return;
+            }
+            delegate.sendMessage(messageBytes);
+        }
+
+        @Override
+        public boolean isReady() {
+            return started && delegate.isReady();
+        }
+
+        @Override
+        public void setMessageCompression(boolean enabled) {
+            if (started) {
+                delegate.setMessageCompression(enabled);
+            } else {
+                pendingMessageCompression = enabled;
+            }
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return started ? delegate.getAttributes() : Attributes.EMPTY;
+        }
+
+        /**
+         * Adds the PoP token signing the specified request message bytes to the metadata and starts the call, the call is closed if
+         * the PoP token cannot be built.
+         * 
+         * @param messageBytes The serialized request message or null if no request message is sent
+         * @return true if the call has been started
+         */
+        private boolean startSigned(byte[] messageBytes) {
+            if (closed) {
+                return false;
+            }
+            try {
+                headers.put(getPopTokenMetadataKey(), buildPopToken(method, headers, messageBytes));
+            } catch (PopTokenBuilderException ex) {
+                closed = true;
+                responseListener.onClose(buildPopTokenErrorStatus(ex), new Metadata());
+                return false;
+            }
+            delegate.start(responseListener, headers);
+            started = true;
+            if (pendingMessageCompression != null) {
+                delegate.setMessageCompression(pendingMessageCompression);
+            }
+            if (pendingRequestCount > 0) {
+                delegate.request(pendingRequestCount);
+            }
+            return true;
+        }
+    }
+}
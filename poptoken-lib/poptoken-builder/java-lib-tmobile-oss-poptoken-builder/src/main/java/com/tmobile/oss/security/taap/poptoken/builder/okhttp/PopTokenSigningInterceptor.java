@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder.okhttp;
+
+import java.io.IOException;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.builder.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.builder.PopTokenSigner;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * An OkHttp interceptor which adds the PoP token to the outgoing requests.
+ * <p>
+ * The ehts (external headers to sign) values are derived from the request: the configured request headers which are present, the
+ * "uri", the "http-method" and the "body". The request body is hashed while it is written by its <code>RequestBody.writeTo</code>
+ * method, so it is neither buffered nor converted to string, and is written again when the request is sent. The one-shot request
+ * bodies cannot be written twice, so the requests having them are rejected.
+ * <p>
+ * The private key is parsed only once by the caller and the PopTokenSigningInterceptor is thread-safe, so one instance should be
+ * added to the OkHttpClient shared by all the threads, the only cryptographic operation per request is the RSA signature.
+ */
+public class PopTokenSigningInterceptor implements Interceptor {
+
+    private static final String POP_TOKEN_HEADER_NAME = "X-Authorization";
+    private static final String CONTENT_TYPE_HEADER_NAME = "Content-Type";
+
+    private final PopTokenSigner popTokenSigner;
+    private final List<String> ehtsHeaderNames;
+
+    /**
+     * Constructs the PopTokenSigningInterceptor using the specified RSAPrivateKey and names of the request headers to sign.
+     * 
+     * @param rsaPrivateKey The RSA private key, usually parsed once using
+     *            <code>PopTokenBuilderUtils.keyPemStringToRsaPrivateKey</code>
+     * @param ehtsHeaderNames The names of the request headers to sign, in the order of the ehts, the headers not present in the
+     *            request are not signed
+     * @throws IllegalArgumentException If the rsaPrivateKey is null or any of the ehtsHeaderNames is null or empty
+     */
+    public PopTokenSigningInterceptor(RSAPrivateKey rsaPrivateKey, String... ehtsHeaderNames) {
+        if (rsaPrivateKey == null) {
+            throw new IllegalArgumentException("The rsaPrivateKey should not be null");
+        }
+        if (ehtsHeaderNames == null || Arrays.stream(ehtsHeaderNames).anyMatch(StringUtils::isBlank)) {
+            throw new IllegalArgumentException("The ehtsHeaderNames should not contain null or empty header names");
+        }
+        this.popTokenSigner = PopTokenSigner.newInstance(rsaPrivateKey);
+        this.ehtsHeaderNames = Arrays.asList(ehtsHeaderNames.clone());
+    }
+
+    /**
+     * Adds the PoP token to the request and proceeds with the request.
+     * 
+     * @param chain The interceptor chain
+     * @return The response
+     * @throws IOException If the request body cannot be written or the PoP token cannot be built
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String popToken;
+        try {
+            popToken = popTokenSigner.signEhtsValues(buildEhtsValueMap(request));
+        } catch (PopTokenBuilderException ex) {
+            throw new IOException("Error occurred while building the PoP token, error: " + ex.toString(), ex);
+        }
+        return chain.proceed(request.newBuilder() //
+                .header(getPopTokenHeaderName(), popToken) //
+                .build()); //
+    }
+
+    /**
+     * Returns the name of the request header to which the PoP token is added.
+     * <p>
+     * Note: This method can be overridden to modify the default PoP token header name which is "X-Authorization".
+     * 
+     * @return The PoP token header name
+     */
+    protected String getPopTokenHeaderName() {
+        return POP_TOKEN_HEADER_NAME;
+    }
+
+    /**
+     * Returns the "uri" ehts value for the specified request URL, i.e. the path and the decoded query string.
+     * <p>
+     * Note: This method can be overridden to modify the default "uri" ehts value which is the encoded path followed by the decoded
+     * query string, in the same way as derived by the PoP token validator filters.
+     * 
+     * @param url The request URL
+     * @return The "uri" ehts value
+     */
+    protected String getUriEhtsValue(HttpUrl url) {
+        String query = url.query();
+        return query != null ? url.encodedPath() + "?" + query : url.encodedPath();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Builds the ehts value map of the specified request.
+     * 
+     * @param request The request
+     * @return The ehts value map
+     * @throws IOException If the request body cannot be signed
+     */
+    private LinkedHashMap<String, PopEhtsValue> buildEhtsValueMap(Request request) throws IOException {
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        RequestBody body = request.body();
+        for (String ehtsHeaderName : ehtsHeaderNames) {
+            String headerValue = request.header(ehtsHeaderName);
+            if (headerValue == null && body != null && CONTENT_TYPE_HEADER_NAME.equalsIgnoreCase(ehtsHeaderName)) {
+                // the Content-Type header is added from the request body after the application interceptors
+                MediaType contentType = body.contentType();
+                headerValue = contentType != null ? contentType.toString() : null;
+            }
+            if (headerValue != null) {
+                ehtsValueMap.put(ehtsHeaderName, PopEhtsValue.of(headerValue));
+            }
+        }
+        ehtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of(getUriEhtsValue(request.url())));
+        ehtsValueMap.put(PopEhtsKey.HTTP_METHOD.keyName(), PopEhtsValue.of(request.method()));
+
+        if (body != null && body.contentLength() != 0) {
+            if (body.isOneShot()) {
+                throw new IOException("The one-shot request body cannot be signed as it cannot be written twice");
+            }
+            ehtsValueMap.put(PopEhtsKey.BODY.keyName(), PopEhtsValue.of(outputStream -> {
+                BufferedSink sink = Okio.buffer(Okio.sink(outputStream));
+                body.writeTo(sink);
+                sink.flush();
+            }));
+        }
+        return ehtsValueMap;
+    }
+}
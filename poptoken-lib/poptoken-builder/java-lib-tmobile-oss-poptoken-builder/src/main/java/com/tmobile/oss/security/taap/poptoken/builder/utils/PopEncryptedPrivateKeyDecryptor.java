@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.builder.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Security;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
+import org.bouncycastle.operator.InputDecryptorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.pkcs.PKCSException;
+
+/**
+ * Decrypts the encrypted PKCS#8 private key PEM strings using BouncyCastle.
+ * <p>
+ * This is the only class of the builder utils referring to BouncyCastle, so the BouncyCastle classes are loaded and its provider is
+ * registered only when the first encrypted private key PEM string is decrypted, and the applications using the unencrypted private
+ * keys do not load BouncyCastle at all.
+ */
+final class PopEncryptedPrivateKeyDecryptor {
+
+    /**
+     * The BouncyCastle provider, registered when this class is initialized, which the JVM does once and thread-safely on the first
+     * decryption.
+     */
+    private static final Provider BOUNCY_CASTLE_PROVIDER = registerBouncyCastleProvider();
+
+    /**
+     * Constructs the PopEncryptedPrivateKeyDecryptor, the static methods should be used.
+     */
+    private PopEncryptedPrivateKeyDecryptor() {
+    }
+
+    /**
+     * Decrypts the PrivateKey from the specified encrypted PKCS8 private key PEM string and privateKeyPassword using the registered
+     * providers, which include the BouncyCastle provider.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @return The private key
+     * @throws OperatorCreationException If InputDecryptorProvider cannot be built
+     * @throws PKCSException If private key cannot be decrypted
+     * @throws IOException If PEM string cannot be parsed
+     */
+    static PrivateKey decryptPrivateKey(String encryptedPrivateKeyPemString, char[] privateKeyPassword)
+            throws OperatorCreationException, PKCSException, IOException {
+        return decryptPrivateKey(encryptedPrivateKeyPemString, privateKeyPassword, null);
+    }
+
+    /**
+     * Decrypts the PrivateKey from the specified encrypted PKCS8 private key PEM string and privateKeyPassword, the decrypted private
+     * key is built using the KeyFactory of the specified keyFactoryProvider.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @param keyFactoryProvider The JCA provider of the KeyFactory, null to use the registered providers
+     * @return The private key
+     * @throws OperatorCreationException If InputDecryptorProvider cannot be built
+     * @throws PKCSException If private key cannot be decrypted
+     * @throws IOException If PEM string cannot be parsed
+     */
+    static PrivateKey decryptPrivateKey(String encryptedPrivateKeyPemString, char[] privateKeyPassword, Provider keyFactoryProvider)
+            throws OperatorCreationException, PKCSException, IOException {
+
+        PEMParser pemParser = null;
+        try {
+            pemParser = new PEMParser(new StringReader(encryptedPrivateKeyPemString));
+            PKCS8EncryptedPrivateKeyInfo pkcs8EncryptedPrivateKeyInfo = (PKCS8EncryptedPrivateKeyInfo) pemParser.readObject();
+
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter();
+            if (keyFactoryProvider != null) {
+                converter.setProvider(keyFactoryProvider);
+            }
+            InputDecryptorProvider decryptionProv = new JceOpenSSLPKCS8DecryptorProviderBuilder()
+                    .build(privateKeyPassword);
+            PrivateKeyInfo privateKeyInfo = pkcs8EncryptedPrivateKeyInfo.decryptPrivateKeyInfo(decryptionProv);
+            return converter.getPrivateKey(privateKeyInfo);
+        } finally {
+            if (pemParser != null) {
+                pemParser.close();
+            }
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Registers the BouncyCastle provider unless a provider of the same name is already registered.
+     * 
+     * @return The registered BouncyCastle provider
+     */
+    private static Provider registerBouncyCastleProvider() {
+        Provider provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        if (provider == null) {
+            provider = new BouncyCastleProvider();
+            Security.addProvider(provider);
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopPrivateKeyParseException;
+
+/**
+ * A bounded and thread-safe cache of the private keys decrypted from the encrypted PKCS#8 private key PEM strings, so the
+ * intentionally slow password based key derivation runs once per private key instead of once per PoP token. The private keys parsed
+ * from the unencrypted PKCS#8 private key PEM strings can be cached as well, so the same private key instance is returned for the same
+ * PEM string and the Signatures initialized for it are reused by the following PoP tokens.
+ * <p>
+ * The entries are keyed by the SHA-256 digest of a random salt, generated per cache instance, the name of the key factory provider,
+ * the private key PEM string and the password, so neither the PEM string nor the password is retained by the cache and the cache
+ * keys cannot be matched against the digests of known passwords. The password bytes and characters copied while computing the
+ * cache key and decrypting the private key are zeroed after use. An entry is evicted when it is older than the configured time to
+ * live, when it is the least recently used entry of a full cache or when it is explicitly invalidated.
+ */
+public class PopPrivateKeyCache {
+
+    private static final int SALT_LENGTH = 32;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTimeSupplier;
+    private final byte[] salt = new byte[SALT_LENGTH];
+    private final Map<String, CacheEntry> cacheEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs the PopPrivateKeyCache using the specified maximum size and time to live.
+     * 
+     * @param maxSize The maximum number of private keys to be cached
+     * @param ttl The time to live of a cached private key
+     * @param ttlUnit The time unit of ttl
+     * @throws IllegalArgumentException If the maxSize or ttl is not positive or ttlUnit is null
+     */
+    public PopPrivateKeyCache(int maxSize, long ttl, TimeUnit ttlUnit) {
+        this(maxSize, ttl, ttlUnit, System::nanoTime);
+    }
+
+    /**
+     * Constructs the PopPrivateKeyCache using the specified maximum size, time to live and time source.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to control the time.
+     * 
+     * @param maxSize The maximum number of private keys to be cached
+     * @param ttl The time to live of a cached private key
+     * @param ttlUnit The time unit of ttl
+     * @param nanoTimeSupplier The time source returning the current time in nanoseconds
+     */
+    PopPrivateKeyCache(int maxSize, long ttl, TimeUnit ttlUnit, LongSupplier nanoTimeSupplier) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maxSize should be greater than 0");
+        }
+        if (ttl <= 0 || ttlUnit == null) {
+            throw new IllegalArgumentException("The ttl should be greater than 0 and ttlUnit should not be null");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.nanoTimeSupplier = nanoTimeSupplier;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Returns the cached private key for the specified encrypted private key PEM string and password, if the private key is not cached
+     * or has expired then the PEM string is decrypted and the private key is cached. The privateKeyPassword array is not modified, so
+     * it can be zeroed by the caller after this method returns.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS#8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @return The decrypted RSAPrivateKey
+     * @throws PopPrivateKeyParseException If the encryptedPrivateKeyPemString cannot be decrypted or parsed
+     * @throws IllegalArgumentException If the encryptedPrivateKeyPemString or privateKeyPassword is null or empty
+     */
+    public RSAPrivateKey get(String encryptedPrivateKeyPemString, char[] privateKeyPassword) throws PopPrivateKeyParseException {
+        return get(encryptedPrivateKeyPemString, privateKeyPassword, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Returns the cached private key for the specified encrypted private key PEM string, password and key factory provider of the
+     * cryptoConfig, if the private key is not cached or has expired then the PEM string is decrypted using the KeyFactory of the key
+     * factory provider and the private key is cached. The privateKeyPassword array is not modified, so it can be zeroed by the caller
+     * after this method returns.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS#8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the private key
+     * @return The decrypted RSAPrivateKey
+     * @throws PopPrivateKeyParseException If the encryptedPrivateKeyPemString cannot be decrypted or parsed
+     * @throws IllegalArgumentException If the encryptedPrivateKeyPemString or privateKeyPassword is null or empty or cryptoConfig is
+     *             null
+     */
+    public RSAPrivateKey get(String encryptedPrivateKeyPemString, char[] privateKeyPassword, PopCryptoConfig cryptoConfig)
+            throws PopPrivateKeyParseException {
+
+        String cacheKey = toCacheKey(encryptedPrivateKeyPemString, privateKeyPassword, cryptoConfig);
+        return get(cacheKey, () -> PopTokenBuilderUtils.decryptRsaPrivateKey(encryptedPrivateKeyPemString, privateKeyPassword,
+                cryptoConfig));
+    }
+
+    /**
+     * Returns the cached private key for the specified unencrypted private key PEM string and key factory provider of the
+     * cryptoConfig, if the private key is not cached or has expired then the PEM string is parsed using the KeyFactory of the key
+     * factory provider and the private key is cached.
+     * 
+     * @param privateKeyPemString The unencrypted PKCS#8 private key PEM string
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the private key
+     * @return The parsed RSAPrivateKey
+     * @throws PopPrivateKeyParseException If the privateKeyPemString cannot be parsed
+     * @throws IllegalArgumentException If the privateKeyPemString is null or empty or cryptoConfig is null
+     */
+    public RSAPrivateKey getUnencrypted(String privateKeyPemString, PopCryptoConfig cryptoConfig) throws PopPrivateKeyParseException {
+        String cacheKey = toUnencryptedCacheKey(privateKeyPemString, cryptoConfig);
+        return get(cacheKey, () -> PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(privateKeyPemString, cryptoConfig));
+    }
+
+    /**
+     * Removes the cached private key of the specified encrypted private key PEM string and password, for example when the private key
+     * has been rotated.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS#8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @return true if a cached private key has been removed
+     * @throws IllegalArgumentException If the encryptedPrivateKeyPemString or privateKeyPassword is null or empty
+     */
+    public boolean invalidate(String encryptedPrivateKeyPemString, char[] privateKeyPassword) {
+        return invalidate(encryptedPrivateKeyPemString, privateKeyPassword, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Removes the cached private key of the specified encrypted private key PEM string, password and key factory provider of the
+     * cryptoConfig, for example when the private key has been rotated.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted PKCS#8 private key PEM string
+     * @param privateKeyPassword The private key password
+     * @param cryptoConfig The JCA providers which the private key has been cached with
+     * @return true if a cached private key has been removed
+     * @throws IllegalArgumentException If the encryptedPrivateKeyPemString or privateKeyPassword is null or empty or cryptoConfig is
+     *             null
+     */
+    public boolean invalidate(String encryptedPrivateKeyPemString, char[] privateKeyPassword, PopCryptoConfig cryptoConfig) {
+        return cacheEntries.remove(toCacheKey(encryptedPrivateKeyPemString, privateKeyPassword, cryptoConfig)) != null;
+    }
+
+    /**
+     * Removes the cached private key of the specified unencrypted private key PEM string and key factory provider of the cryptoConfig,
+     * for example when the private key has been rotated.
+     * 
+     * @param privateKeyPemString The unencrypted PKCS#8 private key PEM string
+     * @param cryptoConfig The JCA providers which the private key has been cached with
+     * @return true if a cached private key has been removed
+     * @throws IllegalArgumentException If the privateKeyPemString is null or empty or cryptoConfig is null
+     */
+    public boolean invalidateUnencrypted(String privateKeyPemString, PopCryptoConfig cryptoConfig) {
+        return cacheEntries.remove(toUnencryptedCacheKey(privateKeyPemString, cryptoConfig)) != null;
+    }
+
+    /**
+     * Removes all the cached private keys.
+     */
+    public void invalidateAll() {
+        cacheEntries.clear();
+    }
+
+    /**
+     * Returns the number of cached private keys.
+     * 
+     * @return The number of cached private keys
+     */
+    public int size() {
+        return cacheEntries.size();
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached private key.
+     * 
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups which required decrypting the private key.
+     * 
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of private keys evicted because they expired or because the cache was full.
+     * 
+     * @return The number of evicted private keys
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the cached private key of the cache key, if the private key is not cached or has expired then the private key returned
+     * by the privateKeyLoader is cached.
+     * 
+     * @param cacheKey The cache key
+     * @param privateKeyLoader The loader decrypting or parsing the private key
+     * @return The RSAPrivateKey
+     * @throws PopPrivateKeyParseException If the private key cannot be decrypted or parsed
+     */
+    private RSAPrivateKey get(String cacheKey, PrivateKeyLoader privateKeyLoader) throws PopPrivateKeyParseException {
+        long now = nanoTimeSupplier.getAsLong();
+
+        CacheEntry cacheEntry = cacheEntries.get(cacheKey);
+        if (cacheEntry != null) {
+            if (now - cacheEntry.createdAtNanos < ttlNanos) {
+                cacheEntry.lastAccessedAtNanos = now;
+                hitCount.incrementAndGet();
+                return cacheEntry.rsaPrivateKey;
+            }
+            if (cacheEntries.remove(cacheKey, cacheEntry)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        missCount.incrementAndGet();
+        RSAPrivateKey rsaPrivateKey = privateKeyLoader.load();
+        cacheEntries.put(cacheKey, new CacheEntry(rsaPrivateKey, now));
+        evictIfFull();
+        return rsaPrivateKey;
+    }
+
+    /**
+     * Converts the encrypted private key PEM string, password and key factory provider to the cache key, the UTF-8 encoded password
+     * bytes are zeroed after being digested.
+     * 
+     * @param encryptedPrivateKeyPemString The encrypted private key PEM string
+     * @param privateKeyPassword The private key password
+     * @param cryptoConfig The JCA providers, the name of the key factory provider is part of the cache key
+     * @return The base64 encoded SHA-256 digest of the salt, key factory provider name, PEM string and password
+     */
+    private String toCacheKey(String encryptedPrivateKeyPemString, char[] privateKeyPassword, PopCryptoConfig cryptoConfig) {
+        if (StringUtils.isBlank(encryptedPrivateKeyPemString)) {
+            throw new IllegalArgumentException("The encryptedPrivateKeyPemString should not be null or empty");
+        }
+        if (privateKeyPassword == null || privateKeyPassword.length == 0) {
+            throw new IllegalArgumentException("The privateKeyPassword should not be null or empty");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        MessageDigest messageDigest = newPemStringDigest(encryptedPrivateKeyPemString, cryptoConfig);
+        // separates the PEM string from the password, the PEM string never contains the NUL character
+        messageDigest.update((byte) 0);
+        ByteBuffer passwordBuffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(privateKeyPassword));
+        byte[] passwordBytes = new byte[passwordBuffer.remaining()];
+        passwordBuffer.get(passwordBytes);
+        try {
+            messageDigest.update(passwordBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            Arrays.fill(passwordBuffer.array(), (byte) 0);
+        }
+        return Base64.encodeBase64String(messageDigest.digest());
+    }
+
+    /**
+     * Converts the unencrypted private key PEM string and key factory provider to the cache key. Unlike the cache key of an encrypted
+     * private key PEM string, no password separator is digested after the PEM string, so the cache keys of both kinds never collide.
+     * 
+     * @param privateKeyPemString The unencrypted private key PEM string
+     * @param cryptoConfig The JCA providers, the name of the key factory provider is part of the cache key
+     * @return The base64 encoded SHA-256 digest of the salt, key factory provider name and PEM string
+     */
+    private String toUnencryptedCacheKey(String privateKeyPemString, PopCryptoConfig cryptoConfig) {
+        if (StringUtils.isBlank(privateKeyPemString)) {
+            throw new IllegalArgumentException("The privateKeyPemString should not be null or empty");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        return Base64.encodeBase64String(newPemStringDigest(privateKeyPemString, cryptoConfig).digest());
+    }
+
+    /**
+     * Creates the SHA-256 MessageDigest updated with the salt, the name of the key factory provider and the private key PEM string.
+     * 
+     * @param privateKeyPemString The private key PEM string
+     * @param cryptoConfig The JCA providers, the name of the key factory provider is digested
+     * @return The MessageDigest
+     */
+    private MessageDigest newPemStringDigest(String privateKeyPemString, PopCryptoConfig cryptoConfig) {
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+        messageDigest.update(salt);
+        Provider keyFactoryProvider = cryptoConfig.getKeyFactoryProvider();
+        if (keyFactoryProvider != null) {
+            messageDigest.update(keyFactoryProvider.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        // separates the provider name from the PEM string, neither of them contains the NUL character
+        messageDigest.update((byte) 0);
+        messageDigest.update(privateKeyPemString.getBytes(StandardCharsets.UTF_8));
+        return messageDigest;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is not having more than maxSize entries.
+     */
+    private void evictIfFull() {
+        while (cacheEntries.size() > maxSize) {
+            Map.Entry<String, CacheEntry> leastRecentlyUsedEntry = null;
+            for (Map.Entry<String, CacheEntry> entry : cacheEntries.entrySet()) {
+                if (leastRecentlyUsedEntry == null
+                        || entry.getValue().lastAccessedAtNanos - leastRecentlyUsedEntry.getValue().lastAccessedAtNanos < 0) {
+                    leastRecentlyUsedEntry = entry;
+                }
+            }
+            if (leastRecentlyUsedEntry != null
+                    && cacheEntries.remove(leastRecentlyUsedEntry.getKey(), leastRecentlyUsedEntry.getValue())) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Decrypts or parses the private key to be cached.
+     */
+    @FunctionalInterface
+    private interface PrivateKeyLoader {
+
+        /**
+         * Decrypts or parses the private key.
+         * 
+         * @return The RSAPrivateKey
+         * @throws PopPrivateKeyParseException If the private key cannot be decrypted or parsed
+         */
+        RSAPrivateKey load() throws PopPrivateKeyParseException;
+    }
+
+    /**
+     * Represents the cached private key.
+     */
+    private static class CacheEntry {
+
+        private final RSAPrivateKey rsaPrivateKey;
+        private final long createdAtNanos;
+        private volatile long lastAccessedAtNanos;
+
+        private CacheEntry(RSAPrivateKey rsaPrivateKey, long createdAtNanos) {
+            this.rsaPrivateKey = rsaPrivateKey;
+            this.createdAtNanos = createdAtNanos;
+            this.lastAccessedAtNanos = createdAtNanos;
+        }
+    }
+}
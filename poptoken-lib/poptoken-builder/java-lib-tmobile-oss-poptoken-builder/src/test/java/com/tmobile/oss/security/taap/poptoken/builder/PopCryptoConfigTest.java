@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+import org.junit.Test;
+
+public class PopCryptoConfigTest {
+
+    @Test
+    public void withDigestProvider__otherProvidersSet__keepsOtherProviders() {
+
+        // setup the data
+        Provider signatureProvider = Security.getProvider("SunRsaSign");
+        Provider keyFactoryProvider = Security.getProvider("SunEC");
+        Provider digestProvider = Security.getProvider("SUN");
+
+        // perform an action
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT //
+                .withSignatureProvider(signatureProvider) //
+                .withKeyFactoryProvider(keyFactoryProvider) //
+                .withDigestProvider(digestProvider); //
+
+        // validate the results
+        assertSame(digestProvider, cryptoConfig.getDigestProvider());
+        assertSame(signatureProvider, cryptoConfig.getSignatureProvider());
+        assertSame(keyFactoryProvider, cryptoConfig.getKeyFactoryProvider());
+        assertNull(PopCryptoConfig.DEFAULT.getDigestProvider());
+    }
+
+    @Test
+    public void newSha256Digest__digestProviderSet__createsDigestOfProvider() throws Exception {
+
+        // setup the data
+        Provider digestProvider = Security.getProvider("SUN");
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withDigestProvider(digestProvider);
+
+        // perform an action and validate the results
+        assertSame(digestProvider, cryptoConfig.newSha256Digest().getProvider());
+        assertEquals("SHA-256", cryptoConfig.newSha256Digest().getAlgorithm());
+    }
+
+    @Test
+    public void newKeyFactory__keyFactoryProviderNotSupportingKeyAlgorithm__throwsNoSuchAlgorithmException() {
+
+        // setup the data
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+
+        try {
+            // perform an action
+            cryptoConfig.newKeyFactory("RSA");
+            fail("The NoSuchAlgorithmException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(NoSuchAlgorithmException.class, ex.getClass());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+public class PopEhtsValueTest {
+
+    @Test
+    public void updateDigest__largeStringValueWithMultiByteAndMalformedCharacters__calculatesSameDigestAsStringBytes()
+            throws Exception {
+
+        // setup the data
+        StringBuilder valueBuilder = new StringBuilder();
+        while (valueBuilder.length() < 100000) {
+            valueBuilder.append("{\"name\": \"Jos\u00e9 \u20ac \ud83d\ude00\"}");
+            valueBuilder.append('\ud83d'); // unpaired high surrogate
+        }
+        String value = valueBuilder.toString();
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+        // perform an action
+        PopEhtsValue.of(value).updateDigest(messageDigest);
+
+        // validate the results
+        assertArrayEquals(DigestUtils.sha256(value.getBytes(StandardCharsets.UTF_8)), messageDigest.digest());
+    }
+
+    @Test
+    public void updateDigest__byteBufferValue__doesNotModifyByteBufferPosition() throws Exception {
+
+        // setup the data
+        ByteBuffer value = ByteBuffer.wrap("application/json".getBytes(StandardCharsets.UTF_8));
+        value.position(4);
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+        // perform an action
+        PopEhtsValue.of(value).updateDigest(messageDigest);
+
+        // validate the results
+        assertArrayEquals(DigestUtils.sha256("ication/json"), messageDigest.digest());
+        assertEquals(4, value.position());
+    }
+
+    @Test
+    public void updateDigest__valueWriterValue__calculatesDigestOfWrittenBytes() throws Exception {
+
+        // setup the data
+        byte[] value = "{\"orderId\": 100, \"product\": \"Mobile Phone\"}".getBytes(StandardCharsets.UTF_8);
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+        // perform an action
+        PopEhtsValue.of(outputStream -> {
+            outputStream.write(value[0]);
+            outputStream.write(value, 1, value.length - 1);
+        }).updateDigest(messageDigest);
+
+        // validate the results
+        assertArrayEquals(DigestUtils.sha256(value), messageDigest.digest());
+    }
+
+    @Test
+    public void isEmpty__blankByteArrayAndStringValues__returnsSameResult() {
+
+        // setup the data
+        String[] values = { "", " \t\r\n", "\u2003 ", " a ", "\u00e9" };
+
+        for (String value : values) {
+            // perform an action and validate the results
+            assertEquals(value, PopEhtsValue.of(value).isEmpty(), PopEhtsValue.of(value.getBytes(StandardCharsets.UTF_8)).isEmpty());
+        }
+    }
+
+    @Test
+    public void updateDigest__blankInputStreamValueReadOneByteAtATime__throwsIOException() throws Exception {
+
+        // setup the data
+        PopEhtsValue ehtsValue = PopEhtsValue.of(new ByteArrayInputStream(" \u2003\n".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        });
+
+        try {
+            // perform an action
+            ehtsValue.updateDigest(DigestUtils.getSha256Digest());
+            fail("The IOException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IOException.class, ex.getClass());
+            assertEquals("The ehts value should not be empty", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void updateDigest__multiByteInputStreamValueReadOneByteAtATime__calculatesDigestOfBytes() throws Exception {
+
+        // setup the data
+        byte[] value = "\u2003\u00e9".getBytes(StandardCharsets.UTF_8);
+        PopEhtsValue ehtsValue = PopEhtsValue.of(new ByteArrayInputStream(value) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        });
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+        // perform an action
+        ehtsValue.updateDigest(messageDigest);
+
+        // validate the results
+        assertArrayEquals(DigestUtils.sha256(value), messageDigest.digest());
+    }
+
+    @Test
+    public void updateDigest__inputStreamValueHashedTwice__throwsIllegalStateException() throws Exception {
+
+        // setup the data
+        PopEhtsValue ehtsValue = PopEhtsValue.of(new ByteArrayInputStream("body".getBytes(StandardCharsets.UTF_8)));
+        ehtsValue.updateDigest(DigestUtils.getSha256Digest());
+
+        try {
+            // perform an action
+            ehtsValue.updateDigest(DigestUtils.getSha256Digest());
+            fail("The IllegalStateException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalStateException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void updateDigest__emptyValueWriterValue__throwsIOException() {
+
+        // setup the data
+        PopEhtsValue ehtsValue = PopEhtsValue.of(outputStream -> {
+        });
+
+        try {
+            // perform an action
+            ehtsValue.updateDigest(DigestUtils.getSha256Digest());
+            fail("The IOException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IOException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void updateDigest__valueWriterWritingSingleBytes__calculatesDigestOfBytes() throws Exception {
+
+        // setup the data
+        byte[] value = " \u2003\u00e9".getBytes(StandardCharsets.UTF_8);
+        PopEhtsValue ehtsValue = PopEhtsValue.of(outputStream -> {
+            for (byte b : value) {
+                outputStream.write(b);
+            }
+        });
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+
+        // perform an action
+        ehtsValue.updateDigest(messageDigest);
+
+        // validate the results
+        assertArrayEquals(DigestUtils.sha256(value), messageDigest.digest());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class PopThreadLocalUniqueIdentifierGeneratorTest {
+
+    @Test
+    public void generateUniqueIdentifier__sameThread__returnsVersion4UuidsIncrementingCounter() {
+
+        // setup the data
+        Random random = new Random(0);
+        long randomPrefix = random.nextLong();
+        long randomStart = random.nextLong();
+        PopThreadLocalUniqueIdentifierGenerator uniqueIdentifierGenerator = new PopThreadLocalUniqueIdentifierGenerator(new Random(0));
+
+        // perform an action
+        String firstUniqueIdentifier = uniqueIdentifierGenerator.generateUniqueIdentifier();
+        String secondUniqueIdentifier = uniqueIdentifierGenerator.generateUniqueIdentifier();
+
+        // validate the results
+        UUID firstUuid = UUID.fromString(firstUniqueIdentifier);
+        UUID secondUuid = UUID.fromString(secondUniqueIdentifier);
+        assertEquals(firstUuid.toString(), firstUniqueIdentifier);
+        assertEquals(secondUuid.toString(), secondUniqueIdentifier);
+        assertEquals(4, firstUuid.version());
+        assertEquals(2, firstUuid.variant());
+        assertEquals(randomPrefix & 0xFFFFFFFFFFFF0FFFL | 0x4000L, firstUuid.getMostSignificantBits());
+        assertEquals((randomStart + 1) & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L, firstUuid.getLeastSignificantBits());
+        assertEquals(firstUuid.getMostSignificantBits(), secondUuid.getMostSignificantBits());
+        assertEquals((randomStart + 2) & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L, secondUuid.getLeastSignificantBits());
+    }
+
+    @Test
+    public void generateUniqueIdentifier__multipleThreads__returnsUniqueIdentifiers() throws Exception {
+
+        // setup the data
+        PopThreadLocalUniqueIdentifierGenerator uniqueIdentifierGenerator = new PopThreadLocalUniqueIdentifierGenerator();
+        ExecutorService executorService = Executors.newFixedThreadPool(16);
+
+        // perform an action
+        List<Future<List<String>>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                futures.add(executorService.submit(() -> {
+                    List<String> uniqueIdentifiers = new ArrayList<>();
+                    for (int j = 0; j < 1000; j++) {
+                        uniqueIdentifiers.add(uniqueIdentifierGenerator.generateUniqueIdentifier());
+                    }
+                    return uniqueIdentifiers;
+                }));
+            }
+
+            // validate the results
+            Set<String> uniqueIdentifiers = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                uniqueIdentifiers.addAll(future.get());
+            }
+            assertEquals(64 * 1000, uniqueIdentifiers.size());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
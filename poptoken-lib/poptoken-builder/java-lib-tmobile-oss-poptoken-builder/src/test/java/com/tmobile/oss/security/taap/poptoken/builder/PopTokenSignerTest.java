@@ -0,0 +1,384 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopTokenBuilderException;
+import com.tmobile.oss.security.taap.poptoken.builder.testutils.PopTokenBuilderTestUtils;
+
+public class PopTokenSignerTest {
+
+    @Test
+    public void sign__withRsaPrivateKey__successfullyBuildsPopToken() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair.getPrivate());
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        DecodedJWT signedPopToken = JWT.require(Algorithm.RSA256((RSAPublicKey) rsaKeyPair.getPublic(), null)) //
+                .build() //
+                .verify(popToken); //
+        assertEquals("RS256", signedPopToken.getAlgorithm());
+        assertEquals("Content-Type;uri;body", signedPopToken.getClaim("ehts").asString());
+        assertEquals("Token validity duration is invalid", PopTokenBuilder.POP_TOKEN_VALIDITY_DURATION_IN_MILLIS,
+                signedPopToken.getExpiresAt().getTime() - signedPopToken.getIssuedAt().getTime());
+        assertEquals("1", signedPopToken.getClaim("v").asString());
+        assertNotNull("Unique identifer (jti) is null", signedPopToken.getClaim("jti").asString());
+    }
+
+    @Test
+    public void signEhtsValues__bodyAsByteArray__calculatesSameEdtsAsPopTokenBuilder() throws Exception {
+
+        // setup the data
+        RSAPrivateKey rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(rsaPrivateKey.getEncoded());
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(privateKeyPemString);
+
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        ehtsValueMap.put("Content-Type", PopEhtsValue.of("application/json"));
+        ehtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of("/commerce/v1/orders"));
+        ehtsValueMap.put(PopEhtsKey.BODY.keyName(), PopEhtsValue.of("{\"orderId\": 1}".getBytes(StandardCharsets.UTF_8)));
+
+        // perform an action
+        String popToken = popTokenSigner.signEhtsValues(ehtsValueMap);
+
+        // validate the results
+        String expectedPopToken = PopTokenBuilder.newInstance() //
+                .setEhtsKeyValueMap(createEhtsKeyValueMap()) //
+                .signWith(rsaPrivateKey) //
+                .build(); //
+        assertEquals(JWT.decode(expectedPopToken).getClaim("edts").asString(), JWT.decode(popToken).getClaim("edts").asString());
+    }
+
+    @Test
+    public void newInstance__nullRsaPrivateKey__throwsIllegalArgumentException() {
+
+        // perform an action
+        try {
+            PopTokenSigner.newInstance((RSAPrivateKey) null);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__withUniqueIdentifierGenerator__usesGeneratedUniqueIdentifier() throws Exception {
+
+        // setup the data
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(PopTokenBuilderTestUtils.createNewRsaPrivateKey()) //
+                .withUniqueIdentifierGenerator(() -> "unique-identifier-1"); //
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        assertEquals("unique-identifier-1", JWT.decode(popToken).getClaim("jti").asString());
+    }
+
+    @Test
+    public void withUniqueIdentifierGenerator__nullGenerator__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(PopTokenBuilderTestUtils.createNewRsaPrivateKey());
+
+        // perform an action
+        try {
+            popTokenSigner.withUniqueIdentifierGenerator(null);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__withSignatureProvider__buildsPopTokenSignedUsingProvider() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair.getPrivate()) //
+                .withSignatureProvider(new BouncyCastleProvider()); //
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        DecodedJWT signedPopToken = JWT.require(Algorithm.RSA256((RSAPublicKey) rsaKeyPair.getPublic(), null)) //
+                .build() //
+                .verify(popToken); //
+        assertEquals("RS256", signedPopToken.getAlgorithm());
+    }
+
+    @Test
+    public void withSignatureProvider__nullProvider__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(PopTokenBuilderTestUtils.createNewRsaPrivateKey());
+
+        // perform an action
+        try {
+            popTokenSigner.withSignatureProvider(null);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__withCryptoConfig__buildsPopTokenUsingProviders() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        BouncyCastleProvider bouncyCastleProvider = new BouncyCastleProvider();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair.getPrivate()) //
+                .withCryptoConfig(PopCryptoConfig.DEFAULT //
+                        .withDigestProvider(bouncyCastleProvider) //
+                        .withSignatureProvider(bouncyCastleProvider)); //
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        String expectedPopToken = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair.getPrivate()).sign(createEhtsKeyValueMap());
+        JWT.require(Algorithm.RSA256((RSAPublicKey) rsaKeyPair.getPublic(), null)).build().verify(popToken);
+        assertEquals(JWT.decode(expectedPopToken).getClaim("edts").asString(), JWT.decode(popToken).getClaim("edts").asString());
+    }
+
+    @Test
+    public void withCryptoConfig__nullCryptoConfig__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(PopTokenBuilderTestUtils.createNewRsaPrivateKey());
+
+        // perform an action
+        try {
+            popTokenSigner.withCryptoConfig(null);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__alternatingPrivateKeysOnSameThread__buildsPopTokensSignedByEachPrivateKey() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair1 = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        KeyPair rsaKeyPair2 = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        PopTokenSigner popTokenSigner1 = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair1.getPrivate());
+        PopTokenSigner popTokenSigner2 = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair2.getPrivate());
+
+        for (int i = 0; i < 3; i++) {
+            // perform an action
+            String popToken1 = popTokenSigner1.sign(createEhtsKeyValueMap());
+            String popToken2 = popTokenSigner2.sign(createEhtsKeyValueMap());
+
+            // validate the results
+            JWT.require(Algorithm.RSA256((RSAPublicKey) rsaKeyPair1.getPublic(), null)).build().verify(popToken1);
+            JWT.require(Algorithm.RSA256((RSAPublicKey) rsaKeyPair2.getPublic(), null)).build().verify(popToken2);
+        }
+    }
+
+    @Test
+    public void sign__morePrivateKeysThanCachedSignaturesOnSameThread__buildsPopTokensSignedByEachPrivateKey() throws Exception {
+
+        // setup the data
+        List<KeyPair> ecKeyPairs = new ArrayList<>();
+        List<PopTokenSigner> popTokenSigners = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+            ecKeyPairs.add(ecKeyPair);
+            popTokenSigners.add(PopTokenSigner.newInstance(ecKeyPair.getPrivate(), PopSigningAlgorithm.ES256));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < popTokenSigners.size(); j++) {
+                // perform an action
+                String popToken = popTokenSigners.get(j).sign(createEhtsKeyValueMap());
+
+                // validate the results
+                JWT.require(Algorithm.ECDSA256((ECPublicKey) ecKeyPairs.get(j).getPublic(), null)).build().verify(popToken);
+            }
+        }
+    }
+
+    @Test
+    public void sign__ps256WithRsaPrivateKey__buildsPopTokenSignedUsingRsaPss() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(rsaKeyPair.getPrivate(), PopSigningAlgorithm.PS256);
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        Signature signature = Signature.getInstance("RSASSA-PSS");
+        signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+        assertEquals("PS256", JWT.decode(popToken).getAlgorithm());
+        assertTrue("The PS256 signature is invalid", verifySignature(popToken, rsaKeyPair.getPublic(), signature));
+    }
+
+    @Test
+    public void sign__es256WithEcPrivateKeyPemString__buildsPopTokenVerifiedByJavaJwt() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(ecKeyPair.getPrivate().getEncoded());
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(privateKeyPemString, PopSigningAlgorithm.ES256);
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        DecodedJWT signedPopToken = JWT.require(Algorithm.ECDSA256((ECPublicKey) ecKeyPair.getPublic(), null)) //
+                .build() //
+                .verify(popToken); //
+        assertEquals("ES256", signedPopToken.getAlgorithm());
+        assertEquals("Content-Type;uri;body", signedPopToken.getClaim("ehts").asString());
+    }
+
+    @Test
+    public void sign__edDsaWithEd25519PrivateKey__buildsPopTokenSignedUsingEd25519() throws Exception {
+
+        // setup the data
+        KeyPair ed25519KeyPair = PopTokenBuilderTestUtils.createNewEd25519KeyPair();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(ed25519KeyPair.getPrivate(), PopSigningAlgorithm.EdDSA);
+
+        // perform an action
+        String popToken = popTokenSigner.sign(createEhtsKeyValueMap());
+
+        // validate the results
+        assertEquals("EdDSA", JWT.decode(popToken).getAlgorithm());
+        assertTrue("The EdDSA signature is invalid", verifySignature(popToken, ed25519KeyPair.getPublic(),
+                Signature.getInstance("Ed25519", new BouncyCastleProvider())));
+    }
+
+    @Test
+    public void newInstance__ecPrivateKeyForRs256__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+
+        // perform an action
+        try {
+            PopTokenSigner.newInstance(ecKeyPair.getPrivate(), PopSigningAlgorithm.RS256);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__emptyEhtsKeyValueMap__throwsPopTokenBuilderException() throws Exception {
+
+        // setup the data
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance(PopTokenBuilderTestUtils.createNewRsaPrivateKey());
+
+        // perform an action
+        try {
+            popTokenSigner.sign(new LinkedHashMap<>());
+            fail("The PopTokenBuilderException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(PopTokenBuilderException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void sign__sharedBetweenThreads__buildsValidPopTokens() throws Exception {
+
+        // setup the data
+        KeyPair rsaKeyPair = PopTokenBuilderTestUtils.createNewRsaKeyPair();
+        PopTokenSigner popTokenSigner = PopTokenSigner.newInstance((RSAPrivateKey) rsaKeyPair.getPrivate());
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        // perform an action
+        List<Future<String>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                futures.add(executorService.submit(() -> popTokenSigner.sign(createEhtsKeyValueMap())));
+            }
+
+            // validate the results
+            Set<String> uniqueIdentifiers = new HashSet<>();
+            Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) rsaKeyPair.getPublic(), null);
+            for (Future<String> future : futures) {
+                DecodedJWT signedPopToken = JWT.require(algorithm).build().verify(future.get());
+                uniqueIdentifiers.add(signedPopToken.getClaim("jti").asString());
+            }
+            assertEquals(200, uniqueIdentifiers.size());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    private static boolean verifySignature(String popToken, PublicKey publicKey, Signature signature) throws Exception {
+        int signatureIndex = popToken.lastIndexOf('.');
+        signature.initVerify(publicKey);
+        signature.update(popToken.substring(0, signatureIndex).getBytes(StandardCharsets.US_ASCII));
+        return signature.verify(Base64.decodeBase64(popToken.substring(signatureIndex + 1)));
+    }
+
+    private static LinkedHashMap<String, String> createEhtsKeyValueMap() {
+        LinkedHashMap<String, String> ehtsKeyValueMap = new LinkedHashMap<>();
+        ehtsKeyValueMap.put("Content-Type", "application/json");
+        ehtsKeyValueMap.put(PopEhtsKey.URI.keyName(), "/commerce/v1/orders");
+        ehtsKeyValueMap.put(PopEhtsKey.BODY.keyName(), "{\"orderId\": 1}");
+        return ehtsKeyValueMap;
+    }
+}
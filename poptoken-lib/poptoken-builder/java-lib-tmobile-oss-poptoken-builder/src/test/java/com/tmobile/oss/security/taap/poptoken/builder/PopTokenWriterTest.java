@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.tmobile.oss.security.taap.poptoken.builder.testutils.PopTokenBuilderTestUtils;
+
+public class PopTokenWriterTest {
+
+    private static final Date ISSUED_AT = new Date(1571328000123L);
+    private static final Date EXPIRES_AT = new Date(ISSUED_AT.getTime() + PopTokenBuilder.POP_TOKEN_VALIDITY_DURATION_IN_MILLIS);
+    private static final String UNIQUE_IDENTIFIER = "5f6b1e6c-7a2d-4f0e-9b3a-2c1d0e9f8a7b";
+
+    @Test
+    public void write__simpleEhtsKeys__writesSamePopTokenAsJavaJwt() throws Exception {
+
+        // setup the data
+        RSAPrivateKey rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        ehtsValueMap.put("Content-Type", PopEhtsValue.of("application/json"));
+        ehtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of("/commerce/v1/orders"));
+        ehtsValueMap.put(PopEhtsKey.BODY.keyName(), PopEhtsValue.of("{\"orderId\": 1}".getBytes(StandardCharsets.UTF_8)));
+
+        // perform an action
+        String popToken = PopTokenWriter.get().write(ehtsValueMap, ISSUED_AT, EXPIRES_AT, UNIQUE_IDENTIFIER, "1", rsaPrivateKey,
+                PopSigningAlgorithm.RS256, PopCryptoConfig.DEFAULT);
+
+        // validate the results
+        assertEquals(createJavaJwtPopToken(ehtsValueMap, UNIQUE_IDENTIFIER, "1", rsaPrivateKey), popToken);
+    }
+
+    @Test
+    public void write__ehtsKeysRequiringEscapingAndUtf8__writesSamePopTokenAsJavaJwt() throws Exception {
+
+        // setup the data
+        RSAPrivateKey rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        ehtsValueMap.put("X-\"Quoted\"\\Key", PopEhtsValue.of("value1"));
+        ehtsValueMap.put("X-Control\b\t\n\f\r\u0001\u001f\u007f", PopEhtsValue.of("value2"));
+        ehtsValueMap.put("X-Caf\u00e9-\u20ac-\ud83d\ude00", PopEhtsValue.of("value3"));
+
+        // perform an action
+        String popToken = PopTokenWriter.get().write(ehtsValueMap, ISSUED_AT, EXPIRES_AT, "jti-\u00e9\"\\", "v\u0002",
+                rsaPrivateKey, PopSigningAlgorithm.RS256, PopCryptoConfig.DEFAULT);
+
+        // validate the results
+        assertEquals(createJavaJwtPopToken(ehtsValueMap, "jti-\u00e9\"\\", "v\u0002", rsaPrivateKey), popToken);
+    }
+
+    @Test
+    public void write__largePopTokenFollowedBySmallPopToken__writesSamePopTokensAsJavaJwt() throws Exception {
+
+        // setup the data
+        RSAPrivateKey rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        LinkedHashMap<String, PopEhtsValue> largeEhtsValueMap = new LinkedHashMap<>();
+        largeEhtsValueMap.put(StringUtils.repeat("X-Large-Header-\u00e9", 2000), PopEhtsValue.of("value1"));
+        LinkedHashMap<String, PopEhtsValue> smallEhtsValueMap = new LinkedHashMap<>();
+        smallEhtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of("/commerce/v1/orders"));
+
+        // perform an action
+        PopTokenWriter popTokenWriter = PopTokenWriter.get();
+        String largePopToken = popTokenWriter.write(largeEhtsValueMap, ISSUED_AT, EXPIRES_AT, UNIQUE_IDENTIFIER, "1", rsaPrivateKey,
+                PopSigningAlgorithm.RS256, PopCryptoConfig.DEFAULT);
+        String smallPopToken = popTokenWriter.write(smallEhtsValueMap, ISSUED_AT, EXPIRES_AT, UNIQUE_IDENTIFIER, "1", rsaPrivateKey,
+                PopSigningAlgorithm.RS256, PopCryptoConfig.DEFAULT);
+
+        // validate the results
+        assertEquals(createJavaJwtPopToken(largeEhtsValueMap, UNIQUE_IDENTIFIER, "1", rsaPrivateKey), largePopToken);
+        assertEquals(createJavaJwtPopToken(smallEhtsValueMap, UNIQUE_IDENTIFIER, "1", rsaPrivateKey), smallPopToken);
+    }
+
+    @Test
+    public void write__unpairedSurrogateCharacters__writesSamePopTokenAsJavaJwt() throws Exception {
+
+        // setup the data
+        RSAPrivateKey rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        ehtsValueMap.put("X-Unpaired-\ud83d-\ude00\ud83d", PopEhtsValue.of("value1"));
+
+        // perform an action
+        String popToken = PopTokenWriter.get().write(ehtsValueMap, ISSUED_AT, EXPIRES_AT, "jti-\ude00", "1", rsaPrivateKey,
+                PopSigningAlgorithm.RS256, PopCryptoConfig.DEFAULT);
+
+        // validate the results
+        assertEquals(createJavaJwtPopToken(ehtsValueMap, "jti-\ude00", "1", rsaPrivateKey), popToken);
+    }
+
+    @Test
+    public void write__es256WithEcPrivateKey__writesPopTokenVerifiedByJavaJwt() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+        LinkedHashMap<String, PopEhtsValue> ehtsValueMap = new LinkedHashMap<>();
+        ehtsValueMap.put(PopEhtsKey.URI.keyName(), PopEhtsValue.of("/commerce/v1/orders"));
+
+        // perform an action
+        String popToken = PopTokenWriter.get().write(ehtsValueMap, ISSUED_AT, EXPIRES_AT, UNIQUE_IDENTIFIER, "1",
+                ecKeyPair.getPrivate(), PopSigningAlgorithm.ES256, PopCryptoConfig.DEFAULT);
+
+        // validate the results
+        DecodedJWT decodedPopToken = JWT.decode(popToken);
+        assertEquals("ES256", decodedPopToken.getAlgorithm());
+        assertEquals(UNIQUE_IDENTIFIER, decodedPopToken.getId());
+        Algorithm.ECDSA256((ECPublicKey) ecKeyPair.getPublic(), null).verify(decodedPopToken);
+    }
+
+    private static String createJavaJwtPopToken(LinkedHashMap<String, PopEhtsValue> ehtsValueMap, String uniqueIdentifier,
+            String version, RSAPrivateKey rsaPrivateKey) throws Exception {
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+        for (PopEhtsValue ehtsValue : ehtsValueMap.values()) {
+            ehtsValue.updateDigest(messageDigest);
+        }
+        return JWT.create() //
+                .withClaim("ehts", String.join(";", ehtsValueMap.keySet())) //
+                .withClaim("edts", Base64.encodeBase64URLSafeString(messageDigest.digest())) //
+                .withClaim("jti", uniqueIdentifier) //
+                .withClaim("v", version) //
+                .withIssuedAt(ISSUED_AT) //
+                .withExpiresAt(EXPIRES_AT) //
+                .sign(Algorithm.RSA256(null, rsaPrivateKey)); //
+    }
+}
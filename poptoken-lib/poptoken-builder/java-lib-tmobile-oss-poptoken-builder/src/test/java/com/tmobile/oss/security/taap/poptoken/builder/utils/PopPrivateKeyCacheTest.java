@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.builder.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.Security;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.tmobile.oss.security.taap.poptoken.builder.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.builder.exception.PopPrivateKeyParseException;
+import com.tmobile.oss.security.taap.poptoken.builder.testutils.PopTokenBuilderTestUtils;
+
+public class PopPrivateKeyCacheTest {
+
+    private static final char[] PASSWORD = "foobar".toCharArray();
+
+    private static RSAPrivateKey rsaPrivateKey;
+    private static String encryptedPrivateKeyPemString;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        rsaPrivateKey = PopTokenBuilderTestUtils.createNewRsaPrivateKey();
+        encryptedPrivateKeyPemString = PopTokenBuilderTestUtils.generateEncryptedPrivateKeyPemString(rsaPrivateKey, PASSWORD);
+    }
+
+    @Test
+    public void get__samePemStringAndPassword__decryptsPrivateKeyOnlyOnce() throws Exception {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+        char[] password = PASSWORD.clone();
+
+        // perform an action
+        RSAPrivateKey firstPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, password);
+        RSAPrivateKey secondPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, password);
+
+        // validate the results
+        assertEquals(rsaPrivateKey.getPrivateExponent(), firstPrivateKey.getPrivateExponent());
+        assertSame(firstPrivateKey, secondPrivateKey);
+        assertEquals(1, privateKeyCache.getMissCount());
+        assertEquals(1, privateKeyCache.getHitCount());
+        assertArrayEquals("The password should not have been modified", PASSWORD, password);
+    }
+
+    @Test
+    public void get__samePemStringAndPasswordWithOtherKeyFactoryProvider__decryptsPrivateKeyUsingEachProvider() throws Exception {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+        PopCryptoConfig sunCryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunRsaSign"));
+        PopCryptoConfig bcCryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(new BouncyCastleProvider());
+
+        // perform an action
+        RSAPrivateKey sunPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD, sunCryptoConfig);
+        RSAPrivateKey bcPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD, bcCryptoConfig);
+
+        // validate the results
+        assertTrue(sunPrivateKey.getClass().getName(), sunPrivateKey.getClass().getName().startsWith("sun.security."));
+        assertTrue(bcPrivateKey.getClass().getName(), bcPrivateKey.getClass().getName().startsWith("org.bouncycastle."));
+        assertEquals(sunPrivateKey.getPrivateExponent(), bcPrivateKey.getPrivateExponent());
+        assertSame(bcPrivateKey, privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD, bcCryptoConfig));
+        assertEquals(2, privateKeyCache.getMissCount());
+        assertEquals(2, privateKeyCache.size());
+    }
+
+    @Test
+    public void getUnencrypted__samePemString__parsesPrivateKeyOnlyOnceAndSeparatelyFromEncryptedPemString() throws Exception {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(rsaPrivateKey.getEncoded());
+
+        // perform an action
+        RSAPrivateKey firstPrivateKey = privateKeyCache.getUnencrypted(privateKeyPemString, PopCryptoConfig.DEFAULT);
+        RSAPrivateKey secondPrivateKey = privateKeyCache.getUnencrypted(privateKeyPemString, PopCryptoConfig.DEFAULT);
+        privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD);
+
+        // validate the results
+        assertEquals(rsaPrivateKey.getPrivateExponent(), firstPrivateKey.getPrivateExponent());
+        assertSame(firstPrivateKey, secondPrivateKey);
+        assertEquals(2, privateKeyCache.getMissCount());
+        assertEquals(1, privateKeyCache.getHitCount());
+        assertEquals(2, privateKeyCache.size());
+        assertTrue(privateKeyCache.invalidateUnencrypted(privateKeyPemString, PopCryptoConfig.DEFAULT));
+        assertEquals(1, privateKeyCache.size());
+    }
+
+    @Test
+    public void get__wrongPassword__throwsPopPrivateKeyParseExceptionAndDoesNotCache() {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+
+        // perform an action
+        try {
+            privateKeyCache.get(encryptedPrivateKeyPemString, "wrong-password".toCharArray());
+            fail("The PopPrivateKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(PopPrivateKeyParseException.class, ex.getClass());
+            assertEquals(0, privateKeyCache.size());
+        }
+    }
+
+    @Test
+    public void get__emptyPassword__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+
+        // perform an action
+        try {
+            privateKeyCache.get(encryptedPrivateKeyPemString, new char[0]);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException ex) {
+            // validate the results
+            assertEquals("The privateKeyPassword should not be null or empty", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void get__expiredPrivateKey__decryptsPrivateKeyAgain() throws Exception {
+
+        // setup the data
+        AtomicLong nanoTime = new AtomicLong();
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 1, TimeUnit.MINUTES, nanoTime::get);
+        RSAPrivateKey firstPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD);
+        nanoTime.addAndGet(TimeUnit.MINUTES.toNanos(1));
+
+        // perform an action
+        RSAPrivateKey secondPrivateKey = privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD);
+
+        // validate the results
+        assertNotSame(firstPrivateKey, secondPrivateKey);
+        assertEquals(2, privateKeyCache.getMissCount());
+        assertEquals(1, privateKeyCache.getEvictionCount());
+    }
+
+    @Test
+    public void invalidate__cachedPrivateKey__removesPrivateKey() throws Exception {
+
+        // setup the data
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(10, 60, TimeUnit.MINUTES);
+        privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD);
+
+        // perform an action
+        boolean invalidated = privateKeyCache.invalidate(encryptedPrivateKeyPemString, PASSWORD);
+
+        // validate the results
+        assertTrue(invalidated);
+        assertEquals(0, privateKeyCache.size());
+        assertFalse(privateKeyCache.invalidate(encryptedPrivateKeyPemString, PASSWORD));
+    }
+
+    @Test
+    public void get__fullCache__evictsLeastRecentlyUsedPrivateKey() throws Exception {
+
+        // setup the data
+        AtomicLong nanoTime = new AtomicLong();
+        PopPrivateKeyCache privateKeyCache = new PopPrivateKeyCache(1, 60, TimeUnit.MINUTES, nanoTime::get);
+        String otherEncryptedPrivateKeyPemString = PopTokenBuilderTestUtils
+                .generateEncryptedPrivateKeyPemString(PopTokenBuilderTestUtils.createNewRsaPrivateKey(), PASSWORD);
+        privateKeyCache.get(encryptedPrivateKeyPemString, PASSWORD);
+        nanoTime.incrementAndGet();
+
+        // perform an action
+        privateKeyCache.get(otherEncryptedPrivateKeyPemString, PASSWORD);
+
+        // validate the results
+        assertEquals(1, privateKeyCache.size());
+        assertEquals(1, privateKeyCache.getEvictionCount());
+        assertFalse(privateKeyCache.invalidate(encryptedPrivateKeyPemString, PASSWORD));
+        assertTrue(privateKeyCache.invalidate(otherEncryptedPrivateKeyPemString, PASSWORD));
+    }
+}
@@ -18,14 +18,29 @@ package com.tmobile.oss.security.taap.poptoken.builder.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.RSAPrivateKey;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tmobile.oss.security.taap.poptoken.builder.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.builder.PopSigningAlgorithm;
 import com.tmobile.oss.security.taap.poptoken.builder.exception.PopPrivateKeyParseException;
 import com.tmobile.oss.security.taap.poptoken.builder.testutils.PopTokenBuilderTestUtils;
 
@@ -127,6 +142,43 @@ public class PopTokenBuilderUtilsTest {
         assertNotNull("The rsaPrivateKey should not be null", rsaPrivateKey);
     }
 
+    @Test
+    public void keyPemStringToRsaPrivateKey__newClassLoader__doesNotLoadBouncyCastle() throws Exception {
+        // setup the data
+        byte[] privateKeyBytes = PopTokenBuilderTestUtils.createNewRsaPrivateKey().getEncoded();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(privateKeyBytes);
+
+        try (BouncyCastleRecordingClassLoader classLoader = new BouncyCastleRecordingClassLoader()) {
+            // perform an action
+            Object rsaPrivateKey = classLoader.loadClass(PopTokenBuilderUtils.class.getName())
+                    .getMethod("keyPemStringToRsaPrivateKey", String.class) //
+                    .invoke(null, privateKeyPemString); //
+
+            // validate the results
+            assertTrue(rsaPrivateKey instanceof RSAPrivateKey);
+            assertTrue("The loaded BouncyCastle classes: " + classLoader.bouncyCastleClassNames,
+                    classLoader.bouncyCastleClassNames.isEmpty());
+        }
+    }
+
+    @Test
+    public void encryptedKeyPemStringToRsaPrivateKey__newClassLoader__loadsBouncyCastleOnFirstUse() throws Exception {
+        try (BouncyCastleRecordingClassLoader classLoader = new BouncyCastleRecordingClassLoader()) {
+            Class<?> popTokenBuilderUtilsClass = classLoader.loadClass(PopTokenBuilderUtils.class.getName());
+            assertTrue(classLoader.bouncyCastleClassNames.isEmpty());
+
+            // perform an action
+            Object rsaPrivateKey = popTokenBuilderUtilsClass
+                    .getMethod("encryptedKeyPemStringToRsaPrivateKey", String.class, String.class) //
+                    .invoke(null, aes256EncryptedPrivateKeyPemString, privateKeyPassword); //
+
+            // validate the results
+            assertTrue(rsaPrivateKey instanceof RSAPrivateKey);
+            assertTrue(classLoader.bouncyCastleClassNames.contains("org.bouncycastle.jce.provider.BouncyCastleProvider"));
+            assertNotNull(Security.getProvider("BC"));
+        }
+    }
+
     @Test
     public void keyPemStringToRsaPrivateKey__validPrivateKeyPemStringWithoutLineSeparators__successfullyReturnsRsaPrivateKey()
             throws Exception {
@@ -171,6 +223,42 @@ public class PopTokenBuilderUtilsTest {
         }
     }
 
+    @Test
+    public void keyPemStringToRsaPrivateKey__keyFactoryProviderNotSupportingRsa__throwsPopPrivateKeyParseException() throws Exception {
+
+        // setup the data
+        byte[] privateKeyBytes = PopTokenBuilderTestUtils.createNewRsaPrivateKey().getEncoded();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(privateKeyBytes);
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+
+        try {
+            // perform an action
+            PopTokenBuilderUtils.keyPemStringToRsaPrivateKey(privateKeyPemString, cryptoConfig);
+            fail("Should have thrown PopPrivateKeyParseException");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPrivateKeyParseException.class, ex.getClass());
+            assertEquals(NoSuchAlgorithmException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void keyPemStringToPrivateKey__keyFactoryProviderSupportingEc__successfullyReturnsEcPrivateKey() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(ecKeyPair.getPrivate().getEncoded());
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+
+        // perform an action
+        PrivateKey privateKey = PopTokenBuilderUtils.keyPemStringToPrivateKey(privateKeyPemString, PopSigningAlgorithm.ES256,
+                cryptoConfig);
+
+        // validate the results
+        assertEquals(ecKeyPair.getPrivate(), privateKey);
+    }
+
     @Test
     public void aes256EncryptedKeyPemStringToRsaPrivateKeyWithPassword__validPrivateKeyPemStringInput__successfullyReturnsRsaPrivateKey()
             throws Exception {
@@ -223,9 +311,87 @@ public class PopTokenBuilderUtilsTest {
         }
     }
 
+    @Test
+    public void keyPemStringToPrivateKey__ecPrivateKeyPemStringForEs256__successfullyReturnsEcPrivateKey() throws Exception {
+        // setup the data
+        KeyPair ecKeyPair = PopTokenBuilderTestUtils.createNewEcKeyPair();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(ecKeyPair.getPrivate().getEncoded());
+
+        // perform an action
+        PrivateKey privateKey = PopTokenBuilderUtils.keyPemStringToPrivateKey(privateKeyPemString, PopSigningAlgorithm.ES256);
+
+        // validate the results
+        assertTrue("The privateKey should be ECPrivateKey", privateKey instanceof ECPrivateKey);
+    }
+
+    @Test
+    public void keyPemStringToPrivateKey__rsaPrivateKeyPemStringForEs256__throwsPopPrivateKeyParseException() throws Exception {
+        // setup the data
+        byte[] privateKeyBytes = PopTokenBuilderTestUtils.createNewRsaPrivateKey().getEncoded();
+        String privateKeyPemString = PopTokenBuilderTestUtils.generatePrivateKeyPemString(privateKeyBytes);
+
+        try {
+            // perform an action
+            PopTokenBuilderUtils.keyPemStringToPrivateKey(privateKeyPemString, PopSigningAlgorithm.ES256);
+            fail("Should have thrown PopPrivateKeyParseException");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPrivateKeyParseException.class, ex.getClass());
+        }
+    }
+
+    @Test
+    public void encryptedKeyPemStringToPrivateKey__encryptedEd25519PrivateKeyPemStringForEdDsa__successfullyReturnsPrivateKey()
+            throws Exception {
+        // setup the data
+        KeyPair ed25519KeyPair = PopTokenBuilderTestUtils.createNewEd25519KeyPair();
+        String encryptedPrivateKeyPemString = PopTokenBuilderTestUtils
+                .generateEncryptedPrivateKeyPemString(ed25519KeyPair.getPrivate(), "foobar".toCharArray());
+
+        // perform an action
+        PrivateKey privateKey = PopTokenBuilderUtils.encryptedKeyPemStringToPrivateKey(encryptedPrivateKeyPemString, "foobar",
+                PopSigningAlgorithm.EdDSA);
+
+        // validate the results
+        assertTrue("The privateKey should be supported by EdDSA", PopSigningAlgorithm.EdDSA.isKeySupported(privateKey));
+    }
+
     // ===== helper methods ===== //
 
     private String removeNewLineChars(String publicKeyString) {
         return publicKeyString.replace(LINE_SEPARATOR, "");
     }
+
+    /**
+     * Loads the classes of the class path again, so the static initializers run again, and records the names of the BouncyCastle
+     * classes requested by them. The BouncyCastle classes are loaded by the class loader of the test, so a single BouncyCastle
+     * provider is registered however the tests are ordered.
+     */
+    private static class BouncyCastleRecordingClassLoader extends URLClassLoader {
+
+        private final Set<String> bouncyCastleClassNames = Collections.synchronizedSet(new TreeSet<>());
+
+        BouncyCastleRecordingClassLoader() throws MalformedURLException {
+            super(getClassPathUrls(), ClassLoader.getSystemClassLoader().getParent());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("org.bouncycastle.")) {
+                bouncyCastleClassNames.add(name);
+                return PopTokenBuilderUtilsTest.class.getClassLoader().loadClass(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private static URL[] getClassPathUrls() throws MalformedURLException {
+            String[] classPathEntries = System.getProperty("java.class.path").split(File.pathSeparator);
+            URL[] classPathUrls = new URL[classPathEntries.length];
+            for (int i = 0; i < classPathEntries.length; i++) {
+                classPathUrls[i] = new File(classPathEntries[i]).toURI().toURL();
+            }
+            return classPathUrls;
+        }
+    }
 }
@@ -0,0 +1,555 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyNotFoundException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
+
+/**
+ * Resolves the public keys by kid (key ID) from a JWK set (JSON web key set) loaded from a URL or a local file.
+ * <p>
+ * The JWK set is loaded on the first lookup and then refreshed in the background, well before the loaded keys expire, so the key
+ * rotations are picked up without the request threads waiting for the JWK set to be loaded. When a kid is not found in the loaded
+ * keys, the JWK set is loaded again to pick up the newly rotated keys, but not more often than once per unknown kid retry interval so
+ * the PoP tokens with unknown kids cannot cause the JWK set to be loaded for every request. All the concurrent lookups which need the
+ * JWK set to be loaded wait for one single load instead of loading the JWK set themselves.
+ * <p>
+ * When the JWK set cannot be loaded, the failure is remembered for the fetch failure backoff interval and the lookups during that
+ * interval fail fast (or use the previously loaded keys) instead of loading the JWK set again. The previously loaded keys are still
+ * used for the stale keys grace period after they expire as long as the JWK set cannot be loaded, so a short outage of the JWK set
+ * endpoint does not fail the validation of every PoP token.
+ * <p>
+ * JwksKeyResolver is thread-safe so one instance should be created per JWK set and shared between all the request threads, the
+ * background refresh is stopped by calling {@link #close()}.
+ */
+public class JwksKeyResolver implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeyResolver.class);
+
+    private static final long REFRESH_INTERVAL_SECONDS = 300;
+    private static final long KEYS_TTL_SECONDS = 900;
+    private static final long UNKNOWN_KID_RETRY_INTERVAL_SECONDS = 30;
+    private static final long FETCH_FAILURE_BACKOFF_SECONDS = 10;
+    private static final long STALE_KEYS_GRACE_SECONDS = 3600;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private final URL jwksUrl;
+
+    private final AtomicReference<CompletableFuture<LoadedKeys>> inFlightLoad = new AtomicReference<>();
+    private final AtomicLong nextUnknownKidLoadAtNanos = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicBoolean backgroundRefreshStarted = new AtomicBoolean();
+    private volatile LoadedKeys loadedKeys;
+    private volatile LoadFailure lastLoadFailure;
+    private volatile ScheduledExecutorService refreshExecutorService;
+    private volatile boolean closed;
+
+    /**
+     * Constructs the JwksKeyResolver which loads the JWK set from the specified URL.
+     * 
+     * @param jwksUrl The URL of the JWK set, the http, https and file URLs are supported
+     * @throws IllegalArgumentException If the jwksUrl is null
+     */
+    public JwksKeyResolver(URL jwksUrl) {
+        if (jwksUrl == null) {
+            throw new IllegalArgumentException("The jwksUrl should not be null");
+        }
+        this.jwksUrl = jwksUrl;
+    }
+
+    /**
+     * Returns the new instance of JwksKeyResolver which loads the JWK set from the specified URL.
+     * 
+     * @param jwksUrl The URL of the JWK set, the http, https and file URLs are supported
+     * @return The new instance of JwksKeyResolver
+     * @throws IllegalArgumentException If the jwksUrl is null
+     */
+    public static JwksKeyResolver newInstance(URL jwksUrl) {
+        return new JwksKeyResolver(jwksUrl);
+    }
+
+    /**
+     * Returns the new instance of JwksKeyResolver which loads the JWK set from the specified local file.
+     * 
+     * @param jwksFile The JWK set file
+     * @return The new instance of JwksKeyResolver
+     * @throws IllegalArgumentException If the jwksFile is null or cannot be converted to URL
+     */
+    public static JwksKeyResolver newInstance(File jwksFile) {
+        if (jwksFile == null) {
+            throw new IllegalArgumentException("The jwksFile should not be null");
+        }
+        try {
+            return new JwksKeyResolver(jwksFile.toURI().toURL());
+        } catch (MalformedURLException ex) {
+            throw new IllegalArgumentException("The jwksFile cannot be converted to URL, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Returns the public key for the specified kid (key ID), the public key can be an RSA key, a P-256 EC key or an Ed25519 key, see
+     * {@link #getJwk(String)}.
+     * 
+     * @param kid The kid (key ID), usually taken from the kid header of the PoP token
+     * @return The PublicKey
+     * @throws IllegalArgumentException If the kid is null or empty
+     * @throws PopPublicKeyNotFoundException If the JWK set does not contain the supported key for the kid
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded and there are no loaded keys within the stale keys grace
+     *         period
+     * @throws IllegalStateException If the JwksKeyResolver has been closed
+     */
+    public PublicKey getPublicKey(String kid) throws PopTokenValidatorException {
+        return getJwk(kid).getPublicKey();
+    }
+
+    /**
+     * Returns the key for the specified kid (key ID), i.e. its public key and the signing algorithm from the "alg" member of the JWK.
+     * The public key can be an RSA key, a P-256 EC key or an Ed25519 key.
+     * 
+     * @param kid The kid (key ID), usually taken from the kid header of the PoP token
+     * @return The PopJwk
+     * @throws IllegalArgumentException If the kid is null or empty
+     * @throws PopPublicKeyNotFoundException If the JWK set does not contain the supported key for the kid
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded and there are no loaded keys within the stale keys grace
+     *         period
+     * @throws IllegalStateException If the JwksKeyResolver has been closed
+     */
+    public PopJwk getJwk(String kid) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(kid)) {
+            throw new IllegalArgumentException("The kid should not be null or empty");
+        }
+        if (closed) {
+            throw new IllegalStateException("The JwksKeyResolver has been closed");
+        }
+        startBackgroundRefresh();
+
+        LoadedKeys currentKeys = loadedKeys;
+        if (currentKeys == null || currentKeys.hasExpired(System.nanoTime())) {
+            currentKeys = loadKeysOrUseLoadedKeys(currentKeys);
+        } else if (!currentKeys.jwks.containsKey(kid) && tryAcquireUnknownKidLoad()) {
+            currentKeys = loadKeysOrUseLoadedKeys(currentKeys);
+        }
+
+        PopJwk jwk = currentKeys.jwks.get(kid);
+        if (jwk == null) {
+            throw new PopPublicKeyNotFoundException("The JWK set does not contain the key for kid '" + kid + "'");
+        }
+        return jwk;
+    }
+
+    /**
+     * Returns the URL of the JWK set.
+     * 
+     * @return The URL of the JWK set
+     */
+    public URL getJwksUrl() {
+        return jwksUrl;
+    }
+
+    /**
+     * Returns the number of times the JWK set has been loaded.
+     * 
+     * @return The number of JWK set loads
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Stops the background refresh of the JWK set.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ScheduledExecutorService executorService = refreshExecutorService;
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the interval in seconds for refreshing the JWK set in the background. The refresh interval should be shorter than the
+     * keys time to live, otherwise the loaded keys expire before they are refreshed and the lookups load the JWK set on the request
+     * threads, a warning is logged when the background refresh is started with such a refresh interval.
+     * 
+     * Note: This method can be overridden to modify the default refresh interval which is 300 seconds.
+     * 
+     * @return The refresh interval in seconds
+     */
+    protected long getRefreshIntervalSeconds() {
+        return REFRESH_INTERVAL_SECONDS;
+    }
+
+    /**
+     * Returns the time in seconds after which the loaded keys have expired, if the background refresh has not been able to load the
+     * JWK set in the meantime then the next lookup loads the JWK set.
+     * 
+     * Note: This method can be overridden to modify the default keys time to live which is 900 seconds.
+     * 
+     * @return The keys time to live in seconds
+     */
+    protected long getKeysTtlSeconds() {
+        return KEYS_TTL_SECONDS;
+    }
+
+    /**
+     * Returns the minimum interval in seconds between the JWK set loads triggered by the lookups of unknown kids.
+     * 
+     * Note: This method can be overridden to modify the default unknown kid retry interval which is 30 seconds.
+     * 
+     * @return The unknown kid retry interval in seconds
+     */
+    protected long getUnknownKidRetryIntervalSeconds() {
+        return UNKNOWN_KID_RETRY_INTERVAL_SECONDS;
+    }
+
+    /**
+     * Returns the time in seconds during which the lookups do not load the JWK set again after the JWK set could not be loaded, the
+     * lookups during that time use the loaded keys if they are within the stale keys grace period or fail with the last load error.
+     * 
+     * Note: This method can be overridden to modify the default fetch failure backoff which is 10 seconds.
+     * 
+     * @return The fetch failure backoff in seconds
+     */
+    protected long getFetchFailureBackoffSeconds() {
+        return FETCH_FAILURE_BACKOFF_SECONDS;
+    }
+
+    /**
+     * Returns the time in seconds after the keys time to live during which the expired keys are still used as long as the JWK set
+     * cannot be loaded, after the grace period the lookups fail until the JWK set can be loaded again.
+     * 
+     * Note: This method can be overridden to modify the default stale keys grace period which is 3600 seconds.
+     * 
+     * @return The stale keys grace period in seconds
+     */
+    protected long getStaleKeysGraceSeconds() {
+        return STALE_KEYS_GRACE_SECONDS;
+    }
+
+    /**
+     * Returns the connect timeout in milliseconds for loading the JWK set from the http or https URL.
+     * 
+     * Note: This method can be overridden to modify the default connect timeout which is 5000 milliseconds.
+     * 
+     * @return The connect timeout in milliseconds
+     */
+    protected int getConnectTimeoutMillis() {
+        return CONNECT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the read timeout in milliseconds for loading the JWK set from the http or https URL.
+     * 
+     * Note: This method can be overridden to modify the default read timeout which is 5000 milliseconds.
+     * 
+     * @return The read timeout in milliseconds
+     */
+    protected int getReadTimeoutMillis() {
+        return READ_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the JCA providers used to convert the keys of the JWK set to public keys.
+     * 
+     * Note: This method can be overridden to modify the default providers, which look up the KeyFactory in the registered providers,
+     * e.g. to use the same key factory provider as {@link PopTokenValidator#getCryptoConfig()}.
+     * 
+     * @return The JCA providers
+     */
+    protected PopCryptoConfig getCryptoConfig() {
+        return PopCryptoConfig.DEFAULT;
+    }
+
+    /**
+     * Loads the JWK set and converts its RSA, P-256 EC and Ed25519 signature keys to PopJwks using the key factory provider of
+     * {@link #getCryptoConfig()}, see {@link PopTokenValidatorUtils#jwksToPopJwks(InputStream, PopCryptoConfig)}.
+     * 
+     * Note: This method can be overridden to load the JWK set from a different source.
+     * 
+     * @return The map of kid to PopJwk
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded
+     */
+    protected Map<String, PopJwk> fetchJwks() throws PopTokenValidatorException {
+        URLConnection urlConnection = null;
+        try {
+            urlConnection = jwksUrl.openConnection();
+            urlConnection.setConnectTimeout(getConnectTimeoutMillis());
+            urlConnection.setReadTimeout(getReadTimeoutMillis());
+            urlConnection.setRequestProperty("Accept", "application/json");
+            if (urlConnection instanceof HttpURLConnection) {
+                int responseCode = ((HttpURLConnection) urlConnection).getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new PopTokenValidatorException(
+                            "Error occurred while loading the JWK set from '" + jwksUrl + "', responseCode: " + responseCode);
+                }
+            }
+            try (InputStream jwksInputStream = urlConnection.getInputStream()) {
+                return PopTokenValidatorUtils.jwksToPopJwks(jwksInputStream, getCryptoConfig());
+            }
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException(
+                    "Error occurred while loading the JWK set from '" + jwksUrl + "', error: " + ex.toString(), ex);
+        } finally {
+            if (urlConnection instanceof HttpURLConnection) {
+                ((HttpURLConnection) urlConnection).disconnect();
+            }
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Loads the JWK set unless the last load failed within the fetch failure backoff, if the JWK set cannot be loaded then returns the
+     * currently loaded keys as long as they are within the stale keys grace period.
+     * 
+     * @param currentKeys The currently loaded keys, can be null if the JWK set has not been loaded yet
+     * @return The loaded keys
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded and the currently loaded keys cannot be used
+     */
+    private LoadedKeys loadKeysOrUseLoadedKeys(LoadedKeys currentKeys) throws PopTokenValidatorException {
+        LoadFailure loadFailure = lastLoadFailure;
+        if (loadFailure == null || loadFailure.hasBackoffElapsed(System.nanoTime())) {
+            try {
+                return loadKeys();
+            } catch (PopTokenValidatorException ex) {
+                if (currentKeys != null && currentKeys.isUsable(System.nanoTime())) {
+                    return currentKeys;
+                }
+                throw ex;
+            }
+        }
+        if (currentKeys != null && currentKeys.isUsable(System.nanoTime())) {
+            return currentKeys;
+        }
+        throw newLoadException(loadFailure.exception);
+    }
+
+    /**
+     * Loads the JWK set, if the JWK set is already being loaded by another thread then waits for that load to complete instead of
+     * loading the JWK set again.
+     * 
+     * @return The loaded keys
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded
+     */
+    private LoadedKeys loadKeys() throws PopTokenValidatorException {
+        CompletableFuture<LoadedKeys> loadFuture = new CompletableFuture<>();
+        CompletableFuture<LoadedKeys> existingLoadFuture = inFlightLoad.get();
+        while (existingLoadFuture == null) {
+            if (inFlightLoad.compareAndSet(null, loadFuture)) {
+                return loadKeys(loadFuture);
+            }
+            existingLoadFuture = inFlightLoad.get();
+        }
+        return awaitLoad(existingLoadFuture);
+    }
+
+    /**
+     * Loads the JWK set and completes the specified load future, which the other threads may be waiting for.
+     * 
+     * @param loadFuture The load future owned by the current thread
+     * @return The loaded keys
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded
+     */
+    private LoadedKeys loadKeys(CompletableFuture<LoadedKeys> loadFuture) throws PopTokenValidatorException {
+        try {
+            Map<String, PopJwk> jwks = fetchJwks();
+            long now = System.nanoTime();
+            long expiresAtNanos = now + TimeUnit.SECONDS.toNanos(getKeysTtlSeconds());
+            LoadedKeys newKeys = new LoadedKeys(jwks, expiresAtNanos,
+                    expiresAtNanos + TimeUnit.SECONDS.toNanos(getStaleKeysGraceSeconds()));
+            loadedKeys = newKeys;
+            lastLoadFailure = null;
+            loadCount.incrementAndGet();
+            nextUnknownKidLoadAtNanos.set(now + TimeUnit.SECONDS.toNanos(getUnknownKidRetryIntervalSeconds()));
+            loadFuture.complete(newKeys);
+            return newKeys;
+        } catch (PopTokenValidatorException ex) {
+            lastLoadFailure = new LoadFailure(ex, System.nanoTime() + TimeUnit.SECONDS.toNanos(getFetchFailureBackoffSeconds()));
+            loadFuture.completeExceptionally(ex);
+            throw ex;
+        } catch (RuntimeException ex) {
+            loadFuture.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightLoad.compareAndSet(loadFuture, null);
+        }
+    }
+
+    /**
+     * Waits for the JWK set load started by another thread.
+     * 
+     * @param loadFuture The load future owned by another thread
+     * @return The loaded keys
+     * @throws PopTokenValidatorException If the JWK set cannot be loaded
+     */
+    private LoadedKeys awaitLoad(CompletableFuture<LoadedKeys> loadFuture) throws PopTokenValidatorException {
+        try {
+            return loadFuture.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof PopTokenValidatorException) {
+                throw newLoadException((PopTokenValidatorException) ex.getCause());
+            }
+            throw new PopTokenValidatorException("Error occurred while loading the JWK set, error: " + ex.getCause().toString(),
+                    ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PopTokenValidatorException("Interrupted while waiting for the JWK set to be loaded", ex);
+        }
+    }
+
+    /**
+     * Creates the new exception for the failure of a JWK set load shared by several lookups, the exception of the load is the cause
+     * of the new exception, so the lookups never throw the same exception instance from several threads.
+     * 
+     * @param loadException The exception of the JWK set load
+     * @return The new PopPublicKeyParseException if the JWK set cannot be parsed, otherwise the new PopTokenValidatorException
+     */
+    private static PopTokenValidatorException newLoadException(PopTokenValidatorException loadException) {
+        if (loadException instanceof PopPublicKeyParseException) {
+            return new PopPublicKeyParseException(loadException.getMessage(), loadException);
+        }
+        return new PopTokenValidatorException(loadException.getMessage(), loadException);
+    }
+
+    /**
+     * Returns true if the lookup of an unknown kid is allowed to load the JWK set, at most one lookup is allowed per unknown kid retry
+     * interval.
+     * 
+     * @return true if the JWK set should be loaded for the unknown kid
+     */
+    private boolean tryAcquireUnknownKidLoad() {
+        long now = System.nanoTime();
+        long nextLoadAt = nextUnknownKidLoadAtNanos.get();
+        if (now - nextLoadAt < 0) {
+            return false;
+        }
+        return nextUnknownKidLoadAtNanos.compareAndSet(nextLoadAt,
+                now + TimeUnit.SECONDS.toNanos(getUnknownKidRetryIntervalSeconds()));
+    }
+
+    /**
+     * Starts the background refresh of the JWK set, if it is not already started.
+     */
+    private void startBackgroundRefresh() {
+        if (backgroundRefreshStarted.get() || !backgroundRefreshStarted.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "poptoken-jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutorService = executorService;
+        if (closed) {
+            executorService.shutdownNow();
+            return;
+        }
+        long refreshIntervalSeconds = getRefreshIntervalSeconds();
+        long keysTtlSeconds = getKeysTtlSeconds();
+        if (refreshIntervalSeconds >= keysTtlSeconds) {
+            logger.warn("The JWK set refresh interval of {} seconds is not shorter than the keys time to live of {} seconds, the keys "
+                    + "of '{}' expire before being refreshed", refreshIntervalSeconds, keysTtlSeconds, jwksUrl);
+        }
+        executorService.scheduleWithFixedDelay(this::refreshKeys, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Refreshes the JWK set in the background, the previously loaded keys are kept if the JWK set cannot be loaded and are used for
+     * the stale keys grace period after they expire.
+     */
+    private void refreshKeys() {
+        try {
+            loadKeys();
+        } catch (Exception ex) {
+            logger.warn("Error occurred while refreshing the JWK set from '{}', error: {}", jwksUrl, ex.toString());
+        }
+    }
+
+    /**
+     * Represents the keys loaded from the JWK set.
+     */
+    private static class LoadedKeys {
+
+        private final Map<String, PopJwk> jwks;
+        private final long expiresAtNanos;
+        private final long graceEndsAtNanos;
+
+        private LoadedKeys(Map<String, PopJwk> jwks, long expiresAtNanos, long graceEndsAtNanos) {
+            this.jwks = jwks;
+            this.expiresAtNanos = expiresAtNanos;
+            this.graceEndsAtNanos = graceEndsAtNanos;
+        }
+
+        private boolean hasExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+
+        private boolean isUsable(long now) {
+            return now - graceEndsAtNanos < 0;
+        }
+    }
+
+    /**
+     * Represents the last failure to load the JWK set.
+     */
+    private static class LoadFailure {
+
+        private final PopTokenValidatorException exception;
+        private final long backoffEndsAtNanos;
+
+        private LoadFailure(PopTokenValidatorException exception, long backoffEndsAtNanos) {
+            this.exception = exception;
+            this.backoffEndsAtNanos = backoffEndsAtNanos;
+        }
+
+        private boolean hasBackoffElapsed(long now) {
+            return now - backoffEndsAtNanos >= 0;
+        }
+    }
+}
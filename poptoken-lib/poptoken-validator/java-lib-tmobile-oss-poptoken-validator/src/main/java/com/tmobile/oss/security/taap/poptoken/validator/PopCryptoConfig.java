@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * The JCA providers used for validating the PoP tokens, selected separately for the SHA-256 digest of the edts (external data to
+ * sign), the Signature and the KeyFactory parsing the public keys.
+ * <p>
+ * By default no provider is set and each operation uses the first registered provider supporting it, i.e. the provider order of the
+ * JVM. Setting the providers explicitly allows choosing the fastest provider available in the deployment, e.g. SunRsaSign, SunEC,
+ * BouncyCastle or an accelerated native provider, without changing the provider order of the JVM.
+ * <p>
+ * PopCryptoConfig is immutable and thread-safe, the <code>with*</code> methods return a new instance.
+ */
+public final class PopCryptoConfig {
+
+    /**
+     * The PopCryptoConfig using the registered providers for all the operations.
+     */
+    public static final PopCryptoConfig DEFAULT = new PopCryptoConfig(null, null, null);
+
+    private static final String SHA_256_ALGORITHM = "SHA-256";
+
+    private final Provider digestProvider;
+    private final Provider signatureProvider;
+    private final Provider keyFactoryProvider;
+
+    /**
+     * Constructs the PopCryptoConfig using the specified providers.
+     * 
+     * @param digestProvider The provider of the MessageDigest or null if it should be looked up in the registered providers
+     * @param signatureProvider The provider of the Signature or null if it should be looked up in the registered providers
+     * @param keyFactoryProvider The provider of the KeyFactory or null if it should be looked up in the registered providers
+     */
+    private PopCryptoConfig(Provider digestProvider, Provider signatureProvider, Provider keyFactoryProvider) {
+        this.digestProvider = digestProvider;
+        this.signatureProvider = signatureProvider;
+        this.keyFactoryProvider = keyFactoryProvider;
+    }
+
+    /**
+     * Returns the new instance of PopCryptoConfig using the specified provider for the SHA-256 digest of the edts (external data to
+     * sign) and the same providers as this instance for the other operations.
+     * 
+     * @param digestProvider The provider of the MessageDigest or null if it should be looked up in the registered providers
+     * @return The new instance of PopCryptoConfig
+     */
+    public PopCryptoConfig withDigestProvider(Provider digestProvider) {
+        return new PopCryptoConfig(digestProvider, signatureProvider, keyFactoryProvider);
+    }
+
+    /**
+     * Returns the new instance of PopCryptoConfig using the specified provider for verifying the PoP token signatures and the same
+     * providers as this instance for the other operations.
+     * 
+     * @param signatureProvider The provider of the Signature or null if it should be looked up in the registered providers
+     * @return The new instance of PopCryptoConfig
+     */
+    public PopCryptoConfig withSignatureProvider(Provider signatureProvider) {
+        return new PopCryptoConfig(digestProvider, signatureProvider, keyFactoryProvider);
+    }
+
+    /**
+     * Returns the new instance of PopCryptoConfig using the specified provider for parsing the public keys and the same providers as
+     * this instance for the other operations.
+     * 
+     * @param keyFactoryProvider The provider of the KeyFactory or null if it should be looked up in the registered providers
+     * @return The new instance of PopCryptoConfig
+     */
+    public PopCryptoConfig withKeyFactoryProvider(Provider keyFactoryProvider) {
+        return new PopCryptoConfig(digestProvider, signatureProvider, keyFactoryProvider);
+    }
+
+    /**
+     * Returns the provider of the MessageDigest.
+     * 
+     * @return The provider of the MessageDigest or null if it is looked up in the registered providers
+     */
+    public Provider getDigestProvider() {
+        return digestProvider;
+    }
+
+    /**
+     * Returns the provider of the Signature.
+     * 
+     * @return The provider of the Signature or null if it is looked up in the registered providers
+     */
+    public Provider getSignatureProvider() {
+        return signatureProvider;
+    }
+
+    /**
+     * Returns the provider of the KeyFactory.
+     * 
+     * @return The provider of the KeyFactory or null if it is looked up in the registered providers
+     */
+    public Provider getKeyFactoryProvider() {
+        return keyFactoryProvider;
+    }
+
+    /**
+     * Creates the SHA-256 MessageDigest using the digest provider.
+     * 
+     * @return The SHA-256 MessageDigest
+     * @throws NoSuchAlgorithmException If the digest provider does not support SHA-256
+     */
+    public MessageDigest newSha256Digest() throws NoSuchAlgorithmException {
+        return digestProvider != null ? MessageDigest.getInstance(SHA_256_ALGORITHM, digestProvider)
+                : MessageDigest.getInstance(SHA_256_ALGORITHM);
+    }
+
+    /**
+     * Creates the KeyFactory of the specified key algorithm using the key factory provider.
+     * 
+     * @param keyAlgorithm The JCA key algorithm, e.g. "RSA"
+     * @return The KeyFactory
+     * @throws NoSuchAlgorithmException If the key factory provider does not support the key algorithm
+     */
+    public KeyFactory newKeyFactory(String keyAlgorithm) throws NoSuchAlgorithmException {
+        return keyFactoryProvider != null ? KeyFactory.getInstance(keyAlgorithm, keyFactoryProvider)
+                : KeyFactory.getInstance(keyAlgorithm);
+    }
+}
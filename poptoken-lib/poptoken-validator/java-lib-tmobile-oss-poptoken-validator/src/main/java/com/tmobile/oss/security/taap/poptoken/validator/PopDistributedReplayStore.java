@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTimeBucketedBloomFilter;
+
+/**
+ * A replay store recording the jti values in a remote replay store shared by all the validator nodes, for example the
+ * {@link PopRespReplayStore}, depending on the mode:
+ * <ul>
+ * <li>{@link Mode#STRICT}: {@link #markUsed(String, long)} waits for the remote replay store, which records the jti and reports
+ * whether it was already used by any node in one atomic operation, so the replayed PoP tokens are rejected across all the nodes. This
+ * costs exactly one remote round trip per validated PoP token, the remote calls of the concurrent validations are only pipelined by
+ * the remote replay store, not batched away. {@link #isUsed(String, long)} does not call the remote replay store, since the atomic
+ * check and set already rejects the replays, so the replayed PoP tokens are rejected after their signature is verified. If the remote
+ * replay store cannot be accessed then the PoP token is rejected.</li>
+ * <li>{@link Mode#OPTIMISTIC}: the jti is recorded in a node local Bloom filter and, asynchronously, in the remote replay store, and
+ * the validation does not wait for it, so no remote round trip is added to the validations. {@link #isUsed(String, long)}, which is
+ * called before the PoP token signature is verified, checks the Bloom filter and calls the remote replay store only if the jti has
+ * possibly been recorded by this node, so the fresh and the forged PoP tokens never cost a remote round trip. The replays on the same
+ * node are rejected, but a PoP token replayed on another node is accepted if it arrives before the jti has been recorded and the PoP
+ * tokens already replayed on another node are only reported afterwards, through the late detected replay count and a warning log.</li>
+ * </ul>
+ */
+public class PopDistributedReplayStore implements PopReplayStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopDistributedReplayStore.class);
+
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int BLOOM_FILTER_BUCKET_SECONDS = 16;
+
+    private final PopReplayStore remoteReplayStore;
+    private final Mode mode;
+    private final PopTimeBucketedBloomFilter bloomFilter;
+
+    private final AtomicLong remoteLookupCount = new AtomicLong();
+    private final AtomicLong lateDetectedReplayCount = new AtomicLong();
+    private final AtomicLong remoteErrorCount = new AtomicLong();
+
+    /**
+     * The modes of recording the jti values in the remote replay store.
+     */
+    public enum Mode {
+
+        /**
+         * The validation waits for the remote replay store, costing one remote round trip per validated PoP token, the replays are
+         * rejected across all the nodes.
+         */
+        STRICT, //
+
+        /**
+         * The jti is recorded in the remote replay store asynchronously, the replays on other nodes are detected after the fact.
+         */
+        OPTIMISTIC; //
+    }
+
+    /**
+     * Constructs the PopDistributedReplayStore using the specified remote replay store, mode and expected number of validations per
+     * second of this node, which is used for sizing the Bloom filter of the {@link Mode#OPTIMISTIC} mode.
+     * 
+     * @param remoteReplayStore The replay store shared by all the validator nodes
+     * @param mode The mode of recording the jti values in the remote replay store
+     * @param expectedValidationsPerSecond The expected number of PoP tokens validated per second by this node
+     * @throws IllegalArgumentException If the remoteReplayStore or mode is null or the expectedValidationsPerSecond is not positive
+     */
+    public PopDistributedReplayStore(PopReplayStore remoteReplayStore, Mode mode, int expectedValidationsPerSecond) {
+        if (remoteReplayStore == null) {
+            throw new IllegalArgumentException("The remoteReplayStore should not be null");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("The mode should not be null");
+        }
+        if (expectedValidationsPerSecond <= 0) {
+            throw new IllegalArgumentException("The expectedValidationsPerSecond should be greater than 0");
+        }
+        this.remoteReplayStore = remoteReplayStore;
+        this.mode = mode;
+        this.bloomFilter = mode == Mode.OPTIMISTIC ? new PopTimeBucketedBloomFilter(
+                (int) Math.min(Integer.MAX_VALUE, (long) expectedValidationsPerSecond * BLOOM_FILTER_BUCKET_SECONDS),
+                BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY) : null;
+    }
+
+    /**
+     * Returns true if the specified jti has possibly been recorded by this node and the remote replay store confirms it has been used,
+     * always false in the {@link Mode#STRICT} mode, where the replays are rejected by {@link #markUsed(String, long)}.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     * @throws PopTokenValidatorException If the remote replay store cannot be accessed
+     */
+    @Override
+    public boolean isUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException {
+        if (mode == Mode.STRICT || !bloomFilter.mightContain(jti, expiresAtMillis)) {
+            return false;
+        }
+        remoteLookupCount.incrementAndGet();
+        return remoteReplayStore.isUsed(jti, expiresAtMillis);
+    }
+
+    /**
+     * Records the specified jti in the remote replay store, the remote replay store is waited for in the {@link Mode#STRICT} mode and
+     * the jti is recorded asynchronously and in the Bloom filter of this node in the {@link Mode#OPTIMISTIC} mode.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has been recorded, false if the jti has already been used, always true in the {@link Mode#OPTIMISTIC}
+     *         mode
+     * @throws IllegalArgumentException If the jti is null or empty
+     * @throws PopTokenValidatorException If the remote replay store cannot be accessed in the {@link Mode#STRICT} mode
+     */
+    @Override
+    public boolean markUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException {
+        if (mode == Mode.STRICT) {
+            try {
+                return remoteReplayStore.markUsed(jti, expiresAtMillis);
+            } catch (PopTokenValidatorException ex) {
+                remoteErrorCount.incrementAndGet();
+                throw ex;
+            }
+        }
+
+        bloomFilter.put(jti, expiresAtMillis);
+        remoteReplayStore.markUsedAsync(jti, expiresAtMillis).whenComplete((recorded, ex) -> {
+            if (ex != null) {
+                remoteErrorCount.incrementAndGet();
+                logger.warn("Error occurred while recording the jti '{}' in the remote replay store, error: {}", jti, ex.toString());
+            } else if (!recorded) {
+                lateDetectedReplayCount.incrementAndGet();
+                logger.warn("The PoP token having the already used jti '{}' has been accepted", jti);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns the mode of recording the jti values in the remote replay store.
+     * 
+     * @return The mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of lookups passed to the remote replay store because the Bloom filter reported the jti as possibly seen,
+     * always 0 in the {@link Mode#STRICT} mode.
+     * 
+     * @return The number of remote lookups
+     */
+    public long getRemoteLookupCount() {
+        return remoteLookupCount.get();
+    }
+
+    /**
+     * Returns the number of PoP tokens accepted in the {@link Mode#OPTIMISTIC} mode which turned out to be already used.
+     * 
+     * @return The number of late detected replays
+     */
+    public long getLateDetectedReplayCount() {
+        return lateDetectedReplayCount.get();
+    }
+
+    /**
+     * Returns the number of jti values which could not be recorded because the remote replay store could not be accessed.
+     * 
+     * @return The number of remote errors
+     */
+    public long getRemoteErrorCount() {
+        return remoteErrorCount.get();
+    }
+}
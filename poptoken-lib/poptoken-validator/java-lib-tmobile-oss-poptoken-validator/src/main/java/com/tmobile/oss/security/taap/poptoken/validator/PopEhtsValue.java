@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Represents the value of an ehts (external headers to sign) key.
+ * <p>
+ * The ehts value is fed directly into the edts (hash of external data to sign) message digest, so the large values like the HTTP
+ * request body can be hashed from a byte array, a ByteBuffer or an InputStream without converting them to string and the ehts values
+ * are never concatenated. The string and character sequence values are UTF-8 encoded in chunks while being hashed, the malformed
+ * characters are replaced in the same way as done by <code>String.getBytes(StandardCharsets.UTF_8)</code>.
+ */
+public abstract class PopEhtsValue {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Constructs the PopEhtsValue, the PopEhtsValue should be created using the static factory methods.
+     */
+    private PopEhtsValue() {
+    }
+
+    /**
+     * Returns the ehts value for the specified string.
+     * 
+     * @param value The string value
+     * @return The ehts value
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static PopEhtsValue of(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value should not be null");
+        }
+        return new CharSequenceValue(value);
+    }
+
+    /**
+     * Returns the ehts value for the specified character sequence, for example a header value decoded by an HTTP server as
+     * <code>AsciiString</code>. The characters are UTF-8 encoded while being hashed, without converting the character sequence to
+     * string, so the character sequence should not be modified until the PoP token is validated.
+     * 
+     * @param value The character sequence value
+     * @return The ehts value
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static PopEhtsValue of(CharSequence value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value should not be null");
+        }
+        return new CharSequenceValue(value);
+    }
+
+    /**
+     * Returns the ehts value for the specified bytes, the bytes should be the UTF-8 encoded value. The byte array is not copied so it
+     * should not be modified until the PoP token is validated.
+     * 
+     * @param value The UTF-8 encoded bytes
+     * @return The ehts value
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static PopEhtsValue of(byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value should not be null");
+        }
+        return new ByteBufferValue(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Returns the ehts value for the remaining bytes of the specified ByteBuffer, the bytes should be the UTF-8 encoded value. The
+     * position of the ByteBuffer is not modified while hashing.
+     * 
+     * @param value The ByteBuffer containing the UTF-8 encoded bytes
+     * @return The ehts value
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static PopEhtsValue of(ByteBuffer value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value should not be null");
+        }
+        return new ByteBufferValue(value);
+    }
+
+    /**
+     * Returns the ehts value for the bytes read from the specified InputStream, the bytes should be the UTF-8 encoded value. The
+     * InputStream is read until the end while hashing and is not closed. The ehts value can therefore be hashed only once, validating
+     * a second PoP token using the same ehts value throws an exception instead of validating the hash of the exhausted InputStream.
+     * 
+     * @param value The InputStream of the UTF-8 encoded bytes
+     * @return The ehts value
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static PopEhtsValue of(InputStream value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value should not be null");
+        }
+        return new InputStreamValue(value);
+    }
+
+    /**
+     * Returns true if the ehts value is empty, i.e. it is empty or contains only whitespace characters as checked by
+     * <code>StringUtils.isBlank</code> for the string values. The InputStream values cannot be checked without reading them, so this
+     * method returns false for them and they are checked in the same way while being hashed, the PoP token is not validated if they
+     * are empty.
+     * 
+     * @return true if the ehts value is empty
+     */
+    public abstract boolean isEmpty();
+
+    /**
+     * Updates the message digest using the UTF-8 encoded bytes of the ehts value.
+     * 
+     * @param messageDigest The message digest
+     * @throws IOException If the ehts value cannot be read or the InputStream value is empty
+     * @throws IllegalStateException If the InputStream value has already been hashed
+     */
+    abstract void updateDigest(MessageDigest messageDigest) throws IOException;
+
+    /**
+     * Represents the string and character sequence ehts value.
+     */
+    private static final class CharSequenceValue extends PopEhtsValue {
+
+        private final CharSequence value;
+
+        private CharSequenceValue(CharSequence value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return StringUtils.isBlank(value);
+        }
+
+        @Override
+        void updateDigest(MessageDigest messageDigest) {
+            if (value instanceof String && value.length() <= BUFFER_SIZE / 4) {
+                messageDigest.update(((String) value).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder() //
+                    .onMalformedInput(CodingErrorAction.REPLACE) //
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE); //
+            CharBuffer charBuffer = CharBuffer.wrap(value);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(Math.min(BUFFER_SIZE, Math.max(16, value.length() * 3)));
+            CoderResult coderResult;
+            do {
+                coderResult = encoder.encode(charBuffer, byteBuffer, true);
+                updateDigest(messageDigest, byteBuffer);
+            } while (coderResult.isOverflow());
+            do {
+                coderResult = encoder.flush(byteBuffer);
+                updateDigest(messageDigest, byteBuffer);
+            } while (coderResult.isOverflow());
+        }
+
+        private void updateDigest(MessageDigest messageDigest, ByteBuffer byteBuffer) {
+            byteBuffer.flip();
+            messageDigest.update(byteBuffer);
+            byteBuffer.clear();
+        }
+    }
+
+    /**
+     * Represents the byte array and ByteBuffer ehts value.
+     */
+    private static final class ByteBufferValue extends PopEhtsValue {
+
+        private final ByteBuffer value;
+
+        private ByteBufferValue(ByteBuffer value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            BlankValueDetector blankValueDetector = new BlankValueDetector();
+            blankValueDetector.update(value.duplicate());
+            return blankValueDetector.isBlank();
+        }
+
+        @Override
+        void updateDigest(MessageDigest messageDigest) {
+            messageDigest.update(value.duplicate());
+        }
+    }
+
+    /**
+     * Represents the InputStream ehts value.
+     */
+    private static final class InputStreamValue extends PopEhtsValue {
+
+        private final InputStream value;
+        private final AtomicBoolean hashed = new AtomicBoolean();
+
+        private InputStreamValue(InputStream value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        void updateDigest(MessageDigest messageDigest) throws IOException {
+            if (hashed.getAndSet(true)) {
+                throw new IllegalStateException("The InputStream ehts value has already been hashed, it can be hashed only once");
+            }
+            BlankValueDetector blankValueDetector = new BlankValueDetector();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = value.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, bytesRead);
+                blankValueDetector.update(ByteBuffer.wrap(buffer, 0, bytesRead));
+            }
+            blankValueDetector.checkNotBlank();
+        }
+    }
+
+    /**
+     * Detects whether the UTF-8 encoded bytes of an ehts value, fed in chunks, contain only whitespace characters. The bytes are
+     * decoded only until the first non whitespace character is found, which is usually the first character. It is also used by the
+     * {@link PopStreamingVerification} to check the streamed value in the same way.
+     */
+    static final class BlankValueDetector {
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder() //
+                .onMalformedInput(CodingErrorAction.REPLACE) //
+                .onUnmappableCharacter(CodingErrorAction.REPLACE); //
+        private final CharBuffer charBuffer = CharBuffer.allocate(256);
+        private final ByteBuffer incompleteBytes = ByteBuffer.allocate(4);
+        private boolean blank = true;
+
+        /**
+         * Decodes the remaining bytes of the specified ByteBuffer unless a non whitespace character has already been found, the
+         * incomplete UTF-8 sequence at the end of the bytes is decoded together with the next bytes.
+         * 
+         * @param bytes The UTF-8 encoded bytes
+         */
+        void update(ByteBuffer bytes) {
+            while (blank && incompleteBytes.position() > 0 && bytes.hasRemaining()) {
+                incompleteBytes.put(bytes.get());
+                incompleteBytes.flip();
+                decoder.decode(incompleteBytes, charBuffer, false);
+                checkCharacters();
+                incompleteBytes.compact();
+            }
+            while (blank) {
+                CoderResult coderResult = decoder.decode(bytes, charBuffer, false);
+                checkCharacters();
+                if (!coderResult.isOverflow()) {
+                    break;
+                }
+            }
+            if (blank) {
+                incompleteBytes.put(bytes);
+            }
+        }
+
+        /**
+         * Returns true if all the bytes fed contain only whitespace characters, the incomplete trailing UTF-8 sequence is treated as a
+         * malformed, non whitespace character.
+         * 
+         * @return true if the bytes are blank
+         */
+        boolean isBlank() {
+            if (blank) {
+                incompleteBytes.flip();
+                decoder.decode(incompleteBytes, charBuffer, true);
+                decoder.flush(charBuffer);
+                checkCharacters();
+            }
+            return blank;
+        }
+
+        /**
+         * Checks that the bytes fed contain a non whitespace character.
+         * 
+         * @throws IOException If the bytes are blank
+         */
+        void checkNotBlank() throws IOException {
+            if (isBlank()) {
+                throw new IOException("The ehts value should not be empty");
+            }
+        }
+
+        private void checkCharacters() {
+            charBuffer.flip();
+            while (charBuffer.hasRemaining()) {
+                if (!Character.isWhitespace(charBuffer.get())) {
+                    blank = false;
+                    break;
+                }
+            }
+            charBuffer.clear();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.security.PublicKey;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Represents one key of a JWK set (JSON web key set), i.e. the kid (key ID), the public key and the signing algorithm from the "alg"
+ * member of the JWK, see {@link com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils#jwksToPopJwks}.
+ * <p>
+ * PopJwk is immutable.
+ */
+public final class PopJwk {
+
+    private final String kid;
+    private final PublicKey publicKey;
+    private final PopSigningAlgorithm signingAlgorithm;
+
+    /**
+     * Constructs the PopJwk using the specified kid, public key and signing algorithm.
+     * 
+     * @param kid The kid (key ID)
+     * @param publicKey The public key
+     * @param signingAlgorithm The only signing algorithm the PoP tokens verified using the key can be signed with, or null if the JWK
+     *            does not specify the algorithm
+     * @throws IllegalArgumentException If the kid is null or empty, publicKey is null or the signing algorithm does not support the
+     *             public key
+     */
+    public PopJwk(String kid, PublicKey publicKey, PopSigningAlgorithm signingAlgorithm) {
+        if (StringUtils.isBlank(kid)) {
+            throw new IllegalArgumentException("The kid should not be null or empty");
+        }
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
+        }
+        if (signingAlgorithm != null && !signingAlgorithm.isKeySupported(publicKey)) {
+            throw new IllegalArgumentException(
+                    "The signing algorithm " + signingAlgorithm + " does not support the " + publicKey.getAlgorithm() + " public key");
+        }
+        this.kid = kid;
+        this.publicKey = publicKey;
+        this.signingAlgorithm = signingAlgorithm;
+    }
+
+    /**
+     * Returns the kid (key ID).
+     * 
+     * @return The kid
+     */
+    public String getKid() {
+        return kid;
+    }
+
+    /**
+     * Returns the public key.
+     * 
+     * @return The public key
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Returns the signing algorithm from the "alg" member of the JWK.
+     * 
+     * @return The signing algorithm or null if the JWK does not specify the algorithm
+     */
+    public PopSigningAlgorithm getSigningAlgorithm() {
+        return signingAlgorithm;
+    }
+}
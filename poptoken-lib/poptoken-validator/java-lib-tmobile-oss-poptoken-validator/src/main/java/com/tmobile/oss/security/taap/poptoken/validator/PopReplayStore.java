@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * The store of the jti (JWT ID) values of the already used PoP tokens, used by the PopTokenVerifier for rejecting the replayed PoP
+ * tokens.
+ * <p>
+ * The PopTokenVerifier calls {@link #isUsed(String, long)} before verifying the PoP token signature and
+ * {@link #markUsed(String, long)} only after all the PoP token checks have passed. The implementations should be thread-safe, as one
+ * instance is shared between all the request threads.
+ * 
+ * @see com.tmobile.oss.security.taap.poptoken.validator.utils.PopJtiReplayCache
+ * @see PopDistributedReplayStore
+ */
+public interface PopReplayStore {
+
+    /**
+     * Returns true if the specified jti is known to have been used by a PoP token expiring at the specified time. This method is
+     * called before the PoP token signature is verified, so it should be cheap and it may return false for an already used jti as long
+     * as {@link #markUsed(String, long)} detects it.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has already been used
+     * @throws PopTokenValidatorException If the replay store cannot be accessed
+     */
+    boolean isUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException;
+
+    /**
+     * Records the specified jti as used until the specified time, if it has not already been used. This method is called only after
+     * the PoP token has been verified successfully.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has been recorded, false if the jti has already been used
+     * @throws PopTokenValidatorException If the replay store cannot be accessed
+     */
+    boolean markUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException;
+
+    /**
+     * Records asynchronously the specified jti as used until the specified time, if it has not already been used.
+     * 
+     * Note: This method can be overridden by the remote replay stores to record the jti without blocking the calling thread, the
+     * default implementation calls {@link #markUsed(String, long)} and returns the completed future.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return The future completed with true if the jti has been recorded, false if the jti has already been used
+     */
+    default CompletableFuture<Boolean> markUsedAsync(String jti, long expiresAtMillis) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            future.complete(markUsed(jti, expiresAtMillis));
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+}
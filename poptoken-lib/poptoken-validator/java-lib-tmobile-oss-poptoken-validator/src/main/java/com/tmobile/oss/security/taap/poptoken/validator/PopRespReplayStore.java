@@ -0,0 +1,529 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * A replay store keeping the jti (JWT ID) values in a Redis compatible server, so the replayed PoP tokens are detected across all the
+ * validator instances sharing the server.
+ * <p>
+ * The jti is recorded using <code>SET key 1 NX PX ttl</code>, which records the jti and checks whether it was already used in one
+ * atomic command, and the key expires together with the PoP token. The commands of all the request threads are queued and written by
+ * one I/O thread over one connection: all the commands queued while the previous round trip was in progress are written together and
+ * their replies are read back in order, so under load many jti values share one network round trip.
+ * <p>
+ * PopRespReplayStore is thread-safe so one instance should be created per server and shared between all the request threads, the
+ * connection and the I/O thread are stopped by calling {@link #close()}.
+ */
+public class PopRespReplayStore implements PopReplayStore, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopRespReplayStore.class);
+
+    private static final String KEY_PREFIX = "poptoken:jti:";
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int RESPONSE_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_PIPELINE_SIZE = 512;
+
+    private final String host;
+    private final int port;
+
+    private final BlockingQueue<Command> pendingCommands = new LinkedBlockingQueue<>();
+    private final AtomicBoolean ioThreadStarted = new AtomicBoolean();
+    private final AtomicLong roundTripCount = new AtomicLong();
+    private final AtomicLong commandCount = new AtomicLong();
+    private volatile Thread ioThread;
+    private volatile boolean closed;
+
+    private Socket socket;
+    private OutputStream outputStream;
+    private InputStream inputStream;
+
+    /**
+     * Constructs the PopRespReplayStore which keeps the jti values in the server listening on the specified host and port.
+     * 
+     * @param host The host of the server
+     * @param port The port of the server
+     * @throws IllegalArgumentException If the host is null or empty or the port is invalid
+     */
+    public PopRespReplayStore(String host, int port) {
+        if (StringUtils.isBlank(host)) {
+            throw new IllegalArgumentException("The host should not be null or empty");
+        }
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("The port should be between 1 and 65535");
+        }
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Returns the new instance of PopRespReplayStore which keeps the jti values in the server listening on the specified host and
+     * port.
+     * 
+     * @param host The host of the server
+     * @param port The port of the server
+     * @return The new instance of PopRespReplayStore
+     * @throws IllegalArgumentException If the host is null or empty or the port is invalid
+     */
+    public static PopRespReplayStore newInstance(String host, int port) {
+        return new PopRespReplayStore(host, port);
+    }
+
+    /**
+     * Returns true if the specified jti has already been recorded in the server.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     * @throws PopTokenValidatorException If the server cannot be accessed
+     */
+    @Override
+    public boolean isUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException {
+        return await(isUsedAsync(jti, expiresAtMillis));
+    }
+
+    /**
+     * Records the specified jti in the server until the specified time, if it has not already been recorded.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has been recorded, false if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     * @throws PopTokenValidatorException If the server cannot be accessed
+     */
+    @Override
+    public boolean markUsed(String jti, long expiresAtMillis) throws PopTokenValidatorException {
+        return await(markUsedAsync(jti, expiresAtMillis));
+    }
+
+    /**
+     * Checks asynchronously if the specified jti has already been recorded in the server.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return The future completed with true if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    public CompletableFuture<Boolean> isUsedAsync(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        return execute("EXISTS", getKeyPrefix() + jti).thenApply(reply -> reply instanceof Long && (Long) reply > 0);
+    }
+
+    /**
+     * Records asynchronously the specified jti in the server until the specified time, if it has not already been recorded.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return The future completed with true if the jti has been recorded, false if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    @Override
+    public CompletableFuture<Boolean> markUsedAsync(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        long ttlMillis = expiresAtMillis - System.currentTimeMillis();
+        if (ttlMillis <= 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return execute("SET", getKeyPrefix() + jti, "1", "NX", "PX", String.valueOf(ttlMillis)) //
+                .thenApply(reply -> "OK".equals(reply)); //
+    }
+
+    /**
+     * Returns the host of the server.
+     * 
+     * @return The host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port of the server.
+     * 
+     * @return The port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the number of network round trips to the server, each round trip carries one or more pipelined commands.
+     * 
+     * @return The number of round trips
+     */
+    public long getRoundTripCount() {
+        return roundTripCount.get();
+    }
+
+    /**
+     * Returns the number of commands sent to the server.
+     * 
+     * @return The number of commands
+     */
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * Closes the connection and stops the I/O thread, the pending commands are failed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread thread = ioThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        failPendingCommands(new IllegalStateException("The PopRespReplayStore has been closed"));
+    }
+
+    /**
+     * Returns the prefix of the keys used for storing the jti values.
+     * 
+     * Note: This method can be overridden to modify the default key prefix which is "poptoken:jti:".
+     * 
+     * @return The key prefix
+     */
+    protected String getKeyPrefix() {
+        return KEY_PREFIX;
+    }
+
+    /**
+     * Returns the timeout in milliseconds for connecting to the server.
+     * 
+     * Note: This method can be overridden to modify the default connect timeout which is 1000 milliseconds.
+     * 
+     * @return The connect timeout in milliseconds
+     */
+    protected int getConnectTimeoutMillis() {
+        return CONNECT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the timeout in milliseconds for waiting for the server replies.
+     * 
+     * Note: This method can be overridden to modify the default response timeout which is 1000 milliseconds.
+     * 
+     * @return The response timeout in milliseconds
+     */
+    protected int getResponseTimeoutMillis() {
+        return RESPONSE_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Returns the maximum number of commands written in one round trip.
+     * 
+     * Note: This method can be overridden to modify the default maximum pipeline size which is 512 commands.
+     * 
+     * @return The maximum pipeline size
+     */
+    protected int getMaxPipelineSize() {
+        return MAX_PIPELINE_SIZE;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Queues the command for the I/O thread.
+     * 
+     * @param args The command name and arguments
+     * @return The future completed with the reply of the command
+     */
+    private CompletableFuture<Object> execute(String... args) {
+        if (closed) {
+            throw new IllegalStateException("The PopRespReplayStore has been closed");
+        }
+        startIoThread();
+        Command command = new Command(args);
+        pendingCommands.add(command);
+        if (closed) {
+            failPendingCommands(new IllegalStateException("The PopRespReplayStore has been closed"));
+        }
+        return command.future;
+    }
+
+    /**
+     * Waits for the reply of the command.
+     * 
+     * @param future The future of the command
+     * @return The reply
+     * @throws PopTokenValidatorException If the command failed or the reply has not been received within the response timeout
+     */
+    private boolean await(CompletableFuture<Boolean> future) throws PopTokenValidatorException {
+        try {
+            return future.get(getResponseTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof PopTokenValidatorException) {
+                throw (PopTokenValidatorException) ex.getCause();
+            }
+            throw new PopTokenValidatorException(
+                    "Error occurred while accessing the replay store " + host + ":" + port + ", error: " + ex.getCause().toString(),
+                    ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new PopTokenValidatorException("Timed out while waiting for the replay store " + host + ":" + port, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PopTokenValidatorException("Interrupted while waiting for the replay store " + host + ":" + port, ex);
+        }
+    }
+
+    /**
+     * Starts the I/O thread, if it is not already started.
+     */
+    private void startIoThread() {
+        if (ioThreadStarted.get() || !ioThreadStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(this::runIoLoop, "poptoken-replay-store-io");
+        thread.setDaemon(true);
+        ioThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Writes the queued commands and reads their replies until the PopRespReplayStore is closed.
+     */
+    private void runIoLoop() {
+        List<Command> pipeline = new ArrayList<>();
+        try {
+            while (!closed) {
+                pipeline.add(pendingCommands.take());
+                pendingCommands.drainTo(pipeline, getMaxPipelineSize() - 1);
+                executePipeline(pipeline);
+                pipeline.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeConnection();
+            IllegalStateException closedException = new IllegalStateException("The PopRespReplayStore has been closed");
+            for (Command command : pipeline) {
+                command.future.completeExceptionally(closedException);
+            }
+            failPendingCommands(closedException);
+        }
+    }
+
+    /**
+     * Writes the commands in one batch and reads their replies. If the connection fails then all the commands not yet replied are
+     * failed and the connection is opened again for the next commands.
+     * 
+     * @param pipeline The commands
+     */
+    private void executePipeline(List<Command> pipeline) {
+        int repliedCount = 0;
+        try {
+            if (socket == null) {
+                openConnection();
+            }
+            for (Command command : pipeline) {
+                writeCommand(outputStream, command.args);
+            }
+            outputStream.flush();
+            roundTripCount.incrementAndGet();
+            commandCount.addAndGet(pipeline.size());
+
+            for (Command command : pipeline) {
+                Object reply = readReply(inputStream);
+                repliedCount++;
+                if (reply instanceof PopTokenValidatorException) {
+                    command.future.completeExceptionally((PopTokenValidatorException) reply);
+                } else {
+                    command.future.complete(reply);
+                }
+            }
+        } catch (Exception ex) {
+            logger.warn("Error occurred while accessing the replay store {}:{}, error: {}", host, port, ex.toString());
+            closeConnection();
+            for (Command command : pipeline.subList(repliedCount, pipeline.size())) {
+                command.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Opens the connection to the server.
+     * 
+     * @throws IOException If the connection cannot be opened
+     */
+    private void openConnection() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(new InetSocketAddress(host, port), getConnectTimeoutMillis());
+            newSocket.setSoTimeout(getResponseTimeoutMillis());
+            outputStream = new BufferedOutputStream(newSocket.getOutputStream());
+            inputStream = new BufferedInputStream(newSocket.getInputStream());
+            socket = newSocket;
+        } catch (IOException ex) {
+            newSocket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the connection to the server, if it is open.
+     */
+    private void closeConnection() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                logger.debug("Error occurred while closing the connection to the replay store, error: {}", ex.toString());
+            }
+            socket = null;
+            outputStream = null;
+            inputStream = null;
+        }
+    }
+
+    /**
+     * Fails all the queued commands with the specified exception.
+     * 
+     * @param ex The exception
+     */
+    private void failPendingCommands(Exception ex) {
+        Command command;
+        while ((command = pendingCommands.poll()) != null) {
+            command.future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Writes the command as RESP array of bulk strings.
+     * 
+     * @param outputStream The output stream
+     * @param args The command name and arguments
+     * @throws IOException If the command cannot be written
+     */
+    private static void writeCommand(OutputStream outputStream, String[] args) throws IOException {
+        outputStream.write(("*" + args.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String arg : args) {
+            byte[] argBytes = arg.getBytes(StandardCharsets.UTF_8);
+            outputStream.write(("$" + argBytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            outputStream.write(argBytes);
+            outputStream.write('\r');
+            outputStream.write('\n');
+        }
+    }
+
+    /**
+     * Reads one RESP reply, only the simple string, error, integer and bulk string replies are supported.
+     * 
+     * @param inputStream The input stream
+     * @return The String or Long reply, null for the null bulk string or PopTokenValidatorException for the error reply
+     * @throws IOException If the reply cannot be read or is not supported
+     */
+    private static Object readReply(InputStream inputStream) throws IOException {
+        int type = inputStream.read();
+        if (type < 0) {
+            throw new EOFException("The replay store closed the connection");
+        }
+        String line = readLine(inputStream);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new PopTokenValidatorException("The replay store returned the error: " + line);
+            case ':':
+                return Long.valueOf(line);
+            case '$':
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length + 2];
+                int offset = 0;
+                while (offset < bytes.length) {
+                    int bytesRead = inputStream.read(bytes, offset, bytes.length - offset);
+                    if (bytesRead < 0) {
+                        throw new EOFException("The replay store closed the connection");
+                    }
+                    offset += bytesRead;
+                }
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unsupported reply type '" + (char) type + "' received from the replay store");
+        }
+    }
+
+    /**
+     * Reads the line terminated by CRLF.
+     * 
+     * @param inputStream The input stream
+     * @return The line without CRLF
+     * @throws IOException If the line cannot be read
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int ch;
+        while ((ch = inputStream.read()) != '\r') {
+            if (ch < 0) {
+                throw new EOFException("The replay store closed the connection");
+            }
+            line.append((char) ch);
+        }
+        if (inputStream.read() != '\n') {
+            throw new IOException("Invalid line terminator received from the replay store");
+        }
+        return line.toString();
+    }
+
+    /**
+     * Represents the queued command.
+     */
+    private static class Command {
+
+        private final String[] args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private Command(String[] args) {
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Signature;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.NotImplementedException;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+/**
+ * Verifies the PoP token signatures of one signing algorithm using one public key.
+ * <p>
+ * The PopSignatureVerifier is an {@link Algorithm} so it reports the invalid signatures in the same way as the java-jwt algorithms,
+ * unlike them it verifies the PS256 and EdDSA signatures too. It is immutable and thread-safe.
+ * <p>
+ * Each thread keeps the Signatures of the up to 8 most recently used public keys, looked up by the identity of the public key, the
+ * signing algorithm and the provider, so verifying the next PoP token signed by any of those keys neither looks up the JCA provider
+ * nor initializes the Signature again, even when the PoP tokens of several clients are interleaved. The Signature returns to its
+ * initialized state after each verification and is discarded when the verification fails with an exception.
+ * <p>
+ * The Signatures are kept in a ThreadLocal, so on a virtual thread they belong to the virtual thread and not to its carrier thread.
+ * As the virtual threads are usually created per task, a verification on a new virtual thread creates and initializes its Signature,
+ * which costs the same as verifying without the cached Signatures, and the Signatures are reused only by the long-lived virtual
+ * threads, e.g. the ones processing all the requests of one connection.
+ */
+final class PopSignatureVerifier extends Algorithm {
+
+    private static final byte JWT_PART_SEPARATOR = (byte) '.';
+    private static final ThreadLocal<ThreadSignatures> THREAD_SIGNATURES = ThreadLocal.withInitial(ThreadSignatures::new);
+
+    private final PublicKey publicKey;
+    private final PopSigningAlgorithm signingAlgorithm;
+    private final Provider signatureProvider;
+
+    /**
+     * Constructs the PopSignatureVerifier and checks that the signature algorithm is available and accepts the public key.
+     * 
+     * @param publicKey The public key to verify the PoP token signatures
+     * @param signingAlgorithm The signing algorithm of the PoP tokens
+     * @param signatureProvider The JCA provider of the Signature or null if the Signature should be looked up in the registered
+     *            providers
+     * @throws IllegalArgumentException If the public key is not supported by the signing algorithm or the signature algorithm is not
+     *             available
+     */
+    PopSignatureVerifier(PublicKey publicKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider) {
+        super(signingAlgorithm.name(), signingAlgorithm.getSignatureAlgorithm());
+        if (!signingAlgorithm.isKeySupported(publicKey)) {
+            throw new IllegalArgumentException("The public key having the algorithm " + publicKey.getAlgorithm()
+                    + " cannot be used to verify " + signingAlgorithm);
+        }
+        try {
+            signingAlgorithm.newSignature(signatureProvider).initVerify(publicKey);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(
+                    "The " + signingAlgorithm + " signature cannot be verified by this JVM, error: " + ex.toString(), ex);
+        }
+        this.publicKey = publicKey;
+        this.signingAlgorithm = signingAlgorithm;
+        this.signatureProvider = signatureProvider;
+    }
+
+    /**
+     * Verifies the signature of the decoded PoP token.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @throws SignatureVerificationException If the signature is invalid or cannot be verified
+     */
+    @Override
+    public void verify(DecodedJWT decodedJwt) throws SignatureVerificationException {
+        ThreadSignatures threadSignatures = THREAD_SIGNATURES.get();
+        boolean isSignatureValid;
+        try {
+            Signature signature = threadSignatures.getSignature(publicKey, signingAlgorithm, signatureProvider);
+            signature.update(decodedJwt.getHeader().getBytes(StandardCharsets.UTF_8));
+            signature.update(JWT_PART_SEPARATOR);
+            signature.update(decodedJwt.getPayload().getBytes(StandardCharsets.UTF_8));
+            isSignatureValid = signature.verify(signingAlgorithm.toJcaSignature(Base64.decodeBase64(decodedJwt.getSignature())));
+        } catch (Exception ex) {
+            threadSignatures.discardSignature(publicKey, signingAlgorithm, signatureProvider);
+            throw new SignatureVerificationException(this, ex);
+        }
+        if (!isSignatureValid) {
+            throw new SignatureVerificationException(this);
+        }
+    }
+
+    /**
+     * The PopSignatureVerifier only verifies the signatures.
+     * 
+     * @param contentBytes The content bytes
+     * @return Never returns
+     * @throws NotImplementedException Always
+     */
+    @Override
+    public byte[] sign(byte[] contentBytes) {
+        throw new NotImplementedException("Method is not implemented");
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * The Signatures of one thread initialized for verifying using the most recently used public keys, ordered from the most to the
+     * least recently used. The Signatures are looked up by the identity of the public key, the signing algorithm and the provider, and
+     * the least recently used Signature is evicted when a Signature is needed for one more public key.
+     */
+    private static final class ThreadSignatures {
+
+        private static final int MAX_SIGNATURE_COUNT = 8;
+
+        private final Signature[] signatures = new Signature[MAX_SIGNATURE_COUNT];
+        private final PublicKey[] signatureKeys = new PublicKey[MAX_SIGNATURE_COUNT];
+        private final PopSigningAlgorithm[] signingAlgorithms = new PopSigningAlgorithm[MAX_SIGNATURE_COUNT];
+        private final Provider[] signatureProviders = new Provider[MAX_SIGNATURE_COUNT];
+        private int signatureCount;
+
+        /**
+         * Returns the Signature of the signing algorithm initialized for verifying using the specified public key, the Signature is
+         * created and initialized only when the thread has no Signature for the public key, signing algorithm and provider.
+         * 
+         * @param publicKey The public key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature or null if the Signature should be looked up in the registered
+         *            providers
+         * @return The initialized Signature
+         * @throws GeneralSecurityException If the Signature cannot be created or initialized
+         */
+        Signature getSignature(PublicKey publicKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider)
+                throws GeneralSecurityException {
+            int index = indexOf(publicKey, signingAlgorithm, signatureProvider);
+            Signature signature;
+            if (index >= 0) {
+                signature = signatures[index];
+            } else {
+                signature = signingAlgorithm.newSignature(signatureProvider);
+                signature.initVerify(publicKey);
+                if (signatureCount < MAX_SIGNATURE_COUNT) {
+                    signatureCount++;
+                }
+                index = signatureCount - 1;
+            }
+            System.arraycopy(signatures, 0, signatures, 1, index);
+            System.arraycopy(signatureKeys, 0, signatureKeys, 1, index);
+            System.arraycopy(signingAlgorithms, 0, signingAlgorithms, 1, index);
+            System.arraycopy(signatureProviders, 0, signatureProviders, 1, index);
+            signatures[0] = signature;
+            signatureKeys[0] = publicKey;
+            signingAlgorithms[0] = signingAlgorithm;
+            signatureProviders[0] = signatureProvider;
+            return signature;
+        }
+
+        /**
+         * Discards the Signature of the public key, signing algorithm and provider, as its state is unknown after a failed
+         * verification.
+         * 
+         * @param publicKey The public key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature
+         */
+        void discardSignature(PublicKey publicKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider) {
+            int index = indexOf(publicKey, signingAlgorithm, signatureProvider);
+            if (index < 0) {
+                return;
+            }
+            int movedCount = signatureCount - index - 1;
+            System.arraycopy(signatures, index + 1, signatures, index, movedCount);
+            System.arraycopy(signatureKeys, index + 1, signatureKeys, index, movedCount);
+            System.arraycopy(signingAlgorithms, index + 1, signingAlgorithms, index, movedCount);
+            System.arraycopy(signatureProviders, index + 1, signatureProviders, index, movedCount);
+            signatureCount--;
+            signatures[signatureCount] = null;
+            signatureKeys[signatureCount] = null;
+            signingAlgorithms[signatureCount] = null;
+            signatureProviders[signatureCount] = null;
+        }
+
+        /**
+         * Returns the index of the Signature of the public key, signing algorithm and provider.
+         * 
+         * @param publicKey The public key
+         * @param signingAlgorithm The signing algorithm
+         * @param signatureProvider The JCA provider of the Signature
+         * @return The index of the Signature or -1 if the thread has no Signature for them
+         */
+        private int indexOf(PublicKey publicKey, PopSigningAlgorithm signingAlgorithm, Provider signatureProvider) {
+            for (int i = 0; i < signatureCount; i++) {
+                if (signatureKeys[i] == publicKey && signingAlgorithms[i] == signingAlgorithm
+                        && signatureProviders[i] == signatureProvider) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The algorithms used to verify the PoP token signatures, the name of each algorithm is the "alg" header value of the signed PoP
+ * tokens.
+ * <p>
+ * The algorithm of a PoP token is chosen by its signer, so the PopTokenVerifier only accepts the algorithms allowed for its public
+ * key, see {@link PopTokenValidator#getAllowedAlgorithms(PublicKey)}. The EdDSA algorithm requires the JVM, or a registered security
+ * provider such as BouncyCastle, to support the Ed25519 signature.
+ */
+public enum PopSigningAlgorithm {
+
+    /**
+     * RSASSA-PKCS1-v1_5 using SHA-256, verified using an RSA public key.
+     */
+    RS256("RSA", "SHA256withRSA") {
+        @Override
+        public boolean isKeySupported(PublicKey publicKey) {
+            return publicKey instanceof RSAPublicKey;
+        }
+    },
+
+    /**
+     * RSASSA-PSS using SHA-256 and MGF1 with SHA-256, verified using an RSA public key.
+     */
+    PS256("RSA", "RSASSA-PSS") {
+        @Override
+        public boolean isKeySupported(PublicKey publicKey) {
+            return publicKey instanceof RSAPublicKey;
+        }
+
+        @Override
+        Signature newSignature(Provider provider) throws GeneralSecurityException {
+            Signature signature = super.newSignature(provider);
+            signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+            return signature;
+        }
+    },
+
+    /**
+     * ECDSA using the P-256 curve and SHA-256, verified using an EC public key. The signatures whose R or S value is 0 or not less
+     * than the curve order are rejected before they are passed to the Signature (CVE-2022-21449).
+     */
+    ES256("EC", "SHA256withECDSA") {
+        @Override
+        public boolean isKeySupported(PublicKey publicKey) {
+            return publicKey instanceof ECPublicKey && P_256_ORDER.equals(((ECPublicKey) publicKey).getParams().getOrder());
+        }
+
+        @Override
+        byte[] toJcaSignature(byte[] joseSignatureBytes) throws SignatureException {
+            return concatenatedToDerSignature(joseSignatureBytes, P_256_ORDER_BYTES);
+        }
+    },
+
+    /**
+     * EdDSA using the Ed25519 curve, verified using an Ed25519 public key.
+     */
+    EdDSA("Ed25519", "Ed25519") {
+        @Override
+        public boolean isKeySupported(PublicKey publicKey) {
+            return "Ed25519".equals(publicKey.getAlgorithm()) || "EdDSA".equals(publicKey.getAlgorithm());
+        }
+    };
+
+    private static final BigInteger P_256_ORDER = new BigInteger(
+            "FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16);
+    // the 32 bytes of the P-256 curve order without the leading sign byte of its two's complement representation
+    private static final byte[] P_256_ORDER_BYTES = Arrays.copyOfRange(P_256_ORDER.toByteArray(), 1, 33);
+
+    private static final Map<String, PopSigningAlgorithm> ALGORITHMS_BY_NAME = new HashMap<>();
+
+    static {
+        for (PopSigningAlgorithm signingAlgorithm : values()) {
+            ALGORITHMS_BY_NAME.put(signingAlgorithm.name(), signingAlgorithm);
+        }
+    }
+
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+
+    /**
+     * Constructs the PopSigningAlgorithm.
+     * 
+     * @param keyAlgorithm The JCA key algorithm of the public keys
+     * @param signatureAlgorithm The JCA signature algorithm
+     */
+    PopSigningAlgorithm(String keyAlgorithm, String signatureAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Returns the PopSigningAlgorithm having the specified name, i.e. the "alg" header value of a PoP token.
+     * 
+     * @param name The algorithm name, e.g. "ES256"
+     * @return The PopSigningAlgorithm or null if the name is null or not the name of a supported algorithm
+     */
+    public static PopSigningAlgorithm forName(String name) {
+        return name != null ? ALGORITHMS_BY_NAME.get(name) : null;
+    }
+
+    /**
+     * Returns the JCA key algorithm of the public keys, e.g. "RSA" or "EC", used to create the KeyFactory.
+     * 
+     * @return The JCA key algorithm
+     */
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Returns the JCA signature algorithm, e.g. "SHA256withRSA".
+     * 
+     * @return The JCA signature algorithm
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Returns true if the PoP token signatures of this algorithm can be verified using the specified public key.
+     * 
+     * @param publicKey The public key
+     * @return true if the public key is supported
+     */
+    public abstract boolean isKeySupported(PublicKey publicKey);
+
+    /**
+     * Creates the Signature for verifying the PoP token signatures.
+     * 
+     * @param provider The JCA provider of the Signature or null if the Signature should be looked up in the registered providers
+     * @return The Signature
+     * @throws GeneralSecurityException If the signature algorithm is not available
+     */
+    Signature newSignature(Provider provider) throws GeneralSecurityException {
+        return provider != null ? Signature.getInstance(signatureAlgorithm, provider) : Signature.getInstance(signatureAlgorithm);
+    }
+
+    /**
+     * Converts the JWS signature bytes of the PoP token to the signature bytes expected by the Signature.
+     * 
+     * @param joseSignatureBytes The JWS signature bytes
+     * @return The signature bytes expected by the Signature
+     * @throws SignatureException If the JWS signature bytes cannot be converted
+     */
+    byte[] toJcaSignature(byte[] joseSignatureBytes) throws SignatureException {
+        return joseSignatureBytes;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Converts the concatenated R and S values of the JWS ECDSA signature to the DER encoded ECDSA signature, after checking both
+     * values are between 1 and the curve order minus 1.
+     * 
+     * @param joseSignature The concatenated R and S values
+     * @param curveOrder The unsigned big-endian bytes of the curve order, its length is the length of the R and S values
+     * @return The DER encoded ECDSA signature
+     * @throws SignatureException If the length of the JWS signature is invalid or the R or S value is out of range
+     */
+    private static byte[] concatenatedToDerSignature(byte[] joseSignature, byte[] curveOrder) throws SignatureException {
+        int valueLength = curveOrder.length;
+        if (joseSignature.length != 2 * valueLength) {
+            throw new SignatureException("Invalid JOSE signature format");
+        }
+        if (!isInSignatureValueRange(joseSignature, 0, curveOrder)
+                || !isInSignatureValueRange(joseSignature, valueLength, curveOrder)) {
+            throw new SignatureException(
+                    "Invalid ECDSA signature, the R and S values should be between 1 and the curve order minus 1");
+        }
+        int rLength = getDerIntegerLength(joseSignature, 0, valueLength);
+        int sLength = getDerIntegerLength(joseSignature, valueLength, valueLength);
+        int sequenceLength = 4 + rLength + sLength;
+
+        byte[] derSignature = new byte[(sequenceLength > 127 ? 3 : 2) + sequenceLength];
+        int offset = 0;
+        derSignature[offset++] = 0x30;
+        if (sequenceLength > 127) {
+            derSignature[offset++] = (byte) 0x81;
+        }
+        derSignature[offset++] = (byte) sequenceLength;
+        offset = writeDerInteger(joseSignature, 0, valueLength, rLength, derSignature, offset);
+        writeDerInteger(joseSignature, valueLength, valueLength, sLength, derSignature, offset);
+        return derSignature;
+    }
+
+    /**
+     * Returns true if the unsigned big-endian value is between 1 and the curve order minus 1, the value is compared byte by byte
+     * without converting it to BigInteger.
+     * 
+     * @param joseSignature The concatenated R and S values
+     * @param offset The offset of the value
+     * @param curveOrder The unsigned big-endian bytes of the curve order
+     * @return true if the value is in range
+     */
+    private static boolean isInSignatureValueRange(byte[] joseSignature, int offset, byte[] curveOrder) {
+        boolean nonZero = false;
+        int comparison = 0;
+        for (int i = 0; i < curveOrder.length; i++) {
+            int value = joseSignature[offset + i] & 0xFF;
+            nonZero |= value != 0;
+            if (comparison == 0) {
+                comparison = Integer.compare(value, curveOrder[i] & 0xFF);
+            }
+        }
+        return nonZero && comparison < 0;
+    }
+
+    /**
+     * Returns the length of the DER encoded unsigned integer content, i.e. the value without its leading zero bytes plus one zero byte
+     * if its first byte has the sign bit set.
+     * 
+     * @param joseSignature The concatenated R and S values
+     * @param offset The offset of the value
+     * @param valueLength The length of the value in bytes
+     * @return The length of the DER encoded integer content
+     */
+    private static int getDerIntegerLength(byte[] joseSignature, int offset, int valueLength) {
+        int start = offset;
+        int end = offset + valueLength;
+        while (start < end - 1 && joseSignature[start] == 0) {
+            start++;
+        }
+        return (end - start) + (joseSignature[start] < 0 ? 1 : 0);
+    }
+
+    /**
+     * Writes the value as the DER encoded unsigned integer of the specified content length.
+     * 
+     * @param joseSignature The concatenated R and S values
+     * @param offset The offset of the value
+     * @param valueLength The length of the value in bytes
+     * @param integerLength The length of the DER encoded integer content
+     * @param target The target array
+     * @param targetOffset The offset in the target array
+     * @return The offset after the DER encoded integer
+     */
+    private static int writeDerInteger(byte[] joseSignature, int offset, int valueLength, int integerLength, byte[] target,
+            int targetOffset) {
+        target[targetOffset] = 0x02;
+        target[targetOffset + 1] = (byte) integerLength;
+        int copyLength = Math.min(integerLength, valueLength);
+        System.arraycopy(joseSignature, offset + valueLength - copyLength, target, targetOffset + 2 + integerLength - copyLength,
+                copyLength);
+        return targetOffset + 2 + integerLength;
+    }
+}
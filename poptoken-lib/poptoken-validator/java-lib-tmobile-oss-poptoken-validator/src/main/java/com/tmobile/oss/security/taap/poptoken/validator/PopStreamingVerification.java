@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenInvalidEdtsHashException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenReplayException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenSignatureVerificationException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * Represents the verification of a PoP token whose ehts value of one ehts key, usually the HTTP request body, is streamed in chunks.
+ * <p>
+ * The PopStreamingVerification is created by {@link PopTokenVerifier#startStreamingVerification(String, Map, String)} or
+ * {@link PopTokenVerifier#startStreamingVerification(String, Function, String)} once the checks
+ * not depending on the ehts values have passed. The chunks of the streamed value are fed into the edts (external data to sign) message
+ * digest as they arrive, using {@link #update(ByteBuffer)}, and {@link #complete()} hashes the remaining ehts values, validates the
+ * edts hash, verifies the signature and records the jti, depending on the verification order and replay store of the
+ * PopTokenVerifier. If the streamed ehts key is not signed by the PoP token then the chunks are ignored.
+ * <p>
+ * PopStreamingVerification is not thread-safe, the chunks should be fed by one thread at a time and in the order they arrive.
+ */
+public final class PopStreamingVerification {
+
+    private final PopTokenVerifier popTokenVerifier;
+    private final DecodedJWT decodedJwt;
+    private final String streamedEhtsKey;
+    private final List<String> ehtsList;
+    private final List<PopEhtsValue> ehtsValues;
+    private final int streamedEhtsIndex;
+    private final MessageDigest messageDigest;
+    private final PopEhtsValue.BlankValueDetector streamedValueBlankDetector = new PopEhtsValue.BlankValueDetector();
+
+    private long streamedByteCount;
+    private boolean completed;
+
+    /**
+     * Constructs the PopStreamingVerification, resolves the values of the ehts keys other than the streamed ehts key and hashes the
+     * ehts values preceding the streamed ehts key.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier which has performed the checks not depending on the ehts values
+     * @param decodedJwt The decoded PoP token
+     * @param ehtsValueResolver The function returning the value of an ehts key or null if the value is not available
+     * @param streamedEhtsKey The ehts key whose value is streamed
+     * @throws PopTokenValidatorException If the ehts keys are missing in the PoP token or the value of any of them is not available
+     *             or empty
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    PopStreamingVerification(PopTokenVerifier popTokenVerifier, DecodedJWT decodedJwt,
+            Function<String, PopEhtsValue> ehtsValueResolver, String streamedEhtsKey) throws PopTokenValidatorException, IOException {
+        this.popTokenVerifier = popTokenVerifier;
+        this.decodedJwt = decodedJwt;
+        this.streamedEhtsKey = streamedEhtsKey;
+        this.ehtsList = PopTokenVerifier.getEhts(decodedJwt);
+        this.streamedEhtsIndex = ehtsList.indexOf(streamedEhtsKey);
+
+        this.ehtsValues = new ArrayList<>(ehtsList.size());
+        for (String ehtsKey : ehtsList) {
+            if (ehtsKey.equals(streamedEhtsKey)) {
+                ehtsValues.add(null);
+                continue;
+            }
+            PopEhtsValue ehtsValue = ehtsValueResolver.apply(ehtsKey);
+            if (ehtsValue == null) {
+                throw new PopTokenValidatorException("The ehtsKeyValueMap does not contain the entry for ehsKey '" + ehtsKey + "'");
+            }
+            if (ehtsValue.isEmpty()) {
+                throw new PopTokenValidatorException("The ehts value for ehtsKey '" + ehtsKey + "' should not be empty");
+            }
+            ehtsValues.add(ehtsValue);
+        }
+        this.messageDigest = popTokenVerifier.newSha256Digest();
+        updateDigest(0, isStreamedValueSigned() ? streamedEhtsIndex : ehtsList.size());
+    }
+
+    /**
+     * Returns true if the streamed ehts key is signed by the PoP token, i.e. the streamed value is hashed and so it should be held
+     * back until the verification completes.
+     * 
+     * @return true if the streamed value is signed
+     */
+    public boolean isStreamedValueSigned() {
+        return streamedEhtsIndex >= 0;
+    }
+
+    /**
+     * Feeds the next chunk of the streamed value into the edts message digest. The remaining bytes of the chunk are hashed without
+     * changing its position, so the same chunk can be passed on afterwards.
+     * 
+     * @param chunk The next chunk of the streamed value
+     * @throws IllegalArgumentException If the chunk is null
+     * @throws IllegalStateException If the verification has already been completed
+     */
+    public void update(ByteBuffer chunk) {
+        if (chunk == null) {
+            throw new IllegalArgumentException("The chunk should not be null");
+        }
+        if (completed) {
+            throw new IllegalStateException("The streaming verification has already been completed");
+        }
+        streamedByteCount += chunk.remaining();
+        if (isStreamedValueSigned()) {
+            messageDigest.update(chunk.duplicate());
+            streamedValueBlankDetector.update(chunk.duplicate());
+        }
+    }
+
+    /**
+     * Feeds the next chunk of the streamed value into the edts message digest.
+     * 
+     * @param chunk The byte array containing the next chunk of the streamed value
+     * @param offset The offset of the chunk in the byte array
+     * @param length The length of the chunk
+     * @throws IllegalArgumentException If the chunk is null
+     * @throws IllegalStateException If the verification has already been completed
+     */
+    public void update(byte[] chunk, int offset, int length) {
+        if (chunk == null) {
+            throw new IllegalArgumentException("The chunk should not be null");
+        }
+        update(ByteBuffer.wrap(chunk, offset, length));
+    }
+
+    /**
+     * Completes the verification once the whole streamed value has been fed: validates the edts hash, verifies the signature with
+     * the {@link PopTokenVerificationOrder#CHEAP_CHECKS_FIRST} order and records the jti in the replay store.
+     * 
+     * @throws IllegalStateException If the verification has already been completed
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the streamed value is signed but empty or contains only whitespace characters, like the
+     *             blank ehts values of {@link PopTokenVerifier#verifyEhtsValues(String, Map)}, or the PoP token cannot be validated
+     */
+    public void complete() throws PopTokenValidatorException {
+        if (completed) {
+            throw new IllegalStateException("The streaming verification has already been completed");
+        }
+        completed = true;
+
+        try {
+            if (isStreamedValueSigned()) {
+                if (streamedValueBlankDetector.isBlank()) {
+                    throw new PopTokenValidatorException("The ehts value for ehtsKey '" + streamedEhtsKey + "' should not be empty");
+                }
+                updateDigest(streamedEhtsIndex + 1, ehtsList.size());
+            }
+            popTokenVerifier.validateEdtsHash(decodedJwt, messageDigest.digest());
+            popTokenVerifier.verifyAfterEdtsHash(decodedJwt);
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the streamed value fed so far.
+     * 
+     * @return The number of streamed bytes
+     */
+    public long getStreamedByteCount() {
+        return streamedByteCount;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Feeds the ehts values of the specified range of ehts keys into the edts message digest.
+     * 
+     * @param fromIndex The index of the first ehts key, inclusive
+     * @param toIndex The index of the last ehts key, exclusive
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    private void updateDigest(int fromIndex, int toIndex) throws IOException {
+        for (int i = fromIndex; i < toIndex; i++) {
+            ehtsValues.get(i).updateDigest(messageDigest);
+        }
+    }
+}
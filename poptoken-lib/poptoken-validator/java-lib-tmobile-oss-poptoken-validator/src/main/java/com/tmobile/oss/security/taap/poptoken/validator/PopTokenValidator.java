@@ -16,33 +16,38 @@
 
 package com.tmobile.oss.security.taap.poptoken.validator;
 
-import java.security.interfaces.RSAPrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
-import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTDecodeException;
-import com.auth0.jwt.exceptions.SignatureVerificationException;
-import com.auth0.jwt.exceptions.TokenExpiredException;
-import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
-import com.auth0.jwt.interfaces.RSAKeyProvider;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyNotFoundException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenExpiredException;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenInvalidEdtsHashException;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenSignatureVerificationException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidationRejectedException;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopKeyCache;
 import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
 
 /**
@@ -50,10 +55,19 @@ import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorU
  */
 public class PopTokenValidator {
 
-    private static final Logger logger = LoggerFactory.getLogger(PopTokenValidator.class);
-
     private static final long ACCEPTED_LEEWAY_SECONDS = 10;
 
+    private static final int CHUNKS_PER_BATCH_THREAD = 4;
+
+    private static final int PUBLIC_KEY_CACHE_MAX_SIZE = 100;
+    private static final long PUBLIC_KEY_CACHE_TTL_MINUTES = 60;
+
+    private static final PopSigningAlgorithm[] DEFAULT_SIGNING_ALGORITHMS = { PopSigningAlgorithm.RS256, PopSigningAlgorithm.ES256,
+            PopSigningAlgorithm.EdDSA };
+
+    private static final PopKeyCache<RSAPublicKey> PUBLIC_KEY_CACHE = new PopKeyCache<>(PUBLIC_KEY_CACHE_MAX_SIZE,
+            PUBLIC_KEY_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+
     /**
      * Returns the new instance of PopTokenValidator.
      * 
@@ -105,7 +119,9 @@ public class PopTokenValidator {
                     "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
         }
 
-        RSAPublicKey rsaPublicKey = PopTokenValidatorUtils.keyPemStringToRsaPublicKey(publicKeyPemString);
+        PopCryptoConfig cryptoConfig = getCryptoConfig();
+        RSAPublicKey rsaPublicKey = toRsaPublicKey(publicKeyPemString, cryptoConfig,
+                keyPemString -> PopTokenValidatorUtils.keyPemStringToRsaPublicKey(keyPemString, cryptoConfig));
         validatePopTokenWithRsaPublicKey(popToken, rsaPublicKey, ehtsKeyValueMap);
     }
 
@@ -151,10 +167,59 @@ public class PopTokenValidator {
                     "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
         }
         
-        RSAPublicKey rsaPublicKey = PopTokenValidatorUtils.jwkStringToRsaPublicKey(publicKeyJwkString);
+        PopCryptoConfig cryptoConfig = getCryptoConfig();
+        RSAPublicKey rsaPublicKey = toRsaPublicKey(publicKeyJwkString, cryptoConfig,
+                jwkString -> PopTokenValidatorUtils.jwkStringToRsaPublicKey(jwkString, cryptoConfig));
         validatePopTokenWithRsaPublicKey(popToken, rsaPublicKey, ehtsKeyValueMap);
     }
 
+    /**
+     * Validates the PoP token with the public key resolved by the kid (key ID) header of the PoP token from the JWK set, if the JWK
+     * specifies the "alg" member then the PoP token should be signed using that algorithm, see {@link
+     * #newPopTokenVerifierForJwk(PopJwk)}.
+     * 
+     * @param popToken The PoP token string
+     * @param jwksKeyResolver The JwksKeyResolver to resolve the public key to verify the PoP token signature
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys.
+     *            <p>
+     *            Determining the ehts key name:
+     *            <ul>
+     *            <li>For HTTP request URI, "uri" should be used as ehts key name, <code>PopEhtsKey.URI.keyName()</code>. <br>
+     *            For "uri" ehts value, URI and query string of the request URL should be put in the map. Example: If the URL is
+     *            "https://api.t-mobile.com/commerce/v1/orders?account-number=0000000000" then only
+     *            "/commerce/v1/orders?account-number=0000000000" should be used as ehts "uri" value. The query parameter values part
+     *            of "uri" ehts should not be in URL encoded format.</li>
+     *            <li>For HTTP method, "http-method" should be used as ehts key name,
+     *            <code>PopEhtsKey.HTTP_METHOD.keyName()</code>.</li>
+     *            <li>For HTTP request headers, the header name should be used as ehts key name.</li>
+     *            <li>For HTTP request body, "body" should be used as ehts key name, <code>PopEhtsKey.BODY.keyName()</code>.</li>
+     *            </ul>
+     *            <p>
+     * @throws IllegalArgumentException If the popToken is null or empty, jwksKeyResolver is null or ehtsKeyValueMap is invalid
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded or does not contain the kid header
+     * @throws PopPublicKeyNotFoundException If the JWK set does not contain the key for the kid of the PoP token
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    public void validatePopTokenWithJwksKeyResolver(String popToken, JwksKeyResolver jwksKeyResolver,
+            Map<String, String> ehtsKeyValueMap) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (jwksKeyResolver == null) {
+            throw new IllegalArgumentException("The jwksKeyResolver should not be null");
+        }
+        if (ehtsKeyValueMap == null || ehtsKeyValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
+        }
+
+        newPopTokenVerifierForJwk(jwksKeyResolver.getJwk(getKid(popToken))).verify(popToken, ehtsKeyValueMap);
+    }
+
     /**
      * Validates the PoP token with RSA public key.
      * 
@@ -185,25 +250,259 @@ public class PopTokenValidator {
     public void validatePopTokenWithRsaPublicKey(String popToken, RSAPublicKey rsaPublicKey, Map<String, String> ehtsKeyValueMap)
             throws PopTokenValidatorException {
 
+        validateArguments(popToken, rsaPublicKey, "rsaPublicKey", ehtsKeyValueMap);
+        newPopTokenVerifier(rsaPublicKey).verify(popToken, ehtsKeyValueMap);
+    }
+
+    /**
+     * Validates the PoP token with the public key, the PoP token should be signed using one of the algorithms returned by
+     * {@link #getAllowedAlgorithms(PublicKey)} for the public key, e.g. ES256 for a P-256 EC public key.
+     * 
+     * @param popToken The PoP token string
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys, the ehts key names
+     *            should be determined in the same way as described for
+     *            {@link #validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)}.
+     * @throws IllegalArgumentException If the popToken is null or empty, publicKey is null or not supported by any of the allowed
+     *             algorithms or ehtsKeyValueMap is invalid
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated, e.g. it is signed using an algorithm not allowed for
+     *             the public key
+     */
+    public void validatePopTokenWithPublicKey(String popToken, PublicKey publicKey, Map<String, String> ehtsKeyValueMap)
+            throws PopTokenValidatorException {
+
         if (StringUtils.isBlank(popToken)) {
             throw new IllegalArgumentException("The popToken should not be null or empty");
         }
-        if (rsaPublicKey == null) {
-            throw new IllegalArgumentException("The rsaPublicKey should not be null");
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
         }
         if (ehtsKeyValueMap == null || ehtsKeyValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap)) {
             throw new IllegalArgumentException(
                     "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
         }
+        newPopTokenVerifier(publicKey).verify(popToken, ehtsKeyValueMap);
+    }
 
-        try {
-            DecodedJWT decodedJwt = validateTokenUsingJwtVerifier(popToken, rsaPublicKey);
-            validateEdtsHash(decodedJwt, ehtsKeyValueMap);
-        } catch (PopTokenValidatorException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+    /**
+     * Validates the PoP tokens of the specified validation requests in parallel using the common fork-join pool, see
+     * {@link #validateAll(List, Executor)}.
+     * 
+     * @param validationRequests The validation requests
+     * @return The validation results, in the same order as the validation requests
+     * @throws IllegalArgumentException If the validationRequests is null
+     */
+    public List<PopValidationResult> validateAll(List<PopValidationRequest> validationRequests) {
+        return validateAll(validationRequests, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Validates the PoP tokens of the specified validation requests in parallel using the specified executor.
+     * <p>
+     * One PopTokenVerifier is built per distinct public key, by the first validation request having that public key, and shared by
+     * all the validation requests having that public key. A public key the PopTokenVerifier cannot be built for, e.g. because it is
+     * not supported by the allowed algorithms, fails only the validation requests having that public key. The validation requests are
+     * split into {@link #getBatchParallelism()} times 4 chunks of consecutive requests, the chunks are validated by the executor while
+     * the calling thread validates the last chunk and then waits for the others. A PoP token failing validation does not stop the
+     * other validations, its exception is returned in its validation result.
+     * 
+     * @param validationRequests The validation requests
+     * @param executor The executor to validate the chunks of validation requests
+     * @return The validation results, in the same order as the validation requests
+     * @throws IllegalArgumentException If the validationRequests or executor is null
+     */
+    public List<PopValidationResult> validateAll(List<PopValidationRequest> validationRequests, Executor executor) {
+        if (validationRequests == null) {
+            throw new IllegalArgumentException("The validationRequests should not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor should not be null");
+        }
+
+        PopValidationRequest[] requests = validationRequests.toArray(new PopValidationRequest[0]);
+        ConcurrentMap<PublicKey, PopTokenVerifier> verifierMap = new ConcurrentHashMap<>();
+
+        PopValidationResult[] results = new PopValidationResult[requests.length];
+        int chunkCount = Math.max(1, Math.min(requests.length, getBatchParallelism() * CHUNKS_PER_BATCH_THREAD));
+        List<CompletableFuture<Void>> futures = new ArrayList<>(chunkCount - 1);
+        for (int chunk = 0; chunk < chunkCount - 1; chunk++) {
+            int fromIndex = (int) ((long) requests.length * chunk / chunkCount);
+            int toIndex = (int) ((long) requests.length * (chunk + 1) / chunkCount);
+            futures.add(CompletableFuture.runAsync(() -> validateChunk(requests, fromIndex, toIndex, verifierMap, results), executor));
+        }
+        validateChunk(requests, (int) ((long) requests.length * (chunkCount - 1) / chunkCount), requests.length, verifierMap, results);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Validates the PoP token of the specified validation request asynchronously using the executor returned by
+     * {@link #getAsyncExecutor()}, see {@link #validateAsync(PopValidationRequest, Executor)}.
+     * <p>
+     * A new PopTokenVerifier is built for every call, so the servers validating many PoP tokens signed with the same key should build
+     * the PopTokenVerifier once and call {@link #validateAsync(PopTokenVerifier, String, Map)} instead.
+     * 
+     * @param validationRequest The validation request
+     * @return The future completed with the validation result
+     */
+    public CompletableFuture<PopValidationResult> validateAsync(PopValidationRequest validationRequest) {
+        return validateAsync(validationRequest, getAsyncExecutor());
+    }
+
+    /**
+     * Validates the PoP token of the specified validation request asynchronously using the specified executor, so the signature
+     * verification and the hashing of the ehts values do not block the calling thread, for example an event loop thread.
+     * <p>
+     * The returned future is always completed with a validation result, a PoP token failing validation is returned with its
+     * exception. If the executor rejects the validation, for example because the queue of the {@link PopValidationExecutor} is full,
+     * the future is completed immediately with a {@link PopTokenValidationRejectedException} so the caller can respond with a retry
+     * later status without waiting.
+     * 
+     * @param validationRequest The validation request
+     * @param executor The executor to validate the PoP token
+     * @return The future completed with the validation result
+     * @throws IllegalArgumentException If the executor is null
+     */
+    public CompletableFuture<PopValidationResult> validateAsync(PopValidationRequest validationRequest, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor should not be null");
+        }
+        return submitValidation(validationRequest, this::newPopTokenVerifier, executor);
+    }
+
+    /**
+     * Validates the PoP token asynchronously with the specified PopTokenVerifier using the executor returned by
+     * {@link #getAsyncExecutor()}, see {@link #validateAsync(PopTokenVerifier, String, Map, Executor)}.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier built once for the public key, e.g. by {@link #newPopTokenVerifier(PublicKey)}
+     * @param popToken The PoP token string
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return The future completed with the validation result
+     * @throws IllegalArgumentException If the popTokenVerifier is null
+     */
+    public CompletableFuture<PopValidationResult> validateAsync(PopTokenVerifier popTokenVerifier, String popToken,
+            Map<String, String> ehtsKeyValueMap) {
+        return validateAsync(popTokenVerifier, popToken, ehtsKeyValueMap, getAsyncExecutor());
+    }
+
+    /**
+     * Validates the PoP token asynchronously with the specified PopTokenVerifier using the specified executor, in the same way as
+     * {@link #validateAsync(PopValidationRequest, Executor)} except the PopTokenVerifier is reused instead of being built for every
+     * call, and the public key can be of any type supported by the PopTokenVerifier, e.g. an EC public key. The validation request of
+     * the validation result contains the public key of the PopTokenVerifier.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier built once for the public key, e.g. by {@link #newPopTokenVerifier(PublicKey)}
+     * @param popToken The PoP token string
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @param executor The executor to validate the PoP token
+     * @return The future completed with the validation result
+     * @throws IllegalArgumentException If the popTokenVerifier or executor is null
+     */
+    public CompletableFuture<PopValidationResult> validateAsync(PopTokenVerifier popTokenVerifier, String popToken,
+            Map<String, String> ehtsKeyValueMap, Executor executor) {
+        if (popTokenVerifier == null) {
+            throw new IllegalArgumentException("The popTokenVerifier should not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("The executor should not be null");
+        }
+        PopValidationRequest validationRequest = new PopValidationRequest(popToken, popTokenVerifier.getPublicKey(), ehtsKeyValueMap);
+        return submitValidation(validationRequest, publicKey -> popTokenVerifier, executor);
+    }
+
+    /**
+     * Builds the PopTokenVerifier for the specified RSA public key using the accepted leeway returned by
+     * {@link #getAcceptedLeewaySeconds()}, the verification order returned by {@link #getVerificationOrder()} and the replay store
+     * returned by {@link #getReplayStore()}.
+     * <p>
+     * The returned PopTokenVerifier is immutable and thread-safe, so it should be built once per public key and shared between all
+     * the request threads instead of calling {@link #validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)} for every request.
+     * 
+     * @param rsaPublicKey The RSAPublicKey to verify the PoP token signature
+     * @return The PopTokenVerifier
+     * @throws IllegalArgumentException If the rsaPublicKey is null
+     */
+    public PopTokenVerifier newPopTokenVerifier(RSAPublicKey rsaPublicKey) {
+        if (rsaPublicKey == null) {
+            throw new IllegalArgumentException("The rsaPublicKey should not be null");
+        }
+        return newPopTokenVerifier((PublicKey) rsaPublicKey);
+    }
+
+    /**
+     * Builds the PopTokenVerifier for the specified public key accepting the PoP tokens signed using the algorithms returned by
+     * {@link #getAllowedAlgorithms(PublicKey)} for the public key, see {@link #newPopTokenVerifier(PublicKey, Set)}.
+     * 
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @return The PopTokenVerifier
+     * @throws IllegalArgumentException If the publicKey is null or not supported by any of the allowed algorithms
+     */
+    public PopTokenVerifier newPopTokenVerifier(PublicKey publicKey) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
         }
+        return newPopTokenVerifier(publicKey, getAllowedAlgorithms(publicKey));
+    }
+
+    /**
+     * Builds the PopTokenVerifier for the public key of the specified JWK accepting only the PoP tokens signed using the algorithms
+     * returned by {@link #getAllowedAlgorithmsForJwk(PopJwk)} for the JWK.
+     * 
+     * @param jwk The JWK resolved from the JWK set, e.g. by {@link JwksKeyResolver#getJwk(String)}
+     * @return The PopTokenVerifier
+     * @throws IllegalArgumentException If the jwk is null or its public key is not supported by any of the allowed algorithms
+     */
+    public PopTokenVerifier newPopTokenVerifierForJwk(PopJwk jwk) {
+        if (jwk == null) {
+            throw new IllegalArgumentException("The jwk should not be null");
+        }
+        return newPopTokenVerifier(jwk.getPublicKey(), getAllowedAlgorithmsForJwk(jwk));
+    }
+
+    /**
+     * Returns the algorithms the PoP tokens verified using the public key of the specified JWK can be signed with, i.e. the signing
+     * algorithm of the "alg" member of the JWK or the algorithms returned by {@link #getAllowedAlgorithms(PublicKey)} for the public
+     * key if the JWK does not specify the algorithm.
+     * 
+     * @param jwk The JWK
+     * @return The allowed algorithms
+     * @throws IllegalArgumentException If the jwk is null or the public key is not supported by any of the default algorithms
+     */
+    public Set<PopSigningAlgorithm> getAllowedAlgorithmsForJwk(PopJwk jwk) {
+        if (jwk == null) {
+            throw new IllegalArgumentException("The jwk should not be null");
+        }
+        if (jwk.getSigningAlgorithm() != null) {
+            return EnumSet.of(jwk.getSigningAlgorithm());
+        }
+        return getAllowedAlgorithms(jwk.getPublicKey());
+    }
+
+    /**
+     * Builds the PopTokenVerifier for the specified public key accepting only the PoP tokens signed using the specified algorithms,
+     * using the accepted leeway returned by {@link #getAcceptedLeewaySeconds()}, the verification order returned by
+     * {@link #getVerificationOrder()}, the replay store returned by {@link #getReplayStore()} and the JCA providers returned by
+     * {@link #getCryptoConfig()}.
+     * <p>
+     * The allowed algorithms should be the ones agreed with the owner of the key, the "alg" header of the PoP token only selects one
+     * of them and the PoP tokens signed using any other algorithm are rejected.
+     * 
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @param allowedAlgorithms The algorithms the PoP tokens can be signed with, e.g. RS256 and PS256 for an RSA public key
+     * @return The PopTokenVerifier
+     * @throws IllegalArgumentException If the publicKey is null, allowedAlgorithms is null or empty or any of the allowed algorithms
+     *             does not support the public key or is not available in the JVM or by the signature provider
+     */
+    public PopTokenVerifier newPopTokenVerifier(PublicKey publicKey, Set<PopSigningAlgorithm> allowedAlgorithms) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
+        }
+        return new PopTokenVerifier(publicKey, allowedAlgorithms, getAcceptedLeewaySeconds(), getVerificationOrder(),
+                getReplayStore(), getCryptoConfig());
     }
 
     /**
@@ -222,12 +521,28 @@ public class PopTokenValidator {
 
         try {
             DecodedJWT decodedJwt = JWT.decode(popToken);
-            return getEhts(decodedJwt);
+            return PopTokenVerifier.getEhts(decodedJwt);
         } catch (Exception ex) {
             throw new InvalidPopTokenException("Error occurred while parsing the PoP token, error: " + ex.toString(), ex);
         }
     }
 
+    /**
+     * Gets the list of ehts (external header to sign) keys from the already decoded PoP token, so the callers which also need the kid
+     * or start the streaming verification decode the PoP token only once.
+     * 
+     * @param decodedPopToken The decoded PoP token
+     * @return The list of ehts (external header to sign) keys
+     * @throws InvalidPopTokenException If the ehts keys are missing or empty in the PoP token
+     * @throws IllegalArgumentException If the decodedPopToken is null
+     */
+    public List<String> getDecodedPopTokenEhtsKeys(DecodedJWT decodedPopToken) throws InvalidPopTokenException {
+        if (decodedPopToken == null) {
+            throw new IllegalArgumentException("The decodedPopToken should not be null");
+        }
+        return PopTokenVerifier.getEhts(decodedPopToken);
+    }
+
     /**
      * Returns the accepted leeway in seconds.
      * 
@@ -239,143 +554,256 @@ public class PopTokenValidator {
         return ACCEPTED_LEEWAY_SECONDS;
     }
 
-    // ===== helper methods ===== //
+    /**
+     * Returns the order in which the PoP token checks are performed.
+     * 
+     * Note: This method can be overridden to modify the default verification order which is
+     * {@link PopTokenVerificationOrder#CHEAP_CHECKS_FIRST}, i.e. the signature is verified after the exp, iat, nbf and edts
+     * checks. {@link PopTokenVerificationOrder#SIGNATURE_FIRST} can be returned to verify the signature before checking any claim.
+     * 
+     * @return The verification order
+     */
+    protected PopTokenVerificationOrder getVerificationOrder() {
+        return PopTokenVerificationOrder.CHEAP_CHECKS_FIRST;
+    }
 
     /**
-     * Returns true if the ehtsKeyValueMap contains any empty keys
+     * Returns the algorithms the PoP tokens can be signed with when verified using the specified public key.
      * 
-     * @param ehtsKeyValueMap
-     * @return
+     * Note: This method can be overridden to modify the default allowed algorithms which are RS256 for the RSA public keys, ES256 for
+     * the P-256 EC public keys and EdDSA for the Ed25519 public keys. PS256 is not allowed by default for the RSA public keys, it can
+     * be added here or passed to {@link #newPopTokenVerifier(PublicKey, Set)} for the keys of the clients signing with PS256.
+     * 
+     * @param publicKey The public key
+     * @return The allowed algorithms
+     * @throws IllegalArgumentException If the public key is not supported by any of the default algorithms
      */
-    private boolean doesContainAnyEmptyKeysOrValues(Map<String, String> ehtsKeyValueMap) {
-        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
-            if (StringUtils.isBlank(ehtsKeyValueEntry.getKey()) || StringUtils.isBlank(ehtsKeyValueEntry.getValue())) {
-                return true;
+    protected Set<PopSigningAlgorithm> getAllowedAlgorithms(PublicKey publicKey) {
+        for (PopSigningAlgorithm signingAlgorithm : DEFAULT_SIGNING_ALGORITHMS) {
+            if (signingAlgorithm.isKeySupported(publicKey)) {
+                return EnumSet.of(signingAlgorithm);
             }
         }
-        return false;
+        throw new IllegalArgumentException("The public key having the algorithm " + publicKey.getAlgorithm() + " is not supported");
     }
 
     /**
-     * Validates the PoP token using JWTVerifier
+     * Returns the cache of the public keys parsed from the public key PEM and JWK strings.
      * 
-     * @param popToken The PoP token string
-     * @param rsaPublicKey The RSAPublicKey to verify the signature of PoP token
-     * @return The decoded JWT token
-     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
-     * @throws PopTokenExpiredException If the PoP token is expired
-     * @throws PopTokeSignatureVerificationException If the PoP token signature resulted invalid
-     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     * Note: This method can be overridden to modify the default cache which is shared by all the PopTokenValidator instances and
+     * caches up to 100 public keys for 60 minutes, null can be returned to disable the caching.
+     * 
+     * @return The public key cache or null if the public keys should not be cached
      */
-    private DecodedJWT validateTokenUsingJwtVerifier(String popToken, RSAPublicKey rsaPublicKey) throws PopTokenValidatorException {
+    protected PopKeyCache<RSAPublicKey> getPublicKeyCache() {
+        return PUBLIC_KEY_CACHE;
+    }
 
-        RSAKeyProvider rsaKeyProvider = buildRsaKeyProvider(rsaPublicKey);
-        Algorithm algorithm = Algorithm.RSA256(rsaKeyProvider);
-        JWTVerifier jwtVerifier = //
-                JWT.require(algorithm) //
-                        .acceptLeeway(getAcceptedLeewaySeconds()) //
-                        .build(); //
-        try {
-            return jwtVerifier.verify(popToken);
-        } catch (JWTDecodeException ex) {
-            throw new InvalidPopTokenException("Couldn't decode the token, error: " + ex.toString(), ex);
-        } catch (TokenExpiredException ex) {
-            throw new PopTokenExpiredException("The token has expired, currentServerTime: " + new Date() + ", error: " + ex.toString(),
-                    ex);
-        } catch (SignatureVerificationException ex) {
-            throw new PopTokenSignatureVerificationException("Couldn't verify the signature, error: " + ex.toString(), ex);
-        } catch (Exception ex) {
-            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
-        }
+    /**
+     * Returns the store of the jti (JWT ID) values of the already used PoP tokens, the PoP tokens having an already used jti are
+     * rejected with PopTokenReplayException.
+     * 
+     * Note: This method can be overridden to enable the replay detection, the default is null i.e. the replayed PoP tokens are not
+     * rejected. The same replay store instance should be returned by all the calls, either a PopJtiReplayCache sized for the number of
+     * PoP tokens validated during the PoP token lifetime plus the accepted leeway, or a PopDistributedReplayStore when the PoP tokens
+     * are validated by multiple nodes.
+     * 
+     * @return The replay store or null if the replayed PoP tokens should not be rejected
+     */
+    protected PopReplayStore getReplayStore() {
+        return null;
     }
 
     /**
-     * Builds the RSA key provider
+     * Returns the JCA provider of the Signature used to verify the PoP token signatures, it is used by the default
+     * {@link #getCryptoConfig()}.
+     * 
+     * Note: This method can be overridden to modify the default provider, which is null so the Signature is looked up in the
+     * registered providers, e.g. to make sure that a FIPS certified provider is used.
      * 
-     * @param rsaPublicKey The RSA public key
-     * @return The RSA key provider
+     * @return The JCA provider of the Signature or null if the Signature should be looked up in the registered providers
      */
-    private RSAKeyProvider buildRsaKeyProvider(RSAPublicKey rsaPublicKey) {
-        RSAKeyProvider rsaKeyProvider = new RSAKeyProvider() {
-            @Override
-            public RSAPublicKey getPublicKeyById(String keyId) {
-                return rsaPublicKey;
-            }
+    protected Provider getSignatureProvider() {
+        return null;
+    }
 
-            @Override
-            public RSAPrivateKey getPrivateKey() {
-                throw new NotImplementedException("Method is not implemented");
-            }
+    /**
+     * Returns the JCA providers used to parse the public key PEM and JWK strings, calculate the edts (external data to sign) digest
+     * and verify the PoP token signatures.
+     * 
+     * Note: This method can be overridden to modify the default providers, which look up all the operations in the registered
+     * providers except the Signature, which uses the provider returned by {@link #getSignatureProvider()}.
+     * 
+     * @return The JCA providers
+     */
+    protected PopCryptoConfig getCryptoConfig() {
+        return PopCryptoConfig.DEFAULT.withSignatureProvider(getSignatureProvider());
+    }
 
-            @Override
-            public String getPrivateKeyId() {
-                throw new NotImplementedException("Method is not implemented");
-            }
-        };
-        return rsaKeyProvider;
+    /**
+     * Returns the number of threads expected to validate the chunks of a batch in {@link #validateAll(List, Executor)}.
+     * 
+     * Note: This method can be overridden to modify the default batch parallelism which is the number of available processors, for
+     * example to match the size of the executor passed to {@link #validateAll(List, Executor)}.
+     * 
+     * @return The batch parallelism
+     */
+    protected int getBatchParallelism() {
+        return Runtime.getRuntime().availableProcessors();
     }
 
     /**
-     * Gets the edts (external data to sign) hash from PoP token string
+     * Returns the executor used by {@link #validateAsync(PopValidationRequest)}.
      * 
-     * @param popToken The PoP token string
-     * @return The edts (external data to sign) hash
-     * @throws InvalidPopTokenException If edts (external data to sign) hash cannot be retrieved from PoP token
+     * Note: This method can be overridden to modify the default executor which is a {@link PopValidationExecutor} shared by all the
+     * PopTokenValidator instances, having the maximum concurrency of the number of available processors, the maximum queue size of
+     * 1024 and the {@link PopValidationExecutor.RejectionPolicy#ABORT} rejection policy.
+     * 
+     * @return The executor for the asynchronous validations
      */
-    private String getEdts(DecodedJWT popToken) throws InvalidPopTokenException {
-        Map<String, Claim> popTokenClaims = popToken.getClaims();
-        if (!popTokenClaims.containsKey("edts")) {
-            throw new InvalidPopTokenException("The edts is missing in PoP token payload");
-        }
-        return popTokenClaims.get("edts").asString();
+    protected Executor getAsyncExecutor() {
+        return AsyncExecutorHolder.ASYNC_EXECUTOR;
     }
 
+    // ===== helper methods ===== //
+
     /**
-     * Validates the edts (external data to sign) hash by recalculating the hash using the specified ehtsKeyValueMap and then comparing
-     * the recalculated hash with the existing hash value.
+     * Validates the arguments of a PoP token validation.
      * 
-     * @param signedPopToken The signed PoP token
+     * @param popToken The PoP token string
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @param publicKeyName The name of the public key argument used in the error message
      * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
-     * @throws PopTokenValidatorException If the edts (external data to sign) is invalid
+     * @throws IllegalArgumentException If the popToken is null or empty, publicKey is null or ehtsKeyValueMap is invalid
      */
-    private void validateEdtsHash(DecodedJWT signedPopToken, Map<String, String> ehtsKeyValueMap) throws PopTokenValidatorException {
+    private void validateArguments(String popToken, PublicKey publicKey, String publicKeyName, Map<String, String> ehtsKeyValueMap) {
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The " + publicKeyName + " should not be null");
+        }
+        if (ehtsKeyValueMap == null || ehtsKeyValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
+        }
+    }
 
-        List<String> ehtsList = getEhts(signedPopToken);
-        String actualEdtsHash = getEdts(signedPopToken);
+    /**
+     * Validates the validation requests from the specified index, inclusive, to the specified index, exclusive, and stores their
+     * validation results at the same indexes. The PopTokenVerifier of a public key is built within the validation of the first
+     * request having that public key, so an error building it is returned in the validation results of the requests having that
+     * public key.
+     * 
+     * @param requests The validation requests
+     * @param fromIndex The index of the first validation request, inclusive
+     * @param toIndex The index of the last validation request, exclusive
+     * @param verifierMap The map of the PopTokenVerifier per public key shared by all the chunks
+     * @param results The validation results
+     */
+    private void validateChunk(PopValidationRequest[] requests, int fromIndex, int toIndex,
+            ConcurrentMap<PublicKey, PopTokenVerifier> verifierMap, PopValidationResult[] results) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            results[i] = validate(requests[i], publicKey -> verifierMap.computeIfAbsent(publicKey, this::newPopTokenVerifier));
+        }
+    }
 
-        StringBuilder dataToHashBuilder = new StringBuilder();
-        for (String ehtsKey : ehtsList) {
-            if (!ehtsKeyValueMap.containsKey(ehtsKey)) {
-                throw new PopTokenValidatorException("The ehtsKeyValueMap does not contain the entry for ehsKey '" + ehtsKey + "'");
+    /**
+     * Validates the PoP token of the specified validation request using the PopTokenVerifier returned by the specified function.
+     * 
+     * @param request The validation request
+     * @param verifierFunction The function returning the PopTokenVerifier for the public key of the validation request
+     * @return The validation result
+     */
+    private PopValidationResult validate(PopValidationRequest request, Function<PublicKey, PopTokenVerifier> verifierFunction) {
+        Exception exception = null;
+        try {
+            if (request == null) {
+                throw new IllegalArgumentException("The validationRequest should not be null");
             }
-            dataToHashBuilder.append(ehtsKeyValueMap.get(ehtsKey));
+            validateArguments(request.getPopToken(), request.getPublicKey(), "publicKey", request.getEhtsKeyValueMap());
+            verifierFunction.apply(request.getPublicKey()).verify(request.getPopToken(), request.getEhtsKeyValueMap());
+        } catch (PopTokenValidatorException | RuntimeException ex) {
+            exception = ex;
         }
-        String expectedEdtsHash = PopTokenValidatorUtils.sha256Base64UrlSafe(dataToHashBuilder.toString());
-        boolean doesEdtsMatch = expectedEdtsHash.equalsIgnoreCase(actualEdtsHash);
-        if (!doesEdtsMatch) {
-            logger.debug("The edts doesn't match, actualEdtsHash: {}, expectedEdtsHash: {}", actualEdtsHash, expectedEdtsHash);
-            throw new PopTokenInvalidEdtsHashException(
-                    "The edts doesn't match, expectedEdtsHash: " + expectedEdtsHash + ", actualEdtsHash: " + actualEdtsHash);
+        return new PopValidationResult(request, exception);
+    }
+
+    /**
+     * Submits the validation of the specified validation request to the specified executor, the returned future is completed
+     * immediately with a {@link PopTokenValidationRejectedException} if the executor rejects the validation.
+     * 
+     * @param validationRequest The validation request
+     * @param verifierFunction The function returning the PopTokenVerifier for the public key of the validation request
+     * @param executor The executor to validate the PoP token
+     * @return The future completed with the validation result
+     */
+    private CompletableFuture<PopValidationResult> submitValidation(PopValidationRequest validationRequest,
+            Function<PublicKey, PopTokenVerifier> verifierFunction, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(() -> validate(validationRequest, verifierFunction), executor);
+        } catch (RejectedExecutionException ex) {
+            PopTokenValidationRejectedException rejectedException = new PopTokenValidationRejectedException(
+                    "The PoP token validation has been rejected, error: " + ex.toString(), ex);
+            return CompletableFuture.completedFuture(new PopValidationResult(validationRequest, rejectedException));
         }
     }
 
     /**
-     * Gets the list of ehts (external headers to sign) keys from signed PoP token.
+     * Returns true if the ehtsKeyValueMap contains any empty keys or values
+     * 
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return true if the ehtsKeyValueMap contains any empty keys or values
+     */
+    private boolean doesContainAnyEmptyKeysOrValues(Map<String, String> ehtsKeyValueMap) {
+        return PopTokenVerifier.doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap);
+    }
+
+    /**
+     * Gets the kid (key ID) from the PoP token header.
      * 
-     * @param popToken The signed PoP token.
-     * @return The list of ehts (external headers to sign) keys
-     * @throws InvalidPopTokenException If the ehts (external headers to sign) keys cannot be retrieved from PoP token
+     * @param popToken The PoP token string
+     * @return The kid (key ID)
+     * @throws InvalidPopTokenException If the PoP token cannot be decoded or does not contain the kid header
      */
-    private List<String> getEhts(DecodedJWT popToken) throws InvalidPopTokenException {
-        Map<String, Claim> popTokenClaims = popToken.getClaims();
-        if (!popTokenClaims.containsKey("ehts")) {
-            throw new InvalidPopTokenException("The ehts is missing in PoP token payload");
+    private String getKid(String popToken) throws InvalidPopTokenException {
+        String kid;
+        try {
+            kid = JWT.decode(popToken).getKeyId();
+        } catch (JWTDecodeException ex) {
+            throw new InvalidPopTokenException("Couldn't decode the token, error: " + ex.toString(), ex);
         }
+        if (StringUtils.isBlank(kid)) {
+            throw new InvalidPopTokenException("The kid is missing in PoP token header");
+        }
+        return kid;
+    }
 
-        String ehts = popTokenClaims.get("ehts").asString();
-        if (StringUtils.isBlank(ehts)) {
-            throw new InvalidPopTokenException("The ehts is empty in PoP token payload");
+    /**
+     * Converts the public key text to RSAPublicKey using the public key cache, if the public key cache is disabled then the public key
+     * text is always parsed.
+     * 
+     * @param publicKeyText The public key text
+     * @param cryptoConfig The JCA providers which the keyParser uses to build the RSAPublicKey
+     * @param keyParser The parser to convert the public key text to RSAPublicKey
+     * @return The RSAPublicKey
+     * @throws PopPublicKeyParseException If the publicKeyText cannot be parsed or cannot be converted to RSAPublicKey
+     */
+    private RSAPublicKey toRsaPublicKey(String publicKeyText, PopCryptoConfig cryptoConfig,
+            PopKeyCache.KeyParser<RSAPublicKey> keyParser) throws PopPublicKeyParseException {
+        PopKeyCache<RSAPublicKey> publicKeyCache = getPublicKeyCache();
+        if (publicKeyCache == null) {
+            return keyParser.parse(publicKeyText);
         }
-        return Arrays.asList(ehts.split(";"));
+        return publicKeyCache.get(publicKeyText, cryptoConfig, keyParser);
+    }
+
+    /**
+     * Holds the default executor of the asynchronous validations, so it is created only when the first asynchronous validation is
+     * performed.
+     */
+    private static final class AsyncExecutorHolder {
+
+        private static final PopValidationExecutor ASYNC_EXECUTOR = PopValidationExecutor.newInstance();
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+/**
+ * Represents the order in which the PoP token checks are performed by the PopTokenVerifier.
+ */
+public enum PopTokenVerificationOrder {
+
+    /**
+     * The cheap checks are performed before the signature verification: the PoP token structure and algorithm, then the exp,
+     * iat and nbf claims with the accepted leeway, then the ehts and edts (hash of external data to sign), so the expired PoP tokens
+     * and the PoP tokens not matching the request are rejected without verifying the signature. This is the default order.
+     */
+    CHEAP_CHECKS_FIRST, //
+
+    /**
+     * The signature is verified right after the PoP token structure and algorithm, before any claim is checked, so the time taken
+     * for rejecting a PoP token with an invalid signature does not depend on its claims. This order should be used if the timing side
+     * channels matter more than the processing time of the rejected PoP tokens.
+     */
+    SIGNATURE_FIRST; //
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.AlgorithmMismatchException;
+import com.auth0.jwt.exceptions.InvalidClaimException;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenExpiredException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenInvalidEdtsHashException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenReplayException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenSignatureVerificationException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * A verifier for validating the PoP tokens signed by the private key of one specific public key.
+ * <p>
+ * The signature verifiers of the algorithms allowed for the public key are built only once when the PopTokenVerifier is created and
+ * are indexed by algorithm, so the per request processing is limited to decoding the PoP token, looking up the signature verifier of
+ * its "alg" header, checking its claims, calculating the edts (external data to sign) hash and verifying the signature. The PoP tokens
+ * signed using any other algorithm are rejected, so the signer cannot choose a weaker algorithm than the ones allowed for the key. By
+ * default the signature is verified after all the cheaper checks, see {@link PopTokenVerificationOrder}.
+ * <p>
+ * PopTokenVerifier is immutable and thread-safe so one instance should be created per public key, using
+ * {@link PopTokenValidator#newPopTokenVerifier(PublicKey)}, and shared between all the request threads.
+ */
+public final class PopTokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopTokenVerifier.class);
+
+    private final PublicKey publicKey;
+    private final Set<PopSigningAlgorithm> allowedAlgorithms;
+    private final long acceptedLeewaySeconds;
+    private final PopTokenVerificationOrder verificationOrder;
+    private final PopReplayStore replayStore;
+    private final PopCryptoConfig cryptoConfig;
+    private final PopSignatureVerifier[] signatureVerifiers;
+
+    /**
+     * Constructs the PopTokenVerifier using the specified public key, allowed algorithms, accepted leeway, verification order, replay
+     * store and JCA providers.
+     * 
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @param allowedAlgorithms The algorithms the PoP tokens can be signed with, each of them should support the public key
+     * @param acceptedLeewaySeconds The accepted leeway in seconds
+     * @param verificationOrder The order in which the PoP token checks are performed
+     * @param replayStore The store of the already used jti (JWT ID) values or null if the replayed PoP tokens should not be rejected
+     * @param cryptoConfig The JCA providers of the digest and the Signature
+     * @throws IllegalArgumentException If the publicKey is null, allowedAlgorithms is null or empty or contains an algorithm not
+     *             supporting the public key, acceptedLeewaySeconds is negative, verificationOrder or cryptoConfig is null or the
+     *             digest provider does not support SHA-256
+     */
+    PopTokenVerifier(PublicKey publicKey, Set<PopSigningAlgorithm> allowedAlgorithms, long acceptedLeewaySeconds,
+            PopTokenVerificationOrder verificationOrder, PopReplayStore replayStore, PopCryptoConfig cryptoConfig) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
+        }
+        if (allowedAlgorithms == null || allowedAlgorithms.isEmpty() || allowedAlgorithms.contains(null)) {
+            throw new IllegalArgumentException("The allowedAlgorithms should not be null or empty");
+        }
+        if (acceptedLeewaySeconds < 0) {
+            throw new IllegalArgumentException("The acceptedLeewaySeconds should not be negative");
+        }
+        if (verificationOrder == null) {
+            throw new IllegalArgumentException("The verificationOrder should not be null");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        try {
+            cryptoConfig.newSha256Digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalArgumentException(
+                    "The SHA-256 digest cannot be calculated by the digest provider, error: " + ex.toString(), ex);
+        }
+        this.publicKey = publicKey;
+        this.allowedAlgorithms = Collections.unmodifiableSet(EnumSet.copyOf(allowedAlgorithms));
+        this.acceptedLeewaySeconds = acceptedLeewaySeconds;
+        this.verificationOrder = verificationOrder;
+        this.replayStore = replayStore;
+        this.cryptoConfig = cryptoConfig;
+        this.signatureVerifiers = new PopSignatureVerifier[PopSigningAlgorithm.values().length];
+        for (PopSigningAlgorithm allowedAlgorithm : this.allowedAlgorithms) {
+            signatureVerifiers[allowedAlgorithm.ordinal()] = new PopSignatureVerifier(publicKey, allowedAlgorithm,
+                    cryptoConfig.getSignatureProvider());
+        }
+    }
+
+    /**
+     * Verifies the PoP token.
+     * 
+     * @param popToken The PoP token string
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys, the ehts key names
+     *            should be determined in the same way as described for
+     *            {@link PopTokenValidator#validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)}.
+     * @throws IllegalArgumentException If the popToken is null or empty or ehtsKeyValueMap is invalid
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    public void verify(String popToken, Map<String, String> ehtsKeyValueMap) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (ehtsKeyValueMap == null || ehtsKeyValueMap.isEmpty() || doesContainAnyEmptyKeysOrValues(ehtsKeyValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsKeyValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
+        }
+
+        try {
+            validateToken(popToken, toEhtsValueMap(ehtsKeyValueMap));
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Verifies the PoP token using the ehts values which can be strings, byte arrays, ByteBuffers or InputStreams.
+     * <p>
+     * This method should be used instead of {@link #verify(String, Map)} when the ehts values, usually the HTTP request body, are
+     * available as byte array, ByteBuffer or InputStream, as these ehts values are hashed without converting them to string.
+     * 
+     * @param popToken The PoP token string
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys, the ehts key names should be
+     *            determined in the same way as described for
+     *            {@link PopTokenValidator#validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)}.
+     * @throws IllegalArgumentException If the popToken is null or empty or ehtsValueMap is invalid
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    public void verifyEhtsValues(String popToken, Map<String, PopEhtsValue> ehtsValueMap) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (ehtsValueMap == null || ehtsValueMap.isEmpty() || doesContainAnyEmptyEhtsValues(ehtsValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsValueMap should not be null or empty and should not contain any null or empty ehts keys or values");
+        }
+
+        try {
+            validateToken(popToken, ehtsValueMap);
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Starts verifying the PoP token whose ehts value of the specified streamed ehts key, usually the HTTP request body, is fed in
+     * chunks as it arrives instead of being available up front.
+     * <p>
+     * The checks not depending on the ehts values are performed immediately, so the invalid, expired and replayed PoP tokens are
+     * rejected before the streamed value is read. The ehts values preceding the streamed ehts key in the ehts keys of the PoP token
+     * are hashed immediately too, the chunks of the streamed value are hashed by {@link PopStreamingVerification#update(ByteBuffer)}
+     * and the verification is finished by {@link PopStreamingVerification#complete()}, so the streamed value is never buffered for
+     * hashing.
+     * 
+     * @param popToken The PoP token string
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys except the streamed ehts key,
+     *            the ehts key names should be determined in the same way as described for
+     *            {@link PopTokenValidator#validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)}.
+     * @param streamedEhtsKey The ehts key whose value is streamed, usually "body"
+     * @return The PopStreamingVerification to feed the streamed value into
+     * @throws IllegalArgumentException If the popToken or streamedEhtsKey is null or empty or ehtsValueMap is invalid
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    public PopStreamingVerification startStreamingVerification(String popToken, Map<String, PopEhtsValue> ehtsValueMap,
+            String streamedEhtsKey) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (ehtsValueMap == null || doesContainAnyEmptyEhtsValues(ehtsValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsValueMap should not be null and should not contain any null or empty ehts keys or values");
+        }
+        if (StringUtils.isBlank(streamedEhtsKey)) {
+            throw new IllegalArgumentException("The streamedEhtsKey should not be null or empty");
+        }
+
+        try {
+            return new PopStreamingVerification(this, verifyBeforeEdtsHash(popToken), ehtsValueMap::get, streamedEhtsKey);
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Starts verifying the already decoded PoP token in the same way as {@link #startStreamingVerification(String, Map, String)}, so
+     * the callers which have decoded the PoP token for reading its ehts keys or kid do not decode it again.
+     * 
+     * @param decodedPopToken The decoded PoP token
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys except the streamed ehts key
+     * @param streamedEhtsKey The ehts key whose value is streamed, usually "body"
+     * @return The PopStreamingVerification to feed the streamed value into
+     * @throws IllegalArgumentException If the decodedPopToken is null, streamedEhtsKey is null or empty or ehtsValueMap is invalid
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    public PopStreamingVerification startStreamingVerification(DecodedJWT decodedPopToken, Map<String, PopEhtsValue> ehtsValueMap,
+            String streamedEhtsKey) throws PopTokenValidatorException {
+
+        if (decodedPopToken == null) {
+            throw new IllegalArgumentException("The decodedPopToken should not be null");
+        }
+        if (ehtsValueMap == null || doesContainAnyEmptyEhtsValues(ehtsValueMap)) {
+            throw new IllegalArgumentException(
+                    "The ehtsValueMap should not be null and should not contain any null or empty ehts keys or values");
+        }
+        if (StringUtils.isBlank(streamedEhtsKey)) {
+            throw new IllegalArgumentException("The streamedEhtsKey should not be null or empty");
+        }
+
+        try {
+            return new PopStreamingVerification(this, verifyBeforeEdtsHash(decodedPopToken), ehtsValueMap::get, streamedEhtsKey);
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Starts verifying the PoP token in the same way as {@link #startStreamingVerification(String, Map, String)}, except the ehts
+     * values are resolved by the specified function only for the ehts keys of the PoP token, so the values of the other ehts keys are
+     * never read and no map is built.
+     * 
+     * @param popToken The PoP token string
+     * @param ehtsValueResolver The function returning the value of an ehts key, for example reading the request header of the same
+     *            name, or null if the value is not available. The function is not called for the streamed ehts key.
+     * @param streamedEhtsKey The ehts key whose value is streamed, usually "body"
+     * @return The PopStreamingVerification to feed the streamed value into
+     * @throws IllegalArgumentException If the popToken or streamedEhtsKey is null or empty or ehtsValueResolver is null
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used and the replay store is configured
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated or the value of any ehts key is not available or empty
+     */
+    public PopStreamingVerification startStreamingVerification(String popToken, Function<String, PopEhtsValue> ehtsValueResolver,
+            String streamedEhtsKey) throws PopTokenValidatorException {
+
+        if (StringUtils.isBlank(popToken)) {
+            throw new IllegalArgumentException("The popToken should not be null or empty");
+        }
+        if (ehtsValueResolver == null) {
+            throw new IllegalArgumentException("The ehtsValueResolver should not be null");
+        }
+        if (StringUtils.isBlank(streamedEhtsKey)) {
+            throw new IllegalArgumentException("The streamedEhtsKey should not be null or empty");
+        }
+
+        try {
+            return new PopStreamingVerification(this, verifyBeforeEdtsHash(popToken), ehtsValueResolver, streamedEhtsKey);
+        } catch (PopTokenValidatorException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Returns the public key used for verifying the PoP token signature.
+     * 
+     * @return The public key
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Returns the RSA public key used for verifying the PoP token signature.
+     * 
+     * @return The RSA public key or null if the public key is not an RSA public key
+     */
+    public RSAPublicKey getRsaPublicKey() {
+        return publicKey instanceof RSAPublicKey ? (RSAPublicKey) publicKey : null;
+    }
+
+    /**
+     * Returns the algorithms the PoP tokens can be signed with, the PoP tokens signed using any other algorithm are rejected.
+     * 
+     * @return The unmodifiable set of the allowed algorithms
+     */
+    public Set<PopSigningAlgorithm> getAllowedAlgorithms() {
+        return allowedAlgorithms;
+    }
+
+    /**
+     * Returns the accepted leeway in seconds.
+     * 
+     * @return The accepted leeway in seconds
+     */
+    public long getAcceptedLeewaySeconds() {
+        return acceptedLeewaySeconds;
+    }
+
+    /**
+     * Returns the order in which the PoP token checks are performed.
+     * 
+     * @return The verification order
+     */
+    public PopTokenVerificationOrder getVerificationOrder() {
+        return verificationOrder;
+    }
+
+    /**
+     * Returns the store of the already used jti (JWT ID) values.
+     * 
+     * @return The replay store or null if the replayed PoP tokens are not rejected
+     */
+    public PopReplayStore getReplayStore() {
+        return replayStore;
+    }
+
+    /**
+     * Returns the JCA provider of the Signature used for verifying the PoP token signature.
+     * 
+     * @return The JCA provider of the Signature or null if the Signature is looked up in the registered providers
+     */
+    public Provider getSignatureProvider() {
+        return cryptoConfig.getSignatureProvider();
+    }
+
+    /**
+     * Returns the JCA providers used for calculating the edts (external data to sign) digest and verifying the PoP token signature.
+     * 
+     * @return The JCA providers
+     */
+    public PopCryptoConfig getCryptoConfig() {
+        return cryptoConfig;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns true if the ehtsKeyValueMap contains any empty keys or values
+     * 
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return true if the ehtsKeyValueMap contains any empty keys or values
+     */
+    static boolean doesContainAnyEmptyKeysOrValues(Map<String, String> ehtsKeyValueMap) {
+        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
+            if (StringUtils.isBlank(ehtsKeyValueEntry.getKey()) || StringUtils.isBlank(ehtsKeyValueEntry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the ehtsValueMap contains any empty keys or values
+     * 
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return true if the ehtsValueMap contains any empty keys or values
+     */
+    static boolean doesContainAnyEmptyEhtsValues(Map<String, PopEhtsValue> ehtsValueMap) {
+        for (Entry<String, PopEhtsValue> ehtsValueEntry : ehtsValueMap.entrySet()) {
+            PopEhtsValue ehtsValue = ehtsValueEntry.getValue();
+            if (StringUtils.isBlank(ehtsValueEntry.getKey()) || ehtsValue == null || ehtsValue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the list of ehts (external headers to sign) keys from signed PoP token.
+     * 
+     * @param popToken The signed PoP token.
+     * @return The list of ehts (external headers to sign) keys
+     * @throws InvalidPopTokenException If the ehts (external headers to sign) keys cannot be retrieved from PoP token
+     */
+    static List<String> getEhts(DecodedJWT popToken) throws InvalidPopTokenException {
+        Map<String, Claim> popTokenClaims = popToken.getClaims();
+        if (!popTokenClaims.containsKey("ehts")) {
+            throw new InvalidPopTokenException("The ehts is missing in PoP token payload");
+        }
+
+        String ehts = popTokenClaims.get("ehts").asString();
+        if (StringUtils.isBlank(ehts)) {
+            throw new InvalidPopTokenException("The ehts is empty in PoP token payload");
+        }
+        return Arrays.asList(ehts.split(";"));
+    }
+
+    /**
+     * Validates the PoP token by performing the checks in the verification order. With the
+     * {@link PopTokenVerificationOrder#CHEAP_CHECKS_FIRST} order the signature is verified last, with the
+     * {@link PopTokenVerificationOrder#SIGNATURE_FIRST} order the signature is verified right after decoding the PoP token.
+     * <p>
+     * If the replay store is configured, the jti is looked up right after checking the exp and iat claims and it is recorded only
+     * after all the checks have passed, so the PoP tokens failing any check do not use up their jti.
+     * 
+     * @param popToken The PoP token string
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenInvalidEdtsHashException If the edts (external data to sign) hash is invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    private void validateToken(String popToken, Map<String, PopEhtsValue> ehtsValueMap)
+            throws PopTokenValidatorException, IOException {
+        DecodedJWT decodedJwt = verifyBeforeEdtsHash(popToken);
+        validateEdtsHash(decodedJwt, ehtsValueMap);
+        verifyAfterEdtsHash(decodedJwt);
+    }
+
+    /**
+     * Performs the checks preceding the edts (external data to sign) hash validation: decodes the PoP token, checks the algorithm,
+     * verifies the signature with the {@link PopTokenVerificationOrder#SIGNATURE_FIRST} order, checks the exp and iat claims and
+     * looks up the jti in the replay store.
+     * 
+     * @param popToken The PoP token string
+     * @return The decoded PoP token
+     * @throws InvalidPopTokenException If the PoP token is invalid and so cannot be decoded
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    DecodedJWT verifyBeforeEdtsHash(String popToken) throws PopTokenValidatorException {
+        DecodedJWT decodedJwt;
+        try {
+            decodedJwt = JWT.decode(popToken);
+        } catch (JWTVerificationException ex) {
+            throw toPopTokenValidatorException(ex);
+        }
+        return verifyBeforeEdtsHash(decodedJwt);
+    }
+
+    /**
+     * Performs the checks preceding the edts (external data to sign) hash validation in the same way as
+     * {@link #verifyBeforeEdtsHash(String)} for the already decoded PoP token.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @return The decoded PoP token
+     * @throws PopTokenExpiredException If the PoP token is expired
+     * @throws PopTokenReplayException If the PoP token has already been used
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    DecodedJWT verifyBeforeEdtsHash(DecodedJWT decodedJwt) throws PopTokenValidatorException {
+        try {
+            Algorithm signatureVerifier = getSignatureVerifier(decodedJwt);
+            if (verificationOrder == PopTokenVerificationOrder.SIGNATURE_FIRST) {
+                signatureVerifier.verify(decodedJwt);
+            }
+            verifyDateClaims(decodedJwt);
+        } catch (JWTVerificationException ex) {
+            throw toPopTokenValidatorException(ex);
+        }
+
+        if (replayStore != null) {
+            String jti = getJti(decodedJwt);
+            if (replayStore.isUsed(jti, getJtiExpiresAtMillis(decodedJwt))) {
+                throw new PopTokenReplayException("The PoP token has already been used, jti: " + jti);
+            }
+        }
+        return decodedJwt;
+    }
+
+    /**
+     * Performs the checks following the edts (external data to sign) hash validation: verifies the signature with the
+     * {@link PopTokenVerificationOrder#CHEAP_CHECKS_FIRST} order and records the jti in the replay store.
+     * 
+     * @param decodedJwt The decoded PoP token returned by {@link #verifyBeforeEdtsHash(String)}
+     * @throws PopTokenReplayException If the PoP token has already been used
+     * @throws PopTokenSignatureVerificationException If the PoP token signature resulted invalid
+     * @throws PopTokenValidatorException If the PoP token cannot be validated
+     */
+    void verifyAfterEdtsHash(DecodedJWT decodedJwt) throws PopTokenValidatorException {
+        if (verificationOrder == PopTokenVerificationOrder.CHEAP_CHECKS_FIRST) {
+            try {
+                getSignatureVerifier(decodedJwt).verify(decodedJwt);
+            } catch (JWTVerificationException ex) {
+                throw toPopTokenValidatorException(ex);
+            }
+        }
+
+        if (replayStore != null) {
+            String jti = decodedJwt.getId();
+            if (!replayStore.markUsed(jti, getJtiExpiresAtMillis(decodedJwt))) {
+                throw new PopTokenReplayException("The PoP token has already been used, jti: " + jti);
+            }
+        }
+    }
+
+    /**
+     * Returns the jti (JWT ID) of the PoP token, the PoP token should also contain the exp (expiration time) claim so the jti can be
+     * evicted from the replay store once the PoP token has expired.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @return The jti
+     * @throws InvalidPopTokenException If the jti or exp is missing in the PoP token
+     */
+    private String getJti(DecodedJWT decodedJwt) throws InvalidPopTokenException {
+        String jti = decodedJwt.getId();
+        if (StringUtils.isBlank(jti)) {
+            throw new InvalidPopTokenException("The jti is missing in PoP token");
+        }
+        if (decodedJwt.getExpiresAt() == null) {
+            throw new InvalidPopTokenException("The exp is missing in PoP token");
+        }
+        return jti;
+    }
+
+    /**
+     * Returns the time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @return The time until which the jti is kept in the replay store
+     */
+    private long getJtiExpiresAtMillis(DecodedJWT decodedJwt) {
+        return decodedJwt.getExpiresAt().getTime() + acceptedLeewaySeconds * 1000;
+    }
+
+    /**
+     * Returns the signature verifier of the algorithm of the PoP token header, the signature verifier is looked up by the algorithm
+     * ordinal so its cost does not depend on the number of allowed algorithms.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @return The signature verifier
+     * @throws AlgorithmMismatchException If the algorithm of the PoP token header is not allowed for the public key
+     */
+    private Algorithm getSignatureVerifier(DecodedJWT decodedJwt) throws AlgorithmMismatchException {
+        PopSigningAlgorithm signingAlgorithm = PopSigningAlgorithm.forName(decodedJwt.getAlgorithm());
+        PopSignatureVerifier signatureVerifier = signingAlgorithm != null ? signatureVerifiers[signingAlgorithm.ordinal()] : null;
+        if (signatureVerifier == null) {
+            throw new AlgorithmMismatchException("The provided Algorithm doesn't match the one defined in the JWT's Header.");
+        }
+        return signatureVerifier;
+    }
+
+    /**
+     * Verifies the exp (expiration time), iat (issued at) and nbf (not before) claims using the accepted leeway, in the same way as
+     * done by the JWTVerifier: the current time is truncated to seconds, the PoP token is expired if the current time minus the leeway
+     * is after the exp and it cannot be used yet if the current time plus the leeway is before the iat or nbf.
+     * 
+     * @param decodedJwt The decoded PoP token
+     * @throws TokenExpiredException If the PoP token is expired
+     * @throws InvalidClaimException If the PoP token cannot be used yet
+     */
+    private void verifyDateClaims(DecodedJWT decodedJwt) throws TokenExpiredException, InvalidClaimException {
+        long now = (System.currentTimeMillis() / 1000) * 1000;
+        long acceptedLeewayMillis = acceptedLeewaySeconds * 1000;
+
+        Date expiresAt = decodedJwt.getExpiresAt();
+        if (expiresAt != null && now - acceptedLeewayMillis > expiresAt.getTime()) {
+            throw new TokenExpiredException(String.format("The Token has expired on %s.", expiresAt));
+        }
+        Date issuedAt = decodedJwt.getIssuedAt();
+        if (issuedAt != null && now + acceptedLeewayMillis < issuedAt.getTime()) {
+            throw new InvalidClaimException(String.format("The Token can't be used before %s.", issuedAt));
+        }
+        Date notBefore = decodedJwt.getNotBefore();
+        if (notBefore != null && now + acceptedLeewayMillis < notBefore.getTime()) {
+            throw new InvalidClaimException(String.format("The Token can't be used before %s.", notBefore));
+        }
+    }
+
+    /**
+     * Converts the JWTVerificationException to the PopTokenValidatorException.
+     * 
+     * @param ex The JWTVerificationException
+     * @return The PopTokenValidatorException
+     */
+    private PopTokenValidatorException toPopTokenValidatorException(JWTVerificationException ex) {
+        if (ex instanceof JWTDecodeException) {
+            return new InvalidPopTokenException("Couldn't decode the token, error: " + ex.toString(), ex);
+        } else if (ex instanceof TokenExpiredException) {
+            return new PopTokenExpiredException(
+                    "The token has expired, currentServerTime: " + new Date() + ", error: " + ex.toString(), ex);
+        } else if (ex instanceof SignatureVerificationException) {
+            return new PopTokenSignatureVerificationException("Couldn't verify the signature, error: " + ex.toString(), ex);
+        }
+        return new PopTokenValidatorException("Error occurred while validating the PoP token, error: " + ex.toString(), ex);
+    }
+
+    /**
+     * Gets the edts (external data to sign) hash from PoP token string
+     * 
+     * @param popToken The PoP token string
+     * @return The edts (external data to sign) hash
+     * @throws InvalidPopTokenException If edts (external data to sign) hash cannot be retrieved from PoP token
+     */
+    private String getEdts(DecodedJWT popToken) throws InvalidPopTokenException {
+        Map<String, Claim> popTokenClaims = popToken.getClaims();
+        if (!popTokenClaims.containsKey("edts")) {
+            throw new InvalidPopTokenException("The edts is missing in PoP token payload");
+        }
+        return popTokenClaims.get("edts").asString();
+    }
+
+    /**
+     * Converts the ehtsKeyValueMap containing the string ehts values to the ehtsValueMap.
+     * 
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @return The map containing the ehts values for all the ehts keys
+     */
+    private Map<String, PopEhtsValue> toEhtsValueMap(Map<String, String> ehtsKeyValueMap) {
+        Map<String, PopEhtsValue> ehtsValueMap = new HashMap<>();
+        for (Entry<String, String> ehtsKeyValueEntry : ehtsKeyValueMap.entrySet()) {
+            ehtsValueMap.put(ehtsKeyValueEntry.getKey(), PopEhtsValue.of(ehtsKeyValueEntry.getValue()));
+        }
+        return ehtsValueMap;
+    }
+
+    /**
+     * Validates the edts (external data to sign) hash by recalculating the hash using the specified ehtsValueMap and then comparing
+     * the recalculated hash with the existing hash value. The ehts values are fed one by one into the message digest in the order of
+     * the ehts keys of the PoP token instead of concatenating them.
+     * 
+     * @param signedPopToken The signed PoP token
+     * @param ehtsValueMap The map containing the values for all the ehts (external headers to sign) keys
+     * @throws PopTokenValidatorException If the edts (external data to sign) is invalid
+     * @throws IOException If any of the ehts values cannot be read
+     */
+    private void validateEdtsHash(DecodedJWT signedPopToken, Map<String, PopEhtsValue> ehtsValueMap)
+            throws PopTokenValidatorException, IOException {
+
+        List<String> ehtsList = getEhts(signedPopToken);
+
+        for (String ehtsKey : ehtsList) {
+            if (!ehtsValueMap.containsKey(ehtsKey)) {
+                throw new PopTokenValidatorException("The ehtsKeyValueMap does not contain the entry for ehsKey '" + ehtsKey + "'");
+            }
+        }
+        MessageDigest messageDigest = newSha256Digest();
+        for (String ehtsKey : ehtsList) {
+            ehtsValueMap.get(ehtsKey).updateDigest(messageDigest);
+        }
+        validateEdtsHash(signedPopToken, messageDigest.digest());
+    }
+
+    /**
+     * Creates the SHA-256 MessageDigest for calculating the edts (external data to sign) hash using the digest provider.
+     * 
+     * @return The SHA-256 MessageDigest
+     * @throws PopTokenValidatorException If the MessageDigest cannot be created
+     */
+    MessageDigest newSha256Digest() throws PopTokenValidatorException {
+        try {
+            return cryptoConfig.newSha256Digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new PopTokenValidatorException("Error occurred while creating the SHA-256 digest, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Validates the edts (external data to sign) hash by comparing the specified recalculated hash with the existing hash value.
+     * 
+     * @param signedPopToken The signed PoP token
+     * @param edtsDigest The SHA-256 digest of the ehts values fed in the order of the ehts keys of the PoP token
+     * @throws PopTokenValidatorException If the edts (external data to sign) is invalid
+     */
+    void validateEdtsHash(DecodedJWT signedPopToken, byte[] edtsDigest) throws PopTokenValidatorException {
+        String actualEdtsHash = getEdts(signedPopToken);
+        String expectedEdtsHash = Base64.encodeBase64URLSafeString(edtsDigest);
+        boolean doesEdtsMatch = expectedEdtsHash.equalsIgnoreCase(actualEdtsHash);
+        if (!doesEdtsMatch) {
+            logger.debug("The edts doesn't match, actualEdtsHash: {}, expectedEdtsHash: {}", actualEdtsHash, expectedEdtsHash);
+            throw new PopTokenInvalidEdtsHashException(
+                    "The edts doesn't match, expectedEdtsHash: " + expectedEdtsHash + ", actualEdtsHash: " + actualEdtsHash);
+        }
+    }
+}
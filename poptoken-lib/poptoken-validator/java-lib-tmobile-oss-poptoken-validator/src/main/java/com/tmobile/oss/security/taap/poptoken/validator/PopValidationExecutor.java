@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded executor for offloading the PoP token validations from the event loop threads, used by
+ * {@link PopTokenValidator#validateAsync(PopValidationRequest)}.
+ * <p>
+ * At most maxConcurrency validations run at the same time and at most maxQueueSize validations wait for a free slot, any further
+ * validation is handled by the rejection policy so an overloaded server fails fast instead of queueing unbounded work. The validations
+ * run on virtual threads when the Java runtime supports them, i.e. Java 21 or later, otherwise on a pool of maxConcurrency daemon
+ * threads.
+ */
+public class PopValidationExecutor implements Executor, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopValidationExecutor.class);
+
+    private static final int DEFAULT_MAX_QUEUE_SIZE = 1024;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxConcurrency;
+    private final int maxQueueSize;
+    private final RejectionPolicy rejectionPolicy;
+    private final Semaphore admissionPermits;
+    private final Semaphore concurrencyPermits;
+    private final ExecutorService executorService;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    /**
+     * The policies for handling the validations submitted while the queue is full.
+     */
+    public enum RejectionPolicy {
+
+        /**
+         * The validation is rejected, {@link PopTokenValidator#validateAsync(PopValidationRequest)} returns the
+         * PopTokenValidationRejectedException in the validation result.
+         */
+        ABORT, //
+
+        /**
+         * The validation is run by the submitting thread, which slows down the submitting thread instead of rejecting the validation.
+         * This policy should not be used when the validations are submitted from an event loop thread.
+         */
+        CALLER_RUNS; //
+    }
+
+    /**
+     * Constructs the PopValidationExecutor using the specified maximum concurrency, maximum queue size and rejection policy.
+     * 
+     * @param maxConcurrency The maximum number of validations running at the same time
+     * @param maxQueueSize The maximum number of validations waiting for a free slot
+     * @param rejectionPolicy The policy for handling the validations submitted while the queue is full
+     * @throws IllegalArgumentException If the maxConcurrency is not positive, the maxQueueSize is negative or the rejectionPolicy is
+     * null
+     */
+    public PopValidationExecutor(int maxConcurrency, int maxQueueSize, RejectionPolicy rejectionPolicy) {
+        this(maxConcurrency, maxQueueSize, rejectionPolicy, true);
+    }
+
+    /**
+     * Constructs the PopValidationExecutor using the specified maximum concurrency, maximum queue size and rejection policy, the
+     * virtual threads are used only if they are enabled and supported by the Java runtime.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to control the thread type.
+     * 
+     * @param maxConcurrency The maximum number of validations running at the same time
+     * @param maxQueueSize The maximum number of validations waiting for a free slot
+     * @param rejectionPolicy The policy for handling the validations submitted while the queue is full
+     * @param virtualThreadsEnabled true if the virtual threads should be used when supported
+     */
+    PopValidationExecutor(int maxConcurrency, int maxQueueSize, RejectionPolicy rejectionPolicy, boolean virtualThreadsEnabled) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("The maxConcurrency should be greater than 0");
+        }
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("The maxQueueSize should not be negative");
+        }
+        if (rejectionPolicy == null) {
+            throw new IllegalArgumentException("The rejectionPolicy should not be null");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.rejectionPolicy = rejectionPolicy;
+        this.admissionPermits = new Semaphore((int) Math.min(Integer.MAX_VALUE, (long) maxConcurrency + maxQueueSize));
+
+        ExecutorService virtualThreadExecutorService = virtualThreadsEnabled ? newVirtualThreadExecutorService() : null;
+        if (virtualThreadExecutorService != null) {
+            this.concurrencyPermits = new Semaphore(maxConcurrency);
+            this.executorService = virtualThreadExecutorService;
+        } else {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                    IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), newDaemonThreadFactory());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            this.concurrencyPermits = null;
+            this.executorService = threadPoolExecutor;
+        }
+    }
+
+    /**
+     * Returns the new instance of PopValidationExecutor having the maximum concurrency of the number of available processors, the
+     * maximum queue size of 1024 and the {@link RejectionPolicy#ABORT} rejection policy.
+     * 
+     * @return The new instance of PopValidationExecutor
+     */
+    public static PopValidationExecutor newInstance() {
+        return new PopValidationExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUE_SIZE, RejectionPolicy.ABORT);
+    }
+
+    /**
+     * Executes the specified task if the queue is not full, otherwise handles it using the rejection policy.
+     * 
+     * @param task The task
+     * @throws IllegalArgumentException If the task is null
+     * @throws RejectedExecutionException If the queue is full and the rejection policy is {@link RejectionPolicy#ABORT} or the
+     *             executor has been closed
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("The task should not be null");
+        }
+        if (!admissionPermits.tryAcquire()) {
+            if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !executorService.isShutdown()) {
+                callerRunsCount.incrementAndGet();
+                task.run();
+                return;
+            }
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("The PopValidationExecutor queue is full, maxConcurrency: " + maxConcurrency
+                    + ", maxQueueSize: " + maxQueueSize); //
+        }
+        try {
+            executorService.execute(() -> runTask(task));
+        } catch (RejectedExecutionException ex) {
+            admissionPermits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the maximum number of validations running at the same time.
+     * 
+     * @return The maximum concurrency
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of validations waiting for a free slot.
+     * 
+     * @return The maximum queue size
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Returns the policy for handling the validations submitted while the queue is full.
+     * 
+     * @return The rejection policy
+     */
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Returns true if the validations run on virtual threads.
+     * 
+     * @return true if the virtual threads are used
+     */
+    public boolean isUsingVirtualThreads() {
+        return concurrencyPermits != null;
+    }
+
+    /**
+     * Returns the number of validations submitted and not yet completed, i.e. running or waiting in the queue.
+     * 
+     * @return The number of pending validations
+     */
+    public int getPendingCount() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) maxConcurrency + maxQueueSize) - admissionPermits.availablePermits();
+    }
+
+    /**
+     * Returns the number of validations rejected because the queue was full, the validations run by the submitting thread using the
+     * {@link RejectionPolicy#CALLER_RUNS} policy are not included.
+     * 
+     * @return The number of rejected validations
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of validations run by the submitting thread because the queue was full, using the
+     * {@link RejectionPolicy#CALLER_RUNS} policy.
+     * 
+     * @return The number of validations run by the submitting thread
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * Shuts down the executor, the already submitted validations are completed and any further validation is rejected.
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Runs the specified task, waiting for a free slot first when the virtual threads are used.
+     * 
+     * @param task The task
+     */
+    private void runTask(Runnable task) {
+        try {
+            if (concurrencyPermits != null) {
+                concurrencyPermits.acquireUninterruptibly();
+            }
+            try {
+                task.run();
+            } finally {
+                if (concurrencyPermits != null) {
+                    concurrencyPermits.release();
+                }
+            }
+        } finally {
+            admissionPermits.release();
+        }
+    }
+
+    /**
+     * Creates the executor service starting a new virtual thread for each task, using reflection as the library is compiled for Java
+     * 8.
+     * 
+     * @return The executor service or null if the virtual threads are not supported by the Java runtime
+     */
+    private static ExecutorService newVirtualThreadExecutorService() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.debug("The virtual threads are not supported, error: {}", ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Creates the thread factory of the daemon validation threads.
+     * 
+     * @return The thread factory
+     */
+    private static ThreadFactory newDaemonThreadFactory() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "poptoken-validation-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
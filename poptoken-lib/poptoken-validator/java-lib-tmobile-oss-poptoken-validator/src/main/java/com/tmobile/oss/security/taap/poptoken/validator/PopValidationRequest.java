@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+
+/**
+ * Represents one PoP token to be validated by {@link PopTokenValidator#validateAll(java.util.List)}, i.e. the PoP token, the public
+ * key to verify its signature and the values of its ehts (external headers to sign) keys.
+ * <p>
+ * PopValidationRequest is immutable, the ehtsKeyValueMap is not copied so it should not be modified until the PoP token is validated.
+ */
+public final class PopValidationRequest {
+
+    private final String popToken;
+    private final PublicKey publicKey;
+    private final Map<String, String> ehtsKeyValueMap;
+
+    /**
+     * Constructs the PopValidationRequest using the specified PoP token, RSA public key and ehts key value map. The arguments are
+     * checked when the PoP token is validated, so an invalid argument fails only the result of this request.
+     * 
+     * @param popToken The PoP token string
+     * @param rsaPublicKey The RSAPublicKey to verify the PoP token signature
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys, see
+     *            {@link PopTokenValidator#validatePopTokenWithRsaPublicKey(String, RSAPublicKey, Map)}
+     */
+    public PopValidationRequest(String popToken, RSAPublicKey rsaPublicKey, Map<String, String> ehtsKeyValueMap) {
+        this(popToken, (PublicKey) rsaPublicKey, ehtsKeyValueMap);
+    }
+
+    /**
+     * Constructs the PopValidationRequest using the specified PoP token, public key and ehts key value map, the PoP token should be
+     * signed using one of the algorithms returned by {@link PopTokenValidator#getAllowedAlgorithms(PublicKey)} for the public key,
+     * e.g. ES256 for a P-256 EC public key.
+     * 
+     * @param popToken The PoP token string
+     * @param publicKey The PublicKey to verify the PoP token signature
+     * @param ehtsKeyValueMap The map containing the values for all the ehts (external headers to sign) keys, see
+     *            {@link PopTokenValidator#validatePopTokenWithPublicKey(String, PublicKey, Map)}
+     */
+    public PopValidationRequest(String popToken, PublicKey publicKey, Map<String, String> ehtsKeyValueMap) {
+        this.popToken = popToken;
+        this.publicKey = publicKey;
+        this.ehtsKeyValueMap = ehtsKeyValueMap;
+    }
+
+    /**
+     * Returns the PoP token string.
+     * 
+     * @return The PoP token string
+     */
+    public String getPopToken() {
+        return popToken;
+    }
+
+    /**
+     * Returns the public key to verify the PoP token signature.
+     * 
+     * @return The public key
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Returns the RSA public key to verify the PoP token signature.
+     * 
+     * @return The RSA public key or null if the public key is not an RSA public key
+     */
+    public RSAPublicKey getRsaPublicKey() {
+        return publicKey instanceof RSAPublicKey ? (RSAPublicKey) publicKey : null;
+    }
+
+    /**
+     * Returns the map containing the values for all the ehts (external headers to sign) keys.
+     * 
+     * @return The ehts key value map
+     */
+    public Map<String, String> getEhtsKeyValueMap() {
+        return ehtsKeyValueMap;
+    }
+}
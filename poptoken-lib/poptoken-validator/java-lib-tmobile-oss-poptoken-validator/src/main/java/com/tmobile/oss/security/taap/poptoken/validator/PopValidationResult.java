@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+/**
+ * Represents the result of validating one {@link PopValidationRequest} by {@link PopTokenValidator#validateAll(java.util.List)} or
+ * {@link PopTokenValidator#validateAsync(PopValidationRequest)}.
+ */
+public final class PopValidationResult {
+
+    private final PopValidationRequest validationRequest;
+    private final Exception exception;
+
+    /**
+     * Constructs the PopValidationResult using the specified validation request and the exception thrown while validating it.
+     * 
+     * @param validationRequest The validation request
+     * @param exception The exception thrown while validating the PoP token or null if the PoP token is valid
+     */
+    PopValidationResult(PopValidationRequest validationRequest, Exception exception) {
+        this.validationRequest = validationRequest;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the validation request.
+     * 
+     * @return The validation request
+     */
+    public PopValidationRequest getValidationRequest() {
+        return validationRequest;
+    }
+
+    /**
+     * Returns true if the PoP token has been validated successfully.
+     * 
+     * @return true if the PoP token is valid
+     */
+    public boolean isValid() {
+        return exception == null;
+    }
+
+    /**
+     * Returns the exception thrown while validating the PoP token, i.e. a {@link PopTokenValidatorException} if the PoP token is
+     * invalid or the asynchronous validation has been rejected, or an IllegalArgumentException if the validation request is invalid.
+     * 
+     * @return The exception or null if the PoP token is valid
+     */
+    public Exception getException() {
+        return exception;
+    }
+}
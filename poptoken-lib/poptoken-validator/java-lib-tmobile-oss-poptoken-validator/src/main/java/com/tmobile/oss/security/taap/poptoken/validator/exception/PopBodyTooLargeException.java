@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.exception;
+
+/**
+ * This exception is returned when the signed request body exceeds the maximum body size accepted by the validation filter, so the body
+ * has been rejected without being buffered completely.
+ */
+public class PopBodyTooLargeException extends PopTokenValidatorException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs the PopBodyTooLargeException using the specified message.
+     * 
+     * @param message The exception message
+     */
+    public PopBodyTooLargeException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs the PopBodyTooLargeException using the specified message and cause.
+     * 
+     * @param message The exception message
+     * @param cause The cause
+     */
+    public PopBodyTooLargeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.exception;
+
+/**
+ * This exception is returned when the asynchronous validation of a PoP token has been rejected because the validation executor is
+ * overloaded, i.e. its queue is full.
+ */
+public class PopTokenValidationRejectedException extends PopTokenValidatorException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs the PopTokenValidationRejectedException using the specified message.
+     * 
+     * @param message The exception message
+     */
+    public PopTokenValidationRejectedException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs the PopTokenValidationRejectedException using the specified message and cause.
+     * 
+     * @param message The exception message
+     * @param cause The cause
+     */
+    public PopTokenValidationRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.grpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Status;
+
+/**
+ * The gRPC marshaller passing the serialized message bytes as they are, used for reading the request message bytes from the transport
+ * so they can be hashed before being parsed by the marshaller of the method.
+ */
+final class PopByteArrayMarshaller implements Marshaller<byte[]> {
+
+    static final PopByteArrayMarshaller INSTANCE = new PopByteArrayMarshaller();
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Constructs the PopByteArrayMarshaller, the shared {@link #INSTANCE} should be used.
+     */
+    private PopByteArrayMarshaller() {
+    }
+
+    /**
+     * Returns the InputStream of the specified message bytes.
+     * 
+     * @param value The message bytes
+     * @return The InputStream
+     */
+    @Override
+    public InputStream stream(byte[] value) {
+        return new ByteArrayInputStream(value);
+    }
+
+    /**
+     * Reads the message bytes from the specified InputStream, the gRPC message streams know their length so the bytes are read into an
+     * array of the exact size.
+     * 
+     * @param stream The InputStream
+     * @return The message bytes
+     */
+    @Override
+    public byte[] parse(InputStream stream) {
+        try {
+            int size = stream.available();
+            byte[] bytes = new byte[size];
+            int offset = 0;
+            int bytesRead;
+            while (offset < size && (bytesRead = stream.read(bytes, offset, size - offset)) != -1) {
+                offset += bytesRead;
+            }
+            if (offset < size) {
+                return Arrays.copyOf(bytes, offset);
+            }
+            int nextByte = stream.read();
+            if (nextByte == -1) {
+                return bytes;
+            }
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size + BUFFER_SIZE);
+            outputStream.write(bytes);
+            outputStream.write(nextByte);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while ((bytesRead = stream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException ex) {
+            throw Status.INTERNAL.withDescription("Error occurred while reading the message bytes, error: " + ex.toString()) //
+                    .withCause(ex) //
+                    .asRuntimeException(); //
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.grpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.validator.PopStreamingVerification;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+import io.grpc.Attributes;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.SecurityLevel;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+
+/**
+ * A gRPC server interceptor validating the PoP token of every call before the call is passed to the service.
+ * <p>
+ * The PoP token is read from the "x-authorization" metadata key. The ehts (external headers to sign) keys are mapped to the call as
+ * follows: "uri" is the HTTP/2 path of the call, i.e. "/" followed by the full method name, "http-method" is "POST", "body" is the
+ * serialized bytes of the first request message and any other ehts key is the name of an ASCII metadata key. The checks not depending
+ * on the message, i.e. decoding the PoP token, checking its claims and looking up the jti, are performed when the call starts. If the
+ * message is signed then the call is passed to the service only after the request message has been hashed and the PoP token has been
+ * validated. The request message read ahead for hashing is counted against the first messages requested by the service, so the service
+ * is not delivered more messages than it has requested.
+ * <p>
+ * Only one request message can be signed, so the calls of the client streaming and bidirectional streaming methods having a PoP token
+ * signing the body are rejected. The PoP tokens of the streaming calls should not include the "body" ehts key.
+ * <p>
+ * The services should be intercepted using {@link #intercept(ServerServiceDefinition)}, which reads the request messages from the
+ * transport as bytes, so the signed message bytes are hashed as they were received and then parsed once by the marshaller of the
+ * method. When the interceptor is added in any other way, e.g. using <code>ServerInterceptors.intercept</code>, the signed request
+ * message has already been parsed and is serialized again for hashing.
+ * <p>
+ * The validation runs on the executor of the gRPC server, the PopTokenVerifier is built once and shared by all the calls. The calls
+ * having a missing or invalid PoP token are closed with the UNAUTHENTICATED status.
+ */
+public class PopTokenServerInterceptor implements ServerInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopTokenServerInterceptor.class);
+
+    private static final Metadata.Key<String> POP_TOKEN_METADATA_KEY = Metadata.Key.of("x-authorization",
+            Metadata.ASCII_STRING_MARSHALLER);
+    private static final String HTTP_METHOD = "POST";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final PopTokenVerifier popTokenVerifier;
+
+    /**
+     * Constructs the PopTokenServerInterceptor validating the PoP tokens using the specified PopTokenVerifier.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier to verify the PoP tokens
+     * @throws IllegalArgumentException If the popTokenVerifier is null
+     */
+    public PopTokenServerInterceptor(PopTokenVerifier popTokenVerifier) {
+        if (popTokenVerifier == null) {
+            throw new IllegalArgumentException("The popTokenVerifier should not be null");
+        }
+        this.popTokenVerifier = popTokenVerifier;
+    }
+
+    /**
+     * Returns the service definition validating the PoP token of every call before passing the call to the specified service. The
+     * request messages are read from the transport as bytes, hashed if signed, and then parsed by the marshaller of the method, so
+     * the signed request messages are not serialized again.
+     * 
+     * @param serviceDefinition The service definition to intercept
+     * @return The intercepted service definition
+     * @throws IllegalArgumentException If the serviceDefinition is null
+     */
+    public ServerServiceDefinition intercept(ServerServiceDefinition serviceDefinition) {
+        if (serviceDefinition == null) {
+            throw new IllegalArgumentException("The serviceDefinition should not be null");
+        }
+        ServiceDescriptor serviceDescriptor = serviceDefinition.getServiceDescriptor();
+        ServiceDescriptor.Builder rawServiceDescriptorBuilder = ServiceDescriptor.newBuilder(serviceDescriptor.getName()) //
+                .setSchemaDescriptor(serviceDescriptor.getSchemaDescriptor()); //
+        List<ServerMethodDefinition<byte[], ?>> rawMethodDefinitions = new ArrayList<>();
+        for (ServerMethodDefinition<?, ?> methodDefinition : serviceDefinition.getMethods()) {
+            ServerMethodDefinition<byte[], ?> rawMethodDefinition = interceptRawMethod(methodDefinition);
+            rawServiceDescriptorBuilder.addMethod(rawMethodDefinition.getMethodDescriptor());
+            rawMethodDefinitions.add(rawMethodDefinition);
+        }
+
+        ServiceDescriptor rawServiceDescriptor = rawServiceDescriptorBuilder.build();
+        ServerServiceDefinition.Builder serviceDefinitionBuilder = ServerServiceDefinition.builder(rawServiceDescriptor);
+        for (ServerMethodDefinition<byte[], ?> rawMethodDefinition : rawMethodDefinitions) {
+            serviceDefinitionBuilder.addMethod(rawMethodDefinition);
+        }
+        return serviceDefinitionBuilder.build();
+    }
+
+    /**
+     * Validates the PoP token of the call and passes the call to the next handler if the PoP token is valid, otherwise closes the call
+     * using {@link #onValidationFailure(ServerCall, Throwable)}.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     * @param call The server call
+     * @param headers The metadata of the call
+     * @param next The next handler
+     * @return The listener of the call
+     */
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        PopStreamingVerification verification;
+        try {
+            verification = startStreamingVerification(call, headers);
+            if (!verification.isStreamedValueSigned()) {
+                verification.complete();
+                return next.startCall(call, headers);
+            }
+            if (!call.getMethodDescriptor().getType().clientSendsOneMessage()) {
+                throw new PopTokenValidatorException("The PoP token cannot sign the body of the "
+                        + call.getMethodDescriptor().getType() + " method " + call.getMethodDescriptor().getFullMethodName());
+            }
+        } catch (PopTokenValidatorException | IllegalArgumentException ex) {
+            onValidationFailure(call, ex);
+            return new ServerCall.Listener<ReqT>() {
+            };
+        }
+        call.request(1);
+        return new MessageVerifyingListener<>(call, headers, next, verification);
+    }
+
+    /**
+     * Returns the metadata key containing the PoP token.
+     * 
+     * Note: This method can be overridden to modify the default PoP token metadata key which is "x-authorization".
+     * 
+     * @return The PoP token metadata key
+     */
+    protected Metadata.Key<String> getPopTokenMetadataKey() {
+        return POP_TOKEN_METADATA_KEY;
+    }
+
+    /**
+     * Returns the PopTokenVerifier verifying the specified PoP token.
+     * 
+     * Note: This method can be overridden to modify the default PopTokenVerifier which is the one specified in the constructor, for
+     * example to return the PopTokenVerifier cached for the kid of the PoP token.
+     * 
+     * @param popToken The PoP token
+     * @return The PopTokenVerifier
+     * @throws PopTokenValidatorException If the PopTokenVerifier cannot be determined
+     */
+    protected PopTokenVerifier getPopTokenVerifier(String popToken) throws PopTokenValidatorException {
+        return popTokenVerifier;
+    }
+
+    /**
+     * Returns the value of the "uri" ehts key, i.e. the HTTP/2 path of the call.
+     * 
+     * Note: This method can be overridden to modify the default "uri" ehts value which is "/" followed by the full method name.
+     * 
+     * @param call The server call
+     * @return The "uri" ehts value
+     */
+    protected String getUriEhtsValue(ServerCall<?, ?> call) {
+        return "/" + call.getMethodDescriptor().getFullMethodName();
+    }
+
+    /**
+     * Closes the call having a missing or invalid PoP token.
+     * 
+     * Note: This method can be overridden to modify the default status which is UNAUTHENTICATED.
+     * 
+     * @param call The server call
+     * @param ex The exception thrown while validating the PoP token
+     */
+    protected void onValidationFailure(ServerCall<?, ?> call, Throwable ex) {
+        logger.debug("The PoP token validation failed for {}, error: {}", call.getMethodDescriptor().getFullMethodName(),
+                ex.toString());
+        call.close(Status.UNAUTHENTICATED.withDescription("The PoP token validation failed"), new Metadata());
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Performs the checks not depending on the request message and collects the values of the ehts keys other than the body.
+     * 
+     * @param call The server call
+     * @param headers The metadata of the call
+     * @return The PopStreamingVerification to feed the request message bytes into
+     * @throws PopTokenValidatorException If the PoP token is missing or invalid
+     */
+    private PopStreamingVerification startStreamingVerification(ServerCall<?, ?> call, Metadata headers)
+            throws PopTokenValidatorException {
+        String popToken = headers.get(getPopTokenMetadataKey());
+        if (StringUtils.isBlank(popToken)) {
+            throw new InvalidPopTokenException("The PoP token is missing in the " + getPopTokenMetadataKey().name() + " metadata");
+        }
+        return getPopTokenVerifier(popToken).startStreamingVerification(popToken, ehtsKey -> resolveEhtsValue(call, headers, ehtsKey),
+                PopEhtsKey.BODY.keyName());
+    }
+
+    /**
+     * Returns the value of the specified ehts key other than the body.
+     * 
+     * @param call The server call
+     * @param headers The metadata of the call
+     * @param ehtsKey The ehts key
+     * @return The ehts value or null if the metadata does not contain the ehts key
+     */
+    private PopEhtsValue resolveEhtsValue(ServerCall<?, ?> call, Metadata headers, String ehtsKey) {
+        if (PopEhtsKey.URI.keyName().equals(ehtsKey)) {
+            return PopEhtsValue.of(getUriEhtsValue(call));
+        }
+        if (PopEhtsKey.HTTP_METHOD.keyName().equals(ehtsKey)) {
+            return PopEhtsValue.of(HTTP_METHOD);
+        }
+        Metadata.Key<String> metadataKey;
+        try {
+            metadataKey = Metadata.Key.of(ehtsKey, Metadata.ASCII_STRING_MARSHALLER);
+        } catch (IllegalArgumentException ex) {
+            // the binary metadata keys and the invalid key names cannot be signed
+            return null;
+        }
+        String metadataValue = headers.get(metadataKey);
+        return metadataValue != null ? PopEhtsValue.of(metadataValue) : null;
+    }
+
+    /**
+     * Returns the method definition of the specified method reading the request messages as bytes and validating the PoP tokens.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     * @param methodDefinition The method definition
+     * @return The method definition reading the request messages as bytes
+     */
+    private <ReqT, RespT> ServerMethodDefinition<byte[], RespT> interceptRawMethod(
+            ServerMethodDefinition<ReqT, RespT> methodDefinition) {
+        MethodDescriptor<ReqT, RespT> method = methodDefinition.getMethodDescriptor();
+        ServerCallHandler<ReqT, RespT> handler = methodDefinition.getServerCallHandler();
+        MethodDescriptor<byte[], RespT> rawMethod = method
+                .toBuilder(PopByteArrayMarshaller.INSTANCE, method.getResponseMarshaller()) //
+                .build(); //
+        ServerCallHandler<byte[], RespT> parsingHandler = (rawCall, headers) -> new ParsingListener<>(method,
+                handler.startCall(new ParsedRequestServerCall<>(rawCall, method), headers));
+        return ServerMethodDefinition.create(rawMethod, (rawCall, headers) -> interceptCall(rawCall, headers, parsingHandler));
+    }
+
+    /**
+     * Feeds the serialized bytes of the specified request message into the verification.
+     * 
+     * @param <ReqT> The request message type
+     * @param call The server call
+     * @param message The request message
+     * @param verification The verification
+     * @throws IOException If the request message cannot be serialized
+     */
+    private static <ReqT> void updateVerification(ServerCall<ReqT, ?> call, ReqT message, PopStreamingVerification verification)
+            throws IOException {
+        MethodDescriptor<ReqT, ?> method = call.getMethodDescriptor();
+        if (method.getRequestMarshaller() == PopByteArrayMarshaller.INSTANCE) {
+            byte[] messageBytes = (byte[]) message;
+            verification.update(messageBytes, 0, messageBytes.length);
+            return;
+        }
+        try (InputStream messageStream = method.streamRequest(message)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = messageStream.read(buffer)) != -1) {
+                verification.update(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    /**
+     * The listener holding back the call until the request message has been hashed and the PoP token has been validated, the call is
+     * then passed to the next handler.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     */
+    private final class MessageVerifyingListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+        private final ServerCall<ReqT, RespT> call;
+        private final Metadata headers;
+        private final ServerCallHandler<ReqT, RespT> next;
+        private final PopStreamingVerification verification;
+        private ServerCall.Listener<ReqT> delegate;
+        private boolean readyPending;
+        private boolean rejected;
+
+        private MessageVerifyingListener(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next,
+                PopStreamingVerification verification) {
+            this.call = call;
+            this.headers = headers;
+            this.next = next;
+            this.verification = verification;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            if (delegate == null) {
+                if (rejected) {
+                    return;
+                }
+                try {
+                    updateVerification(call, message, verification);
+                } catch (IOException ex) {
+                    reject(new InvalidPopTokenException(
+                            "Error occurred while hashing the request message, error: " + ex.toString(), ex));
+                    return;
+                }
+                if (!completeVerification()) {
+                    return;
+                }
+            }
+            delegate.onMessage(message);
+        }
+
+        @Override
+        public void onHalfClose() {
+            if (delegate == null && !completeVerification()) {
+                return;
+            }
+            delegate.onHalfClose();
+        }
+
+        @Override
+        public void onCancel() {
+            if (delegate != null) {
+                delegate.onCancel();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (delegate != null) {
+                delegate.onComplete();
+            }
+        }
+
+        @Override
+        public void onReady() {
+            if (delegate != null) {
+                delegate.onReady();
+            } else {
+                readyPending = true;
+            }
+        }
+
+        /**
+         * Completes the verification and passes the call to the next handler if the PoP token is valid, otherwise rejects the call.
+         * 
+         * @return true if the PoP token is valid
+         */
+        private boolean completeVerification() {
+            if (rejected) {
+                return false;
+            }
+            try {
+                verification.complete();
+            } catch (PopTokenValidatorException | IllegalArgumentException ex) {
+                reject(ex);
+                return false;
+            }
+            delegate = next.startCall(new ReadAheadServerCall<>(call), headers);
+            if (readyPending) {
+                delegate.onReady();
+            }
+            return true;
+        }
+
+        /**
+         * Rejects the call, the next events of the call are ignored.
+         * 
+         * @param ex The exception thrown while validating the PoP token
+         */
+        private void reject(Throwable ex) {
+            rejected = true;
+            onValidationFailure(call, ex);
+        }
+    }
+
+    /**
+     * The server call deducting the request message read ahead for hashing from the messages requested by the service, so the message
+     * requested by the interceptor is not requested twice.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     */
+    private static final class ReadAheadServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+
+        private int readAheadMessageCount = 1;
+
+        private ReadAheadServerCall(ServerCall<ReqT, RespT> call) {
+            super(call);
+        }
+
+        @Override
+        public void request(int numMessages) {
+            int deductedMessageCount = Math.min(numMessages, readAheadMessageCount);
+            readAheadMessageCount -= deductedMessageCount;
+            if (numMessages > deductedMessageCount) {
+                super.request(numMessages - deductedMessageCount);
+            }
+        }
+    }
+
+    /**
+     * The listener parsing the request message bytes using the marshaller of the method.
+     * 
+     * @param <ReqT> The request message type
+     */
+    private static final class ParsingListener<ReqT> extends ServerCall.Listener<byte[]> {
+
+        private final MethodDescriptor<ReqT, ?> method;
+        private final ServerCall.Listener<ReqT> delegate;
+
+        private ParsingListener(MethodDescriptor<ReqT, ?> method, ServerCall.Listener<ReqT> delegate) {
+            this.method = method;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onMessage(byte[] message) {
+            delegate.onMessage(method.parseRequest(new ByteArrayInputStream(message)));
+        }
+
+        @Override
+        public void onHalfClose() {
+            delegate.onHalfClose();
+        }
+
+        @Override
+        public void onCancel() {
+            delegate.onCancel();
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+
+        @Override
+        public void onReady() {
+            delegate.onReady();
+        }
+    }
+
+    /**
+     * The server call reading the request messages as bytes, exposed to the service with the original method descriptor.
+     * 
+     * @param <ReqT> The request message type
+     * @param <RespT> The response message type
+     */
+    private static final class ParsedRequestServerCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+
+        private final ServerCall<byte[], RespT> rawCall;
+        private final MethodDescriptor<ReqT, RespT> method;
+
+        private ParsedRequestServerCall(ServerCall<byte[], RespT> rawCall, MethodDescriptor<ReqT, RespT> method) {
+            this.rawCall = rawCall;
+            this.method = method;
+        }
+
+        @Override
+        public void request(int numMessages) {
+            rawCall.request(numMessages);
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+            rawCall.sendHeaders(headers);
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            rawCall.sendMessage(message);
+        }
+
+        @Override
+        public boolean isReady() {
+            return rawCall.isReady();
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            rawCall.close(status, trailers);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return rawCall.isCancelled();
+        }
+
+        @Override
+        public void setMessageCompression(boolean enabled) {
+            rawCall.setMessageCompression(enabled);
+        }
+
+        @Override
+        public void setCompression(String compressor) {
+            rawCall.setCompression(compressor);
+        }
+
+        @Override
+        public SecurityLevel getSecurityLevel() {
+            return rawCall.getSecurityLevel();
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return rawCall.getAttributes();
+        }
+
+        @Override
+        public String getAuthority() {
+            return rawCall.getAuthority();
+        }
+
+        @Override
+        public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+            return method;
+        }
+    }
+}
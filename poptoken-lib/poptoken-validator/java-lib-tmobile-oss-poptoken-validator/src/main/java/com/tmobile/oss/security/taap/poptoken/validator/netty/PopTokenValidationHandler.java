@@ -0,0 +1,527 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.netty;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.validator.PopStreamingVerification;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopBodyTooLargeException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidationRejectedException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
+
+/**
+ * A Netty inbound handler validating the PoP token of every HTTP request before passing the request to the next handlers, it should
+ * be added to the pipeline after the HTTP server codec.
+ * <p>
+ * The PoP token and the signed header values are read from the decoded headers as character sequences and hashed without converting
+ * them to string, the PoP token itself is converted to string once as it is decoded by the JWT library. The body {@link HttpContent}
+ * chunks are fed into the edts (external data to sign) message digest as they arrive, directly from their ByteBufs, and are held back
+ * without copying until the PoP token has been validated, the same HttpRequest and HttpContent messages are then passed on. If the
+ * body is not signed then only the HttpRequest is held back until the PoP token has been validated and the body is passed on as it
+ * arrives. The bytes held back are counted and the request is rejected as soon as its Content-Length header or the held back bytes
+ * exceed the maximum body size, see {@link #getMaxBodySize()}.
+ * <p>
+ * The PopTokenVerifier calls which can block, i.e. resolving the public key, looking up the replay store and verifying the RSA
+ * signature, run on the validation executor group instead of the event loop. While any of these calls is pending, the auto read of the
+ * channel is disabled, so only the messages already read from the socket are held back, and the messages of the next pipelined
+ * requests are queued. The auto read is enabled again while the signed body is being received once the PoP token checks not depending
+ * on the body have passed. The requests having a missing or invalid PoP token are rejected with 401 Unauthorized, the requests having
+ * a too large body with 413 Payload Too Large, the requests rejected by the validation executor group with 503 Service Unavailable,
+ * and the connection is closed.
+ * <p>
+ * The handler keeps the state of the request being validated so a new instance should be added to the pipeline of every channel, the
+ * PopTokenVerifier and the validation executor group are thread-safe and should be shared by all the channels.
+ */
+public class PopTokenValidationHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopTokenValidationHandler.class);
+
+    private static final AsciiString POP_TOKEN_HEADER_NAME = AsciiString.cached("X-Authorization");
+    private static final long MAX_BODY_SIZE = 10 * 1024 * 1024;
+
+    private final PopTokenVerifier popTokenVerifier;
+    private final EventExecutorGroup validationExecutorGroup;
+
+    private final List<HttpObject> heldMessages = new ArrayList<>();
+    private final ArrayDeque<Object> deferredMessages = new ArrayDeque<>();
+    private PopStreamingVerification verification;
+    private int hashedMessageCount;
+    private long heldByteCount;
+    private boolean requestCompleted;
+    private boolean validationPending;
+    private boolean passingThrough;
+    private boolean autoReadDisabled;
+    private boolean rejected;
+
+    /**
+     * Constructs the PopTokenValidationHandler validating the PoP tokens using the specified PopTokenVerifier and the default
+     * validation executor group, which is shared by all the handlers and has as many threads as the available processors and up to
+     * 1024 pending tasks per thread.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier to verify the PoP tokens
+     * @throws IllegalArgumentException If the popTokenVerifier is null
+     */
+    public PopTokenValidationHandler(PopTokenVerifier popTokenVerifier) {
+        this(popTokenVerifier, ValidationExecutorGroupHolder.VALIDATION_EXECUTOR_GROUP);
+    }
+
+    /**
+     * Constructs the PopTokenValidationHandler validating the PoP tokens using the specified PopTokenVerifier and validation executor
+     * group.
+     * 
+     * @param popTokenVerifier The PopTokenVerifier to verify the PoP tokens
+     * @param validationExecutorGroup The executor group running the PopTokenVerifier calls
+     * @throws IllegalArgumentException If the popTokenVerifier or validationExecutorGroup is null
+     */
+    public PopTokenValidationHandler(PopTokenVerifier popTokenVerifier, EventExecutorGroup validationExecutorGroup) {
+        if (popTokenVerifier == null) {
+            throw new IllegalArgumentException("The popTokenVerifier should not be null");
+        }
+        if (validationExecutorGroup == null) {
+            throw new IllegalArgumentException("The validationExecutorGroup should not be null");
+        }
+        this.popTokenVerifier = popTokenVerifier;
+        this.validationExecutorGroup = validationExecutorGroup;
+    }
+
+    /**
+     * Holds back the HTTP request messages until the PoP token has been validated, the other messages are passed on.
+     * 
+     * @param ctx The channel handler context
+     * @param msg The inbound message
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (rejected) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (requestCompleted) {
+            deferredMessages.add(msg);
+            return;
+        }
+        if (passingThrough && msg instanceof HttpContent) {
+            passingThrough = !(msg instanceof LastHttpContent);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        if (msg instanceof HttpRequest || (msg instanceof HttpContent && !heldMessages.isEmpty())) {
+            heldMessages.add((HttpObject) msg);
+        } else {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (msg instanceof HttpContent) {
+            heldByteCount += ((HttpContent) msg).content().readableBytes();
+            if (heldByteCount > getMaxBodySize()) {
+                reject(ctx, new PopBodyTooLargeException(
+                        "The request body exceeds the maximum body size of " + getMaxBodySize() + " bytes"));
+                return;
+            }
+        }
+        if (msg instanceof LastHttpContent) {
+            requestCompleted = true;
+            disableAutoRead(ctx);
+        }
+        if (msg instanceof HttpRequest) {
+            startVerification(ctx, (HttpRequest) msg);
+        } else {
+            updateVerification(ctx);
+        }
+    }
+
+    /**
+     * Releases the held back messages when the channel becomes inactive.
+     * 
+     * @param ctx The channel handler context
+     * @throws Exception If the next handler fails
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseMessages();
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Releases the held back messages when the handler is removed from the pipeline.
+     * 
+     * @param ctx The channel handler context
+     */
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseMessages();
+    }
+
+    /**
+     * Returns the name of the HTTP request header containing the PoP token.
+     * 
+     * Note: This method can be overridden to modify the default PoP token header name which is X-Authorization.
+     * 
+     * @return The PoP token header name
+     */
+    protected CharSequence getPopTokenHeaderName() {
+        return POP_TOKEN_HEADER_NAME;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the body held back until the PoP token has been validated, the requests having a larger
+     * body are rejected before the body is received completely.
+     * 
+     * Note: This method can be overridden to modify the default maximum body size which is 10 MB.
+     * 
+     * @return The maximum body size
+     */
+    protected long getMaxBodySize() {
+        return MAX_BODY_SIZE;
+    }
+
+    /**
+     * Returns the PopTokenVerifier for the specified PoP token. This method is called on the validation executor group, so it can
+     * block.
+     * 
+     * Note: This method can be overridden to modify the default PopTokenVerifier which is the one specified in the constructor, for
+     * example to resolve the public key by the kid header of the PoP token using the JwksKeyResolver.
+     * 
+     * @param popToken The PoP token
+     * @return The PopTokenVerifier
+     * @throws PopTokenValidatorException If the public key cannot be resolved
+     */
+    protected PopTokenVerifier getPopTokenVerifier(String popToken) throws PopTokenValidatorException {
+        return popTokenVerifier;
+    }
+
+    /**
+     * Returns the value of the "uri" ehts key, i.e. the request path followed by the URL decoded query string.
+     * 
+     * Note: This method can be overridden to modify the default "uri" ehts value, for example when the proxy rewrites the request URI.
+     * 
+     * @param request The HTTP request
+     * @return The "uri" ehts value
+     */
+    protected CharSequence getUriEhtsValue(HttpRequest request) {
+        String uri = request.uri();
+        int schemeEndIndex = uri.indexOf("://");
+        if (!uri.startsWith("/") && schemeEndIndex > 0) {
+            int pathIndex = uri.indexOf('/', schemeEndIndex + 3);
+            uri = pathIndex > 0 ? uri.substring(pathIndex) : "/";
+        }
+        int queryIndex = uri.indexOf('?');
+        if (queryIndex < 0 || queryIndex == uri.length() - 1) {
+            return queryIndex < 0 ? uri : uri.substring(0, queryIndex);
+        }
+        try {
+            return uri.substring(0, queryIndex + 1) + URLDecoder.decode(uri.substring(queryIndex + 1), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return uri;
+        }
+    }
+
+    /**
+     * Rejects the request having a missing or invalid PoP token, the held back messages have already been released.
+     * 
+     * Note: This method can be overridden to modify the default response which is 401 Unauthorized, 413 Payload Too Large if the body
+     * exceeds the maximum body size or 503 Service Unavailable if the validation has been rejected by the validation executor group,
+     * followed by closing the connection.
+     * 
+     * @param ctx The channel handler context
+     * @param ex The exception thrown while validating the PoP token
+     */
+    protected void onValidationFailure(ChannelHandlerContext ctx, Throwable ex) {
+        logger.debug("The PoP token validation failed for the channel {}, error: {}", ctx.channel(), ex.toString());
+        HttpResponseStatus status = HttpResponseStatus.UNAUTHORIZED;
+        if (ex instanceof PopBodyTooLargeException) {
+            status = HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+        } else if (ex instanceof PopTokenValidationRejectedException) {
+            status = HttpResponseStatus.SERVICE_UNAVAILABLE;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, Unpooled.EMPTY_BUFFER);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, HttpHeaderValues.ZERO);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Starts the verification of the PoP token of the request on the validation executor group, the auto read is disabled until the
+     * checks not depending on the body have passed.
+     * 
+     * @param ctx The channel handler context
+     * @param request The HTTP request
+     */
+    private void startVerification(ChannelHandlerContext ctx, HttpRequest request) {
+        CharSequence popToken = getFirstHeaderValue(request.headers(), getPopTokenHeaderName());
+        if (StringUtils.isBlank(popToken)) {
+            reject(ctx, new InvalidPopTokenException("The PoP token is missing in the " + getPopTokenHeaderName() + " header"));
+            return;
+        }
+
+        String popTokenString = popToken.toString();
+        validationPending = true;
+        disableAutoRead(ctx);
+        offload(ctx, () -> getPopTokenVerifier(popTokenString).startStreamingVerification(popTokenString,
+                ehtsKey -> resolveEhtsValue(request, ehtsKey), PopEhtsKey.BODY.keyName()), startedVerification -> {
+                    validationPending = false;
+                    verification = startedVerification;
+                    if (startedVerification.isStreamedValueSigned() && HttpUtil.getContentLength(request, -1L) > getMaxBodySize()) {
+                        reject(ctx, new PopBodyTooLargeException("The Content-Length " + HttpUtil.getContentLength(request, -1L)
+                                + " exceeds the maximum body size of " + getMaxBodySize() + " bytes"));
+                        return;
+                    }
+                    updateVerification(ctx);
+                    if (!validationPending && !requestCompleted && !rejected) {
+                        enableAutoRead(ctx);
+                    }
+                });
+    }
+
+    /**
+     * Feeds the held back body chunks not yet hashed into the verification and completes the verification on the validation executor
+     * group once the whole body has arrived, or immediately if the body is not signed.
+     * 
+     * @param ctx The channel handler context
+     */
+    private void updateVerification(ChannelHandlerContext ctx) {
+        if (validationPending || verification == null || rejected) {
+            return;
+        }
+        while (hashedMessageCount < heldMessages.size()) {
+            HttpObject message = heldMessages.get(hashedMessageCount++);
+            if (message instanceof HttpContent && verification.isStreamedValueSigned()) {
+                ByteBuf content = ((HttpContent) message).content();
+                if (content.isReadable()) {
+                    for (ByteBuffer chunk : content.nioBuffers()) {
+                        verification.update(chunk);
+                    }
+                }
+            }
+        }
+
+        if (requestCompleted || !verification.isStreamedValueSigned()) {
+            PopStreamingVerification completedVerification = verification;
+            validationPending = true;
+            offload(ctx, () -> {
+                completedVerification.complete();
+                return completedVerification;
+            }, validatedVerification -> onValidated(ctx));
+        }
+    }
+
+    /**
+     * Passes on the held back messages of the validated request and processes the deferred messages of the next requests.
+     * 
+     * @param ctx The channel handler context
+     */
+    private void onValidated(ChannelHandlerContext ctx) {
+        List<HttpObject> validatedMessages = new ArrayList<>(heldMessages);
+        passingThrough = !requestCompleted;
+        resetRequest();
+        for (HttpObject message : validatedMessages) {
+            ctx.fireChannelRead(message);
+        }
+        ctx.fireChannelReadComplete();
+
+        while (!deferredMessages.isEmpty() && !requestCompleted && !rejected) {
+            channelRead(ctx, deferredMessages.poll());
+        }
+        if (!requestCompleted && !validationPending && !rejected) {
+            enableAutoRead(ctx);
+        }
+    }
+
+    /**
+     * Rejects the request, releases all the held back and deferred messages and discards the following messages.
+     * 
+     * @param ctx The channel handler context
+     * @param ex The exception thrown while validating the PoP token
+     */
+    private void reject(ChannelHandlerContext ctx, Throwable ex) {
+        if (rejected) {
+            return;
+        }
+        rejected = true;
+        releaseMessages();
+        onValidationFailure(ctx, ex);
+    }
+
+    /**
+     * Disables the auto read of the channel if it is enabled, so no more messages are read from the socket while the validation is
+     * pending.
+     * 
+     * @param ctx The channel handler context
+     */
+    private void disableAutoRead(ChannelHandlerContext ctx) {
+        if (ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(false);
+            autoReadDisabled = true;
+        }
+    }
+
+    /**
+     * Enables the auto read of the channel again if it has been disabled by the handler.
+     * 
+     * @param ctx The channel handler context
+     */
+    private void enableAutoRead(ChannelHandlerContext ctx) {
+        if (autoReadDisabled) {
+            autoReadDisabled = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Runs the task on the validation executor group and calls the callback or rejects the request on the event loop of the channel.
+     * 
+     * @param ctx The channel handler context
+     * @param task The task
+     * @param onSuccess The callback receiving the result of the task
+     */
+    private <T> void offload(ChannelHandlerContext ctx, Callable<T> task, Consumer<T> onSuccess) {
+        Promise<T> promise = ctx.executor().newPromise();
+        try {
+            validationExecutorGroup.next().execute(() -> {
+                try {
+                    promise.setSuccess(task.call());
+                } catch (Throwable ex) {
+                    promise.setFailure(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            promise.setFailure(new PopTokenValidationRejectedException(
+                    "The PoP token validation has been rejected, error: " + ex.toString(), ex));
+        }
+        promise.addListener(future -> {
+            if (rejected || !ctx.channel().isActive()) {
+                return;
+            }
+            if (future.isSuccess()) {
+                onSuccess.accept(promise.getNow());
+            } else {
+                reject(ctx, future.cause());
+            }
+        });
+    }
+
+    /**
+     * Resolves the value of the specified ehts key from the request without converting the header values to string.
+     * 
+     * @param request The HTTP request
+     * @param ehtsKey The ehts key
+     * @return The ehts value or null if the request does not contain the header
+     */
+    private PopEhtsValue resolveEhtsValue(HttpRequest request, String ehtsKey) {
+        if (PopEhtsKey.URI.keyName().equals(ehtsKey)) {
+            return PopEhtsValue.of(getUriEhtsValue(request));
+        } else if (PopEhtsKey.HTTP_METHOD.keyName().equals(ehtsKey)) {
+            return PopEhtsValue.of(request.method().asciiName());
+        }
+        CharSequence headerValue = getFirstHeaderValue(request.headers(), ehtsKey);
+        return headerValue != null ? PopEhtsValue.of(headerValue) : null;
+    }
+
+    /**
+     * Returns the first value of the specified header as character sequence.
+     * 
+     * @param headers The HTTP headers
+     * @param name The header name
+     * @return The first header value or null if the headers do not contain the header
+     */
+    private CharSequence getFirstHeaderValue(HttpHeaders headers, CharSequence name) {
+        Iterator<? extends CharSequence> values = headers.valueCharSequenceIterator(name);
+        return values.hasNext() ? values.next() : null;
+    }
+
+    /**
+     * Clears the state of the validated request.
+     */
+    private void resetRequest() {
+        heldMessages.clear();
+        verification = null;
+        hashedMessageCount = 0;
+        heldByteCount = 0;
+        requestCompleted = false;
+        validationPending = false;
+    }
+
+    /**
+     * Releases all the held back and deferred messages.
+     */
+    private void releaseMessages() {
+        for (HttpObject message : heldMessages) {
+            ReferenceCountUtil.release(message);
+        }
+        resetRequest();
+        passingThrough = false;
+        while (!deferredMessages.isEmpty()) {
+            ReferenceCountUtil.release(deferredMessages.poll());
+        }
+    }
+
+    /**
+     * Holds the default validation executor group, which is created only when it is used for the first time.
+     */
+    private static final class ValidationExecutorGroupHolder {
+
+        private static final EventExecutorGroup VALIDATION_EXECUTOR_GROUP = new DefaultEventExecutorGroup(
+                Runtime.getRuntime().availableProcessors(), new DefaultThreadFactory("poptoken-validation", true), 1024,
+                RejectedExecutionHandlers.reject());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.servlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of the equally sized byte arrays used for caching the small HTTP request bodies, so the body buffers are reused
+ * between the requests instead of being allocated for every request.
+ */
+final class PopBodyBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> buffers;
+
+    /**
+     * Constructs the PopBodyBufferPool using the specified buffer size and maximum number of pooled buffers.
+     * 
+     * @param bufferSize The size of the buffers in bytes
+     * @param maxPooledBufferCount The maximum number of buffers kept in the pool
+     */
+    PopBodyBufferPool(int bufferSize, int maxPooledBufferCount) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBufferCount);
+    }
+
+    /**
+     * Takes a buffer from the pool or allocates a new buffer if the pool is empty.
+     * 
+     * @return The buffer
+     */
+    byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Returns the buffer to the pool, the buffer is dropped if the pool is full.
+     * 
+     * @param buffer The buffer
+     */
+    void release(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Returns the size of the buffers in bytes.
+     * 
+     * @return The buffer size
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of buffers currently kept in the pool.
+     * 
+     * @return The number of pooled buffers
+     */
+    int getPooledBufferCount() {
+        return buffers.size();
+    }
+}
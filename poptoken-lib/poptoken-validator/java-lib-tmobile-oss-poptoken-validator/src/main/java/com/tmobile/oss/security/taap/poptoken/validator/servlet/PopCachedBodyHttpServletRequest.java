@@ -0,0 +1,418 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.servlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopStreamingVerification;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopBodyTooLargeException;
+
+/**
+ * A request wrapper caching the HTTP request body, so the body can be hashed for the PoP token validation and then read again by the
+ * servlet.
+ * <p>
+ * The body is fed into the streaming verification of the PoP token while it is read, so it is hashed in the same pass and never
+ * converted to string. The bodies fitting into one buffer of the buffer pool are kept in the pooled buffer, the larger bodies are
+ * spilled to a temporary file, and the reading stops as soon as the body exceeds the maximum body size. {@link #release()} should be
+ * called once the request has been processed to return the buffer to the pool and delete the temporary file.
+ * <p>
+ * As the body has been consumed, the servlet container cannot parse the parameters of the form-urlencoded requests anymore, so the
+ * form parameters are parsed from the cached body and added to the query string parameters of the wrapped request.
+ */
+final class PopCachedBodyHttpServletRequest extends HttpServletRequestWrapper {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopCachedBodyHttpServletRequest.class);
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final PopBodyBufferPool bodyBufferPool;
+    private final long maxBodySize;
+    private final PopStreamingVerification verification;
+    private final List<InputStream> openedInputStreams = new ArrayList<>();
+    private byte[] bodyBuffer;
+    private Path bodyFile;
+    private long bodyLength;
+    private boolean released;
+    private Map<String, String[]> parameterMap;
+
+    /**
+     * Constructs the PopCachedBodyHttpServletRequest by reading the whole body of the specified request and feeding it into the
+     * specified streaming verification.
+     * 
+     * @param request The HTTP request
+     * @param bodyBufferPool The pool of the body buffers
+     * @param maxBodySize The maximum body size in bytes
+     * @param verification The streaming verification to feed the body into
+     * @throws PopBodyTooLargeException If the body exceeds the maximum body size
+     * @throws IOException If the body cannot be read or cannot be spilled to the temporary file
+     */
+    PopCachedBodyHttpServletRequest(HttpServletRequest request, PopBodyBufferPool bodyBufferPool, long maxBodySize,
+            PopStreamingVerification verification) throws PopBodyTooLargeException, IOException {
+        super(request);
+        this.bodyBufferPool = bodyBufferPool;
+        this.maxBodySize = maxBodySize;
+        this.verification = verification;
+        this.bodyBuffer = bodyBufferPool.acquire();
+        try {
+            readBody(request.getInputStream());
+        } catch (PopBodyTooLargeException | IOException | RuntimeException ex) {
+            release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the input stream reading the cached body.
+     * 
+     * @return The input stream
+     * @throws IOException If the temporary file of the body cannot be opened
+     */
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        return new CachedBodyServletInputStream(openBody());
+    }
+
+    /**
+     * Returns the reader reading the cached body using the character encoding of the request, ISO-8859-1 if the request does not
+     * specify the character encoding.
+     * 
+     * @return The reader
+     * @throws IOException If the temporary file of the body cannot be opened
+     */
+    @Override
+    public BufferedReader getReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(openBody(), getBodyCharset()));
+    }
+
+    /**
+     * Returns the value of the specified parameter, the first value if the parameter has multiple values.
+     * 
+     * @param name The name of the parameter
+     * @return The parameter value or null if the parameter does not exist
+     */
+    @Override
+    public String getParameter(String name) {
+        String[] values = getParameterMap().get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    /**
+     * Returns the names of the parameters.
+     * 
+     * @return The parameter names
+     */
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    /**
+     * Returns the values of the specified parameter.
+     * 
+     * @param name The name of the parameter
+     * @return The parameter values or null if the parameter does not exist
+     */
+    @Override
+    public String[] getParameterValues(String name) {
+        String[] values = getParameterMap().get(name);
+        return values != null ? values.clone() : null;
+    }
+
+    /**
+     * Returns the parameters of the request, i.e. the query string parameters of the wrapped request followed by the form parameters
+     * parsed from the cached body if the content type is application/x-www-form-urlencoded. The parameters are parsed once and
+     * cached.
+     * 
+     * @return The unmodifiable map of the parameter names to the parameter values
+     * @throws IllegalStateException If the form parameters are parsed after the cached body has been released
+     */
+    @Override
+    public synchronized Map<String, String[]> getParameterMap() {
+        if (parameterMap == null) {
+            parameterMap = Collections.unmodifiableMap(parseParameters());
+        }
+        return parameterMap;
+    }
+
+    /**
+     * Returns the length of the cached body in bytes.
+     * 
+     * @return The body length
+     */
+    long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Returns true if the body has been spilled to a temporary file.
+     * 
+     * @return true if the body is cached in a temporary file
+     */
+    boolean isBodySpilledToFile() {
+        return bodyFile != null;
+    }
+
+    /**
+     * Returns the buffer to the pool, closes the opened input streams and deletes the temporary file. The body cannot be read after
+     * the release.
+     */
+    synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (InputStream inputStream : openedInputStreams) {
+            try {
+                inputStream.close();
+            } catch (IOException ex) {
+                logger.debug("Error occurred while closing the body input stream, error: {}", ex.toString());
+            }
+        }
+        openedInputStreams.clear();
+        if (bodyBuffer != null) {
+            bodyBufferPool.release(bodyBuffer);
+            bodyBuffer = null;
+        }
+        if (bodyFile != null) {
+            try {
+                Files.deleteIfExists(bodyFile);
+            } catch (IOException ex) {
+                logger.warn("Error occurred while deleting the body file {}, error: {}", bodyFile, ex.toString());
+            }
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the character encoding of the request, ISO-8859-1 if the request does not specify the character encoding.
+     * 
+     * @return The charset of the body
+     */
+    private Charset getBodyCharset() {
+        String characterEncoding = getCharacterEncoding();
+        return characterEncoding != null ? Charset.forName(characterEncoding) : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Parses the query string parameters of the wrapped request and the form parameters of the cached body, the names and values
+     * which cannot be URL decoded are skipped in the same way as the servlet containers do.
+     * 
+     * @return The map of the parameter names to the parameter values
+     */
+    private Map<String, String[]> parseParameters() {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        Map<String, String[]> queryParameters = super.getParameterMap();
+        if (queryParameters != null) {
+            parameters.putAll(queryParameters);
+        }
+        String contentType = getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith(FORM_CONTENT_TYPE)) {
+            return parameters;
+        }
+
+        Charset charset = getBodyCharset();
+        String body;
+        try (InputStream inputStream = openBody()) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) Math.min(bodyLength, Integer.MAX_VALUE));
+            byte[] buffer = new byte[4096];
+            int readCount;
+            while ((readCount = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, readCount);
+            }
+            body = new String(outputStream.toByteArray(), charset);
+        } catch (IOException ex) {
+            logger.warn("Error occurred while reading the form parameters from the cached body, error: {}", ex.toString());
+            return parameters;
+        }
+
+        for (String pair : body.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int separatorIndex = pair.indexOf('=');
+            String name;
+            String value;
+            try {
+                name = URLDecoder.decode(separatorIndex >= 0 ? pair.substring(0, separatorIndex) : pair, charset.name());
+                value = separatorIndex >= 0 ? URLDecoder.decode(pair.substring(separatorIndex + 1), charset.name()) : "";
+            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+                logger.debug("Skipping the form parameter which cannot be decoded, error: {}", ex.toString());
+                continue;
+            }
+            String[] values = parameters.get(name);
+            if (values == null) {
+                parameters.put(name, new String[] { value });
+            } else {
+                String[] newValues = Arrays.copyOf(values, values.length + 1);
+                newValues[values.length] = value;
+                parameters.put(name, newValues);
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Reads the whole body into the pooled buffer and feeds it into the streaming verification, the body is spilled to a temporary
+     * file if it does not fit into the buffer. The body length is checked before each chunk is hashed or spilled, so at most one
+     * buffer of the body exceeding the maximum body size is read.
+     * 
+     * @param inputStream The input stream of the body
+     * @throws PopBodyTooLargeException If the body exceeds the maximum body size
+     * @throws IOException If the body cannot be read or cannot be spilled to the temporary file
+     */
+    private void readBody(InputStream inputStream) throws PopBodyTooLargeException, IOException {
+        int length = 0;
+        int readCount;
+        while (length < bodyBuffer.length && (readCount = inputStream.read(bodyBuffer, length, bodyBuffer.length - length)) >= 0) {
+            length += readCount;
+        }
+        addBodyChunk(length);
+        if (length < bodyBuffer.length) {
+            return;
+        }
+        int nextByte = inputStream.read();
+        if (nextByte < 0) {
+            return;
+        }
+
+        bodyFile = Files.createTempFile("poptoken-body-", ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(bodyFile)) {
+            outputStream.write(bodyBuffer, 0, length);
+            bodyBuffer[0] = (byte) nextByte;
+            readCount = 1;
+            do {
+                addBodyChunk(readCount);
+                outputStream.write(bodyBuffer, 0, readCount);
+            } while ((readCount = inputStream.read(bodyBuffer)) >= 0);
+        }
+        bodyBufferPool.release(bodyBuffer);
+        bodyBuffer = null;
+    }
+
+    /**
+     * Adds the length of the chunk read into the body buffer to the body length and feeds the chunk into the streaming verification.
+     * 
+     * @param length The length of the chunk at the beginning of the body buffer
+     * @throws PopBodyTooLargeException If the body exceeds the maximum body size
+     */
+    private void addBodyChunk(int length) throws PopBodyTooLargeException {
+        bodyLength += length;
+        if (bodyLength > maxBodySize) {
+            throw new PopBodyTooLargeException("The request body exceeds the maximum body size of " + maxBodySize + " bytes");
+        }
+        verification.update(bodyBuffer, 0, length);
+    }
+
+    /**
+     * Opens a new input stream reading the cached body.
+     * 
+     * @return The input stream
+     * @throws IOException If the temporary file of the body cannot be opened
+     */
+    private synchronized InputStream openBody() throws IOException {
+        if (released) {
+            throw new IllegalStateException("The cached body has already been released");
+        }
+        if (bodyFile == null) {
+            return new ByteArrayInputStream(bodyBuffer, 0, (int) bodyLength);
+        }
+        InputStream inputStream = Files.newInputStream(bodyFile);
+        openedInputStreams.add(inputStream);
+        return inputStream;
+    }
+
+    /**
+     * The servlet input stream reading the cached body, the whole body is always available so the reads never block.
+     */
+    private static final class CachedBodyServletInputStream extends ServletInputStream {
+
+        private final InputStream inputStream;
+        private boolean finished;
+
+        private CachedBodyServletInputStream(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = inputStream.read();
+            finished = value < 0;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int readCount = inputStream.read(bytes, offset, length);
+            finished = readCount < 0;
+            return readCount;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            try {
+                readListener.onDataAvailable();
+                readListener.onAllDataRead();
+            } catch (IOException ex) {
+                readListener.onError(ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.servlet;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.tmobile.oss.security.taap.poptoken.validator.JwksKeyResolver;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.validator.PopJwk;
+import com.tmobile.oss.security.taap.poptoken.validator.PopStreamingVerification;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopBodyTooLargeException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
+
+/**
+ * A servlet filter validating the PoP token of every HTTP request before passing the request to the filter chain.
+ * <p>
+ * The filter reads the ehts (external headers to sign) keys from the PoP token and reads only the values of those keys from the
+ * request, i.e. only the signed headers are read and the body is read only if it is signed. The checks not depending on the body, i.e.
+ * decoding the PoP token, checking its claims, looking up the jti and, with the SIGNATURE_FIRST
+ * verification order, verifying the signature, are performed before the body is read, so the invalid PoP tokens are rejected without
+ * reading the body. The signed body is then cached by a replayable request wrapper, in a pooled buffer for the small bodies and in a
+ * temporary file for the large bodies, and hashed while it is read without converting it to string, see {@link
+ * PopStreamingVerification}. The bodies exceeding the maximum body size, see {@link #getMaxBodySize()}, are rejected as soon as the
+ * Content-Length header or the bytes read so far exceed it. The PopTokenVerifier is built once per public key and reused by all the
+ * requests.
+ * <p>
+ * The public key is configured using one of the constructors or, when the filter is created by the servlet container, using one of
+ * the init parameters:
+ * <ul>
+ * <li>publicKeyPemString: The PEM string of the RSA public key</li>
+ * <li>jwksUrl: The URL of the JWK set, the public key is resolved using the kid header of the PoP token</li>
+ * </ul>
+ * The requests having a missing or invalid PoP token are rejected with 401 Unauthorized and the requests having a too large signed
+ * body are rejected with 413 Payload Too Large.
+ */
+public class PopTokenValidationFilter implements Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopTokenValidationFilter.class);
+
+    /**
+     * The name of the init parameter containing the PEM string of the RSA public key.
+     */
+    public static final String PUBLIC_KEY_PEM_STRING_INIT_PARAMETER = "publicKeyPemString";
+
+    /**
+     * The name of the init parameter containing the URL of the JWK set.
+     */
+    public static final String JWKS_URL_INIT_PARAMETER = "jwksUrl";
+
+    private static final String POP_TOKEN_HEADER_NAME = "X-Authorization";
+    private static final int BODY_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BODY_BUFFER_COUNT = 64;
+    private static final long MAX_BODY_SIZE = 10 * 1024 * 1024;
+
+    private PublicKey publicKey;
+    private JwksKeyResolver jwksKeyResolver;
+    private boolean jwksKeyResolverOwned;
+
+    private PopTokenValidator popTokenValidator;
+    private PopTokenVerifier popTokenVerifier;
+    private final ConcurrentMap<String, PopTokenVerifier> kidToPopTokenVerifierMap = new ConcurrentHashMap<>();
+    private PopBodyBufferPool bodyBufferPool;
+    private long maxBodySize;
+
+    /**
+     * Constructs the PopTokenValidationFilter configured by the init parameters, this constructor is used when the filter is created
+     * by the servlet container.
+     */
+    public PopTokenValidationFilter() {
+    }
+
+    /**
+     * Constructs the PopTokenValidationFilter validating the PoP tokens using the specified public key.
+     * 
+     * @param publicKey The PublicKey to verify the PoP token signature, an RSA, a P-256 EC or an Ed25519 public key
+     * @throws IllegalArgumentException If the publicKey is null
+     */
+    public PopTokenValidationFilter(PublicKey publicKey) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
+        }
+        this.publicKey = publicKey;
+    }
+
+    /**
+     * Constructs the PopTokenValidationFilter validating the PoP tokens using the public keys resolved by the kid header of the
+     * PoP token, the JwksKeyResolver is not closed by the filter.
+     * 
+     * @param jwksKeyResolver The JwksKeyResolver to resolve the public keys
+     * @throws IllegalArgumentException If the jwksKeyResolver is null
+     */
+    public PopTokenValidationFilter(JwksKeyResolver jwksKeyResolver) {
+        if (jwksKeyResolver == null) {
+            throw new IllegalArgumentException("The jwksKeyResolver should not be null");
+        }
+        this.jwksKeyResolver = jwksKeyResolver;
+    }
+
+    /**
+     * Initializes the filter, the public key is read from the init parameters if it has not been specified using the constructor.
+     * 
+     * @param filterConfig The filter configuration
+     * @throws ServletException If the public key is not configured or cannot be parsed
+     */
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        if (publicKey == null && jwksKeyResolver == null) {
+            String publicKeyPemString = getInitParameter(filterConfig, PUBLIC_KEY_PEM_STRING_INIT_PARAMETER);
+            String jwksUrl = getInitParameter(filterConfig, JWKS_URL_INIT_PARAMETER);
+            if (StringUtils.isNotBlank(publicKeyPemString)) {
+                try {
+                    publicKey = PopTokenValidatorUtils.keyPemStringToRsaPublicKey(publicKeyPemString);
+                } catch (PopTokenValidatorException ex) {
+                    throw new ServletException("Error occurred while parsing the public key PEM string, error: " + ex.toString(), ex);
+                }
+            } else if (StringUtils.isNotBlank(jwksUrl)) {
+                try {
+                    jwksKeyResolver = JwksKeyResolver.newInstance(new URL(jwksUrl));
+                    jwksKeyResolverOwned = true;
+                } catch (MalformedURLException ex) {
+                    throw new ServletException("Error occurred while parsing the JWK set URL, error: " + ex.toString(), ex);
+                }
+            } else {
+                throw new ServletException("Either the " + PUBLIC_KEY_PEM_STRING_INIT_PARAMETER + " or the " + JWKS_URL_INIT_PARAMETER
+                        + " init parameter should be specified"); //
+            }
+        }
+
+        popTokenValidator = getPopTokenValidator();
+        if (publicKey != null) {
+            popTokenVerifier = popTokenValidator.newPopTokenVerifier(publicKey);
+        }
+        bodyBufferPool = new PopBodyBufferPool(getBodyBufferSize(), getMaxPooledBodyBufferCount());
+        maxBodySize = getMaxBodySize();
+    }
+
+    /**
+     * Validates the PoP token of the request and passes the request to the filter chain if the PoP token is valid, otherwise rejects
+     * the request using {@link #onValidationFailure(HttpServletRequest, HttpServletResponse, Exception)}.
+     * 
+     * @param request The request
+     * @param response The response
+     * @param chain The filter chain
+     * @throws IOException If an I/O error occurs
+     * @throws ServletException If the filter chain fails
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        PopCachedBodyHttpServletRequest cachedBodyRequest = null;
+        try {
+            String popToken = httpRequest.getHeader(getPopTokenHeaderName());
+            if (StringUtils.isBlank(popToken)) {
+                throw new InvalidPopTokenException("The PoP token is missing in the " + getPopTokenHeaderName() + " header");
+            }
+
+            DecodedJWT decodedPopToken = decodePopToken(popToken);
+            List<String> ehtsKeys = popTokenValidator.getDecodedPopTokenEhtsKeys(decodedPopToken);
+            Map<String, PopEhtsValue> ehtsValueMap = new HashMap<>();
+            for (String ehtsKey : ehtsKeys) {
+                if (PopEhtsKey.URI.keyName().equals(ehtsKey)) {
+                    ehtsValueMap.put(ehtsKey, PopEhtsValue.of(getUriEhtsValue(httpRequest)));
+                } else if (PopEhtsKey.HTTP_METHOD.keyName().equals(ehtsKey)) {
+                    ehtsValueMap.put(ehtsKey, PopEhtsValue.of(httpRequest.getMethod()));
+                } else if (!PopEhtsKey.BODY.keyName().equals(ehtsKey)) {
+                    String headerValue = httpRequest.getHeader(ehtsKey);
+                    if (headerValue != null) {
+                        ehtsValueMap.put(ehtsKey, PopEhtsValue.of(headerValue));
+                    }
+                }
+            }
+
+            PopStreamingVerification verification = getPopTokenVerifier(decodedPopToken).startStreamingVerification(decodedPopToken,
+                    ehtsValueMap, PopEhtsKey.BODY.keyName());
+            if (verification.isStreamedValueSigned()) {
+                if (httpRequest.getContentLengthLong() > maxBodySize) {
+                    throw new PopBodyTooLargeException("The Content-Length " + httpRequest.getContentLengthLong()
+                            + " exceeds the maximum body size of " + maxBodySize + " bytes"); //
+                }
+                cachedBodyRequest = new PopCachedBodyHttpServletRequest(httpRequest, bodyBufferPool, maxBodySize, verification);
+            }
+            verification.complete();
+        } catch (PopTokenValidatorException | IllegalArgumentException ex) {
+            if (cachedBodyRequest != null) {
+                cachedBodyRequest.release();
+            }
+            onValidationFailure(httpRequest, httpResponse, ex);
+            return;
+        }
+
+        if (cachedBodyRequest == null) {
+            chain.doFilter(httpRequest, httpResponse);
+            return;
+        }
+        try {
+            chain.doFilter(cachedBodyRequest, httpResponse);
+        } finally {
+            releaseWhenCompleted(cachedBodyRequest);
+        }
+    }
+
+    /**
+     * Closes the JwksKeyResolver if it has been created by the filter from the init parameters.
+     */
+    @Override
+    public void destroy() {
+        if (jwksKeyResolverOwned) {
+            jwksKeyResolver.close();
+        }
+        kidToPopTokenVerifierMap.clear();
+    }
+
+    /**
+     * Returns the PopTokenValidator used for building the PopTokenVerifier instances.
+     * 
+     * Note: This method can be overridden to modify the default PopTokenValidator which is
+     * <code>PopTokenValidator.newInstance()</code>, for example to return a PopTokenValidator with a replay store. This method is
+     * called once by {@link #init(FilterConfig)}.
+     * 
+     * @return The PopTokenValidator
+     */
+    protected PopTokenValidator getPopTokenValidator() {
+        return PopTokenValidator.newInstance();
+    }
+
+    /**
+     * Returns the name of the HTTP request header containing the PoP token.
+     * 
+     * Note: This method can be overridden to modify the default PoP token header name which is X-Authorization.
+     * 
+     * @return The PoP token header name
+     */
+    protected String getPopTokenHeaderName() {
+        return POP_TOKEN_HEADER_NAME;
+    }
+
+    /**
+     * Returns the size in bytes of the pooled buffers caching the request bodies, the larger bodies are cached in temporary files.
+     * 
+     * Note: This method can be overridden to modify the default body buffer size which is 64 KB. This method is called once by
+     * {@link #init(FilterConfig)}.
+     * 
+     * @return The body buffer size
+     */
+    protected int getBodyBufferSize() {
+        return BODY_BUFFER_SIZE;
+    }
+
+    /**
+     * Returns the maximum number of body buffers kept in the pool.
+     * 
+     * Note: This method can be overridden to modify the default maximum number of pooled body buffers which is 64. This method is
+     * called once by {@link #init(FilterConfig)}.
+     * 
+     * @return The maximum number of pooled body buffers
+     */
+    protected int getMaxPooledBodyBufferCount() {
+        return MAX_POOLED_BODY_BUFFER_COUNT;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the signed request body, the larger bodies are rejected before they are read completely.
+     * 
+     * Note: This method can be overridden to modify the default maximum body size which is 10 MB. This method is called once by
+     * {@link #init(FilterConfig)}.
+     * 
+     * @return The maximum body size
+     */
+    protected long getMaxBodySize() {
+        return MAX_BODY_SIZE;
+    }
+
+    /**
+     * Returns the value of the "uri" ehts key, i.e. the request URI followed by the URL decoded query string.
+     * 
+     * Note: This method can be overridden to modify the default "uri" ehts value, for example when the application is behind a proxy
+     * rewriting the request URI.
+     * 
+     * @param httpRequest The HTTP request
+     * @return The "uri" ehts value
+     */
+    protected String getUriEhtsValue(HttpServletRequest httpRequest) {
+        String queryString = httpRequest.getQueryString();
+        if (StringUtils.isEmpty(queryString)) {
+            return httpRequest.getRequestURI();
+        }
+        try {
+            return httpRequest.getRequestURI() + "?" + URLDecoder.decode(queryString, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return httpRequest.getRequestURI() + "?" + queryString;
+        }
+    }
+
+    /**
+     * Rejects the request having a missing or invalid PoP token.
+     * 
+     * Note: This method can be overridden to modify the default response which is 401 Unauthorized, or 413 Payload Too Large if the
+     * signed body exceeds the maximum body size.
+     * 
+     * @param httpRequest The HTTP request
+     * @param httpResponse The HTTP response
+     * @param ex The exception thrown while validating the PoP token
+     * @throws IOException If the response cannot be written
+     */
+    protected void onValidationFailure(HttpServletRequest httpRequest, HttpServletResponse httpResponse, Exception ex)
+            throws IOException {
+        logger.debug("The PoP token validation failed for {} {}, error: {}", httpRequest.getMethod(), httpRequest.getRequestURI(),
+                ex.toString());
+        httpResponse.sendError(ex instanceof PopBodyTooLargeException ? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
+                : HttpServletResponse.SC_UNAUTHORIZED);
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the value of the specified init parameter.
+     * 
+     * @param filterConfig The filter configuration, can be null
+     * @param name The name of the init parameter
+     * @return The value of the init parameter or null if it is not specified
+     */
+    private String getInitParameter(FilterConfig filterConfig, String name) {
+        return filterConfig != null ? filterConfig.getInitParameter(name) : null;
+    }
+
+    /**
+     * Decodes the PoP token once, the decoded PoP token is used for reading the ehts keys and the kid and for the verification.
+     * 
+     * @param popToken The PoP token
+     * @return The decoded PoP token
+     * @throws InvalidPopTokenException If the PoP token cannot be decoded
+     */
+    private DecodedJWT decodePopToken(String popToken) throws InvalidPopTokenException {
+        try {
+            return JWT.decode(popToken);
+        } catch (JWTDecodeException ex) {
+            throw new InvalidPopTokenException("Couldn't decode the token, error: " + ex.toString(), ex);
+        }
+    }
+
+    /**
+     * Returns the PopTokenVerifier for the public key of the PoP token, the PopTokenVerifier built for a kid is replaced when the JWK
+     * set returns a different public key or "alg" for the kid.
+     * 
+     * @param decodedPopToken The decoded PoP token
+     * @return The PopTokenVerifier
+     * @throws PopTokenValidatorException If the public key cannot be resolved
+     */
+    private PopTokenVerifier getPopTokenVerifier(DecodedJWT decodedPopToken) throws PopTokenValidatorException {
+        if (popTokenVerifier != null) {
+            return popTokenVerifier;
+        }
+        String kid = decodedPopToken.getKeyId();
+        if (StringUtils.isBlank(kid)) {
+            throw new InvalidPopTokenException("The kid is missing in PoP token header");
+        }
+        PopJwk resolvedJwk = jwksKeyResolver.getJwk(kid);
+        PopTokenVerifier verifier = kidToPopTokenVerifierMap.get(kid);
+        if (verifier == null || !verifier.getPublicKey().equals(resolvedJwk.getPublicKey())
+                || !verifier.getAllowedAlgorithms().equals(popTokenValidator.getAllowedAlgorithmsForJwk(resolvedJwk))) {
+            verifier = popTokenValidator.newPopTokenVerifierForJwk(resolvedJwk);
+            kidToPopTokenVerifierMap.put(kid, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Releases the cached body once the request has been processed, i.e. immediately or when the asynchronous processing completes.
+     * 
+     * @param cachedBodyRequest The request caching the body
+     */
+    private void releaseWhenCompleted(PopCachedBodyHttpServletRequest cachedBodyRequest) {
+        if (!cachedBodyRequest.isAsyncStarted()) {
+            cachedBodyRequest.release();
+            return;
+        }
+        cachedBodyRequest.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                cachedBodyRequest.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                cachedBodyRequest.release();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                cachedBodyRequest.release();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                event.getAsyncContext().addListener(this);
+            }
+        });
+    }
+}
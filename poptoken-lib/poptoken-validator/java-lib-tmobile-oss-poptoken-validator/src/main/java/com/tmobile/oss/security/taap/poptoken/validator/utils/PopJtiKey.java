@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Represents the 128 bit key of a jti (JWT ID). The UUID strings in the canonical lowercase form, as generated by the PoP token
+ * builder, are parsed to their two longs, any other jti is converted using the first 128 bits of its SHA-256 digest.
+ */
+final class PopJtiKey {
+
+    private final long high;
+    private final long low;
+    private final long hash;
+
+    /**
+     * Constructs the PopJtiKey using the specified longs.
+     * 
+     * @param high The high long of the jti key
+     * @param low The low long of the jti key
+     */
+    PopJtiKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+        this.hash = hash(high, low);
+    }
+
+    /**
+     * Converts the jti to the 128 bit jti key.
+     * 
+     * @param jti The jti
+     * @return The jti key
+     */
+    static PopJtiKey of(String jti) {
+        if (jti.length() == 36 && jti.charAt(8) == '-' && jti.charAt(13) == '-' && jti.charAt(18) == '-' && jti.charAt(23) == '-') {
+            long part1 = parseHex(jti, 0, 8);
+            long part2 = parseHex(jti, 9, 13);
+            long part3 = parseHex(jti, 14, 18);
+            long part4 = parseHex(jti, 19, 23);
+            long part5 = parseHex(jti, 24, 36);
+            if (part1 >= 0 && part2 >= 0 && part3 >= 0 && part4 >= 0 && part5 >= 0) {
+                return new PopJtiKey(part1 << 32 | part2 << 16 | part3, part4 << 48 | part5);
+            }
+        }
+        byte[] digest = DigestUtils.sha256(jti);
+        return new PopJtiKey(toLong(digest, 0), toLong(digest, 8));
+    }
+
+    /**
+     * Returns the hash of the 128 bit jti key, all the bits of the hash are well mixed so both the high and low bits can be used.
+     * 
+     * @param high The high long of the jti key
+     * @param low The low long of the jti key
+     * @return The hash
+     */
+    static long hash(long high, long low) {
+        long hash = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Returns the high long of the jti key.
+     * 
+     * @return The high long
+     */
+    long getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns the low long of the jti key.
+     * 
+     * @return The low long
+     */
+    long getLow() {
+        return low;
+    }
+
+    /**
+     * Returns the hash of the jti key.
+     * 
+     * @return The hash
+     */
+    long getHash() {
+        return hash;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Parses the lowercase hexadecimal digits of the specified part of the string.
+     * 
+     * @param value The string
+     * @param beginIndex The begin index, inclusive
+     * @param endIndex The end index, exclusive
+     * @return The parsed value or -1 if the part contains any other characters than the lowercase hexadecimal digits
+     */
+    private static long parseHex(String value, int beginIndex, int endIndex) {
+        long result = 0;
+        for (int i = beginIndex; i < endIndex; i++) {
+            char ch = value.charAt(i);
+            int digit;
+            if (ch >= '0' && ch <= '9') {
+                digit = ch - '0';
+            } else if (ch >= 'a' && ch <= 'f') {
+                digit = ch - 'a' + 10;
+            } else {
+                return -1;
+            }
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the big-endian long from the specified offset of the byte array.
+     * 
+     * @param bytes The byte array
+     * @param offset The offset
+     * @return The long value
+     */
+    private static long toLong(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            result = result << 8 | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopReplayStore;
+
+/**
+ * A bounded and thread-safe cache of the jti (JWT ID) values of the already used PoP tokens, used as the replay store of a single
+ * validator instance.
+ * <p>
+ * The jti values are stored as 128 bit keys in open addressing tables of primitive longs: the UUID jti values, as generated by the PoP
+ * token builder, are stored as their two longs and any other jti values as the first 128 bits of their SHA-256 digest, so the jti
+ * strings are not retained by the cache. The cache is split into stripes, each guarded by its own lock, and each stripe evicts its
+ * entries using a timing wheel of 32 buckets of 8 seconds: the jti values are put into the bucket of their expiry time and the whole
+ * bucket is dropped once its time has passed, so the expired entries are evicted without scanning the cache. The jti values expiring
+ * after the wheel horizon are kept in an overflow table and moved into the wheel when their expiry time comes within the horizon. An
+ * entry is kept for up to 8 seconds after its expiry time.
+ * <p>
+ * When a stripe is full, the bucket expiring first is evicted, so the evicted jti values can be replayed until they expire. The
+ * maximum size should therefore be at least the expected number of validations per second multiplied by the PoP token lifetime plus
+ * the accepted leeway, and the eviction count should be monitored.
+ */
+public class PopJtiReplayCache implements PopReplayStore {
+
+    private static final long TICK_MILLIS = 8000;
+    private static final int WHEEL_SIZE = 32;
+    private static final int DEFAULT_STRIPE_COUNT = 64;
+
+    private final int maxSize;
+    private final int maxStripeSize;
+    private final int stripeShift;
+    private final LongSupplier currentTimeMillisSupplier;
+    private final Stripe[] stripes;
+
+    private final AtomicLong rejectionCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs the PopJtiReplayCache using the specified maximum size.
+     * 
+     * @param maxSize The maximum number of jti values to be cached
+     * @throws IllegalArgumentException If the maxSize is not positive
+     */
+    public PopJtiReplayCache(int maxSize) {
+        this(maxSize, DEFAULT_STRIPE_COUNT, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructs the PopJtiReplayCache using the specified maximum size, number of stripes and time source.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to control the stripes and the time.
+     * 
+     * @param maxSize The maximum number of jti values to be cached
+     * @param stripeCount The number of stripes, should be a power of two
+     * @param currentTimeMillisSupplier The time source returning the current time in milliseconds
+     */
+    PopJtiReplayCache(int maxSize, int stripeCount, LongSupplier currentTimeMillisSupplier) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maxSize should be greater than 0");
+        }
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("The stripeCount should be a power of two");
+        }
+        this.maxSize = maxSize;
+        this.maxStripeSize = Math.max(1, (int) (((long) maxSize + stripeCount - 1) / stripeCount));
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+        this.currentTimeMillisSupplier = currentTimeMillisSupplier;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns true if the specified jti has already been used by a PoP token expiring at the specified time and has not yet expired.
+     * This method does not record the jti, so it can be called before verifying the PoP token signature.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    @Override
+    public boolean isUsed(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        PopJtiKey jtiKey = PopJtiKey.of(jti);
+        long nowTick = Math.floorDiv(currentTimeMillisSupplier.getAsLong(), TICK_MILLIS);
+        boolean used = getStripe(jtiKey).contains(jtiKey, Math.floorDiv(expiresAtMillis, TICK_MILLIS), nowTick);
+        if (used) {
+            rejectionCount.incrementAndGet();
+        }
+        return used;
+    }
+
+    /**
+     * Records the specified jti as used until the specified time. This method should be called only after the PoP token has been
+     * verified successfully, so the forged PoP tokens cannot fill the cache.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has been recorded, false if the jti has already been used
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    @Override
+    public boolean markUsed(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        PopJtiKey jtiKey = PopJtiKey.of(jti);
+        long nowTick = Math.floorDiv(currentTimeMillisSupplier.getAsLong(), TICK_MILLIS);
+        boolean recorded = getStripe(jtiKey).add(jtiKey, Math.floorDiv(expiresAtMillis, TICK_MILLIS), nowTick);
+        if (!recorded) {
+            rejectionCount.incrementAndGet();
+        }
+        return recorded;
+    }
+
+    /**
+     * Removes all the cached jti values.
+     */
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached jti values which have not yet expired.
+     * 
+     * @return The number of cached jti values
+     */
+    public int size() {
+        long nowTick = Math.floorDiv(currentTimeMillisSupplier.getAsLong(), TICK_MILLIS);
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size(nowTick);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of jti values to be cached.
+     * 
+     * @return The maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of lookups which found an already used jti.
+     * 
+     * @return The number of rejected jti values
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * Returns the number of jti values evicted before their expiry time because the cache was full.
+     * 
+     * @return The number of evicted jti values
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns the stripe for the specified jti key.
+     * 
+     * @param jtiKey The jti key
+     * @return The stripe
+     */
+    private Stripe getStripe(PopJtiKey jtiKey) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (jtiKey.getHash() >>> stripeShift)];
+    }
+
+    /**
+     * Represents a stripe of the cache, having its own timing wheel and lock.
+     */
+    private final class Stripe {
+
+        private final JtiSet[] wheel = new JtiSet[WHEEL_SIZE];
+        private final long[] wheelTicks = new long[WHEEL_SIZE];
+        private JtiSet overflow = new JtiSet(true);
+        private long currentTick = Long.MIN_VALUE;
+        private int size;
+
+        private synchronized boolean contains(PopJtiKey jtiKey, long expiryTick, long nowTick) {
+            advance(nowTick);
+            if (expiryTick < currentTick) {
+                return false;
+            }
+            if (expiryTick < currentTick + WHEEL_SIZE) {
+                int index = (int) (expiryTick & (WHEEL_SIZE - 1));
+                return wheel[index] != null && wheelTicks[index] == expiryTick && wheel[index].contains(jtiKey);
+            }
+            return overflow.contains(jtiKey);
+        }
+
+        private synchronized boolean add(PopJtiKey jtiKey, long expiryTick, long nowTick) {
+            advance(nowTick);
+            if (expiryTick < currentTick) {
+                return true;
+            }
+            if (contains(jtiKey, expiryTick, nowTick)) {
+                return false;
+            }
+            if (size >= maxStripeSize) {
+                evictEarliestBucket();
+            }
+            if (expiryTick < currentTick + WHEEL_SIZE) {
+                getWheelBucket(expiryTick).add(jtiKey.getHigh(), jtiKey.getLow(), expiryTick);
+            } else {
+                overflow.add(jtiKey.getHigh(), jtiKey.getLow(), expiryTick);
+            }
+            size++;
+            return true;
+        }
+
+        private synchronized int size(long nowTick) {
+            advance(nowTick);
+            return size;
+        }
+
+        private synchronized void clear() {
+            for (JtiSet bucket : wheel) {
+                if (bucket != null) {
+                    bucket.clear();
+                }
+            }
+            overflow.clear();
+            size = 0;
+        }
+
+        /**
+         * Returns the wheel bucket for the specified expiry tick which should be within the wheel horizon.
+         */
+        private JtiSet getWheelBucket(long expiryTick) {
+            int index = (int) (expiryTick & (WHEEL_SIZE - 1));
+            if (wheel[index] == null) {
+                wheel[index] = new JtiSet(false);
+            }
+            wheelTicks[index] = expiryTick;
+            return wheel[index];
+        }
+
+        /**
+         * Advances the timing wheel to the specified tick, dropping the expired buckets and moving the overflow entries which came
+         * within the wheel horizon into the wheel. The time going backwards is ignored.
+         */
+        private void advance(long nowTick) {
+            if (nowTick <= currentTick) {
+                return;
+            }
+            currentTick = nowTick;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                if (wheel[i] != null && !wheel[i].isEmpty() && wheelTicks[i] < nowTick) {
+                    size -= wheel[i].size();
+                    wheel[i].clear();
+                }
+            }
+            if (!overflow.isEmpty()) {
+                JtiSet previousOverflow = overflow;
+                overflow = new JtiSet(true);
+                previousOverflow.forEach((high, low, expiryTick) -> {
+                    if (expiryTick < nowTick) {
+                        size--;
+                    } else if (expiryTick < nowTick + WHEEL_SIZE) {
+                        getWheelBucket(expiryTick).add(high, low, expiryTick);
+                    } else {
+                        overflow.add(high, low, expiryTick);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Evicts the wheel bucket expiring first or, if the wheel is empty, the overflow entries.
+         */
+        private void evictEarliestBucket() {
+            for (long tick = currentTick; tick < currentTick + WHEEL_SIZE; tick++) {
+                int index = (int) (tick & (WHEEL_SIZE - 1));
+                if (wheel[index] != null && !wheel[index].isEmpty() && wheelTicks[index] == tick) {
+                    evict(wheel[index]);
+                    return;
+                }
+            }
+            evict(overflow);
+        }
+
+        private void evict(JtiSet jtiSet) {
+            size -= jtiSet.size();
+            evictionCount.addAndGet(jtiSet.size());
+            jtiSet.clear();
+        }
+    }
+
+    /**
+     * An open addressing hash set of the 128 bit jti keys using linear probing, the keys are stored as pairs of longs. The all zero
+     * key is used to mark the empty slots, so it is stored separately.
+     */
+    private static final class JtiSet {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final boolean withExpiryTicks;
+        private long[] keys;
+        private long[] expiryTicks;
+        private int capacity;
+        private boolean containsZeroKey;
+        private long zeroKeyExpiryTick;
+        private int size;
+
+        private JtiSet(boolean withExpiryTicks) {
+            this.withExpiryTicks = withExpiryTicks;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private boolean contains(PopJtiKey jtiKey) {
+            if (jtiKey.getHigh() == 0 && jtiKey.getLow() == 0) {
+                return containsZeroKey;
+            }
+            int mask = capacity - 1;
+            for (int slot = (int) jtiKey.getHash() & mask;; slot = (slot + 1) & mask) {
+                long high = keys[slot << 1];
+                long low = keys[(slot << 1) + 1];
+                if (high == 0 && low == 0) {
+                    return false;
+                }
+                if (high == jtiKey.getHigh() && low == jtiKey.getLow()) {
+                    return true;
+                }
+            }
+        }
+
+        private void add(long high, long low, long expiryTick) {
+            if (high == 0 && low == 0) {
+                if (!containsZeroKey) {
+                    containsZeroKey = true;
+                    zeroKeyExpiryTick = expiryTick;
+                    size++;
+                }
+                return;
+            }
+            if ((size + 1) * 4L > capacity * 3L) {
+                resize(capacity * 2);
+            }
+            if (insert(high, low, expiryTick)) {
+                size++;
+            }
+        }
+
+        private boolean insert(long high, long low, long expiryTick) {
+            int mask = capacity - 1;
+            for (int slot = (int) PopJtiKey.hash(high, low) & mask;; slot = (slot + 1) & mask) {
+                long slotHigh = keys[slot << 1];
+                long slotLow = keys[(slot << 1) + 1];
+                if (slotHigh == 0 && slotLow == 0) {
+                    keys[slot << 1] = high;
+                    keys[(slot << 1) + 1] = low;
+                    if (withExpiryTicks) {
+                        expiryTicks[slot] = expiryTick;
+                    }
+                    return true;
+                }
+                if (slotHigh == high && slotLow == low) {
+                    return false;
+                }
+            }
+        }
+
+        private void forEach(JtiConsumer jtiConsumer) {
+            if (containsZeroKey) {
+                jtiConsumer.accept(0, 0, zeroKeyExpiryTick);
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                long high = keys[slot << 1];
+                long low = keys[(slot << 1) + 1];
+                if (high != 0 || low != 0) {
+                    jtiConsumer.accept(high, low, withExpiryTicks ? expiryTicks[slot] : 0);
+                }
+            }
+        }
+
+        /**
+         * Removes all the keys, the tables are shrunk to the initial capacity if they were mostly unused.
+         */
+        private void clear() {
+            if (capacity > INITIAL_CAPACITY && size * 4 < capacity) {
+                allocate(INITIAL_CAPACITY);
+            } else {
+                Arrays.fill(keys, 0);
+            }
+            containsZeroKey = false;
+            size = 0;
+        }
+
+        private void resize(int newCapacity) {
+            long[] previousKeys = keys;
+            long[] previousExpiryTicks = expiryTicks;
+            int previousCapacity = capacity;
+            allocate(newCapacity);
+            for (int slot = 0; slot < previousCapacity; slot++) {
+                long high = previousKeys[slot << 1];
+                long low = previousKeys[(slot << 1) + 1];
+                if (high != 0 || low != 0) {
+                    insert(high, low, withExpiryTicks ? previousExpiryTicks[slot] : 0);
+                }
+            }
+        }
+
+        private void allocate(int newCapacity) {
+            capacity = newCapacity;
+            keys = new long[newCapacity * 2];
+            expiryTicks = withExpiryTicks ? new long[newCapacity] : null;
+        }
+    }
+
+    /**
+     * Accepts the entries of a JtiSet.
+     */
+    @FunctionalInterface
+    private interface JtiConsumer {
+
+        void accept(long high, long low, long expiryTick);
+    }
+}
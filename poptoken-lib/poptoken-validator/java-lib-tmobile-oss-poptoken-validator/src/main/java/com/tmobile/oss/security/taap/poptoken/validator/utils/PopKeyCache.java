@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import java.security.Provider;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
+
+/**
+ * A bounded and thread-safe cache of the parsed public keys.
+ * <p>
+ * The entries are keyed by the name of the key factory provider and the SHA-256 digest of the key text (for example the public key PEM
+ * string), so the key text itself is not retained by the cache and the keys parsed using different providers are cached separately. An
+ * entry is evicted when it is older than the configured time to live or, when the cache is full, when it is the least recently used
+ * entry. The lookups do not take any lock, so the cache can be shared between all the request threads.
+ * 
+ * @param <T> The type of the parsed key
+ */
+public class PopKeyCache<T> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTimeSupplier;
+    private final Map<String, CacheEntry<T>> cacheEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs the PopKeyCache using the specified maximum size and time to live.
+     * 
+     * @param maxSize The maximum number of keys to be cached
+     * @param ttl The time to live of a cached key
+     * @param ttlUnit The time unit of ttl
+     * @throws IllegalArgumentException If the maxSize or ttl is not positive or ttlUnit is null
+     */
+    public PopKeyCache(int maxSize, long ttl, TimeUnit ttlUnit) {
+        this(maxSize, ttl, ttlUnit, System::nanoTime);
+    }
+
+    /**
+     * Constructs the PopKeyCache using the specified maximum size, time to live and time source.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to control the time.
+     * 
+     * @param maxSize The maximum number of keys to be cached
+     * @param ttl The time to live of a cached key
+     * @param ttlUnit The time unit of ttl
+     * @param nanoTimeSupplier The time source returning the current time in nanoseconds
+     */
+    PopKeyCache(int maxSize, long ttl, TimeUnit ttlUnit, LongSupplier nanoTimeSupplier) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maxSize should be greater than 0");
+        }
+        if (ttl <= 0 || ttlUnit == null) {
+            throw new IllegalArgumentException("The ttl should be greater than 0 and ttlUnit should not be null");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.nanoTimeSupplier = nanoTimeSupplier;
+    }
+
+    /**
+     * Returns the cached key for the specified key text, if the key is not cached or has expired then the key text is parsed using the
+     * specified keyParser and the parsed key is cached.
+     * 
+     * @param keyText The key text, for example the public key PEM string
+     * @param keyParser The parser to convert the key text to the key
+     * @return The parsed key
+     * @throws PopPublicKeyParseException If the keyText cannot be parsed
+     * @throws IllegalArgumentException If the keyText is null or empty or keyParser is null
+     */
+    public T get(String keyText, KeyParser<T> keyParser) throws PopPublicKeyParseException {
+        return get(keyText, PopCryptoConfig.DEFAULT, keyParser);
+    }
+
+    /**
+     * Returns the cached key for the specified key text and key factory provider of the cryptoConfig, if the key is not cached or has
+     * expired then the key text is parsed using the specified keyParser and the parsed key is cached.
+     * 
+     * @param keyText The key text, for example the public key PEM string
+     * @param cryptoConfig The JCA providers which the keyParser uses, the name of the key factory provider is part of the cache key
+     * @param keyParser The parser to convert the key text to the key
+     * @return The parsed key
+     * @throws PopPublicKeyParseException If the keyText cannot be parsed
+     * @throws IllegalArgumentException If the keyText is null or empty or cryptoConfig or keyParser is null
+     */
+    public T get(String keyText, PopCryptoConfig cryptoConfig, KeyParser<T> keyParser) throws PopPublicKeyParseException {
+
+        if (StringUtils.isBlank(keyText)) {
+            throw new IllegalArgumentException("The keyText should not be null or empty");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        if (keyParser == null) {
+            throw new IllegalArgumentException("The keyParser should not be null");
+        }
+
+        String cacheKey = toCacheKey(keyText, cryptoConfig.getKeyFactoryProvider());
+        long now = nanoTimeSupplier.getAsLong();
+
+        CacheEntry<T> cacheEntry = cacheEntries.get(cacheKey);
+        if (cacheEntry != null) {
+            if (now - cacheEntry.createdAtNanos < ttlNanos) {
+                cacheEntry.lastAccessedAtNanos = now;
+                hitCount.incrementAndGet();
+                return cacheEntry.key;
+            }
+            if (cacheEntries.remove(cacheKey, cacheEntry)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        missCount.incrementAndGet();
+        T key = keyParser.parse(keyText);
+        cacheEntries.put(cacheKey, new CacheEntry<>(key, now));
+        evictIfFull();
+        return key;
+    }
+
+    /**
+     * Removes all the cached keys.
+     */
+    public void invalidateAll() {
+        cacheEntries.clear();
+    }
+
+    /**
+     * Returns the number of cached keys.
+     * 
+     * @return The number of cached keys
+     */
+    public int size() {
+        return cacheEntries.size();
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached key.
+     * 
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups which required parsing the key text.
+     * 
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of keys evicted because they expired or because the cache was full.
+     * 
+     * @return The number of evicted keys
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Converts the key text and key factory provider to the cache key.
+     * 
+     * @param keyText The key text
+     * @param keyFactoryProvider The key factory provider, null if the registered providers are used
+     * @return The key factory provider name followed by the base64 encoded SHA-256 digest of the key text
+     */
+    private String toCacheKey(String keyText, Provider keyFactoryProvider) {
+        String keyDigest = Base64.encodeBase64String(DigestUtils.sha256(keyText));
+        return keyFactoryProvider != null ? keyFactoryProvider.getName() + ":" + keyDigest : keyDigest;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is not having more than maxSize entries.
+     */
+    private void evictIfFull() {
+        while (cacheEntries.size() > maxSize) {
+            Map.Entry<String, CacheEntry<T>> leastRecentlyUsedEntry = null;
+            for (Map.Entry<String, CacheEntry<T>> entry : cacheEntries.entrySet()) {
+                if (leastRecentlyUsedEntry == null
+                        || entry.getValue().lastAccessedAtNanos - leastRecentlyUsedEntry.getValue().lastAccessedAtNanos < 0) {
+                    leastRecentlyUsedEntry = entry;
+                }
+            }
+            if (leastRecentlyUsedEntry != null
+                    && cacheEntries.remove(leastRecentlyUsedEntry.getKey(), leastRecentlyUsedEntry.getValue())) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Converts the key text to the key.
+     * 
+     * @param <T> The type of the parsed key
+     */
+    @FunctionalInterface
+    public interface KeyParser<T> {
+
+        /**
+         * Parses the key text.
+         * 
+         * @param keyText The key text
+         * @return The parsed key
+         * @throws PopPublicKeyParseException If the keyText cannot be parsed
+         */
+        T parse(String keyText) throws PopPublicKeyParseException;
+    }
+
+    /**
+     * Represents the cached key.
+     */
+    private static class CacheEntry<T> {
+
+        private final T key;
+        private final long createdAtNanos;
+        private volatile long lastAccessedAtNanos;
+
+        private CacheEntry(T key, long createdAtNanos) {
+            this.key = key;
+            this.createdAtNanos = createdAtNanos;
+            this.lastAccessedAtNanos = createdAtNanos;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A thread-safe Bloom filter of the jti (JWT ID) values, split into time buckets by the expiry time of the PoP tokens.
+ * <p>
+ * The filter has 16 buckets of 16 seconds, each bucket is a Bloom filter of the jti values expiring during its 16 seconds. The bucket
+ * is cleared when it is reused for a later time, so the expired jti values are dropped without any background task and the false
+ * positive probability does not grow over time. The same PoP token always maps to the same bucket, so a lookup checks one bucket only.
+ * The jti values expiring more than 256 seconds ahead are not added to the filter.
+ * <p>
+ * The Bloom filter can return false positives but never false negatives, except for the jti values not added because of their expiry
+ * time, so it is used as a prefilter in front of an exact but more expensive replay store.
+ */
+public class PopTimeBucketedBloomFilter {
+
+    private static final long BUCKET_MILLIS = 16000;
+    private static final int BUCKET_COUNT = 16;
+
+    private final long bitCount;
+    private final int hashFunctionCount;
+    private final LongSupplier currentTimeMillisSupplier;
+    private final Bucket[] buckets = new Bucket[BUCKET_COUNT];
+
+    /**
+     * Constructs the PopTimeBucketedBloomFilter using the specified expected number of jti values per bucket and false positive
+     * probability.
+     * 
+     * @param expectedInsertionsPerBucket The expected number of jti values expiring within 16 seconds
+     * @param falsePositiveProbability The false positive probability, between 0 and 1 exclusive
+     * @throws IllegalArgumentException If the expectedInsertionsPerBucket is not positive or the falsePositiveProbability is invalid
+     */
+    public PopTimeBucketedBloomFilter(int expectedInsertionsPerBucket, double falsePositiveProbability) {
+        this(expectedInsertionsPerBucket, falsePositiveProbability, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructs the PopTimeBucketedBloomFilter using the specified expected number of jti values per bucket, false positive
+     * probability and time source.
+     * <p>
+     * Note: This constructor is having the default access for JUnit tests to control the time.
+     * 
+     * @param expectedInsertionsPerBucket The expected number of jti values expiring within 16 seconds
+     * @param falsePositiveProbability The false positive probability, between 0 and 1 exclusive
+     * @param currentTimeMillisSupplier The time source returning the current time in milliseconds
+     */
+    PopTimeBucketedBloomFilter(int expectedInsertionsPerBucket, double falsePositiveProbability,
+            LongSupplier currentTimeMillisSupplier) {
+        if (expectedInsertionsPerBucket <= 0) {
+            throw new IllegalArgumentException("The expectedInsertionsPerBucket should be greater than 0");
+        }
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+            throw new IllegalArgumentException("The falsePositiveProbability should be greater than 0 and less than 1");
+        }
+        double optimalBitCount = -expectedInsertionsPerBucket * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        int wordCount = (int) Math.max(1, Math.ceil(optimalBitCount / Long.SIZE));
+        this.bitCount = (long) wordCount * Long.SIZE;
+        this.hashFunctionCount = (int) Math.max(1, Math.round((double) bitCount / expectedInsertionsPerBucket * Math.log(2)));
+        this.currentTimeMillisSupplier = currentTimeMillisSupplier;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new Bucket(wordCount);
+        }
+    }
+
+    /**
+     * Adds the specified jti of a PoP token expiring at the specified time.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti has been added, false if the jti has already expired or expires too far ahead to be added
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    public boolean put(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        long tick = Math.floorDiv(expiresAtMillis, BUCKET_MILLIS);
+        if (!isWithinHorizon(tick)) {
+            return false;
+        }
+
+        Bucket bucket = buckets[(int) (tick & (BUCKET_COUNT - 1))];
+        if (bucket.tick != tick) {
+            synchronized (bucket) {
+                if (bucket.tick != tick) {
+                    for (int i = 0; i < bucket.words.length(); i++) {
+                        bucket.words.set(i, 0);
+                    }
+                    bucket.tick = tick;
+                }
+            }
+        }
+
+        PopJtiKey jtiKey = PopJtiKey.of(jti);
+        long hash1 = jtiKey.getHash();
+        long hash2 = PopJtiKey.hash(jtiKey.getLow(), jtiKey.getHigh()) | 1;
+        for (int i = 0; i < hashFunctionCount; i++) {
+            long bitIndex = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            int wordIndex = (int) (bitIndex >>> 6);
+            long mask = 1L << bitIndex;
+            long word;
+            do {
+                word = bucket.words.get(wordIndex);
+            } while ((word & mask) == 0 && !bucket.words.compareAndSet(wordIndex, word, word | mask));
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the specified jti of a PoP token expiring at the specified time might have been added, false if it has
+     * definitely not been added.
+     * 
+     * @param jti The jti (JWT ID) of the PoP token
+     * @param expiresAtMillis The time in milliseconds until which the PoP token is accepted, i.e. exp plus the accepted leeway
+     * @return true if the jti might have been added
+     * @throws IllegalArgumentException If the jti is null or empty
+     */
+    public boolean mightContain(String jti, long expiresAtMillis) {
+        if (StringUtils.isBlank(jti)) {
+            throw new IllegalArgumentException("The jti should not be null or empty");
+        }
+        long tick = Math.floorDiv(expiresAtMillis, BUCKET_MILLIS);
+        if (!isWithinHorizon(tick)) {
+            return false;
+        }
+        Bucket bucket = buckets[(int) (tick & (BUCKET_COUNT - 1))];
+        if (bucket.tick != tick) {
+            return false;
+        }
+
+        PopJtiKey jtiKey = PopJtiKey.of(jti);
+        long hash1 = jtiKey.getHash();
+        long hash2 = PopJtiKey.hash(jtiKey.getLow(), jtiKey.getHigh()) | 1;
+        for (int i = 0; i < hashFunctionCount; i++) {
+            long bitIndex = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((bucket.words.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bits of each bucket.
+     * 
+     * @return The number of bits per bucket
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Returns the number of hash functions.
+     * 
+     * @return The number of hash functions
+     */
+    public int getHashFunctionCount() {
+        return hashFunctionCount;
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Returns true if the specified expiry tick has not yet passed and is within the 256 seconds horizon.
+     * 
+     * @param tick The expiry tick
+     * @return true if the tick is within the horizon
+     */
+    private boolean isWithinHorizon(long tick) {
+        long nowTick = Math.floorDiv(currentTimeMillisSupplier.getAsLong(), BUCKET_MILLIS);
+        return tick >= nowTick && tick < nowTick + BUCKET_COUNT;
+    }
+
+    /**
+     * Represents a time bucket, i.e. the Bloom filter of the jti values expiring during one tick.
+     */
+    private static final class Bucket {
+
+        private final AtomicLongArray words;
+        private volatile long tick = Long.MIN_VALUE;
+
+        private Bucket(int wordCount) {
+            this.words = new AtomicLongArray(wordCount);
+        }
+    }
+}
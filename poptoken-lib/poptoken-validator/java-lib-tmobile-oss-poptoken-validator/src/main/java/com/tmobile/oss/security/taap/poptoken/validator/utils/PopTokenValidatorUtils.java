@@ -16,13 +16,28 @@
 
 package com.tmobile.oss.security.taap.poptoken.validator.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -30,9 +45,12 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.auth0.jwk.Jwk;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.tmobile.oss.security.taap.poptoken.validator.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.validator.PopJwk;
+import com.tmobile.oss.security.taap.poptoken.validator.PopSigningAlgorithm;
 import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
 
 /**
@@ -51,7 +69,18 @@ public class PopTokenValidatorUtils {
     protected static final String PKCS_1_PUBLIC_KEY_PREFIX = "-----BEGIN RSA PUBLIC KEY-----";
     protected static final String PKCS_1_PUBLIC_KEY_SUFFIX = "-----END RSA PUBLIC KEY-----";
 
-    private static ObjectMapper objectMapper = new ObjectMapper();
+    protected static final String RSA_KEY_TYPE = "RSA";
+    protected static final String EC_KEY_TYPE = "EC";
+    protected static final String OKP_KEY_TYPE = "OKP";
+
+    private static final String P_256_CURVE = "P-256";
+    private static final String ED25519_CURVE = "Ed25519";
+    private static final String SIGNATURE_USE = "sig";
+
+    // the DER encoded X.509 SubjectPublicKeyInfo prefix of the Ed25519 public keys, followed by the 32 bytes of the public key
+    private static final byte[] ED25519_X509_PREFIX = { 0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00 };
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
 
     /**
      * Converts the public key PEM string to RSAPublicKey.
@@ -62,10 +91,27 @@ public class PopTokenValidatorUtils {
      * @throws IllegalArgumentException If the publicKeyPemString is null or empty
      */
     public static RSAPublicKey keyPemStringToRsaPublicKey(String publicKeyPemString) throws PopPublicKeyParseException {
+        return keyPemStringToRsaPublicKey(publicKeyPemString, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Converts the public key PEM string to RSAPublicKey using the KeyFactory of the key factory provider of the cryptoConfig.
+     * 
+     * @param publicKeyPemString The public key PEM string
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+     * @return The RSAPublicKey
+     * @throws PopPublicKeyParseException If the publicKeyPemString cannot be parsed or cannot be converted to RSAPublicKey
+     * @throws IllegalArgumentException If the publicKeyPemString is null or empty or the cryptoConfig is null
+     */
+    public static RSAPublicKey keyPemStringToRsaPublicKey(String publicKeyPemString, PopCryptoConfig cryptoConfig)
+            throws PopPublicKeyParseException {
 
         if (StringUtils.isBlank(publicKeyPemString)) {
             throw new IllegalArgumentException("The publicKeyPemString should not be null or empty");
         }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
 
         try {
             if (publicKeyPemString.startsWith(X509_PUBLIC_KEY_PREFIX) && publicKeyPemString.contains(X509_PUBLIC_KEY_SUFFIX)) {
@@ -74,7 +120,7 @@ public class PopTokenValidatorUtils {
                         publicKeyPemString.indexOf(X509_PUBLIC_KEY_SUFFIX));
                 publicKeyPemString = sanitizePublicKeyPemString(publicKeyPemString);
                 byte[] keyBytes = toBase64DecodedBytes(publicKeyPemString);
-                return (RSAPublicKey) buildPublicKeyFromX509KeyBytes(keyBytes);
+                return (RSAPublicKey) buildPublicKeyFromX509KeyBytes(keyBytes, RSA_KEY_TYPE, cryptoConfig);
 
             } else if (publicKeyPemString.startsWith(PKCS_1_PUBLIC_KEY_PREFIX)
                     && publicKeyPemString.contains(PKCS_1_PUBLIC_KEY_SUFFIX)) {
@@ -84,7 +130,7 @@ public class PopTokenValidatorUtils {
                 // add the RSA_ENCRYPTION_ALGORITHM_IDENTIFIER to convert it to PKCS#8
                 publicKeyPemString = RSA_ENCRYPTION_ALGORITHM_IDENTIFIER + publicKeyPemString;
                 byte[] keyBytes = toBase64DecodedBytes(publicKeyPemString);
-                return (RSAPublicKey) buildPublicKeyFromX509KeyBytes(keyBytes);
+                return (RSAPublicKey) buildPublicKeyFromX509KeyBytes(keyBytes, RSA_KEY_TYPE, cryptoConfig);
 
             } else {
                 throw new PopPublicKeyParseException("The publicKeyPemString contains unsupported format");
@@ -97,32 +143,258 @@ public class PopTokenValidatorUtils {
         }
     }
 
+    /**
+     * Converts the public key PEM string to the PublicKey of the specified signing algorithm, e.g. an EC public key for ES256.
+     * 
+     * @param publicKeyPemString The X.509 public key PEM string, or the PKCS#1 RSA public key PEM string for RS256 and PS256
+     * @param signingAlgorithm The signing algorithm of the PoP tokens verified using the public key
+     * @return The PublicKey
+     * @throws PopPublicKeyParseException If the publicKeyPemString cannot be parsed or is not the public key of the signing algorithm
+     * @throws IllegalArgumentException If the publicKeyPemString is null or empty or signingAlgorithm is null
+     */
+    public static PublicKey keyPemStringToPublicKey(String publicKeyPemString, PopSigningAlgorithm signingAlgorithm)
+            throws PopPublicKeyParseException {
+        return keyPemStringToPublicKey(publicKeyPemString, signingAlgorithm, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Converts the public key PEM string to the PublicKey of the specified signing algorithm using the KeyFactory of the key factory
+     * provider of the cryptoConfig.
+     * 
+     * @param publicKeyPemString The X.509 public key PEM string, or the PKCS#1 RSA public key PEM string for RS256 and PS256
+     * @param signingAlgorithm The signing algorithm of the PoP tokens verified using the public key
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+     * @return The PublicKey
+     * @throws PopPublicKeyParseException If the publicKeyPemString cannot be parsed or is not the public key of the signing algorithm
+     * @throws IllegalArgumentException If the publicKeyPemString is null or empty or the signingAlgorithm or cryptoConfig is null
+     */
+    public static PublicKey keyPemStringToPublicKey(String publicKeyPemString, PopSigningAlgorithm signingAlgorithm,
+            PopCryptoConfig cryptoConfig) throws PopPublicKeyParseException {
+
+        if (StringUtils.isBlank(publicKeyPemString)) {
+            throw new IllegalArgumentException("The publicKeyPemString should not be null or empty");
+        }
+        if (signingAlgorithm == null) {
+            throw new IllegalArgumentException("The signingAlgorithm should not be null");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+        if (RSA_KEY_TYPE.equals(signingAlgorithm.getKeyAlgorithm())) {
+            return keyPemStringToRsaPublicKey(publicKeyPemString, cryptoConfig);
+        }
+
+        try {
+            if (publicKeyPemString.startsWith(X509_PUBLIC_KEY_PREFIX) && publicKeyPemString.contains(X509_PUBLIC_KEY_SUFFIX)) {
+
+                publicKeyPemString = publicKeyPemString.substring(X509_PUBLIC_KEY_PREFIX.length(),
+                        publicKeyPemString.indexOf(X509_PUBLIC_KEY_SUFFIX));
+                publicKeyPemString = sanitizePublicKeyPemString(publicKeyPemString);
+                byte[] keyBytes = toBase64DecodedBytes(publicKeyPemString);
+                return checkPublicKey(buildPublicKeyFromX509KeyBytes(keyBytes, signingAlgorithm.getKeyAlgorithm(), cryptoConfig),
+                        signingAlgorithm);
+
+            } else {
+                throw new PopPublicKeyParseException("The publicKeyPemString contains unsupported format");
+            }
+        } catch (PopPublicKeyParseException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new PopPublicKeyParseException(
+                    "Error occurred while converting publicKeyPemString to PublicKey, error: " + ex.toString(), ex);
+        }
+    }
+
     /**
      * Converts the JWK string to RSAPublicKey.
+     * <p>
+     * The JWK string is read using the streaming JSON parser and only the kty, n and e members are used to build the RSAPublicKey, all
+     * the other members are skipped without being materialized.
      * 
-     * @param jwkString The public key PEM string
+     * @param jwkString The public key JWK string
      * @return The RSAPublicKey
      * @throws PopPublicKeyParseException If the jwkString cannot be parsed or cannot be converted to RSAPublicKey
      * @throws IllegalArgumentException If the jwkString is null or empty
      */
     public static RSAPublicKey jwkStringToRsaPublicKey(String jwkString) throws PopPublicKeyParseException {
+        return jwkStringToRsaPublicKey(jwkString, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Converts the JWK string to RSAPublicKey using the KeyFactory of the key factory provider of the cryptoConfig.
+     * 
+     * @param jwkString The public key JWK string
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+     * @return The RSAPublicKey
+     * @throws PopPublicKeyParseException If the jwkString cannot be parsed or cannot be converted to RSAPublicKey
+     * @throws IllegalArgumentException If the jwkString is null or empty or the cryptoConfig is null
+     */
+    public static RSAPublicKey jwkStringToRsaPublicKey(String jwkString, PopCryptoConfig cryptoConfig)
+            throws PopPublicKeyParseException {
 
         if (StringUtils.isBlank(jwkString)) {
             throw new IllegalArgumentException("The jwkString should not be null or empty");
         }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
 
-        try {
-            TypeReference<HashMap<String, Object>> typeRef = new TypeReference<HashMap<String, Object>>() {
-            };
-            HashMap<String, Object> jwkMap = objectMapper.readValue(jwkString, typeRef);
-            Jwk jwk = Jwk.fromValues(jwkMap);
-            return (RSAPublicKey) jwk.getPublicKey();
+        try (JsonParser jsonParser = jsonFactory.createParser(jwkString)) {
+            if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                throw new PopPublicKeyParseException("The jwkString should contain the JSON object");
+            }
+            return readJwk(jsonParser).toRsaPublicKey(cryptoConfig);
         } catch (Exception ex) {
             throw new PopPublicKeyParseException("Error occurred while converting jwkString to RSAPublicKey, error: " + ex.toString(),
                     ex);
         }
     }
 
+    /**
+     * Converts the JWK string to PublicKey, the JWK can be an RSA key, a P-256 EC key or an Ed25519 OKP (octet key pair) key.
+     * 
+     * @param jwkString The public key JWK string
+     * @return The PublicKey
+     * @throws PopPublicKeyParseException If the jwkString cannot be parsed or cannot be converted to PublicKey
+     * @throws IllegalArgumentException If the jwkString is null or empty
+     */
+    public static PublicKey jwkStringToPublicKey(String jwkString) throws PopPublicKeyParseException {
+        return jwkStringToPublicKey(jwkString, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Converts the JWK string to PublicKey using the KeyFactory of the key factory provider of the cryptoConfig, the JWK can be an
+     * RSA key, a P-256 EC key or an Ed25519 OKP (octet key pair) key.
+     * 
+     * @param jwkString The public key JWK string
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+     * @return The PublicKey
+     * @throws PopPublicKeyParseException If the jwkString cannot be parsed or cannot be converted to PublicKey
+     * @throws IllegalArgumentException If the jwkString is null or empty or the cryptoConfig is null
+     */
+    public static PublicKey jwkStringToPublicKey(String jwkString, PopCryptoConfig cryptoConfig) throws PopPublicKeyParseException {
+
+        if (StringUtils.isBlank(jwkString)) {
+            throw new IllegalArgumentException("The jwkString should not be null or empty");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+
+        try (JsonParser jsonParser = jsonFactory.createParser(jwkString)) {
+            if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                throw new PopPublicKeyParseException("The jwkString should contain the JSON object");
+            }
+            return readJwk(jsonParser).toPublicKey(cryptoConfig);
+        } catch (Exception ex) {
+            throw new PopPublicKeyParseException("Error occurred while converting jwkString to PublicKey, error: " + ex.toString(),
+                    ex);
+        }
+    }
+
+    /**
+     * Reads the JWK set (JSON web key set) from the input stream and converts the keys of the JWK set to PublicKeys, see
+     * {@link #jwksToPopJwks(InputStream)}.
+     * 
+     * @param jwksInputStream The input stream containing the JWK set JSON, the input stream is not closed by this method
+     * @return The map of kid to PublicKey, in the order of the keys in the JWK set
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed, does not contain the keys array or contains multiple keys
+     *             having the same kid
+     * @throws IllegalArgumentException If the jwksInputStream is null
+     */
+    public static Map<String, PublicKey> jwksToPublicKeys(InputStream jwksInputStream) throws PopPublicKeyParseException {
+        return jwksToPublicKeys(jwksInputStream, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Reads the JWK set (JSON web key set) from the input stream and converts the keys of the JWK set to PublicKeys using the
+     * KeyFactory of the key factory provider of the cryptoConfig, see {@link #jwksToPopJwks(InputStream, PopCryptoConfig)}.
+     * 
+     * @param jwksInputStream The input stream containing the JWK set JSON, the input stream is not closed by this method
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public keys
+     * @return The map of kid to PublicKey, in the order of the keys in the JWK set
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed, does not contain the keys array or contains multiple keys
+     *             having the same kid
+     * @throws IllegalArgumentException If the jwksInputStream or the cryptoConfig is null
+     */
+    public static Map<String, PublicKey> jwksToPublicKeys(InputStream jwksInputStream, PopCryptoConfig cryptoConfig)
+            throws PopPublicKeyParseException {
+        Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+        for (PopJwk jwk : jwksToPopJwks(jwksInputStream, cryptoConfig).values()) {
+            publicKeys.put(jwk.getKid(), jwk.getPublicKey());
+        }
+        return Collections.unmodifiableMap(publicKeys);
+    }
+
+    /**
+     * Reads the JWK set (JSON web key set) from the input stream and converts the keys of the JWK set to PopJwks, the keys can be RSA
+     * keys, P-256 EC keys or Ed25519 OKP (octet key pair) keys. The "alg" member of a JWK, if present, is kept as the only signing
+     * algorithm allowed for the key.
+     * <p>
+     * The keys having any other key type or curve, having a "use" other than "sig" or not having the kid (key ID) are skipped, as they
+     * cannot be used for verifying the PoP token signature or cannot be looked up using the kid header of the PoP token. The supported
+     * keys which cannot be converted to PublicKey, e.g. because of an invalid modulus or an "alg" not supported for the key, are
+     * skipped with a warning so one bad key does not make the other keys of the JWK set unusable.
+     * 
+     * @param jwksInputStream The input stream containing the JWK set JSON, the input stream is not closed by this method
+     * @return The map of kid to PopJwk, in the order of the keys in the JWK set
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed, its keys member is missing or is not an array of JSON
+     *             objects, or it contains multiple signature keys having the same kid
+     * @throws IllegalArgumentException If the jwksInputStream is null
+     */
+    public static Map<String, PopJwk> jwksToPopJwks(InputStream jwksInputStream) throws PopPublicKeyParseException {
+        return jwksToPopJwks(jwksInputStream, PopCryptoConfig.DEFAULT);
+    }
+
+    /**
+     * Reads the JWK set (JSON web key set) from the input stream and converts the keys of the JWK set to PopJwks using the
+     * KeyFactory of the key factory provider of the cryptoConfig, see {@link #jwksToPopJwks(InputStream)}.
+     * 
+     * @param jwksInputStream The input stream containing the JWK set JSON, the input stream is not closed by this method
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public keys
+     * @return The map of kid to PopJwk, in the order of the keys in the JWK set
+     * @throws PopPublicKeyParseException If the JWK set cannot be parsed, its keys member is missing or is not an array of JSON
+     *             objects, or it contains multiple signature keys having the same kid
+     * @throws IllegalArgumentException If the jwksInputStream or the cryptoConfig is null
+     */
+    public static Map<String, PopJwk> jwksToPopJwks(InputStream jwksInputStream, PopCryptoConfig cryptoConfig)
+            throws PopPublicKeyParseException {
+
+        if (jwksInputStream == null) {
+            throw new IllegalArgumentException("The jwksInputStream should not be null");
+        }
+        if (cryptoConfig == null) {
+            throw new IllegalArgumentException("The cryptoConfig should not be null");
+        }
+
+        try (JsonParser jsonParser = jsonFactory.createParser(jwksInputStream)) {
+            if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+                throw new PopPublicKeyParseException("The JWK set should contain the JSON object");
+            }
+
+            Map<String, PopJwk> jwks = null;
+            while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = jsonParser.getCurrentName();
+                JsonToken valueToken = jsonParser.nextToken();
+                if (!"keys".equals(fieldName)) {
+                    jsonParser.skipChildren();
+                    continue;
+                }
+                if (valueToken != JsonToken.START_ARRAY) {
+                    throw new PopPublicKeyParseException("The keys of the JWK set should be a JSON array");
+                }
+                jwks = readJwks(jsonParser, cryptoConfig);
+            }
+            if (jwks == null) {
+                throw new PopPublicKeyParseException("The JWK set should contain the keys array");
+            }
+            return Collections.unmodifiableMap(jwks);
+        } catch (Exception ex) {
+            throw new PopPublicKeyParseException("Error occurred while converting JWK set to PublicKeys, error: " + ex.toString(),
+                    ex);
+        }
+    }
+
     /**
      * Creates SHA 256 base64 url encrypted hash of the specified string.
      * 
@@ -136,22 +408,127 @@ public class PopTokenValidatorUtils {
 
     // ===== helper methods ===== //
 
+    /**
+     * Reads the keys array of the JWK set and converts its supported signature keys to PopJwks.
+     * 
+     * @param jsonParser The JSON parser positioned at the start of the keys array
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public keys
+     * @return The map of kid to PopJwk, in the order of the keys in the JWK set
+     * @throws PopPublicKeyParseException If any element of the keys array is not a JSON object or multiple signature keys have the
+     *             same kid
+     * @throws IOException If the keys array cannot be read
+     */
+    private static Map<String, PopJwk> readJwks(JsonParser jsonParser, PopCryptoConfig cryptoConfig)
+            throws PopPublicKeyParseException, IOException {
+        Map<String, PopJwk> jwks = new LinkedHashMap<>();
+        Set<String> kids = new HashSet<>();
+        JsonToken token;
+        while ((token = jsonParser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new PopPublicKeyParseException("The keys of the JWK set should be JSON objects, actual token: " + token);
+            }
+            Jwk jwk = readJwk(jsonParser);
+            if (!jwk.isSupported() || StringUtils.isBlank(jwk.kid) || (jwk.use != null && !SIGNATURE_USE.equals(jwk.use))) {
+                continue;
+            }
+            if (!kids.add(jwk.kid)) {
+                throw new PopPublicKeyParseException("The JWK set contains multiple keys having the kid '" + jwk.kid + "'");
+            }
+            try {
+                jwks.put(jwk.kid, jwk.toPopJwk(cryptoConfig));
+            } catch (PopPublicKeyParseException | GeneralSecurityException | RuntimeException ex) {
+                logger.warn("Skipping the JWK having the kid '{}' which cannot be converted to PublicKey, error: {}", jwk.kid,
+                        ex.toString());
+            }
+        }
+        return jwks;
+    }
+
+    /**
+     * Reads the JWK (JSON web key) object from the JSON parser, only the kty, kid, use, alg, n, e, crv, x and y members are kept.
+     * 
+     * @param jsonParser The JSON parser positioned at the start of the JWK object
+     * @return The JWK
+     * @throws IOException If the JWK object cannot be read
+     */
+    private static Jwk readJwk(JsonParser jsonParser) throws IOException {
+        Jwk jwk = new Jwk();
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = jsonParser.getCurrentName();
+            if (jsonParser.nextToken() != JsonToken.VALUE_STRING) {
+                jsonParser.skipChildren();
+                continue;
+            }
+            switch (fieldName) {
+            case "kty":
+                jwk.kty = jsonParser.getText();
+                break;
+            case "kid":
+                jwk.kid = jsonParser.getText();
+                break;
+            case "use":
+                jwk.use = jsonParser.getText();
+                break;
+            case "alg":
+                jwk.alg = jsonParser.getText();
+                break;
+            case "n":
+                jwk.modulus = jsonParser.getText();
+                break;
+            case "e":
+                jwk.exponent = jsonParser.getText();
+                break;
+            case "crv":
+                jwk.curve = jsonParser.getText();
+                break;
+            case "x":
+                jwk.x = jsonParser.getText();
+                break;
+            case "y":
+                jwk.y = jsonParser.getText();
+                break;
+            default:
+                break;
+            }
+        }
+        return jwk;
+    }
+
     /**
      * Builds the PublicKey from X509 public key bytes
      * 
      * @param publicKeyBytes The X509 public key bytes
+     * @param keyAlgorithm The JCA key algorithm of the public key, e.g. "RSA"
+     * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
      * @return The PublicKey
      * @throws NoSuchAlgorithmException If algorithm is not found
      * @throws InvalidKeySpecException If key specification is invalid
      */
-    private static PublicKey buildPublicKeyFromX509KeyBytes(byte[] publicKeyBytes)
+    private static PublicKey buildPublicKeyFromX509KeyBytes(byte[] publicKeyBytes, String keyAlgorithm, PopCryptoConfig cryptoConfig)
             throws NoSuchAlgorithmException, InvalidKeySpecException {
         X509EncodedKeySpec spec = new X509EncodedKeySpec(publicKeyBytes);
-        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        KeyFactory keyFactory = cryptoConfig.newKeyFactory(keyAlgorithm);
         PublicKey key = keyFactory.generatePublic(spec);
         return key;
     }
 
+    /**
+     * Checks that the public key can be used to verify the PoP tokens signed using the specified signing algorithm.
+     * 
+     * @param publicKey The public key
+     * @param signingAlgorithm The signing algorithm
+     * @return The public key
+     * @throws PopPublicKeyParseException If the public key is not supported by the signing algorithm
+     */
+    private static PublicKey checkPublicKey(PublicKey publicKey, PopSigningAlgorithm signingAlgorithm)
+            throws PopPublicKeyParseException {
+        if (!signingAlgorithm.isKeySupported(publicKey)) {
+            throw new PopPublicKeyParseException("The public key having the algorithm " + publicKey.getAlgorithm()
+                    + " cannot be used to verify " + signingAlgorithm);
+        }
+        return publicKey;
+    }
+
     /**
      * Sanitizes the public PEM string by removing the line separators.
      * 
@@ -171,4 +548,108 @@ public class PopTokenValidatorUtils {
     private static byte[] toBase64DecodedBytes(String publicKeyPemString) {
         return Base64.decodeBase64(publicKeyPemString);
     }
+
+    /**
+     * Represents the members of the JWK (JSON web key) which are needed to build the RSAPublicKey, the EC public key or the Ed25519
+     * public key.
+     */
+    private static class Jwk {
+
+        private String kty;
+        private String kid;
+        private String use;
+        private String alg;
+        private String modulus;
+        private String exponent;
+        private String curve;
+        private String x;
+        private String y;
+
+        /**
+         * Returns true if the JWK key type and curve are supported, i.e. the JWK is an RSA key, a P-256 EC key or an Ed25519 OKP key.
+         * 
+         * @return true if the JWK can be converted to PublicKey
+         */
+        private boolean isSupported() {
+            return RSA_KEY_TYPE.equals(kty) || (EC_KEY_TYPE.equals(kty) && P_256_CURVE.equals(curve))
+                    || (OKP_KEY_TYPE.equals(kty) && ED25519_CURVE.equals(curve));
+        }
+
+        /**
+         * Builds the PopJwk having the PublicKey of the JWK key type and the signing algorithm of the JWK alg.
+         * 
+         * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+         * @return The PopJwk
+         * @throws PopPublicKeyParseException If the JWK key type, curve or alg is not supported or the JWK does not contain its
+         *             members
+         * @throws GeneralSecurityException If the public key cannot be built
+         * @throws IllegalArgumentException If the JWK alg does not support the public key
+         */
+        private PopJwk toPopJwk(PopCryptoConfig cryptoConfig) throws PopPublicKeyParseException, GeneralSecurityException {
+            PopSigningAlgorithm signingAlgorithm = null;
+            if (alg != null) {
+                signingAlgorithm = PopSigningAlgorithm.forName(alg);
+                if (signingAlgorithm == null) {
+                    throw new PopPublicKeyParseException("The JWK alg '" + alg + "' is not supported");
+                }
+            }
+            return new PopJwk(kid, toPublicKey(cryptoConfig), signingAlgorithm);
+        }
+
+        /**
+         * Builds the PublicKey of the JWK key type.
+         * 
+         * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+         * @return The PublicKey
+         * @throws PopPublicKeyParseException If the JWK key type or curve is not supported or the JWK does not contain its members
+         * @throws GeneralSecurityException If the public key cannot be built
+         */
+        private PublicKey toPublicKey(PopCryptoConfig cryptoConfig) throws PopPublicKeyParseException, GeneralSecurityException {
+            if (RSA_KEY_TYPE.equals(kty)) {
+                return toRsaPublicKey(cryptoConfig);
+            } else if (EC_KEY_TYPE.equals(kty) && P_256_CURVE.equals(curve)) {
+                if (StringUtils.isBlank(x) || StringUtils.isBlank(y)) {
+                    throw new PopPublicKeyParseException("The JWK should contain the coordinates 'x' and 'y'");
+                }
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance(EC_KEY_TYPE);
+                parameters.init(new ECGenParameterSpec("secp256r1"));
+                ECPublicKeySpec spec = new ECPublicKeySpec(
+                        new ECPoint(new BigInteger(1, Base64.decodeBase64(x)), new BigInteger(1, Base64.decodeBase64(y))),
+                        parameters.getParameterSpec(ECParameterSpec.class));
+                return cryptoConfig.newKeyFactory(EC_KEY_TYPE).generatePublic(spec);
+            } else if (OKP_KEY_TYPE.equals(kty) && ED25519_CURVE.equals(curve)) {
+                byte[] publicKeyBytes = Base64.decodeBase64(StringUtils.defaultString(x));
+                if (publicKeyBytes.length != 32) {
+                    throw new PopPublicKeyParseException("The JWK should contain the 32 bytes public key 'x'");
+                }
+                byte[] x509KeyBytes = Arrays.copyOf(ED25519_X509_PREFIX, ED25519_X509_PREFIX.length + publicKeyBytes.length);
+                System.arraycopy(publicKeyBytes, 0, x509KeyBytes, ED25519_X509_PREFIX.length, publicKeyBytes.length);
+                return buildPublicKeyFromX509KeyBytes(x509KeyBytes, ED25519_CURVE, cryptoConfig);
+            }
+            throw new PopPublicKeyParseException("The JWK kty '" + kty + "' having the crv '" + curve + "' is not supported");
+        }
+
+        /**
+         * Builds the RSAPublicKey from the base64 url encoded modulus and exponent
+         * 
+         * @param cryptoConfig The JCA providers, the key factory provider is used to build the public key
+         * @return The RSAPublicKey
+         * @throws PopPublicKeyParseException If the JWK is not an RSA key or does not contain the modulus and exponent
+         * @throws NoSuchAlgorithmException If algorithm is not found
+         * @throws InvalidKeySpecException If key specification is invalid
+         */
+        private RSAPublicKey toRsaPublicKey(PopCryptoConfig cryptoConfig)
+                throws PopPublicKeyParseException, NoSuchAlgorithmException, InvalidKeySpecException {
+            if (!RSA_KEY_TYPE.equals(kty)) {
+                throw new PopPublicKeyParseException("The JWK kty should be '" + RSA_KEY_TYPE + "', actual kty: " + kty);
+            }
+            if (StringUtils.isBlank(modulus) || StringUtils.isBlank(exponent)) {
+                throw new PopPublicKeyParseException("The JWK should contain the modulus 'n' and exponent 'e'");
+            }
+            RSAPublicKeySpec spec = new RSAPublicKeySpec(new BigInteger(1, Base64.decodeBase64(modulus)),
+                    new BigInteger(1, Base64.decodeBase64(exponent)));
+            KeyFactory keyFactory = cryptoConfig.newKeyFactory(RSA_KEY_TYPE);
+            return (RSAPublicKey) keyFactory.generatePublic(spec);
+        }
+    }
 }
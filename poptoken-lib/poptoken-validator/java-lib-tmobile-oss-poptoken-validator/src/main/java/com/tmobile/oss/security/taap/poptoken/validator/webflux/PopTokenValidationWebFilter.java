@@ -0,0 +1,392 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.webflux;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.tmobile.oss.security.taap.poptoken.validator.JwksKeyResolver;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsKey;
+import com.tmobile.oss.security.taap.poptoken.validator.PopEhtsValue;
+import com.tmobile.oss.security.taap.poptoken.validator.PopJwk;
+import com.tmobile.oss.security.taap.poptoken.validator.PopStreamingVerification;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenValidator;
+import com.tmobile.oss.security.taap.poptoken.validator.PopTokenVerifier;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.InvalidPopTokenException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopBodyTooLargeException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidationRejectedException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A Spring WebFlux filter validating the PoP token of every HTTP request before passing the exchange to the filter chain.
+ * <p>
+ * The filter reads the ehts (external headers to sign) keys from the PoP token and reads only the values of those keys from the
+ * request. The checks not depending on the body, i.e. decoding the PoP token, checking its claims and looking up the jti, are
+ * performed before the body is read, so the invalid PoP tokens are rejected without reading the body. If the body is signed then each
+ * body DataBuffer is fed into the edts (external data to sign) message digest as it arrives, see {@link PopStreamingVerification}, and
+ * is retained until the PoP token has been validated. The validated body is then published downstream using the same DataBuffers, so
+ * the body is neither aggregated nor copied by the filter. The retained bytes are counted as they arrive and the body exceeding the
+ * maximum body size, see {@link #getMaxBodySize()}, is rejected as soon as the Content-Length header or the bytes received so far
+ * exceed it. If the body is not signed then the request is passed on as it is and its body is not read by the filter at all.
+ * <p>
+ * The public key resolution and the signature verification run on the bounded validation scheduler, see
+ * {@link #getValidationScheduler()}, instead of the event loop threads. The PopTokenVerifier is built once per public key and reused
+ * by all the requests. The requests having a missing or invalid PoP token are rejected with 401 Unauthorized, the requests having a
+ * too large signed body are rejected with 413 Payload Too Large and the requests rejected by the validation scheduler because of
+ * overload are rejected with 503 Service Unavailable.
+ */
+public class PopTokenValidationWebFilter implements WebFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopTokenValidationWebFilter.class);
+
+    private static final String POP_TOKEN_HEADER_NAME = "X-Authorization";
+    private static final long MAX_BODY_SIZE = 10 * 1024 * 1024;
+
+    private final PublicKey publicKey;
+    private final JwksKeyResolver jwksKeyResolver;
+
+    private final Object initLock = new Object();
+    private volatile PopTokenValidator popTokenValidator;
+    private volatile PopTokenVerifier popTokenVerifier;
+    private final ConcurrentMap<String, PopTokenVerifier> kidToPopTokenVerifierMap = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the PopTokenValidationWebFilter validating the PoP tokens using the specified public key.
+     * 
+     * @param publicKey The PublicKey to verify the PoP token signature, an RSA, a P-256 EC or an Ed25519 public key
+     * @throws IllegalArgumentException If the publicKey is null
+     */
+    public PopTokenValidationWebFilter(PublicKey publicKey) {
+        if (publicKey == null) {
+            throw new IllegalArgumentException("The publicKey should not be null");
+        }
+        this.publicKey = publicKey;
+        this.jwksKeyResolver = null;
+    }
+
+    /**
+     * Constructs the PopTokenValidationWebFilter validating the PoP tokens using the public keys resolved by the kid header of the
+     * PoP token, the JwksKeyResolver is not closed by the filter.
+     * 
+     * @param jwksKeyResolver The JwksKeyResolver to resolve the public keys
+     * @throws IllegalArgumentException If the jwksKeyResolver is null
+     */
+    public PopTokenValidationWebFilter(JwksKeyResolver jwksKeyResolver) {
+        if (jwksKeyResolver == null) {
+            throw new IllegalArgumentException("The jwksKeyResolver should not be null");
+        }
+        this.publicKey = null;
+        this.jwksKeyResolver = jwksKeyResolver;
+    }
+
+    /**
+     * Validates the PoP token of the request and passes the exchange to the filter chain if the PoP token is valid, otherwise rejects
+     * the request using {@link #onValidationFailure(ServerWebExchange, Throwable)}.
+     * 
+     * @param exchange The exchange
+     * @param chain The filter chain
+     * @return The Mono completing when the request has been processed
+     */
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Scheduler validationScheduler = getValidationScheduler();
+        return Mono.fromCallable(() -> startStreamingVerification(exchange.getRequest())) //
+                .subscribeOn(validationScheduler) //
+                .flatMap(verification -> verifyBody(exchange, verification, validationScheduler)) //
+                .onErrorMap(RejectedExecutionException.class, ex -> new PopTokenValidationRejectedException(
+                        "The PoP token validation has been rejected, error: " + ex.toString(), ex)) //
+                .onErrorResume(ex -> ex instanceof PopTokenValidatorException || ex instanceof IllegalArgumentException,
+                        ex -> onValidationFailure(exchange, ex).then(Mono.empty())) //
+                .flatMap(validatedExchange -> chain.filter(validatedExchange) //
+                        .doFinally(signalType -> releaseValidatedBody(validatedExchange))); //
+    }
+
+    /**
+     * Returns the PopTokenValidator used for building the PopTokenVerifier instances.
+     * 
+     * Note: This method can be overridden to modify the default PopTokenValidator which is
+     * <code>PopTokenValidator.newInstance()</code>, for example to return a PopTokenValidator with a replay store. This method is
+     * called once, when the first request is filtered.
+     * 
+     * @return The PopTokenValidator
+     */
+    protected PopTokenValidator getPopTokenValidator() {
+        return PopTokenValidator.newInstance();
+    }
+
+    /**
+     * Returns the name of the HTTP request header containing the PoP token.
+     * 
+     * Note: This method can be overridden to modify the default PoP token header name which is X-Authorization.
+     * 
+     * @return The PoP token header name
+     */
+    protected String getPopTokenHeaderName() {
+        return POP_TOKEN_HEADER_NAME;
+    }
+
+    /**
+     * Returns the scheduler running the public key resolution and the signature verification.
+     * 
+     * Note: This method can be overridden to modify the default validation scheduler which is a bounded elastic scheduler shared by
+     * all the filters, having as many threads as the available processors and queuing up to 1024 tasks per thread.
+     * 
+     * @return The validation scheduler
+     */
+    protected Scheduler getValidationScheduler() {
+        return ValidationSchedulerHolder.VALIDATION_SCHEDULER;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the signed request body, the body DataBuffers are retained until the PoP token has been
+     * validated so the larger bodies are rejected before they are received completely.
+     * 
+     * Note: This method can be overridden to modify the default maximum body size which is 10 MB.
+     * 
+     * @return The maximum body size
+     */
+    protected long getMaxBodySize() {
+        return MAX_BODY_SIZE;
+    }
+
+    /**
+     * Returns the value of the "uri" ehts key, i.e. the raw request path followed by the URL decoded query string.
+     * 
+     * Note: This method can be overridden to modify the default "uri" ehts value, for example when the application is behind a proxy
+     * rewriting the request URI.
+     * 
+     * @param request The HTTP request
+     * @return The "uri" ehts value
+     */
+    protected String getUriEhtsValue(ServerHttpRequest request) {
+        URI uri = request.getURI();
+        String queryString = uri.getRawQuery();
+        if (StringUtils.isEmpty(queryString)) {
+            return uri.getRawPath();
+        }
+        try {
+            return uri.getRawPath() + "?" + URLDecoder.decode(queryString, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return uri.getRawPath() + "?" + queryString;
+        }
+    }
+
+    /**
+     * Rejects the request having a missing or invalid PoP token.
+     * 
+     * Note: This method can be overridden to modify the default response which is 401 Unauthorized, 413 Payload Too Large if the
+     * signed body exceeds the maximum body size or 503 Service Unavailable if the validation has been rejected by the validation
+     * scheduler.
+     * 
+     * @param exchange The exchange
+     * @param ex The exception thrown while validating the PoP token
+     * @return The Mono completing when the response has been written
+     */
+    protected Mono<Void> onValidationFailure(ServerWebExchange exchange, Throwable ex) {
+        ServerHttpRequest request = exchange.getRequest();
+        logger.debug("The PoP token validation failed for {} {}, error: {}", request.getMethodValue(), request.getURI().getRawPath(),
+                ex.toString());
+        HttpStatus status = HttpStatus.UNAUTHORIZED;
+        if (ex instanceof PopBodyTooLargeException) {
+            status = HttpStatus.PAYLOAD_TOO_LARGE;
+        } else if (ex instanceof PopTokenValidationRejectedException) {
+            status = HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        exchange.getResponse().setStatusCode(status);
+        return exchange.getResponse().setComplete();
+    }
+
+    // ===== helper methods ===== //
+
+    /**
+     * Performs the checks not depending on the body and collects the values of the ehts keys other than the body.
+     * 
+     * @param request The HTTP request
+     * @return The PopStreamingVerification to feed the body into
+     * @throws PopTokenValidatorException If the PoP token is missing or invalid or the public key cannot be resolved
+     */
+    private PopStreamingVerification startStreamingVerification(ServerHttpRequest request) throws PopTokenValidatorException {
+        String popToken = request.getHeaders().getFirst(getPopTokenHeaderName());
+        if (StringUtils.isBlank(popToken)) {
+            throw new InvalidPopTokenException("The PoP token is missing in the " + getPopTokenHeaderName() + " header");
+        }
+
+        List<String> ehtsKeys = getInitializedPopTokenValidator().getEhtsKeys(popToken);
+        Map<String, PopEhtsValue> ehtsValueMap = new HashMap<>();
+        for (String ehtsKey : ehtsKeys) {
+            if (PopEhtsKey.URI.keyName().equals(ehtsKey)) {
+                ehtsValueMap.put(ehtsKey, PopEhtsValue.of(getUriEhtsValue(request)));
+            } else if (PopEhtsKey.HTTP_METHOD.keyName().equals(ehtsKey)) {
+                ehtsValueMap.put(ehtsKey, PopEhtsValue.of(request.getMethodValue()));
+            } else if (!PopEhtsKey.BODY.keyName().equals(ehtsKey)) {
+                String headerValue = request.getHeaders().getFirst(ehtsKey);
+                if (headerValue != null) {
+                    ehtsValueMap.put(ehtsKey, PopEhtsValue.of(headerValue));
+                }
+            }
+        }
+        return getPopTokenVerifier(popToken).startStreamingVerification(popToken, ehtsValueMap, PopEhtsKey.BODY.keyName());
+    }
+
+    /**
+     * Feeds the body DataBuffers into the verification as they arrive and completes the verification on the validation scheduler. The
+     * body is rejected as soon as the number of received bytes exceeds the maximum body size, releasing the DataBuffers retained so
+     * far.
+     * 
+     * @param exchange The exchange
+     * @param verification The verification started for the PoP token of the request
+     * @param validationScheduler The validation scheduler
+     * @return The Mono emitting the exchange to pass to the filter chain, with the request republishing the validated body if the body
+     *         is signed
+     */
+    private Mono<ServerWebExchange> verifyBody(ServerWebExchange exchange, PopStreamingVerification verification,
+            Scheduler validationScheduler) {
+        if (!verification.isStreamedValueSigned()) {
+            return Mono.fromCallable(() -> {
+                verification.complete();
+                return exchange;
+            }).subscribeOn(validationScheduler);
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        long maxBodySize = getMaxBodySize();
+        if (request.getHeaders().getContentLength() > maxBodySize) {
+            return Mono.error(new PopBodyTooLargeException("The Content-Length " + request.getHeaders().getContentLength()
+                    + " exceeds the maximum body size of " + maxBodySize + " bytes"));
+        }
+        return request.getBody() //
+                .handle((DataBuffer dataBuffer, SynchronousSink<DataBuffer> sink) -> {
+                    if (verification.getStreamedByteCount() + dataBuffer.readableByteCount() > maxBodySize) {
+                        DataBufferUtils.release(dataBuffer);
+                        sink.error(new PopBodyTooLargeException(
+                                "The request body exceeds the maximum body size of " + maxBodySize + " bytes"));
+                        return;
+                    }
+                    verification.update(dataBuffer.asByteBuffer());
+                    sink.next(dataBuffer);
+                }) //
+                .collectList() //
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release) //
+                .flatMap(bodyDataBuffers -> Mono.fromCallable(() -> {
+                    verification.complete();
+                    return exchange.mutate().request(new PopValidatedBodyServerHttpRequest(request, bodyDataBuffers)).build();
+                }).subscribeOn(validationScheduler) //
+                        .doOnError(ex -> bodyDataBuffers.forEach(DataBufferUtils::release)) //
+                        .doOnCancel(() -> bodyDataBuffers.forEach(DataBufferUtils::release))); //
+    }
+
+    /**
+     * Releases the validated body DataBuffers if the body has not been consumed by the filter chain.
+     * 
+     * @param validatedExchange The exchange passed to the filter chain
+     */
+    private void releaseValidatedBody(ServerWebExchange validatedExchange) {
+        if (validatedExchange.getRequest() instanceof PopValidatedBodyServerHttpRequest) {
+            ((PopValidatedBodyServerHttpRequest) validatedExchange.getRequest()).release();
+        }
+    }
+
+    /**
+     * Returns the PopTokenValidator, creating it using {@link #getPopTokenValidator()} when the first request is filtered.
+     * 
+     * @return The PopTokenValidator
+     */
+    private PopTokenValidator getInitializedPopTokenValidator() {
+        PopTokenValidator validator = popTokenValidator;
+        if (validator == null) {
+            synchronized (initLock) {
+                validator = popTokenValidator;
+                if (validator == null) {
+                    validator = getPopTokenValidator();
+                    if (publicKey != null) {
+                        popTokenVerifier = validator.newPopTokenVerifier(publicKey);
+                    }
+                    popTokenValidator = validator;
+                }
+            }
+        }
+        return validator;
+    }
+
+    /**
+     * Returns the PopTokenVerifier for the public key of the PoP token, the PopTokenVerifier built for a kid is replaced when the JWK
+     * set returns a different public key or "alg" for the kid.
+     * 
+     * @param popToken The PoP token
+     * @return The PopTokenVerifier
+     * @throws PopTokenValidatorException If the public key cannot be resolved
+     */
+    private PopTokenVerifier getPopTokenVerifier(String popToken) throws PopTokenValidatorException {
+        if (popTokenVerifier != null) {
+            return popTokenVerifier;
+        }
+        String kid;
+        try {
+            kid = JWT.decode(popToken).getKeyId();
+        } catch (JWTDecodeException ex) {
+            throw new InvalidPopTokenException("Couldn't decode the token, error: " + ex.toString(), ex);
+        }
+        if (StringUtils.isBlank(kid)) {
+            throw new InvalidPopTokenException("The kid is missing in PoP token header");
+        }
+        PopJwk resolvedJwk = jwksKeyResolver.getJwk(kid);
+        PopTokenValidator popTokenValidator = getInitializedPopTokenValidator();
+        PopTokenVerifier verifier = kidToPopTokenVerifierMap.get(kid);
+        if (verifier == null || !verifier.getPublicKey().equals(resolvedJwk.getPublicKey())
+                || !verifier.getAllowedAlgorithms().equals(popTokenValidator.getAllowedAlgorithmsForJwk(resolvedJwk))) {
+            verifier = popTokenValidator.newPopTokenVerifierForJwk(resolvedJwk);
+            kidToPopTokenVerifierMap.put(kid, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Holds the default validation scheduler, which is created only when it is used for the first time.
+     */
+    private static final class ValidationSchedulerHolder {
+
+        private static final Scheduler VALIDATION_SCHEDULER = Schedulers.newBoundedElastic(Runtime.getRuntime().availableProcessors(),
+                1024, "poptoken-validation", 60, true);
+    }
+}
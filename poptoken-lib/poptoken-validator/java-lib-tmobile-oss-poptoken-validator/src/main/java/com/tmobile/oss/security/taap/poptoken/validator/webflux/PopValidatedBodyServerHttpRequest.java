@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.webflux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * A request decorator republishing the already validated body, i.e. the DataBuffers read from the original request are passed on
+ * as they are without copying them.
+ * <p>
+ * The body can be subscribed to only once, as the DataBuffers are released by the subscriber. If the body is never subscribed to
+ * then the DataBuffers should be released using {@link #release()} once the exchange completes.
+ */
+class PopValidatedBodyServerHttpRequest extends ServerHttpRequestDecorator {
+
+    private final List<DataBuffer> bodyDataBuffers;
+    private final AtomicBoolean bodyTaken = new AtomicBoolean();
+
+    /**
+     * Constructs the PopValidatedBodyServerHttpRequest using the specified request and DataBuffers of its validated body.
+     * 
+     * @param request The original request
+     * @param bodyDataBuffers The DataBuffers of the validated body
+     */
+    PopValidatedBodyServerHttpRequest(ServerHttpRequest request, List<DataBuffer> bodyDataBuffers) {
+        super(request);
+        this.bodyDataBuffers = bodyDataBuffers;
+    }
+
+    /**
+     * Returns the validated body, the first subscriber takes over the DataBuffers and is responsible for releasing them.
+     * 
+     * @return The validated body
+     */
+    @Override
+    public Flux<DataBuffer> getBody() {
+        return Flux.defer(() -> {
+            if (!bodyTaken.compareAndSet(false, true)) {
+                return Flux.error(new IllegalStateException("The validated body has already been consumed"));
+            }
+            return Flux.fromIterable(bodyDataBuffers);
+        });
+    }
+
+    /**
+     * Releases the DataBuffers of the body if the body has not been consumed, calling this method more than once has no effect.
+     */
+    void release() {
+        if (bodyTaken.compareAndSet(false, true)) {
+            bodyDataBuffers.forEach(DataBufferUtils::release);
+        }
+    }
+}
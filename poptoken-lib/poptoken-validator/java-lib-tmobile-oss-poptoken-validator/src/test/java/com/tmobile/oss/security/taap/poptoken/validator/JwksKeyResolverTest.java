@@ -0,0 +1,460 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyNotFoundException;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.testhelper.PopTokenValidatorTestHelper;
+
+public class JwksKeyResolverTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeyResolverTest.class);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer httpServer;
+    private URL jwksUrl;
+    private volatile String jwksString;
+    private volatile int responseCode = 200;
+    private volatile long responseDelayMillis;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/jwks", httpExchange -> {
+            requestCount.incrementAndGet();
+            try {
+                Thread.sleep(responseDelayMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] responseBytes = jwksString.getBytes(StandardCharsets.UTF_8);
+            httpExchange.getResponseHeaders().add("Content-Type", "application/json");
+            httpExchange.sendResponseHeaders(responseCode, responseBytes.length);
+            try (OutputStream responseBody = httpExchange.getResponseBody()) {
+                responseBody.write(responseBytes);
+            }
+        });
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.start();
+        jwksUrl = new URL("http://localhost:" + httpServer.getAddress().getPort() + "/jwks");
+    }
+
+    @After
+    public void tearDown() {
+        httpServer.stop(0);
+    }
+
+    @Test
+    public void getPublicKey__knownKid__loadsJwksOnlyOnce() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey1 = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        RSAPublicKey rsaPublicKey2 = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        jwksString = createJwksString("key-1", rsaPublicKey1, "key-2", rsaPublicKey2);
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey1 = jwksKeyResolver.getPublicKey("key-1");
+            PublicKey resolvedRsaPublicKey2 = jwksKeyResolver.getPublicKey("key-2");
+            jwksKeyResolver.getPublicKey("key-1");
+
+            // validate the results
+            assertEquals(rsaPublicKey1, resolvedRsaPublicKey1);
+            assertEquals(rsaPublicKey2, resolvedRsaPublicKey2);
+            assertEquals(1, requestCount.get());
+            assertEquals(1, jwksKeyResolver.getLoadCount());
+        }
+    }
+
+    @Test
+    public void getPublicKey__concurrentLookupsBeforeFirstLoad__loadsJwksOnlyOnce() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        jwksString = createJwksString("key-1", rsaPublicKey);
+        responseDelayMillis = 300;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<PublicKey>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(new Callable<PublicKey>() {
+                    @Override
+                    public PublicKey call() throws Exception {
+                        startLatch.await();
+
+                        // perform an action
+                        return jwksKeyResolver.getPublicKey("key-1");
+                    }
+                }));
+            }
+            startLatch.countDown();
+
+            // validate the results
+            for (Future<PublicKey> future : futures) {
+                assertEquals(rsaPublicKey, future.get());
+            }
+            assertEquals(1, requestCount.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getPublicKey__unknownKidLookedUpRepeatedly__throwsPopPublicKeyNotFoundExceptionWithoutReloadingJwks()
+            throws Exception {
+
+        // setup the data
+        jwksString = createJwksString("key-1", PopTokenValidatorTestHelper.createNewRsaPublicKey());
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+            for (int i = 0; i < 5; i++) {
+                try {
+                    // perform an action
+                    jwksKeyResolver.getPublicKey("unknown-key-" + i);
+                    fail("The PopPublicKeyNotFoundException should have been thrown");
+                } catch (Exception ex) {
+                    // validate the results
+                    logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+                    assertEquals(PopPublicKeyNotFoundException.class, ex.getClass());
+                    assertEquals("The JWK set does not contain the key for kid 'unknown-key-" + i + "'", ex.getMessage());
+                }
+            }
+            assertEquals(1, requestCount.get());
+        }
+    }
+
+    @Test
+    public void getPublicKey__rotatedKid__reloadsJwks() throws Exception {
+
+        // setup the data
+        RSAPublicKey rotatedRsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        jwksString = createJwksString("key-1", PopTokenValidatorTestHelper.createNewRsaPublicKey());
+
+        try (JwksKeyResolver jwksKeyResolver = new JwksKeyResolver(jwksUrl) {
+            @Override
+            protected long getUnknownKidRetryIntervalSeconds() {
+                return 0;
+            }
+        }) {
+            jwksKeyResolver.getPublicKey("key-1");
+            jwksString = createJwksString("key-2", rotatedRsaPublicKey);
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey = jwksKeyResolver.getPublicKey("key-2");
+
+            // validate the results
+            assertEquals(rotatedRsaPublicKey, resolvedRsaPublicKey);
+            assertEquals(2, requestCount.get());
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksRefreshedInBackground__resolvesRotatedKidWithoutLoadingJwks() throws Exception {
+
+        // setup the data
+        RSAPublicKey rotatedRsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        jwksString = createJwksString("key-1", PopTokenValidatorTestHelper.createNewRsaPublicKey());
+
+        try (JwksKeyResolver jwksKeyResolver = new JwksKeyResolver(jwksUrl) {
+            @Override
+            protected long getRefreshIntervalSeconds() {
+                return 1;
+            }
+        }) {
+            jwksKeyResolver.getPublicKey("key-1");
+            jwksString = createJwksString("key-1", rotatedRsaPublicKey);
+
+            long waitUntil = System.currentTimeMillis() + 10000;
+            while (jwksKeyResolver.getLoadCount() < 2 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(50);
+            }
+            int requestCountAfterRefresh = requestCount.get();
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey = jwksKeyResolver.getPublicKey("key-1");
+
+            // validate the results
+            assertEquals(rotatedRsaPublicKey, resolvedRsaPublicKey);
+            assertTrue("The JWK set should have been refreshed in the background", requestCountAfterRefresh >= 2);
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksHavingRsaAndEcKeys__returnsKeyOfEachKeyType() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        PublicKey ecPublicKey = PopTokenValidatorTestHelper.createEcKeyPair().getPublic();
+        jwksString = createJwksString("rsa-key", rsaPublicKey, "ec-key", ecPublicKey);
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey = jwksKeyResolver.getPublicKey("rsa-key");
+            PublicKey resolvedEcPublicKey = jwksKeyResolver.getPublicKey("ec-key");
+
+            // validate the results
+            assertEquals(rsaPublicKey, resolvedRsaPublicKey);
+            assertEquals(ecPublicKey, resolvedEcPublicKey);
+            assertEquals(1, requestCount.get());
+        }
+    }
+
+    @Test
+    public void getPublicKey__keyFactoryProviderOfCryptoConfigWithoutRsa__skipsRsaKeys() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        PublicKey ecPublicKey = PopTokenValidatorTestHelper.createEcKeyPair().getPublic();
+        jwksString = createJwksString("rsa-key", rsaPublicKey, "ec-key", ecPublicKey);
+
+        try (JwksKeyResolver jwksKeyResolver = new JwksKeyResolver(jwksUrl) {
+            @Override
+            protected PopCryptoConfig getCryptoConfig() {
+                return PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+            }
+        }) {
+
+            // perform an action
+            PublicKey resolvedEcPublicKey = jwksKeyResolver.getPublicKey("ec-key");
+            try {
+                jwksKeyResolver.getPublicKey("rsa-key");
+                fail("The PopPublicKeyNotFoundException should have been thrown");
+            } catch (Exception ex) {
+                // validate the results
+                assertEquals(PopPublicKeyNotFoundException.class, ex.getClass());
+            }
+            assertEquals(ecPublicKey, resolvedEcPublicKey);
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksLoadedFromFile__returnsRsaPublicKey() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        File jwksFile = temporaryFolder.newFile("jwks.json");
+        Files.write(jwksFile.toPath(), createJwksString("key-1", rsaPublicKey).getBytes(StandardCharsets.UTF_8));
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksFile)) {
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey = jwksKeyResolver.getPublicKey("key-1");
+
+            // validate the results
+            assertEquals(rsaPublicKey, resolvedRsaPublicKey);
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksUrlRespondsWithError__throwsPopTokenValidatorException() throws Exception {
+
+        // setup the data
+        jwksString = "{}";
+        responseCode = 500;
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+            // perform an action
+            jwksKeyResolver.getPublicKey("key-1");
+            fail("The PopTokenValidatorException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopTokenValidatorException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(), ex.getMessage().endsWith("responseCode: 500"));
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksUrlRespondsWithErrorRepeatedly__throwsPopTokenValidatorExceptionWithoutReloadingJwks()
+            throws Exception {
+
+        // setup the data
+        jwksString = "{}";
+        responseCode = 500;
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    // perform an action
+                    jwksKeyResolver.getPublicKey("key-1");
+                    fail("The PopTokenValidatorException should have been thrown");
+                } catch (PopTokenValidatorException ex) {
+                    // validate the results
+                    assertTrue("The actual error message: " + ex.getMessage(), ex.getMessage().endsWith("responseCode: 500"));
+                }
+            }
+            assertEquals(1, requestCount.get());
+            assertEquals(0, jwksKeyResolver.getLoadCount());
+        }
+    }
+
+    @Test
+    public void getPublicKey__jwksUrlRespondsWithErrorRepeatedly__throwsNewExceptionForEachLookup() throws Exception {
+
+        // setup the data
+        jwksString = "{}";
+        responseCode = 500;
+        List<Exception> exceptions = new ArrayList<>();
+
+        try (JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl)) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    // perform an action
+                    jwksKeyResolver.getPublicKey("key-1");
+                    fail("The PopTokenValidatorException should have been thrown");
+                } catch (PopTokenValidatorException ex) {
+                    exceptions.add(ex);
+                }
+            }
+        }
+
+        // validate the results
+        assertNotSame(exceptions.get(0), exceptions.get(1));
+        assertNotSame(exceptions.get(1), exceptions.get(2));
+        assertSame(exceptions.get(0), exceptions.get(1).getCause());
+        assertSame(exceptions.get(0), exceptions.get(2).getCause());
+    }
+
+    @Test
+    public void getPublicKey__closedJwksKeyResolver__throwsIllegalStateException() throws Exception {
+
+        // setup the data
+        JwksKeyResolver jwksKeyResolver = JwksKeyResolver.newInstance(jwksUrl);
+        jwksKeyResolver.close();
+
+        try {
+            // perform an action
+            jwksKeyResolver.getPublicKey("key-1");
+            fail("The IllegalStateException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            assertEquals(IllegalStateException.class, ex.getClass());
+            assertEquals(0, requestCount.get());
+        }
+    }
+
+    @Test
+    public void getPublicKey__keysExpiredAndJwksUrlRespondsWithError__returnsStaleKeyWithinGracePeriod() throws Exception {
+
+        // setup the data
+        RSAPublicKey rsaPublicKey = PopTokenValidatorTestHelper.createNewRsaPublicKey();
+        jwksString = createJwksString("key-1", rsaPublicKey);
+
+        try (JwksKeyResolver jwksKeyResolver = new JwksKeyResolver(jwksUrl) {
+            @Override
+            protected long getKeysTtlSeconds() {
+                return 0;
+            }
+        }) {
+            jwksKeyResolver.getPublicKey("key-1");
+            responseCode = 500;
+
+            // perform an action
+            PublicKey resolvedRsaPublicKey1 = jwksKeyResolver.getPublicKey("key-1");
+            PublicKey resolvedRsaPublicKey2 = jwksKeyResolver.getPublicKey("key-1");
+
+            // validate the results
+            assertEquals(rsaPublicKey, resolvedRsaPublicKey1);
+            assertEquals(rsaPublicKey, resolvedRsaPublicKey2);
+            assertEquals(2, requestCount.get());
+            assertEquals(1, jwksKeyResolver.getLoadCount());
+        }
+    }
+
+    @Test
+    public void getPublicKey__keysExpiredBeyondGracePeriodAndJwksUrlRespondsWithError__throwsPopTokenValidatorException()
+            throws Exception {
+
+        // setup the data
+        jwksString = createJwksString("key-1", PopTokenValidatorTestHelper.createNewRsaPublicKey());
+
+        try (JwksKeyResolver jwksKeyResolver = new JwksKeyResolver(jwksUrl) {
+            @Override
+            protected long getKeysTtlSeconds() {
+                return 0;
+            }
+
+            @Override
+            protected long getStaleKeysGraceSeconds() {
+                return 0;
+            }
+        }) {
+            jwksKeyResolver.getPublicKey("key-1");
+            responseCode = 500;
+
+            // perform an action
+            jwksKeyResolver.getPublicKey("key-1");
+            fail("The PopTokenValidatorException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopTokenValidatorException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(), ex.getMessage().endsWith("responseCode: 500"));
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    private String createJwksString(Object... kidAndPublicKeys) {
+        LinkedHashMap<String, PublicKey> kidToPublicKeyMap = new LinkedHashMap<>();
+        for (int i = 0; i < kidAndPublicKeys.length; i += 2) {
+            kidToPublicKeyMap.put((String) kidAndPublicKeys[i], (PublicKey) kidAndPublicKeys[i + 1]);
+        }
+        return PopTokenValidatorTestHelper.createJwksString(kidToPublicKeyMap);
+    }
+}
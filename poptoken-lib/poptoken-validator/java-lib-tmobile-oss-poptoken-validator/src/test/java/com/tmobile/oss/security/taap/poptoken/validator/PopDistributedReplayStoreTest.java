@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopDistributedReplayStore.Mode;
+import com.tmobile.oss.security.taap.poptoken.validator.testhelper.FakeRespServer;
+
+public class PopDistributedReplayStoreTest {
+
+    @Test
+    public void isUsed__optimisticModeFreshJti__doesNotCallRemoteReplayStore() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            PopDistributedReplayStore popDistributedReplayStore = new PopDistributedReplayStore(popRespReplayStore, Mode.OPTIMISTIC,
+                    100);
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+
+            // perform an action
+            for (int i = 0; i < 100; i++) {
+                assertFalse(popDistributedReplayStore.isUsed(UUID.randomUUID().toString(), expiresAtMillis));
+            }
+
+            // validate the results
+            assertEquals(0, popDistributedReplayStore.getRemoteLookupCount());
+            assertEquals(0, fakeRespServer.getCommandCount());
+        }
+    }
+
+    @Test
+    public void isUsed__optimisticModeJtiReplayedOnSameNode__confirmsWithRemoteReplayStore() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            PopDistributedReplayStore popDistributedReplayStore = new PopDistributedReplayStore(popRespReplayStore, Mode.OPTIMISTIC,
+                    100);
+            String jti = UUID.randomUUID().toString();
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+            assertTrue(popDistributedReplayStore.markUsed(jti, expiresAtMillis));
+            popRespReplayStore.markUsedAsync(UUID.randomUUID().toString(), expiresAtMillis).get(10, TimeUnit.SECONDS);
+
+            // perform an action
+            boolean used = popDistributedReplayStore.isUsed(jti, expiresAtMillis);
+
+            // validate the results
+            assertTrue(used);
+            assertEquals(1, popDistributedReplayStore.getRemoteLookupCount());
+        }
+    }
+
+    @Test
+    public void isUsed__strictModeJtiReplayedOnSameNode__rejectedByMarkUsedWithOneRemoteCommand() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            PopDistributedReplayStore popDistributedReplayStore = new PopDistributedReplayStore(popRespReplayStore, Mode.STRICT, 100);
+            String jti = UUID.randomUUID().toString();
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+            assertTrue(popDistributedReplayStore.markUsed(jti, expiresAtMillis));
+            int commandCountAfterFirstValidation = fakeRespServer.getCommandCount();
+
+            // perform an action
+            boolean used = popDistributedReplayStore.isUsed(jti, expiresAtMillis);
+            boolean markResult = popDistributedReplayStore.markUsed(jti, expiresAtMillis);
+
+            // validate the results
+            assertFalse(used);
+            assertFalse(markResult);
+            assertEquals(0, popDistributedReplayStore.getRemoteLookupCount());
+            assertEquals(commandCountAfterFirstValidation + 1, fakeRespServer.getCommandCount());
+        }
+    }
+
+    @Test
+    public void markUsed__strictModeJtiReplayedOnOtherNode__returnsFalse() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore node1RespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort());
+                PopRespReplayStore node2RespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            PopDistributedReplayStore node1ReplayStore = new PopDistributedReplayStore(node1RespReplayStore, Mode.STRICT, 100);
+            PopDistributedReplayStore node2ReplayStore = new PopDistributedReplayStore(node2RespReplayStore, Mode.STRICT, 100);
+            String jti = UUID.randomUUID().toString();
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+            assertTrue(node1ReplayStore.markUsed(jti, expiresAtMillis));
+
+            // perform an action
+            boolean usedOnNode2 = node2ReplayStore.isUsed(jti, expiresAtMillis);
+            boolean markResultOnNode2 = node2ReplayStore.markUsed(jti, expiresAtMillis);
+
+            // validate the results
+            assertFalse(usedOnNode2);
+            assertFalse(markResultOnNode2);
+            assertEquals(0, node2ReplayStore.getRemoteLookupCount());
+        }
+    }
+
+    @Test
+    public void markUsed__optimisticModeJtiReplayedOnOtherNode__countsLateDetectedReplay() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore node1RespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort());
+                PopRespReplayStore node2RespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            PopDistributedReplayStore node1ReplayStore = new PopDistributedReplayStore(node1RespReplayStore, Mode.OPTIMISTIC, 100);
+            PopDistributedReplayStore node2ReplayStore = new PopDistributedReplayStore(node2RespReplayStore, Mode.OPTIMISTIC, 100);
+            String jti = UUID.randomUUID().toString();
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+            assertTrue(node1ReplayStore.markUsed(jti, expiresAtMillis));
+            node1RespReplayStore.markUsedAsync(UUID.randomUUID().toString(), expiresAtMillis).get(10, TimeUnit.SECONDS);
+
+            // perform an action
+            boolean markResultOnNode2 = node2ReplayStore.markUsed(jti, expiresAtMillis);
+            node2RespReplayStore.markUsedAsync(UUID.randomUUID().toString(), expiresAtMillis).get(10, TimeUnit.SECONDS);
+
+            // validate the results
+            assertTrue(markResultOnNode2);
+            assertEquals(1, node2ReplayStore.getLateDetectedReplayCount());
+            assertEquals(0, node1ReplayStore.getLateDetectedReplayCount());
+            assertTrue(node1ReplayStore.isUsed(jti, expiresAtMillis));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopTokenValidatorException;
+import com.tmobile.oss.security.taap.poptoken.validator.testhelper.FakeRespServer;
+
+public class PopRespReplayStoreTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopRespReplayStoreTest.class);
+
+    @Test
+    public void markUsed__sameJtiMarkedTwice__returnsFalseForReplay() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            String jti = UUID.randomUUID().toString();
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+
+            // perform an action
+            boolean usedBeforeMarking = popRespReplayStore.isUsed(jti, expiresAtMillis);
+            boolean firstMarkResult = popRespReplayStore.markUsed(jti, expiresAtMillis);
+            boolean usedAfterMarking = popRespReplayStore.isUsed(jti, expiresAtMillis);
+            boolean secondMarkResult = popRespReplayStore.markUsed(jti, expiresAtMillis);
+
+            // validate the results
+            assertFalse(usedBeforeMarking);
+            assertTrue(firstMarkResult);
+            assertTrue(usedAfterMarking);
+            assertFalse(secondMarkResult);
+            assertTrue(fakeRespServer.containsKey("poptoken:jti:" + jti));
+        }
+    }
+
+    @Test
+    public void markUsedAsync__concurrentCommands__pipelinesCommands() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // setup the data
+            fakeRespServer.setResponseDelayMillis(20);
+            long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+
+            // perform an action
+            for (int i = 0; i < 1000; i++) {
+                futures.add(popRespReplayStore.markUsedAsync(UUID.randomUUID().toString(), expiresAtMillis));
+            }
+            for (CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+
+            // validate the results
+            logger.info("markUsedAsync__concurrentCommands__pipelinesCommands -> commands: {}, roundTrips: {}",
+                    popRespReplayStore.getCommandCount(), popRespReplayStore.getRoundTripCount());
+            assertEquals(1000, popRespReplayStore.getCommandCount());
+            assertEquals(1000, fakeRespServer.getCommandCount());
+            assertTrue(popRespReplayStore.getRoundTripCount() <= 20);
+        }
+    }
+
+    @Test
+    public void markUsed__expiredJti__returnsTrueWithoutCallingServer() throws Exception {
+
+        try (FakeRespServer fakeRespServer = new FakeRespServer();
+                PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", fakeRespServer.getPort())) {
+
+            // perform an action
+            boolean markResult = popRespReplayStore.markUsed(UUID.randomUUID().toString(), System.currentTimeMillis() - 1000);
+
+            // validate the results
+            assertTrue(markResult);
+            assertEquals(0, popRespReplayStore.getCommandCount());
+        }
+    }
+
+    @Test
+    public void markUsed__serverNotAvailable__throwsPopTokenValidatorException() throws Exception {
+
+        // setup the data
+        FakeRespServer fakeRespServer = new FakeRespServer();
+        int port = fakeRespServer.getPort();
+        fakeRespServer.close();
+
+        try (PopRespReplayStore popRespReplayStore = new PopRespReplayStore("localhost", port)) {
+            // perform an action
+            popRespReplayStore.markUsed(UUID.randomUUID().toString(), System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130));
+            fail("The PopTokenValidatorException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopTokenValidatorException.class, ex.getClass());
+            assertTrue(ex.getMessage().startsWith("Error occurred while accessing the replay store localhost:" + port));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopValidationExecutor.RejectionPolicy;
+
+public class PopValidationExecutorTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopValidationExecutorTest.class);
+
+    @Test
+    public void execute__queueIsFullWithAbortPolicy__throwsRejectedExecutionException() throws Exception {
+
+        // setup the data
+        PopValidationExecutor popValidationExecutor = new PopValidationExecutor(1, 1, RejectionPolicy.ABORT, false);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        CountDownLatch completedLatch = new CountDownLatch(2);
+        Runnable blockingTask = () -> {
+            awaitQuietly(releaseLatch);
+            completedLatch.countDown();
+        };
+        popValidationExecutor.execute(blockingTask);
+        popValidationExecutor.execute(blockingTask);
+
+        try {
+            // perform an action
+            popValidationExecutor.execute(() -> fail("The rejected task should not have been run"));
+            fail("The RejectedExecutionException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(RejectedExecutionException.class, ex.getClass());
+            assertEquals(1, popValidationExecutor.getRejectedCount());
+            assertEquals(0, popValidationExecutor.getCallerRunsCount());
+            assertEquals(2, popValidationExecutor.getPendingCount());
+        } finally {
+            releaseLatch.countDown();
+            assertTrue(completedLatch.await(10, TimeUnit.SECONDS));
+            popValidationExecutor.close();
+        }
+    }
+
+    @Test
+    public void execute__queueIsFullWithCallerRunsPolicy__runsTaskInCallingThread() throws Exception {
+
+        // setup the data
+        PopValidationExecutor popValidationExecutor = new PopValidationExecutor(1, 0, RejectionPolicy.CALLER_RUNS, false);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        popValidationExecutor.execute(() -> awaitQuietly(releaseLatch));
+        AtomicReference<Thread> taskThread = new AtomicReference<>();
+
+        try {
+            // perform an action
+            popValidationExecutor.execute(() -> taskThread.set(Thread.currentThread()));
+
+            // validate the results
+            assertSame(Thread.currentThread(), taskThread.get());
+            assertEquals(1, popValidationExecutor.getCallerRunsCount());
+            assertEquals(0, popValidationExecutor.getRejectedCount());
+        } finally {
+            releaseLatch.countDown();
+            popValidationExecutor.close();
+        }
+    }
+
+    @Test
+    public void execute__manyTasks__runsAllTasksWithinMaxConcurrency() throws Exception {
+
+        for (boolean virtualThreadsEnabled : new boolean[] { false, true }) {
+            // setup the data
+            PopValidationExecutor popValidationExecutor = new PopValidationExecutor(2, 100, RejectionPolicy.ABORT,
+                    virtualThreadsEnabled);
+            CountDownLatch completedLatch = new CountDownLatch(100);
+            AtomicInteger runningCount = new AtomicInteger();
+            AtomicInteger maxRunningCount = new AtomicInteger();
+
+            // perform an action
+            for (int i = 0; i < 100; i++) {
+                popValidationExecutor.execute(() -> {
+                    maxRunningCount.accumulateAndGet(runningCount.incrementAndGet(), Math::max);
+                    sleepQuietly(1);
+                    runningCount.decrementAndGet();
+                    completedLatch.countDown();
+                });
+            }
+
+            // validate the results
+            assertTrue(completedLatch.await(10, TimeUnit.SECONDS));
+            assertTrue(maxRunningCount.get() <= 2);
+            assertEquals(0, popValidationExecutor.getRejectedCount());
+            if (!virtualThreadsEnabled) {
+                assertFalse(popValidationExecutor.isUsingVirtualThreads());
+            }
+            popValidationExecutor.close();
+        }
+    }
+
+    // ===== helper methods ===== //
+
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
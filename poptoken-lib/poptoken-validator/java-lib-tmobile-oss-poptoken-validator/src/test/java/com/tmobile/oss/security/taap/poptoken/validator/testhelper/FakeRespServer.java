@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.testhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process fake of a Redis-compatible server, supporting the PING, EXISTS and SET (with the NX and PX options) commands.
+ */
+public class FakeRespServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final Map<String, Long> keyToExpiresAtMillisMap = new ConcurrentHashMap<>();
+    private final AtomicInteger commandCount = new AtomicInteger();
+    private volatile long responseDelayMillis;
+
+    public FakeRespServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executorService.execute(this::acceptConnections);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getCommandCount() {
+        return commandCount.get();
+    }
+
+    public boolean containsKey(String key) {
+        Long expiresAtMillis = keyToExpiresAtMillisMap.get(key);
+        return expiresAtMillis != null && expiresAtMillis > System.currentTimeMillis();
+    }
+
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executorService.shutdownNow();
+    }
+
+    // ===== helper methods ===== //
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executorService.execute(() -> handleConnection(socket));
+            } catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try (Socket closeableSocket = socket) {
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+            boolean batchStarted = false;
+            while (true) {
+                List<String> command = readCommand(inputStream);
+                if (!batchStarted && responseDelayMillis > 0) {
+                    Thread.sleep(responseDelayMillis);
+                }
+                batchStarted = true;
+                commandCount.incrementAndGet();
+                outputStream.write(executeCommand(command).getBytes(StandardCharsets.UTF_8));
+                if (inputStream.available() == 0) {
+                    outputStream.flush();
+                    batchStarted = false;
+                }
+            }
+        } catch (IOException | InterruptedException ex) {
+            // the connection is closed
+        }
+    }
+
+    private String executeCommand(List<String> command) {
+        String name = command.get(0).toUpperCase();
+        if ("PING".equals(name)) {
+            return "+PONG\r\n";
+        }
+        if ("EXISTS".equals(name)) {
+            return containsKey(command.get(1)) ? ":1\r\n" : ":0\r\n";
+        }
+        if ("SET".equals(name)) {
+            String key = command.get(1);
+            boolean nx = false;
+            long expiresAtMillis = Long.MAX_VALUE;
+            for (int i = 3; i < command.size(); i++) {
+                String option = command.get(i).toUpperCase();
+                if ("NX".equals(option)) {
+                    nx = true;
+                } else if ("PX".equals(option)) {
+                    expiresAtMillis = System.currentTimeMillis() + Long.parseLong(command.get(++i));
+                }
+            }
+            synchronized (keyToExpiresAtMillisMap) {
+                if (nx && containsKey(key)) {
+                    return "$-1\r\n";
+                }
+                keyToExpiresAtMillisMap.put(key, expiresAtMillis);
+            }
+            return "+OK\r\n";
+        }
+        return "-ERR unknown command '" + name + "'\r\n";
+    }
+
+    private List<String> readCommand(InputStream inputStream) throws IOException {
+        String header = readLine(inputStream);
+        if (header.charAt(0) != '*') {
+            throw new IOException("Unexpected command: " + header);
+        }
+        int argumentCount = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(argumentCount);
+        for (int i = 0; i < argumentCount; i++) {
+            int length = Integer.parseInt(readLine(inputStream).substring(1));
+            byte[] bytes = new byte[length];
+            for (int offset = 0; offset < length;) {
+                int readCount = inputStream.read(bytes, offset, length - offset);
+                if (readCount < 0) {
+                    throw new EOFException();
+                }
+                offset += readCount;
+            }
+            readLine(inputStream);
+            command.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int ch;
+        while ((ch = inputStream.read()) != '\n') {
+            if (ch < 0) {
+                throw new EOFException();
+            }
+            if (ch != '\r') {
+                line.write(ch);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.testhelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Creates the minimal HttpServletRequest and HttpServletResponse implementations for testing the servlet filter without a servlet
+ * container.
+ */
+public class PopServletTestHelper {
+
+    public static HttpServletRequest createHttpServletRequest(String method, String requestUri, String queryString,
+            Map<String, String> headers, byte[] body) {
+
+        Map<String, String> caseInsensitiveHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitiveHeaders.putAll(headers);
+        AtomicInteger inputStreamCount = new AtomicInteger();
+
+        return (HttpServletRequest) Proxy.newProxyInstance(PopServletTestHelper.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, invokedMethod, args) -> {
+                    switch (invokedMethod.getName()) {
+                    case "getMethod":
+                        return method;
+                    case "getRequestURI":
+                        return requestUri;
+                    case "getQueryString":
+                        return queryString;
+                    case "getHeader":
+                        return caseInsensitiveHeaders.get(args[0]);
+                    case "getContentType":
+                        return caseInsensitiveHeaders.get("Content-Type");
+                    case "getParameterMap":
+                        return parseQueryString(queryString);
+                    case "getContentLengthLong":
+                        String contentLength = caseInsensitiveHeaders.get("Content-Length");
+                        return contentLength != null ? Long.parseLong(contentLength) : -1L;
+                    case "getInputStream":
+                        if (inputStreamCount.incrementAndGet() > 1) {
+                            throw new IllegalStateException("The request body has already been read");
+                        }
+                        return createServletInputStream(body);
+                    case "isAsyncStarted":
+                        return false;
+                    case "toString":
+                        return method + " " + requestUri;
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    public static HttpServletResponse createHttpServletResponse(AtomicInteger status) {
+        return (HttpServletResponse) Proxy.newProxyInstance(PopServletTestHelper.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, invokedMethod, args) -> {
+                    if ("sendError".equals(invokedMethod.getName()) || "setStatus".equals(invokedMethod.getName())) {
+                        status.set((Integer) args[0]);
+                    }
+                    return null;
+                });
+    }
+
+    // ===== static helper methods ===== //
+
+    private static Map<String, String[]> parseQueryString(String queryString) throws UnsupportedEncodingException {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        if (queryString == null) {
+            return parameters;
+        }
+        for (String pair : queryString.split("&")) {
+            String[] nameAndValue = pair.split("=", 2);
+            String name = URLDecoder.decode(nameAndValue[0], "UTF-8");
+            String value = nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], "UTF-8") : "";
+            String[] values = parameters.getOrDefault(name, new String[0]);
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = value;
+            parameters.put(name, values);
+        }
+        return parameters;
+    }
+
+    private static ServletInputStream createServletInputStream(byte[] body) {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+
+            @Override
+            public int read() {
+                return inputStream.read();
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                return inputStream.read(bytes, offset, length);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return inputStream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -20,8 +20,19 @@ import java.io.IOException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -31,24 +42,52 @@ import java.util.UUID;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.NotImplementedException;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureGenerationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.tmobile.oss.security.taap.poptoken.validator.PopSigningAlgorithm;
 
 public class PopTokenValidatorTestHelper {
 
     public static String createPopToken(LinkedHashMap<String, String> ehtsKeyValueMap, Date tokenIssuedAtDate,
             int tokenValidForSeconds, RSAPrivateKey rsaPrivateKey) {
+        return createPopToken(ehtsKeyValueMap, tokenIssuedAtDate, tokenValidForSeconds, rsaPrivateKey, null);
+    }
+
+    public static String createPopToken(LinkedHashMap<String, String> ehtsKeyValueMap, Date tokenIssuedAtDate,
+            int tokenValidForSeconds, RSAPrivateKey rsaPrivateKey, String kid) {
+
+        return JWT.create() //
+                .withClaim("ehts", buildEhtsString(ehtsKeyValueMap)) //
+                .withClaim("edts", calculateEdtsSha256Base64Hash(ehtsKeyValueMap)) //
+                .withClaim("jti", UUID.randomUUID().toString()) //
+                .withClaim("v", "1") //
+                .withIssuedAt(tokenIssuedAtDate) //
+                .withExpiresAt(new Date(tokenIssuedAtDate.getTime() + (tokenValidForSeconds * 1000))) //
+                .sign(buildRsa256Algorithm(rsaPrivateKey, kid)); //
+    }
+
+    public static String createPopToken(LinkedHashMap<String, String> ehtsKeyValueMap, Date tokenIssuedAtDate,
+            int tokenValidForSeconds, PopSigningAlgorithm signingAlgorithm, PrivateKey privateKey) {
+        return createPopToken(ehtsKeyValueMap, tokenIssuedAtDate, tokenValidForSeconds, signingAlgorithm, privateKey, null);
+    }
+
+    public static String createPopToken(LinkedHashMap<String, String> ehtsKeyValueMap, Date tokenIssuedAtDate,
+            int tokenValidForSeconds, PopSigningAlgorithm signingAlgorithm, PrivateKey privateKey, String kid) {
 
         return JWT.create() //
+                .withKeyId(kid) //
                 .withClaim("ehts", buildEhtsString(ehtsKeyValueMap)) //
                 .withClaim("edts", calculateEdtsSha256Base64Hash(ehtsKeyValueMap)) //
                 .withClaim("jti", UUID.randomUUID().toString()) //
                 .withClaim("v", "1") //
                 .withIssuedAt(tokenIssuedAtDate) //
                 .withExpiresAt(new Date(tokenIssuedAtDate.getTime() + (tokenValidForSeconds * 1000))) //
-                .sign(buildRsa256Algorithm(rsaPrivateKey, null)); //
+                .sign(buildAlgorithm(privateKey, signingAlgorithm)); //
     }
 
     public static KeyPair createRsaKeyPair() throws NoSuchAlgorithmException {
@@ -61,6 +100,23 @@ public class PopTokenValidatorTestHelper {
         return (RSAPublicKey) createRsaKeyPair().getPublic();
     }
 
+    public static KeyPair createEcKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    public static KeyPair createEd25519KeyPair() throws Exception {
+        return KeyPairGenerator.getInstance("Ed25519", registerBouncyCastleProvider()).generateKeyPair();
+    }
+
+    public static Provider registerBouncyCastleProvider() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        return Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+    }
+
     public static String generatePublicKeyPemString(byte[] keyFileBytes) throws IOException {
         return generateKeyPemString("PUBLIC KEY", keyFileBytes);
     }
@@ -85,6 +141,35 @@ public class PopTokenValidatorTestHelper {
         return privateKeyPemStringBuilder.toString();
     }
 
+    public static String createJwksString(LinkedHashMap<String, ? extends PublicKey> kidToPublicKeyMap) {
+        StringBuilder jwksStringBuilder = new StringBuilder();
+        jwksStringBuilder.append("{\"keys\":[");
+        for (Entry<String, ? extends PublicKey> kidToPublicKeyEntry : kidToPublicKeyMap.entrySet()) {
+            if (jwksStringBuilder.charAt(jwksStringBuilder.length() - 1) == '}') {
+                jwksStringBuilder.append(",");
+            }
+            PublicKey publicKey = kidToPublicKeyEntry.getValue();
+            if (publicKey instanceof ECPublicKey) {
+                ECPoint point = ((ECPublicKey) publicKey).getW();
+                jwksStringBuilder.append("{\"kty\":\"EC\",\"use\":\"sig\",\"alg\":\"ES256\",\"crv\":\"P-256\"");
+                jwksStringBuilder.append(",\"kid\":\"" + kidToPublicKeyEntry.getKey() + "\"");
+                jwksStringBuilder.append(",\"x\":\"" + Base64.encodeBase64URLSafeString(point.getAffineX().toByteArray()) + "\"");
+                jwksStringBuilder.append(",\"y\":\"" + Base64.encodeBase64URLSafeString(point.getAffineY().toByteArray()));
+            } else {
+                RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
+                jwksStringBuilder.append("{\"kty\":\"RSA\",\"use\":\"sig\",\"alg\":\"RS256\"");
+                jwksStringBuilder.append(",\"kid\":\"" + kidToPublicKeyEntry.getKey() + "\"");
+                String n = Base64.encodeBase64URLSafeString(rsaPublicKey.getModulus().toByteArray());
+                String e = Base64.encodeBase64URLSafeString(rsaPublicKey.getPublicExponent().toByteArray());
+                jwksStringBuilder.append(",\"n\":\"" + n + "\"");
+                jwksStringBuilder.append(",\"e\":\"" + e);
+            }
+            jwksStringBuilder.append("\"}");
+        }
+        jwksStringBuilder.append("]}");
+        return jwksStringBuilder.toString();
+    }
+
     public static String createRequestPayload(int size) {
         StringBuilder payloadBuilder = new StringBuilder();
         payloadBuilder.append("{");
@@ -146,4 +231,38 @@ public class PopTokenValidatorTestHelper {
         });
         return algorithm;
     }
+
+    private static Algorithm buildAlgorithm(PrivateKey privateKey, PopSigningAlgorithm signingAlgorithm) {
+        switch (signingAlgorithm) {
+        case RS256:
+            return buildRsa256Algorithm((RSAPrivateKey) privateKey, null);
+        case ES256:
+            return Algorithm.ECDSA256((ECPublicKey) null, (ECPrivateKey) privateKey);
+        default:
+            return new Algorithm(signingAlgorithm.name(), signingAlgorithm.getSignatureAlgorithm()) {
+                @Override
+                public void verify(DecodedJWT jwt) {
+                    throw new NotImplementedException("The method verify is not implemented");
+                }
+
+                @Override
+                public byte[] sign(byte[] contentBytes) {
+                    try {
+                        Signature signature;
+                        if (signingAlgorithm == PopSigningAlgorithm.PS256) {
+                            signature = Signature.getInstance("RSASSA-PSS");
+                            signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+                        } else {
+                            signature = Signature.getInstance("Ed25519", registerBouncyCastleProvider());
+                        }
+                        signature.initSign(privateKey);
+                        signature.update(contentBytes);
+                        return signature.sign();
+                    } catch (Exception ex) {
+                        throw new SignatureGenerationException(this, ex);
+                    }
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PopJtiReplayCacheTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopJtiReplayCacheTest.class);
+
+    private static final long START_TIME_MILLIS = 1_600_000_000_000L;
+
+    @Test
+    public void markUsed__sameJtiMarkedTwice__returnsFalseAndCountsRejection() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(100, 4, currentTimeMillis::get);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(130);
+
+        // perform an action
+        boolean usedBeforeMarking = popJtiReplayCache.isUsed(jti, expiresAtMillis);
+        boolean firstMarkResult = popJtiReplayCache.markUsed(jti, expiresAtMillis);
+        boolean usedAfterMarking = popJtiReplayCache.isUsed(jti, expiresAtMillis);
+        boolean secondMarkResult = popJtiReplayCache.markUsed(jti, expiresAtMillis);
+
+        // validate the results
+        assertFalse(usedBeforeMarking);
+        assertTrue(firstMarkResult);
+        assertTrue(usedAfterMarking);
+        assertFalse(secondMarkResult);
+        assertEquals(1, popJtiReplayCache.size());
+        assertEquals(2, popJtiReplayCache.getRejectionCount());
+    }
+
+    @Test
+    public void isUsed__nonUuidAndUppercaseUuidJti__distinguishesJtiValues() throws Exception {
+
+        // setup the data
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(100);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+
+        // perform an action
+        popJtiReplayCache.markUsed(jti, expiresAtMillis);
+        popJtiReplayCache.markUsed("custom-jti-1", expiresAtMillis);
+
+        // validate the results
+        assertTrue(popJtiReplayCache.isUsed(jti, expiresAtMillis));
+        assertFalse(popJtiReplayCache.isUsed(jti.toUpperCase(), expiresAtMillis));
+        assertTrue(popJtiReplayCache.isUsed("custom-jti-1", expiresAtMillis));
+        assertFalse(popJtiReplayCache.isUsed("custom-jti-2", expiresAtMillis));
+        assertEquals(2, popJtiReplayCache.size());
+    }
+
+    @Test
+    public void size__jtiValuesHaveExpired__evictsExpiredJtiValues() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(1000, 4, currentTimeMillis::get);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(130);
+        for (int i = 0; i < 100; i++) {
+            popJtiReplayCache.markUsed(UUID.randomUUID().toString(), expiresAtMillis);
+        }
+        popJtiReplayCache.markUsed(jti, expiresAtMillis);
+
+        // perform an action
+        currentTimeMillis.set(expiresAtMillis + TimeUnit.SECONDS.toMillis(10));
+
+        // validate the results
+        assertEquals(0, popJtiReplayCache.size());
+        assertFalse(popJtiReplayCache.isUsed(jti, expiresAtMillis));
+        assertEquals(0, popJtiReplayCache.getEvictionCount());
+    }
+
+    @Test
+    public void isUsed__jtiExpiringAfterWheelHorizon__keepsJtiUntilItExpires() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(100, 1, currentTimeMillis::get);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.MINUTES.toMillis(30);
+        popJtiReplayCache.markUsed(jti, expiresAtMillis);
+
+        // perform an action
+        currentTimeMillis.set(expiresAtMillis - TimeUnit.MINUTES.toMillis(10));
+        boolean usedWhileInOverflow = popJtiReplayCache.isUsed(jti, expiresAtMillis);
+        currentTimeMillis.set(expiresAtMillis - TimeUnit.MINUTES.toMillis(1));
+        boolean usedWhileInWheel = popJtiReplayCache.isUsed(jti, expiresAtMillis);
+        currentTimeMillis.set(expiresAtMillis + TimeUnit.SECONDS.toMillis(10));
+        boolean usedAfterExpiry = popJtiReplayCache.isUsed(jti, expiresAtMillis);
+
+        // validate the results
+        assertTrue(usedWhileInOverflow);
+        assertTrue(usedWhileInWheel);
+        assertFalse(usedAfterExpiry);
+        assertEquals(0, popJtiReplayCache.size());
+    }
+
+    @Test
+    public void markUsed__cacheIsFull__evictsJtiValuesExpiringFirst() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(3, 1, currentTimeMillis::get);
+        long earlyExpiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(30);
+        long lateExpiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(130);
+        popJtiReplayCache.markUsed("jti-1", earlyExpiresAtMillis);
+        popJtiReplayCache.markUsed("jti-2", earlyExpiresAtMillis);
+        popJtiReplayCache.markUsed("jti-3", lateExpiresAtMillis);
+
+        // perform an action
+        popJtiReplayCache.markUsed("jti-4", lateExpiresAtMillis);
+
+        // validate the results
+        assertEquals(2, popJtiReplayCache.size());
+        assertEquals(2, popJtiReplayCache.getEvictionCount());
+        assertFalse(popJtiReplayCache.isUsed("jti-1", earlyExpiresAtMillis));
+        assertTrue(popJtiReplayCache.isUsed("jti-3", lateExpiresAtMillis));
+        assertTrue(popJtiReplayCache.isUsed("jti-4", lateExpiresAtMillis));
+    }
+
+    @Test
+    public void markUsed__manyJtiValues__keepsAllJtiValues() throws Exception {
+
+        // setup the data
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(100000);
+        long expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(130);
+        String[] jtiValues = new String[50000];
+        for (int i = 0; i < jtiValues.length; i++) {
+            jtiValues[i] = UUID.randomUUID().toString();
+        }
+
+        // perform an action
+        for (String jti : jtiValues) {
+            assertTrue(popJtiReplayCache.markUsed(jti, expiresAtMillis));
+        }
+
+        // validate the results
+        assertEquals(jtiValues.length, popJtiReplayCache.size());
+        for (String jti : jtiValues) {
+            assertTrue(popJtiReplayCache.isUsed(jti, expiresAtMillis));
+        }
+        assertEquals(0, popJtiReplayCache.getEvictionCount());
+    }
+
+    @Test
+    public void isUsed__nullJti__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopJtiReplayCache popJtiReplayCache = new PopJtiReplayCache(100);
+
+        try {
+            // perform an action
+            popJtiReplayCache.isUsed(null, System.currentTimeMillis());
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+            assertEquals("The jti should not be null or empty", ex.getMessage());
+        }
+    }
+}
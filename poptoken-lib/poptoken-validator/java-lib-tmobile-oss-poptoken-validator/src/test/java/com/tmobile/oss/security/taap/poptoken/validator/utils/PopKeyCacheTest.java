@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.Security;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tmobile.oss.security.taap.poptoken.validator.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
+import com.tmobile.oss.security.taap.poptoken.validator.testhelper.PopTokenValidatorTestHelper;
+
+public class PopKeyCacheTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopKeyCacheTest.class);
+
+    private static final String X509_PUBLIC_KEY_PEM_STRING = "-----BEGIN PUBLIC KEY-----" + //
+            "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAvcN6NPvcBXSDa0WxmFQj" + //
+            "LJZQaYBcw60vBIn7KOmK++qTz6GPtci1AOzv67uxlG5urWFSSCiaNqGu8jN0HheF" + //
+            "PPmz35HLgqj+UuNxXKXy82RBCOrPrhOODoP6YD4Bj065NXUPEl0KHEBDrgEulhfl" + //
+            "MxhuxiaXcJb0dlDTO5Lp2e8KwgCmLu8iJuHzoOLomz/FjF0tx0qdjbNAqw7uRqyd" + //
+            "2Hz/e1RIhddiy45H0oElcFemPLfWlgSxKNFsZK0yEws/gtwhcjztXfEPbVmq0Les" + //
+            "wZ8A+tAEPVk+vFHqHfxy9XHhkF4RN4f7+/6qU/Ou+ObVPDEAgJPDa+clDTqrjKGo" + //
+            "fwIDAQAB" + //
+            "-----END PUBLIC KEY-----"; //
+
+    private static final String PKCS_1_PUBLIC_KEY_PEM_STRING = "-----BEGIN RSA PUBLIC KEY-----" + //
+            "MIIBCgKCAQEAvcN6NPvcBXSDa0WxmFQj" + //
+            "LJZQaYBcw60vBIn7KOmK++qTz6GPtci1AOzv67uxlG5urWFSSCiaNqGu8jN0HheF" + //
+            "PPmz35HLgqj+UuNxXKXy82RBCOrPrhOODoP6YD4Bj065NXUPEl0KHEBDrgEulhfl" + //
+            "MxhuxiaXcJb0dlDTO5Lp2e8KwgCmLu8iJuHzoOLomz/FjF0tx0qdjbNAqw7uRqyd" + //
+            "2Hz/e1RIhddiy45H0oElcFemPLfWlgSxKNFsZK0yEws/gtwhcjztXfEPbVmq0Les" + //
+            "wZ8A+tAEPVk+vFHqHfxy9XHhkF4RN4f7+/6qU/Ou+ObVPDEAgJPDa+clDTqrjKGo" + //
+            "fwIDAQAB" + //
+            "-----END RSA PUBLIC KEY-----"; //
+
+    @Test
+    public void get__samePemStringRequestedTwice__parsesOnlyOnce() throws Exception {
+
+        // setup the data
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 1, TimeUnit.HOURS);
+
+        // perform an action
+        RSAPublicKey firstRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+        RSAPublicKey secondRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+
+        // validate the results
+        assertSame(firstRsaPublicKey, secondRsaPublicKey);
+        assertEquals(1, popKeyCache.getMissCount());
+        assertEquals(1, popKeyCache.getHitCount());
+        assertEquals(1, popKeyCache.size());
+    }
+
+    @Test
+    public void get__samePemStringWithOtherKeyFactoryProvider__parsesPemStringUsingEachProvider() throws Exception {
+
+        // setup the data
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 1, TimeUnit.HOURS);
+        PopCryptoConfig sunCryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunRsaSign"));
+        PopCryptoConfig bcCryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(new BouncyCastleProvider());
+
+        // perform an action
+        RSAPublicKey sunRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING, sunCryptoConfig,
+                keyPemString -> PopTokenValidatorUtils.keyPemStringToRsaPublicKey(keyPemString, sunCryptoConfig));
+        RSAPublicKey bcRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING, bcCryptoConfig,
+                keyPemString -> PopTokenValidatorUtils.keyPemStringToRsaPublicKey(keyPemString, bcCryptoConfig));
+        RSAPublicKey cachedBcRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING, bcCryptoConfig,
+                keyPemString -> PopTokenValidatorUtils.keyPemStringToRsaPublicKey(keyPemString, bcCryptoConfig));
+
+        // validate the results
+        assertTrue(sunRsaPublicKey.getClass().getName(), sunRsaPublicKey.getClass().getName().startsWith("sun.security."));
+        assertTrue(bcRsaPublicKey.getClass().getName(), bcRsaPublicKey.getClass().getName().startsWith("org.bouncycastle."));
+        assertSame(bcRsaPublicKey, cachedBcRsaPublicKey);
+        assertEquals(2, popKeyCache.getMissCount());
+        assertEquals(2, popKeyCache.size());
+    }
+
+    @Test
+    public void get__pkcs1AndX509PemStringsOfSameKey__cachesBothPemStrings() throws Exception {
+
+        // setup the data
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 1, TimeUnit.HOURS);
+
+        // perform an action
+        RSAPublicKey x509RsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+        RSAPublicKey pkcs1RsaPublicKey = popKeyCache.get(PKCS_1_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+        RSAPublicKey cachedPkcs1RsaPublicKey = popKeyCache.get(PKCS_1_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+
+        // validate the results
+        assertEquals(x509RsaPublicKey, pkcs1RsaPublicKey);
+        assertSame(pkcs1RsaPublicKey, cachedPkcs1RsaPublicKey);
+        assertEquals(2, popKeyCache.getMissCount());
+        assertEquals(1, popKeyCache.getHitCount());
+        assertEquals(2, popKeyCache.size());
+    }
+
+    @Test
+    public void get__cacheIsFull__evictsLeastRecentlyUsedKey() throws Exception {
+
+        // setup the data
+        AtomicLong nanoTime = new AtomicLong();
+        PopKeyCache<String> popKeyCache = new PopKeyCache<>(2, 1, TimeUnit.HOURS, nanoTime::get);
+        AtomicInteger parseCount = new AtomicInteger();
+        PopKeyCache.KeyParser<String> keyParser = keyText -> keyText + "-" + parseCount.incrementAndGet();
+
+        // perform an action
+        popKeyCache.get("key-1", keyParser);
+        nanoTime.addAndGet(1000);
+        popKeyCache.get("key-2", keyParser);
+        nanoTime.addAndGet(1000);
+        popKeyCache.get("key-1", keyParser); // key-2 becomes the least recently used key
+        nanoTime.addAndGet(1000);
+        popKeyCache.get("key-3", keyParser);
+
+        // validate the results
+        assertEquals(2, popKeyCache.size());
+        assertEquals(1, popKeyCache.getEvictionCount());
+        assertEquals("key-1-1", popKeyCache.get("key-1", keyParser));
+        assertEquals("key-3-3", popKeyCache.get("key-3", keyParser));
+        assertEquals("key-2-4", popKeyCache.get("key-2", keyParser));
+    }
+
+    @Test
+    public void get__cachedKeyHasExpired__parsesKeyAgain() throws Exception {
+
+        // setup the data
+        AtomicLong nanoTime = new AtomicLong();
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 5, TimeUnit.MINUTES, nanoTime::get);
+        RSAPublicKey firstRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+
+        // perform an action
+        nanoTime.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        RSAPublicKey secondRsaPublicKey = popKeyCache.get(X509_PUBLIC_KEY_PEM_STRING,
+                PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+
+        // validate the results
+        assertNotSame(firstRsaPublicKey, secondRsaPublicKey);
+        assertEquals(firstRsaPublicKey, secondRsaPublicKey);
+        assertEquals(2, popKeyCache.getMissCount());
+        assertEquals(0, popKeyCache.getHitCount());
+        assertEquals(1, popKeyCache.getEvictionCount());
+    }
+
+    @Test
+    public void get__invalidPemString__throwsPopPublicKeyParseExceptionAndDoesNotCache() throws Exception {
+
+        // setup the data
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 1, TimeUnit.HOURS);
+        String invalidPemString = PopTokenValidatorTestHelper.generateKeyPemString("CERTIFICATE", new byte[] { 1, 2, 3 });
+
+        try {
+            // perform an action
+            popKeyCache.get(invalidPemString, PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertEquals(0, popKeyCache.size());
+        }
+    }
+
+    @Test
+    public void get__nullKeyText__throwsIllegalArgumentException() throws Exception {
+
+        // setup the data
+        PopKeyCache<RSAPublicKey> popKeyCache = new PopKeyCache<>(10, 1, TimeUnit.HOURS);
+
+        try {
+            // perform an action
+            popKeyCache.get(null, PopTokenValidatorUtils::keyPemStringToRsaPublicKey);
+            fail("The IllegalArgumentException should have been thrown");
+        } catch (Exception ex) {
+            // validate the results
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(IllegalArgumentException.class, ex.getClass());
+            assertEquals("The keyText should not be null or empty", ex.getMessage());
+        }
+    }
+}
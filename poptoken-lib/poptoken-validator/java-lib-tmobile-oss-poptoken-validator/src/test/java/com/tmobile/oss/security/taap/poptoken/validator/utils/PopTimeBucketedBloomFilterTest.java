@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 T-Mobile US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tmobile.oss.security.taap.poptoken.validator.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class PopTimeBucketedBloomFilterTest {
+
+    private static final long START_TIME_MILLIS = 1_600_000_000_000L;
+
+    @Test
+    public void mightContain__manyJtiValues__hasNoFalseNegativesAndFewFalsePositives() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopTimeBucketedBloomFilter popTimeBucketedBloomFilter = new PopTimeBucketedBloomFilter(10000, 0.01, currentTimeMillis::get);
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(130);
+        String[] jtiValues = new String[10000];
+        for (int i = 0; i < jtiValues.length; i++) {
+            jtiValues[i] = UUID.randomUUID().toString();
+        }
+
+        // perform an action
+        for (String jti : jtiValues) {
+            assertTrue(popTimeBucketedBloomFilter.put(jti, expiresAtMillis));
+        }
+
+        // validate the results
+        for (String jti : jtiValues) {
+            assertTrue(popTimeBucketedBloomFilter.mightContain(jti, expiresAtMillis));
+        }
+        int falsePositiveCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (popTimeBucketedBloomFilter.mightContain(UUID.randomUUID().toString(), expiresAtMillis)) {
+                falsePositiveCount++;
+            }
+        }
+        assertTrue(falsePositiveCount < 300);
+    }
+
+    @Test
+    public void mightContain__bucketReusedForLaterTime__dropsExpiredJtiValues() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopTimeBucketedBloomFilter popTimeBucketedBloomFilter = new PopTimeBucketedBloomFilter(100, 0.01, currentTimeMillis::get);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.SECONDS.toMillis(30);
+        long laterExpiresAtMillis = expiresAtMillis + TimeUnit.SECONDS.toMillis(256);
+        popTimeBucketedBloomFilter.put(jti, expiresAtMillis);
+
+        // perform an action
+        currentTimeMillis.set(expiresAtMillis + TimeUnit.SECONDS.toMillis(20));
+        boolean containedAfterExpiry = popTimeBucketedBloomFilter.mightContain(jti, expiresAtMillis);
+        popTimeBucketedBloomFilter.put(UUID.randomUUID().toString(), laterExpiresAtMillis);
+        boolean containedAfterBucketReuse = popTimeBucketedBloomFilter.mightContain(jti, laterExpiresAtMillis);
+
+        // validate the results
+        assertFalse(containedAfterExpiry);
+        assertFalse(containedAfterBucketReuse);
+    }
+
+    @Test
+    public void put__jtiExpiringAfterHorizon__returnsFalse() throws Exception {
+
+        // setup the data
+        AtomicLong currentTimeMillis = new AtomicLong(START_TIME_MILLIS);
+        PopTimeBucketedBloomFilter popTimeBucketedBloomFilter = new PopTimeBucketedBloomFilter(100, 0.01, currentTimeMillis::get);
+        String jti = UUID.randomUUID().toString();
+        long expiresAtMillis = START_TIME_MILLIS + TimeUnit.MINUTES.toMillis(30);
+
+        // perform an action
+        boolean added = popTimeBucketedBloomFilter.put(jti, expiresAtMillis);
+
+        // validate the results
+        assertFalse(added);
+        assertFalse(popTimeBucketedBloomFilter.mightContain(jti, expiresAtMillis));
+    }
+}
@@ -16,19 +16,49 @@
 
 package com.tmobile.oss.security.taap.poptoken.validator.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.Security;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.commons.codec.binary.Base64;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tmobile.oss.security.taap.poptoken.validator.PopCryptoConfig;
+import com.tmobile.oss.security.taap.poptoken.validator.PopJwk;
+import com.tmobile.oss.security.taap.poptoken.validator.PopSigningAlgorithm;
+import com.tmobile.oss.security.taap.poptoken.validator.exception.PopPublicKeyParseException;
+import com.tmobile.oss.security.taap.poptoken.validator.testhelper.PopTokenValidatorTestHelper;
 import com.tmobile.oss.security.taap.poptoken.validator.utils.PopTokenValidatorUtils;
 
 public class PopTokenValidatorUtilsTest {
 
-    @SuppressWarnings("unused")
+    private static final String X509_PUBLIC_KEY_PEM_STRING = "-----BEGIN PUBLIC KEY-----" + //
+            "MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEAvcN6NPvcBXSDa0WxmFQj" + //
+            "LJZQaYBcw60vBIn7KOmK++qTz6GPtci1AOzv67uxlG5urWFSSCiaNqGu8jN0HheF" + //
+            "PPmz35HLgqj+UuNxXKXy82RBCOrPrhOODoP6YD4Bj065NXUPEl0KHEBDrgEulhfl" + //
+            "MxhuxiaXcJb0dlDTO5Lp2e8KwgCmLu8iJuHzoOLomz/FjF0tx0qdjbNAqw7uRqyd" + //
+            "2Hz/e1RIhddiy45H0oElcFemPLfWlgSxKNFsZK0yEws/gtwhcjztXfEPbVmq0Les" + //
+            "wZ8A+tAEPVk+vFHqHfxy9XHhkF4RN4f7+/6qU/Ou+ObVPDEAgJPDa+clDTqrjKGo" + //
+            "fwIDAQAB" + //
+            "-----END PUBLIC KEY-----"; //
+
     private static final Logger logger = LoggerFactory.getLogger(PopTokenValidatorUtilsTest.class);
 
     @Test
@@ -116,4 +146,275 @@ public class PopTokenValidatorUtilsTest {
         // validate the result
         assertNotNull("Public key should not be null", publicKey);
     }
+
+    @Test
+    public void keyPemStringToPublicKey__withEcX509KeyPemStringForEs256__successfullyGeneratesPublicKey() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenValidatorTestHelper.createEcKeyPair();
+        String publicKeyPemString = PopTokenValidatorTestHelper.generatePublicKeyPemString(ecKeyPair.getPublic().getEncoded());
+
+        // perform an action
+        PublicKey publicKey = PopTokenValidatorUtils.keyPemStringToPublicKey(publicKeyPemString, PopSigningAlgorithm.ES256);
+
+        // validate the result
+        assertEquals(ecKeyPair.getPublic(), publicKey);
+    }
+
+    @Test
+    public void keyPemStringToPublicKey__withKeyFactoryProviderOfCryptoConfig__generatesPublicKeyUsingProvider() throws Exception {
+
+        // setup the data
+        KeyPair ecKeyPair = PopTokenValidatorTestHelper.createEcKeyPair();
+        String publicKeyPemString = PopTokenValidatorTestHelper.generatePublicKeyPemString(ecKeyPair.getPublic().getEncoded());
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+
+        // perform an action
+        PublicKey publicKey = PopTokenValidatorUtils.keyPemStringToPublicKey(publicKeyPemString, PopSigningAlgorithm.ES256,
+                cryptoConfig);
+
+        // validate the result
+        assertEquals(ecKeyPair.getPublic(), publicKey);
+    }
+
+    @Test
+    public void keyPemStringToRsaPublicKey__keyFactoryProviderWithoutRsa__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        PopCryptoConfig cryptoConfig = PopCryptoConfig.DEFAULT.withKeyFactoryProvider(Security.getProvider("SunEC"));
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING, cryptoConfig);
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertEquals(NoSuchAlgorithmException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void keyPemStringToPublicKey__withRsaX509KeyPemStringForEs256__throwsPopPublicKeyParseException() throws Exception {
+        try {
+            // perform an action
+            PopTokenValidatorUtils.keyPemStringToPublicKey(X509_PUBLIC_KEY_PEM_STRING, PopSigningAlgorithm.ES256);
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().startsWith("Error occurred while converting publicKeyPemString to PublicKey"));
+        }
+    }
+
+    @Test
+    public void jwkStringToPublicKey__withEcJwkString__successfullyGeneratesEcPublicKey() throws Exception {
+
+        // setup the data
+        String jwkString = "{\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"f83OJ3D2xF1Bg8vub9tLe1gHMzV76e8Tus9uPHvRVEU\"," //
+                + "\"y\":\"x_FEzRu9m36HLN_tue659LNpXW6pCyStikYjKIWI5a0\"}"; //
+
+        // perform an action
+        PublicKey publicKey = PopTokenValidatorUtils.jwkStringToPublicKey(jwkString);
+
+        // validate the result
+        assertTrue(publicKey instanceof ECPublicKey);
+        assertTrue(PopSigningAlgorithm.ES256.isKeySupported(publicKey));
+        assertEquals("f83OJ3D2xF1Bg8vub9tLe1gHMzV76e8Tus9uPHvRVEU",
+                Base64.encodeBase64URLSafeString(((ECPublicKey) publicKey).getW().getAffineX().toByteArray()));
+    }
+
+    @Test
+    public void jwkStringToPublicKey__withEd25519OkpJwkString__successfullyGeneratesEd25519PublicKey() throws Exception {
+
+        // setup the data
+        PublicKey expectedPublicKey = PopTokenValidatorTestHelper.createEd25519KeyPair().getPublic();
+        byte[] encodedKeyBytes = expectedPublicKey.getEncoded();
+        String x = Base64
+                .encodeBase64URLSafeString(Arrays.copyOfRange(encodedKeyBytes, encodedKeyBytes.length - 32, encodedKeyBytes.length));
+        String jwkString = "{\"kty\":\"OKP\",\"crv\":\"Ed25519\",\"x\":\"" + x + "\"}";
+
+        // perform an action
+        PublicKey publicKey = PopTokenValidatorUtils.jwkStringToPublicKey(jwkString);
+
+        // validate the result
+        assertTrue(PopSigningAlgorithm.EdDSA.isKeySupported(publicKey));
+        assertTrue(Arrays.equals(encodedKeyBytes, publicKey.getEncoded()));
+    }
+
+    @Test
+    public void jwkStringToRsaPublicKey__withRsaJwkStringHavingAdditionalMembers__successfullyGeneratesPublicKey() throws Exception {
+
+        // setup the data
+        RSAPublicKey expectedRsaPublicKey = PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING);
+        String jwkString = "{\"kid\":\"key-1\",\"use\":\"sig\",\"key_ops\":[\"verify\"],\"x5c\":[\"MIIC\"]," //
+                + "\"ext\":{\"n\":\"ignored\"}," //
+                + "\"kty\":\"RSA\",\"n\":\"" + Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getModulus().toByteArray()) //
+                + "\",\"e\":\"" + Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getPublicExponent().toByteArray()) + "\"}"; //
+
+        // perform an action
+        RSAPublicKey rsaPublicKey = PopTokenValidatorUtils.jwkStringToRsaPublicKey(jwkString);
+
+        // validate the result
+        assertEquals(expectedRsaPublicKey, rsaPublicKey);
+    }
+
+    @Test
+    public void jwkStringToRsaPublicKey__withNonRsaJwkString__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        String jwkString = "{\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"f83OJ3D2xF1Bg8vub9tLe1gHMzV76e8Tus9uPHvRVEU\"," //
+                + "\"y\":\"x_FEzRu9m36HLN_tue659LNpXW6pCyStikYjKIWI5a0\"}"; //
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.jwkStringToRsaPublicKey(jwkString);
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().startsWith("Error occurred while converting jwkString to RSAPublicKey"));
+        }
+    }
+
+    @Test
+    public void jwkStringToRsaPublicKey__withJwkStringMissingModulus__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        String jwkString = "{\"kty\":\"RSA\",\"e\":\"AQAB\"}";
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.jwkStringToRsaPublicKey(jwkString);
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().startsWith("Error occurred while converting jwkString to RSAPublicKey"));
+        }
+    }
+
+    @Test
+    public void jwksToPublicKeys__withJwksHavingUnsupportedKeysAndKeysWithoutKid__returnsOnlySupportedKeysWithKid() throws Exception {
+
+        // setup the data
+        RSAPublicKey expectedRsaPublicKey = PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING);
+        String n = Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getModulus().toByteArray());
+        String e = Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getPublicExponent().toByteArray());
+        String ecJwkString = "{\"kty\":\"EC\",\"kid\":\"ec-key\",\"crv\":\"P-256\"," //
+                + "\"x\":\"f83OJ3D2xF1Bg8vub9tLe1gHMzV76e8Tus9uPHvRVEU\",\"y\":\"x_FEzRu9m36HLN_tue659LNpXW6pCyStikYjKIWI5a0\"}";
+        String jwksString = "{\"keys\":[" //
+                + ecJwkString + "," //
+                + "{\"kty\":\"EC\",\"kid\":\"p384-key\",\"crv\":\"P-384\",\"x\":\"AQAB\",\"y\":\"AQAB\"}," //
+                + "{\"kty\":\"oct\",\"kid\":\"hmac-key\",\"k\":\"AQAB\"}," //
+                + "{\"kty\":\"RSA\",\"n\":\"" + n + "\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"rsa-key\",\"x5c\":[\"MIIC\"],\"n\":\"" + n + "\",\"e\":\"" + e + "\"}" //
+                + "],\"cache\":{\"ttl\":300}}"; //
+
+        // perform an action
+        Map<String, PublicKey> publicKeys = PopTokenValidatorUtils
+                .jwksToPublicKeys(new ByteArrayInputStream(jwksString.getBytes(StandardCharsets.UTF_8)));
+
+        // validate the result
+        assertEquals(2, publicKeys.size());
+        assertEquals(PopTokenValidatorUtils.jwkStringToPublicKey(ecJwkString), publicKeys.get("ec-key"));
+        assertEquals(expectedRsaPublicKey, publicKeys.get("rsa-key"));
+    }
+
+    @Test
+    public void jwksToPopJwks__withJwksHavingEncryptionKeyAlgAndBadKey__returnsUsableSignatureKeys() throws Exception {
+
+        // setup the data
+        RSAPublicKey expectedRsaPublicKey = PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING);
+        String n = Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getModulus().toByteArray());
+        String e = Base64.encodeBase64URLSafeString(expectedRsaPublicKey.getPublicExponent().toByteArray());
+        String jwksString = "{\"keys\":[" //
+                + "{\"kty\":\"RSA\",\"kid\":\"enc-key\",\"use\":\"enc\",\"n\":\"" + n + "\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"ps256-key\",\"use\":\"sig\",\"alg\":\"PS256\"," //
+                + "\"n\":\"" + n + "\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"no-alg-key\",\"n\":\"" + n + "\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"missing-modulus-key\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"es256-rsa-key\",\"alg\":\"ES256\",\"n\":\"" + n + "\",\"e\":\"" + e + "\"}," //
+                + "{\"kty\":\"RSA\",\"kid\":\"rs512-key\",\"alg\":\"RS512\",\"n\":\"" + n + "\",\"e\":\"" + e + "\"}" //
+                + "]}"; //
+
+        // perform an action
+        Map<String, PopJwk> jwks = PopTokenValidatorUtils
+                .jwksToPopJwks(new ByteArrayInputStream(jwksString.getBytes(StandardCharsets.UTF_8)));
+
+        // validate the result
+        assertEquals(Arrays.asList("ps256-key", "no-alg-key"), new ArrayList<>(jwks.keySet()));
+        assertEquals(expectedRsaPublicKey, jwks.get("ps256-key").getPublicKey());
+        assertEquals(PopSigningAlgorithm.PS256, jwks.get("ps256-key").getSigningAlgorithm());
+        assertEquals(expectedRsaPublicKey, jwks.get("no-alg-key").getPublicKey());
+        assertNull(jwks.get("no-alg-key").getSigningAlgorithm());
+    }
+
+    @Test
+    public void jwksToPublicKeys__withJwksHavingDuplicateKid__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        LinkedHashMap<String, PublicKey> kidToPublicKeyMap = new LinkedHashMap<>();
+        kidToPublicKeyMap.put("key-1", PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING));
+        kidToPublicKeyMap.put("key-2", PopTokenValidatorTestHelper.createEcKeyPair().getPublic());
+        String jwksString = PopTokenValidatorTestHelper.createJwksString(kidToPublicKeyMap).replace("key-2", "key-1");
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.jwksToPublicKeys(new ByteArrayInputStream(jwksString.getBytes(StandardCharsets.UTF_8)));
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().contains("The JWK set contains multiple keys having the kid 'key-1'"));
+        }
+    }
+
+    @Test
+    public void jwksToPublicKeys__withKeysArrayHavingNonObjectElement__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        LinkedHashMap<String, PublicKey> kidToPublicKeyMap = new LinkedHashMap<>();
+        kidToPublicKeyMap.put("key-1", PopTokenValidatorUtils.keyPemStringToRsaPublicKey(X509_PUBLIC_KEY_PEM_STRING));
+        String jwksString = PopTokenValidatorTestHelper.createJwksString(kidToPublicKeyMap).replace("]}", ",\"key-2\"]}");
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.jwksToPublicKeys(new ByteArrayInputStream(jwksString.getBytes(StandardCharsets.UTF_8)));
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().contains("The keys of the JWK set should be JSON objects"));
+        }
+    }
+
+    @Test
+    public void jwksToPublicKeys__withJwksMissingKeysArray__throwsPopPublicKeyParseException() throws Exception {
+
+        // setup the data
+        String jwksString = "{\"keys\":{\"kty\":\"RSA\"}}";
+
+        try {
+            // perform an action
+            PopTokenValidatorUtils.jwksToPublicKeys(new ByteArrayInputStream(jwksString.getBytes(StandardCharsets.UTF_8)));
+            fail("The PopPublicKeyParseException should have been thrown");
+        } catch (Exception ex) {
+            // validate the result
+            logger.error("Error occurred while executing the test case, error: " + ex.toString(), ex);
+            assertEquals(PopPublicKeyParseException.class, ex.getClass());
+            assertTrue("The actual error message: " + ex.getMessage(),
+                    ex.getMessage().contains("The keys of the JWK set should be a JSON array"));
+        }
+    }
 }